@@ -15,8 +15,8 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.midi;
 
+import java.util.Arrays;
 import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.Vector;
 
 import javax.sound.midi.Instrument;
@@ -53,16 +53,57 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
 	/** The instrument to use for the playback sequence. */
 	protected Instrument instrument = null;
 
+	/** The tune converted last, <TT>null</TT> if none. */
+	private Tune m_tune = null;
+	/** The music of the tune converted last. */
+	private Music m_music = null;
+	/** The voices of the music converted last. */
+	private Voice[] m_voices = null;
+	/** The elements of each voice converted last, compared by identity. */
+	private Object[][] m_convertedElements = null;
+	/** Where the conversion resumes when elements are appended. */
+	private Conversion m_resume = null;
+	/** The sequence of the tune converted last. */
+	private Sequence m_sequence = null;
+
 	/**
-	 * Converts the given tune to a midi sequence.
+	 * Converts the given tune to a midi sequence. The sequence of the tune
+	 * converted last is kept: it is returned again if the tune has not changed
+	 * since, and updated if elements have only been appended to its voice, as
+	 * during a transcription. The elements already converted are then
+	 * converted again only from the first note whose tie end was not known.
+	 * The sequence returned must not be modified, the next conversion of the
+	 * same tune may update it : a sequencer playing it while notes are
+	 * appended must be given a copy.<br>
+	 * The tune must not be changed by another thread while it is converted.
+	 * Only the elements actually converted are kept, the elements appended
+	 * meanwhile are converted the next time.
 	 * 
 	 * @param tune
 	 *            The tune to be converted.
 	 * @return The midi sequence of the tune.
 	 */
-	public Sequence toMidiSequence(Tune tune) {
-		Sequence sequence = null;
+	public synchronized Sequence toMidiSequence(Tune tune) {
 		try {
+			Music staff = tune.getMusic();
+			Voice[] voices = (Voice[]) staff.getVoices().toArray(
+					new Voice[staff.getVoices().size()]);
+			if (tune == m_tune && staff == m_music
+					&& Arrays.equals(voices, m_voices)) {
+				if (isUnchanged(voices))
+					return m_sequence;
+				if (voices.length == 1
+						&& startsWith(voices[0], m_convertedElements[0])) {
+					m_resume.restoreTrack();
+					convert(m_resume, voices[0], staff);
+					keepConverted(voices, new Object[][] { elements(voices[0],
+							m_resume.index) }, m_resume);
+					return m_sequence;
+				}
+			}
+			m_tune = null;
+			m_sequence = null;
+			Sequence sequence = null;
 			//jAM: does not work on win7 !
 			/*if (instrument == null) {
 				Synthesizer synth = MidiSystem.getSynthesizer();
@@ -83,6 +124,8 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
 			// Resolution is expressed in ticks per beat.
 			// Last parameter "1" is the number of tracks.
 			sequence = new Sequence(Sequence.PPQ, SEQUENCE_RESOLUTION, 1);
+			// a sequence not fully converted is returned, not kept
+			m_sequence = sequence;
 			// Set the instrument on channel 0
 			ShortMessage sm = new ShortMessage();
 			
@@ -93,250 +136,340 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
 			Track track = sequence.createTrack();
 			track.add(new MidiEvent(sm, 0));
 			// long trackLengthInTicks = track.ticks();
-			int lastRepeatOpen = -1;
-			int repeatNumber = 1;
-			boolean inWrongEnding = false;
-			KeySignature tuneKey = null;
-			KeySignature currentKey = null;
-			Hashtable partsKey = new Hashtable();
-
-			long elapsedTime = 0;
-			Note[] graceNotes = null;
-			Music staff = tune.getMusic();
-			Iterator it = staff.getVoices().iterator();
-			while (it.hasNext()) {
-				Voice voice = (Voice) it.next();
-				int i = 0;// StaffItem iterator
-				while (i < voice.size()) {
-					if (!inWrongEnding) {
-						// ====================================================================
-						// TEMPO
-						if (voice.elementAt(i) instanceof abc.notation.Tempo) {
-							addTempoEventsFor(track, elapsedTime,
-									getMidiMessagesFor((Tempo) voice
-											.elementAt(i)));// ,
-															// trackLengthInTicks));
-						} else if (voice.elementAt(i) instanceof abc.notation.PartLabel) {
-							// Imagine... part A in Gmaj, B in Amin
-							// in tune you have K:G, P:A, ... P:B, K:Am
-							// if you have part order ABA, when you return to A
-							// you stay in Amin. This stores the tuneKey when a
-							// new part appear, and restitute it when part is
-							// played again
-							abc.notation.PartLabel pl = (abc.notation.PartLabel) voice
-									.elementAt(i);
-							if (partsKey.get(pl.getLabel() + "") == null) {
-								partsKey.put(pl.getLabel() + "", tuneKey);
-							} else {
-								tuneKey = (KeySignature) partsKey.get(pl
-										.getLabel() + "");
-							}
-						} else
-						// ====================================================================
-						// KEY SIGNATURE
-						if (voice.elementAt(i) instanceof abc.notation.KeySignature) {
-							tuneKey = (KeySignature) (voice.elementAt(i));
-							currentKey = new KeySignature(
-									tuneKey.getAccidentals());
-						} else
-						// ====================================================================
-						// NOTE
-						// Notes ending ties should be ignored. Already taken
-						// into
-						// account in getNoteLengthInTicks(Note)
-						if (voice.elementAt(i) instanceof abc.notation.Note
-								&& !((abc.notation.Note) voice.elementAt(i))
-										.isEndingTie()) {
-
-							Note note = (Note) voice.elementAt(i);
-							long noteDuration;
-							boolean fermata = false;
-							Vector decorationNotes = new Vector();
-							if (note.hasGeneralGracing()
-									|| note.hasDecorations()) {
-								Decoration[] d = note.getDecorations();
-								for (int j = 0; j < d.length; j++) {
-									switch (d[j].getType()) {
-									case Decoration.FERMATA:
-									case Decoration.FERMATA_INVERTED:
-										fermata = true;
-										break;
-									case Decoration.LOWERMORDENT:
-									case Decoration.UPPERMORDENT:
-									case Decoration.DOUBLE_LOWER_MORDANT:
-									case Decoration.DOUBLE_UPPER_MORDANT:
-									case Decoration.TRILL:
-									case Decoration.TURN: // GRUPETTO_UP
-									case Decoration.TURN_INVERTED: // GRUPETTO_DOWN
-									case Decoration.TURNX:
-									case Decoration.TURNX_INVERTED:
-										Note n = new Note(note.getHeight());
-										n.setAccidental(note
-												.getAccidental(currentKey));
-										Note o = new Interval(Interval.SECOND,
-												Interval.MAJOR, Interval.UPWARD)
-												.calculateSecondNote(n);
-										Note m = new Interval(Interval.SECOND,
-												Interval.MAJOR,
-												Interval.DOWNWARD)
-												.calculateSecondNote(n);
-										// TODO ornament templates: regular,
-										// musette, balkan...
-										// n.setStrictDuration(Note.SIXTEENTH);
-										// o.setDuration((short)(Note.EIGHTH+Note.SIXTEENTH));
-										o.setAccidental(Accidental.NONE);
-										m.setAccidental(Accidental.NONE);
-										n.setStrictDuration(Note.THIRTY_SECOND);
-										m.setStrictDuration(Note.THIRTY_SECOND);
-										o.setStrictDuration(Note.THIRTY_SECOND);
-										switch (d[j].getType()) {
-										case Decoration.DOUBLE_LOWER_MORDANT:
-											decorationNotes.add(n);
-											decorationNotes.add(m);
-										case Decoration.LOWERMORDENT:
-											decorationNotes.add(n);
-											decorationNotes.add(m);
-											break;
-										case Decoration.DOUBLE_UPPER_MORDANT:
-										case Decoration.TRILL:
-											decorationNotes.add(n);
-											decorationNotes.add(o);
-										case Decoration.UPPERMORDENT:
-											decorationNotes.add(n);
-											decorationNotes.add(o);
-											break;
-										case Decoration.TURNX_INVERTED:
-										case Decoration.TURN:
-											decorationNotes.add(o);
-											decorationNotes.add(n);
-											decorationNotes.add(m);
-											break;
-										case Decoration.TURNX:
-										case Decoration.TURN_INVERTED:
-											decorationNotes.add(m);
-											decorationNotes.add(n);
-											decorationNotes.add(o);
-										}
-										break;
-									}
-								}
-								// currently not used
-								// future use: playing rolls, slides, etc.
-							}
-							long graceNotesDuration = 0;
-							if (note.hasGracingNotes()
-									|| (decorationNotes.size() > 0)) {
-								graceNotes = note.getGracingNotes();
-								// gracing are eighth note for graphical
-								// rendition
-								// and because that's it in the parser
-								// adapt duration to note length
-								int divisor = 1;
-								if (note.getStrictDuration() >= Note.HALF)
-									divisor = 1; // grace is an eighth
-								else if (note.getStrictDuration() >= Note.QUARTER)
-									divisor = 2; // 16th
-								else if (note.getStrictDuration() >= Note.EIGHTH)
-									divisor = 4; // 32nd
-								else
-									divisor = 8; // 64th
-								if (note.hasGracingNotes()) {
-									for (int j = 0; j < graceNotes.length; j++) {
-										noteDuration = getNoteLengthInTicks(
-												graceNotes[j], staff) / divisor;
-										graceNotesDuration += noteDuration;
-										playNote(graceNotes[j], i, currentKey,
-												elapsedTime, noteDuration,
-												track);
-										elapsedTime += noteDuration;
-									}
-								}
-								for (int j = 0; j < decorationNotes.size(); j++) {
-									noteDuration = getNoteLengthInTicks(
-											(Note) decorationNotes.elementAt(j),
-											staff);
-									graceNotesDuration += noteDuration;
-									playNote(
-											(Note) decorationNotes.elementAt(j),
-											i, currentKey, elapsedTime,
-											noteDuration, track);
-									elapsedTime += noteDuration;
+			Conversion conversion = new Conversion(track);
+			Object[][] converted = new Object[voices.length][];
+			for (int v = 0; v < voices.length; v++) {
+				conversion.index = 0;// StaffItem iterator
+				convert(conversion, voices[v], staff);
+				converted[v] = elements(voices[v], conversion.index);
+			}
+			m_tune = tune;
+			m_music = staff;
+			keepConverted(voices, converted, conversion);
+		} catch (InvalidMidiDataException e) {
+			e.printStackTrace();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return m_sequence;
+	}
+
+	/**
+	 * Converts the elements of a voice, from the index of the conversion to
+	 * the end of the voice.
+	 */
+	private void convert(Conversion conversion, Voice voice, Music staff)
+			throws InvalidMidiDataException {
+		Track track = conversion.track;
+		int lastRepeatOpen = conversion.lastRepeatOpen;
+		int repeatNumber = conversion.repeatNumber;
+		boolean inWrongEnding = conversion.inWrongEnding;
+		KeySignature tuneKey = conversion.tuneKey;
+		KeySignature currentKey = conversion.currentKey;
+		Hashtable partsKey = conversion.partsKey;
+		long elapsedTime = conversion.elapsedTime;
+		Note[] graceNotes = null;
+		int i = conversion.index;
+		while (i < voice.size()) {
+			if (conversion.resume == null
+					&& isTiedToUnknown(voice.elementAt(i))) {
+				// the duration of the note changes once its tie end is
+				// appended, the next conversion resumes from here
+				conversion.set(i, elapsedTime, lastRepeatOpen, repeatNumber,
+						inWrongEnding, tuneKey, currentKey);
+				conversion.resume = conversion.copy();
+			}
+			if (!inWrongEnding) {
+				// ====================================================================
+				// TEMPO
+				if (voice.elementAt(i) instanceof abc.notation.Tempo) {
+					addTempoEventsFor(track, elapsedTime,
+							getMidiMessagesFor((Tempo) voice
+									.elementAt(i)));// ,
+													// trackLengthInTicks));
+				} else if (voice.elementAt(i) instanceof abc.notation.PartLabel) {
+					// Imagine... part A in Gmaj, B in Amin
+					// in tune you have K:G, P:A, ... P:B, K:Am
+					// if you have part order ABA, when you return to A
+					// you stay in Amin. This stores the tuneKey when a
+					// new part appear, and restitute it when part is
+					// played again
+					abc.notation.PartLabel pl = (abc.notation.PartLabel) voice
+							.elementAt(i);
+					if (partsKey.get(pl.getLabel() + "") == null) {
+						partsKey.put(pl.getLabel() + "", tuneKey);
+					} else {
+						tuneKey = (KeySignature) partsKey.get(pl
+								.getLabel() + "");
+					}
+				} else
+				// ====================================================================
+				// KEY SIGNATURE
+				if (voice.elementAt(i) instanceof abc.notation.KeySignature) {
+					tuneKey = (KeySignature) (voice.elementAt(i));
+					currentKey = new KeySignature(
+							tuneKey.getAccidentals());
+				} else
+				// ====================================================================
+				// NOTE
+				// Notes ending ties should be ignored. Already taken
+				// into
+				// account in getNoteLengthInTicks(Note)
+				if (voice.elementAt(i) instanceof abc.notation.Note
+						&& !((abc.notation.Note) voice.elementAt(i))
+								.isEndingTie()) {
+
+					Note note = (Note) voice.elementAt(i);
+					long noteDuration;
+					boolean fermata = false;
+					Vector decorationNotes = new Vector();
+					if (note.hasGeneralGracing()
+							|| note.hasDecorations()) {
+						Decoration[] d = note.getDecorations();
+						for (int j = 0; j < d.length; j++) {
+							switch (d[j].getType()) {
+							case Decoration.FERMATA:
+							case Decoration.FERMATA_INVERTED:
+								fermata = true;
+								break;
+							case Decoration.LOWERMORDENT:
+							case Decoration.UPPERMORDENT:
+							case Decoration.DOUBLE_LOWER_MORDANT:
+							case Decoration.DOUBLE_UPPER_MORDANT:
+							case Decoration.TRILL:
+							case Decoration.TURN: // GRUPETTO_UP
+							case Decoration.TURN_INVERTED: // GRUPETTO_DOWN
+							case Decoration.TURNX:
+							case Decoration.TURNX_INVERTED:
+								Note n = new Note(note.getHeight());
+								n.setAccidental(note
+										.getAccidental(currentKey));
+								Note o = new Interval(Interval.SECOND,
+										Interval.MAJOR, Interval.UPWARD)
+										.calculateSecondNote(n);
+								Note m = new Interval(Interval.SECOND,
+										Interval.MAJOR,
+										Interval.DOWNWARD)
+										.calculateSecondNote(n);
+								// TODO ornament templates: regular,
+								// musette, balkan...
+								// n.setStrictDuration(Note.SIXTEENTH);
+								// o.setDuration((short)(Note.EIGHTH+Note.SIXTEENTH));
+								o.setAccidental(Accidental.NONE);
+								m.setAccidental(Accidental.NONE);
+								n.setStrictDuration(Note.THIRTY_SECOND);
+								m.setStrictDuration(Note.THIRTY_SECOND);
+								o.setStrictDuration(Note.THIRTY_SECOND);
+								switch (d[j].getType()) {
+								case Decoration.DOUBLE_LOWER_MORDANT:
+									decorationNotes.add(n);
+									decorationNotes.add(m);
+								case Decoration.LOWERMORDENT:
+									decorationNotes.add(n);
+									decorationNotes.add(m);
+									break;
+								case Decoration.DOUBLE_UPPER_MORDANT:
+								case Decoration.TRILL:
+									decorationNotes.add(n);
+									decorationNotes.add(o);
+								case Decoration.UPPERMORDENT:
+									decorationNotes.add(n);
+									decorationNotes.add(o);
+									break;
+								case Decoration.TURNX_INVERTED:
+								case Decoration.TURN:
+									decorationNotes.add(o);
+									decorationNotes.add(n);
+									decorationNotes.add(m);
+									break;
+								case Decoration.TURNX:
+								case Decoration.TURN_INVERTED:
+									decorationNotes.add(m);
+									decorationNotes.add(n);
+									decorationNotes.add(o);
 								}
+								break;
 							}
-							// The note duration if the note isn't part of a
-							// tuplet.
-							noteDuration = getNoteLengthInTicks(note, staff)
-									- graceNotesDuration;
-							if (noteDuration <= 0) // in case of too much grace
-													// notes
-								noteDuration = getNoteLengthInTicks(note, staff);
-							if (fermata)
-								noteDuration *= 2;
-							playNote(note, i, currentKey, elapsedTime,
-									noteDuration, track);
-							elapsedTime += noteDuration;
-						} else
-						// ====================================================================
-						// MULTI NOTE
-						if ((voice.elementAt(i) instanceof abc.notation.MultiNote)) {
-							MultiNote multiNote = (MultiNote) voice
-									.elementAt(i);
-							playMultiNote(multiNote, i, currentKey,
-									elapsedTime, track, staff);
-							elapsedTime += getNoteLengthInTicks(multiNote,
-									staff);
 						}
-					} // endif (!inWrongEnding)
-						// ======================================================================
-						// REPEAT BAR LINE
-					if (voice.elementAt(i) instanceof abc.notation.RepeatBarLine) {
-						RepeatBarLine bar = (RepeatBarLine) voice.elementAt(i);
-						if (repeatNumber < bar.getRepeatNumbers()[0]
-								&& lastRepeatOpen != -1) {
-							repeatNumber++;
-							i = lastRepeatOpen;
-						} else if (repeatNumber > bar.getRepeatNumbers()[0])
-							inWrongEnding = true;
+						// currently not used
+						// future use: playing rolls, slides, etc.
+					}
+					long graceNotesDuration = 0;
+					if (note.hasGracingNotes()
+							|| (decorationNotes.size() > 0)) {
+						graceNotes = note.getGracingNotes();
+						// gracing are eighth note for graphical
+						// rendition
+						// and because that's it in the parser
+						// adapt duration to note length
+						int divisor = 1;
+						if (note.getStrictDuration() >= Note.HALF)
+							divisor = 1; // grace is an eighth
+						else if (note.getStrictDuration() >= Note.QUARTER)
+							divisor = 2; // 16th
+						else if (note.getStrictDuration() >= Note.EIGHTH)
+							divisor = 4; // 32nd
 						else
-							inWrongEnding = false;
-					} else
-					// ======================================================================
-					// BAR LINE OPEN / CLOSE
-					if (voice.elementAt(i) instanceof abc.notation.BarLine) {
-						// currentKey = new
-						// KeySignature(tuneKey.getAccidentals());
-						switch (((BarLine) (voice.elementAt(i))).getType()) {
-						case BarLine.SIMPLE:
-							break;
-						case BarLine.REPEAT_OPEN:
-							lastRepeatOpen = i;
-							repeatNumber = 1;
-							break;
-						case BarLine.REPEAT_CLOSE:
-							if (repeatNumber < 2 && lastRepeatOpen != -1) {
-								repeatNumber++;
-								i = lastRepeatOpen;
-							} else {
-								repeatNumber = 1;
-								lastRepeatOpen = -1;
+							divisor = 8; // 64th
+						if (note.hasGracingNotes()) {
+							for (int j = 0; j < graceNotes.length; j++) {
+								noteDuration = getNoteLengthInTicks(
+										graceNotes[j], staff) / divisor;
+								graceNotesDuration += noteDuration;
+								playNote(graceNotes[j], i, currentKey,
+										elapsedTime, noteDuration,
+										track);
+								elapsedTime += noteDuration;
 							}
-							break;
-						// TODO case BarLine.BEGIN_AND_END_REPEAT
+						}
+						for (int j = 0; j < decorationNotes.size(); j++) {
+							noteDuration = getNoteLengthInTicks(
+									(Note) decorationNotes.elementAt(j),
+									staff);
+							graceNotesDuration += noteDuration;
+							playNote(
+									(Note) decorationNotes.elementAt(j),
+									i, currentKey, elapsedTime,
+									noteDuration, track);
+							elapsedTime += noteDuration;
 						}
 					}
-					// Whatever kind of bar line it is
-					if (voice.elementAt(i) instanceof abc.notation.BarLine) {
-						currentKey = new KeySignature(tuneKey.getAccidentals());
+					// The note duration if the note isn't part of a
+					// tuplet.
+					noteDuration = getNoteLengthInTicks(note, staff)
+							- graceNotesDuration;
+					if (noteDuration <= 0) // in case of too much grace
+											// notes
+						noteDuration = getNoteLengthInTicks(note, staff);
+					if (fermata)
+						noteDuration *= 2;
+					playNote(note, i, currentKey, elapsedTime,
+							noteDuration, track);
+					elapsedTime += noteDuration;
+				} else
+				// ====================================================================
+				// MULTI NOTE
+				if ((voice.elementAt(i) instanceof abc.notation.MultiNote)) {
+					MultiNote multiNote = (MultiNote) voice
+							.elementAt(i);
+					playMultiNote(multiNote, i, currentKey,
+							elapsedTime, track, staff);
+					elapsedTime += getNoteLengthInTicks(multiNote,
+							staff);
+				}
+			} // endif (!inWrongEnding)
+				// ======================================================================
+				// REPEAT BAR LINE
+			if (voice.elementAt(i) instanceof abc.notation.RepeatBarLine) {
+				RepeatBarLine bar = (RepeatBarLine) voice.elementAt(i);
+				if (repeatNumber < bar.getRepeatNumbers()[0]
+						&& lastRepeatOpen != -1) {
+					repeatNumber++;
+					i = lastRepeatOpen;
+				} else if (repeatNumber > bar.getRepeatNumbers()[0])
+					inWrongEnding = true;
+				else
+					inWrongEnding = false;
+			} else
+			// ======================================================================
+			// BAR LINE OPEN / CLOSE
+			if (voice.elementAt(i) instanceof abc.notation.BarLine) {
+				// currentKey = new
+				// KeySignature(tuneKey.getAccidentals());
+				switch (((BarLine) (voice.elementAt(i))).getType()) {
+				case BarLine.SIMPLE:
+					break;
+				case BarLine.REPEAT_OPEN:
+					lastRepeatOpen = i;
+					repeatNumber = 1;
+					break;
+				case BarLine.REPEAT_CLOSE:
+					if (repeatNumber < 2 && lastRepeatOpen != -1) {
+						repeatNumber++;
+						i = lastRepeatOpen;
+					} else {
+						repeatNumber = 1;
+						lastRepeatOpen = -1;
 					}
-					i++;
-				}// end while each element in voice
-			}// end while each voice in music
-		} catch (InvalidMidiDataException e) {
-			e.printStackTrace();
-		} catch (Exception e) {
-			e.printStackTrace();
+					break;
+				// TODO case BarLine.BEGIN_AND_END_REPEAT
+				}
+			}
+			// Whatever kind of bar line it is
+			if (voice.elementAt(i) instanceof abc.notation.BarLine) {
+				currentKey = new KeySignature(tuneKey.getAccidentals());
+			}
+			i++;
+		}// end while each element in voice
+		conversion.set(i, elapsedTime, lastRepeatOpen, repeatNumber,
+				inWrongEnding, tuneKey, currentKey);
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the element is a note, or a chord with a note,
+	 * beginning a tie whose end is not known.
+	 */
+	private static boolean isTiedToUnknown(Object element) {
+		if (element instanceof MultiNote) {
+			Vector notes = ((MultiNote) element).getNotesAsVector();
+			for (int j = 0; j < notes.size(); j++)
+				if (isTiedToUnknown(notes.elementAt(j)))
+					return true;
+			return false;
 		}
-		return sequence;
+		return element instanceof Note && ((Note) element).isBeginningTie()
+				&& ((Note) element).getTieDefinition().getEnd() == null;
+	}
+
+	/**
+	 * Keeps the elements converted, and where the conversion resumes when
+	 * elements are appended.
+	 * 
+	 * @param converted
+	 *            The elements of each voice converted, up to the index where
+	 *            the conversion of the voice ended.
+	 */
+	private void keepConverted(Voice[] voices, Object[][] converted,
+			Conversion conversion) {
+		m_voices = voices;
+		m_convertedElements = converted;
+		if (conversion.resume != null)
+			m_resume = conversion.resume;
+		else {
+			m_resume = conversion;
+			m_resume.trackSize = conversion.track.size();
+		}
+		conversion.resume = null;
+	}
+
+	/** Returns the first elements of a voice. */
+	private static Object[] elements(Voice voice, int count) {
+		Object[] elements = new Object[count];
+		for (int j = 0; j < count; j++)
+			elements[j] = voice.elementAt(j);
+		return elements;
+	}
+
+	/** <TT>true</TT> if the voices have the elements converted last. */
+	private boolean isUnchanged(Voice[] voices) {
+		for (int v = 0; v < voices.length; v++)
+			if (voices[v].size() != m_convertedElements[v].length
+					|| !startsWith(voices[v], m_convertedElements[v]))
+				return false;
+		return true;
+	}
+
+	/**
+	 * <TT>true</TT> if the voice begins with the given elements, compared by
+	 * identity.
+	 */
+	private static boolean startsWith(Voice voice, Object[] elements) {
+		if (voice.size() < elements.length)
+			return false;
+		for (int j = 0; j < elements.length; j++)
+			if (voice.elementAt(j) != elements[j])
+				return false;
+		return true;
 	}
 
 	/**
@@ -538,4 +671,69 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
 														// 0 natural...
 		return midiNoteNumber;
 	}
+
+	/**
+	 * The state of a conversion between two elements of a voice, from which it
+	 * can resume.
+	 */
+	private static class Conversion {
+		private Track track = null;
+		/** The index of the next element to be converted. */
+		private int index = 0;
+		private long elapsedTime = 0;
+		private int lastRepeatOpen = -1;
+		private int repeatNumber = 1;
+		private boolean inWrongEnding = false;
+		private KeySignature tuneKey = null;
+		private KeySignature currentKey = null;
+		private Hashtable partsKey = new Hashtable();
+		/**
+		 * The number of events of the track when the elements before the
+		 * index were converted.
+		 */
+		private int trackSize = 0;
+		/**
+		 * A copy of this conversion before the first note whose duration
+		 * isn't known yet, <TT>null</TT> if none.
+		 */
+		private Conversion resume = null;
+
+		Conversion(Track track) {
+			this.track = track;
+		}
+
+		void set(int index, long elapsedTime, int lastRepeatOpen,
+				int repeatNumber, boolean inWrongEnding, KeySignature tuneKey,
+				KeySignature currentKey) {
+			this.index = index;
+			this.elapsedTime = elapsedTime;
+			this.lastRepeatOpen = lastRepeatOpen;
+			this.repeatNumber = repeatNumber;
+			this.inWrongEnding = inWrongEnding;
+			this.tuneKey = tuneKey;
+			this.currentKey = currentKey;
+		}
+
+		/** A copy of this conversion, that the conversion can't change. */
+		Conversion copy() {
+			Conversion copy = new Conversion(track);
+			copy.set(index, elapsedTime, lastRepeatOpen, repeatNumber,
+					inWrongEnding, tuneKey, currentKey == null ? null
+							: new KeySignature(currentKey.getAccidentals()));
+			copy.partsKey = (Hashtable) partsKey.clone();
+			copy.trackSize = track.size();
+			return copy;
+		}
+
+		/**
+		 * Removes the events added to the track after the elements before the
+		 * index were converted. They all come after the events of these
+		 * elements, none of which ends later than the elapsed time.
+		 */
+		void restoreTrack() {
+			// the end of track event stays last
+			while (track.size() > trackSize)
+				track.remove(track.get(track.size() - 2));
+		}
+	}
 }
@@ -21,12 +21,14 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.sound.midi.Instrument;
+import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MetaEventListener;
 import javax.sound.midi.MetaMessage;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
+import javax.sound.midi.Track;
 
 import de.hsa.jam.util.jAMUtils;
 
@@ -175,12 +177,11 @@ public class TunePlayer implements MetaEventListener {
 //					}
 //				}System.out.println();
 				
-				//jAM
+				//jAM: the notes played are found by their index in the voice,
+				// which doesn't change when notes are appended
 				Iterator it = m_tune.getMusic().getVoices().iterator();
-				if(it.hasNext()) {
+				if(it.hasNext())
 					voice = (Voice) it.next();
-					voice=(Voice)voice.clone();
-				}
 				//just print ALL notes:
 //				int i=0;
 //				String s=("All Notes: "); 
@@ -192,8 +193,10 @@ public class TunePlayer implements MetaEventListener {
 //				}System.out.println(s);
 				
 				
+				// converted once per tune, updated when notes are appended:
+				// the sequencer plays a copy the next conversion can't change
 				Sequence sequence = m_converter.toMidiSequence(m_tune);
-				seq.setSequence(sequence);
+				seq.setSequence(copy(sequence));
 				seq.setTempoInBPM(m_tempo);
 				seq.start();
 			} catch (Exception e) {
@@ -204,6 +207,24 @@ public class TunePlayer implements MetaEventListener {
 					"The player hasn't been started yet !");
 	}
 
+	/**
+	 * Returns a copy of the given sequence, whose tracks have the same events.
+	 */
+	private static Sequence copy(Sequence sequence)
+			throws InvalidMidiDataException {
+		Sequence copy = new Sequence(sequence.getDivisionType(), sequence
+				.getResolution());
+		Track[] tracks = sequence.getTracks();
+		for (int i = 0; i < tracks.length; i++) {
+			Track track = copy.createTrack();
+			// the end of track event of the new track takes the tick of the
+			// copied one
+			for (int j = 0; j < tracks[i].size(); j++)
+				track.add(tracks[i].get(j));
+		}
+		return copy;
+	}
+
 	/**
 	 * Returns <TT>true</TT> if this player is currently playing a tune.
 	 * 
@@ -244,33 +265,13 @@ public class TunePlayer implements MetaEventListener {
 			// NoteIndexMessage.getIndex
 			// notifyNotePlayedChanged((NoteAbstract)m_tune.getMusic().elementAt(NoteIndexMessage.getIndex(meta.getData())));
 			
-			Note note=null;
-			int i=0;
-			while(i<voice.size()) {
-				if (voice.elementAt(i) instanceof abc.notation.Note) {
-					//take first note, remove it and break
-	                   note = (Note) voice.elementAt(i);
-	                   voice.remove(i);
-//	                   System.out.print(i + ":" + note.getName() + ",");
-//	                   System.out.println(note.isBeginningTie());
-//	                   System.out.println(note.isEndingTie());
-	                   //buggy with lot of ties! TODO
-
-	                   if(note.isBeginningTie()) { //no meta message for a note with endingTie so remove it!
-//	                	   was ist an voice(i) ? erst wenn eine Note: loeschen !
-	                	   while( !(voice.elementAt(i) instanceof abc.notation.Note) )
-	                		   voice.remove(i);
-	                	   
-	                	   voice.remove(i);
-						}
-	                   
-	                   break; 
-				}
-				i++;
-			}//System.out.println();
-			
-			//jAM - fixed
-			notifyNotePlayedChanged(note);
+			// the index of the element in the voice, given by the converter
+			int index = NoteIndexMessage.getIndex(meta.getData());
+			if (voice != null && index < voice.size()
+					&& voice.elementAt(index) instanceof NoteAbstract) {
+				//jAM - fixed
+				notifyNotePlayedChanged((NoteAbstract) voice.elementAt(index));
+			}
 
 		} else if (MetaMessageWA.isNotationMarker(meta)) {
 			// System.out.println("NOTATION MARKER");
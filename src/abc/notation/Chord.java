@@ -284,4 +284,10 @@ public class Chord extends MusicPresentationElement implements Cloneable {
 			((Chord) o).m_note = (Note) m_note.clone();
 		return o;
 	}
+
+	void copyFields(StructuralCopy copy) {
+		super.copyFields(copy);
+		m_note = (Note) copy.element(m_note);
+		m_bass = (Note) copy.element(m_bass);
+	}
 }
\ No newline at end of file
@@ -530,4 +530,12 @@ public class Clef extends MusicElement implements Cloneable {
 		return o;
 	}
 
+	void copyFields(StructuralCopy copy) {
+		super.copyFields(copy);
+		// computed again when needed, as after a serialization
+		m_referenceNote = null;
+		m_middleNote = null;
+		m_lowNote = null;
+		m_highNote = null;
+	}
 }
@@ -209,4 +209,20 @@ public abstract class DecorableElement extends MusicElement implements
 		m_dynamic = dyn;
 	}
 
+	void copyFields(StructuralCopy copy) {
+		super.copyFields(copy);
+		if (m_annotations != null) {
+			m_annotations = (Vector) m_annotations.clone();
+			for (int i = 0; i < m_annotations.size(); i++)
+				m_annotations.setElementAt(copy.element((MusicElement) m_annotations
+						.elementAt(i)), i);
+		}
+		m_chord = (Chord) copy.element(m_chord);
+		if (m_decorations != null) {
+			m_decorations = (Decoration[]) m_decorations.clone();
+			for (int i = 0; i < m_decorations.length; i++)
+				m_decorations[i] = (Decoration) copy.element(m_decorations[i]);
+		}
+		m_dynamic = (Dynamic) copy.element(m_dynamic);
+	}
 }
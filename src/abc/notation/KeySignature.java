@@ -734,4 +734,10 @@ public class KeySignature extends MusicElement implements Cloneable {
 	 * public void display () { System.out.println (key + " " + m_keyAccidental
 	 * + " " + mode); }
 	 */
+
+	void copyFields(StructuralCopy copy) {
+		super.copyFields(copy);
+		accidentals = (Accidental[]) accidentals.clone();
+		m_clef = (Clef) copy.element(m_clef);
+	}
 }
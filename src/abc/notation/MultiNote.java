@@ -475,4 +475,14 @@ public class MultiNote extends NoteAbstract implements Cloneable {
 			((MultiNote) o).m_notes = (Vector) m_notes.clone();
 		return o;
 	}
+
+	void copyFields(StructuralCopy copy) {
+		super.copyFields(copy);
+		if (m_notes != null) {
+			m_notes = (Vector) m_notes.clone();
+			for (int i = 0; i < m_notes.size(); i++)
+				m_notes.setElementAt(copy.element((MusicElement) m_notes
+						.elementAt(i)), i);
+		}
+	}
 }
\ No newline at end of file
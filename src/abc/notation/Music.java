@@ -18,10 +18,9 @@ package abc.notation;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.TreeMap;
 
-import scanner.PositionableInCharStream;
-
 /**
  * A Music is a collection of {@link abc.notation.Voice}s containing
  * {@link MusicElement music elements} (notes, bars...), for a
@@ -42,6 +41,12 @@ public class Music implements Cloneable, Serializable {
 
 	private char m_partLabel = ' ';
 
+	/**
+	 * The elements of the voices by position and reference, built on the first
+	 * lookup and again after a voice has changed.
+	 */
+	private transient volatile MusicIndex m_index = null;
+
 	protected void setPartLabel(char c) {
 		m_partLabel = c;
 	}
@@ -189,23 +194,20 @@ public class Music implements Cloneable, Serializable {
 	 *         object
 	 */
 	public MusicElement getElementAtStreamPosition(int offset) {
-		Iterator it = m_voices.values().iterator();
-		while (it.hasNext()) {
-			Voice v = (Voice) it.next();
-			int size = v.size();
-			MusicElement current = null;
-			for (int i = 0; i < size; i++) {
-				current = (MusicElement) v.elementAt(i);
-				if (current instanceof PositionableInCharStream) {
-					PositionableInCharStream pos = (PositionableInCharStream) current;
-					if (pos.getPosition().getCharactersOffset() <= offset
-							&& (pos.getPosition().getCharactersOffset() + pos
-									.getLength()) >= offset)
-						return current;
-				}
-			}
+		return getIndex().getElementAtStreamPosition(offset);
+	}
+
+	/**
+	 * Returns the index of the elements, rebuilt if a voice has been added or
+	 * modified since it was built.
+	 */
+	private MusicIndex getIndex() {
+		MusicIndex index = m_index;
+		if (index == null || !index.isValidFor(m_voices.values())) {
+			index = new MusicIndex(m_voices.values());
+			m_index = index;
 		}
-		return null;
+		return index;
 	}
 
 	private boolean voiceExists(byte voiceNumber) {
@@ -219,14 +221,8 @@ public class Music implements Cloneable, Serializable {
 	 * @return
 	 */
 	public MusicElement getElementByReference(MusicElementReference ref) {
-		if (voiceExists(ref.getVoice())) {
-			Iterator it = getVoice(ref.getVoice()).iterator();
-			while (it.hasNext()) {
-				MusicElement element = (MusicElement) it.next();
-				if (element.getReference().equals(ref))
-					return element;
-			}
-		}
+		if (voiceExists(ref.getVoice()))
+			return getIndex().getElementByReference(ref);
 		return null;
 	}
 
@@ -370,4 +366,14 @@ public class Music implements Cloneable, Serializable {
 		return getVoice((byte) 1).indexOf(elmnt);
 	}
 
+	void copyFields(StructuralCopy copy) {
+		m_bars = copy.bars(m_bars);
+		// m_voices has already been cloned by clone()
+		for (Iterator it = m_voices.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			entry.setValue(copy.voice((Voice) entry.getValue()));
+		}
+		lastNote = (NoteAbstract) copy.element(lastNote);
+		m_index = null;
+	}
 }
@@ -38,4 +38,24 @@ public abstract class MusicElement implements Cloneable, Serializable {
 				.clone();
 		return o;
 	}
+
+	/**
+	 * Returns a copy of this element sharing all its fields with this one, see
+	 * {@link StructuralCopy}.
+	 */
+	MusicElement shallowCopy() {
+		try {
+			return (MusicElement) super.clone();
+		} catch (CloneNotSupportedException never) {
+			throw new InternalError(never.toString());
+		}
+	}
+
+	/**
+	 * Replaces the mutable fields of this shallow copy by their copies.
+	 * Subclasses with mutable fields override it and call it first.
+	 */
+	void copyFields(StructuralCopy copy) {
+		_reference = copy.reference(_reference);
+	}
 }
@@ -0,0 +1,235 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import scanner.CharStreamPosition;
+import scanner.PositionableInCharStream;
+
+/**
+ * An index of the elements of the voices of a {@link Music}, by position in
+ * the char stream and by reference. It is built from the voices as they are
+ * when it is created : {@link #isValidFor(Collection)} tells if they have
+ * changed since.<br>
+ * Both lookups return the element the linear scan of the voices would have
+ * returned : the first one in the order of the voices, then of their elements.
+ *
+ * @see Music#getElementAtStreamPosition(int)
+ * @see Music#getElementByReference(MusicElementReference)
+ */
+final class MusicIndex {
+
+	/** The indexed voices, in the order of the music. */
+	private Voice[] m_voices = null;
+	/** The modification count of each voice when it was indexed. */
+	private int[] m_modCounts = null;
+
+	/**
+	 * The length in the char stream beyond which an element is kept apart
+	 * from the others, so that a lookup only goes back over the elements
+	 * starting at most this length before the offset.
+	 */
+	private static final int LONG_SPAN = 64;
+
+	/** The start offset of the positioned elements, sorted. */
+	private int[] m_starts = null;
+	/** The end offset (start + length) of each element of {@link #m_starts}. */
+	private int[] m_ends = null;
+	/** The rank of each element in the order of the voices. */
+	private int[] m_ranks = null;
+	/** The elements, in the order of {@link #m_starts}. */
+	private MusicElement[] m_elements = null;
+	/** The greatest length of the elements of {@link #m_starts}. */
+	private int m_maxLength = 0;
+	/**
+	 * The start offset of the elements longer than {@link #LONG_SPAN}, which
+	 * are not in {@link #m_starts}. Their end offsets, ranks and elements are
+	 * in the arrays below.
+	 */
+	private int[] m_longStarts = null;
+	private int[] m_longEnds = null;
+	private int[] m_longRanks = null;
+	private MusicElement[] m_longElements = null;
+
+	/** <TT>Long</TT> key of a reference => first element with this reference. */
+	private HashMap m_references = null;
+
+	/**
+	 * Indexes the elements of the given voices.
+	 *
+	 * @param voices
+	 *            The voices of a music, in their order.
+	 */
+	MusicIndex(Collection voices) {
+		m_voices = (Voice[]) voices.toArray(new Voice[voices.size()]);
+		m_modCounts = new int[m_voices.length];
+		// counts read first : a change while indexing invalidates the index
+		for (int i = 0; i < m_voices.length; i++)
+			m_modCounts[i] = m_voices[i].getModificationCount();
+
+		int count = 0;
+		for (int i = 0; i < m_voices.length; i++)
+			count += m_voices[i].size();
+		// start offset in the high bits, rank in the low bits : sorting the
+		// keys sorts the elements by start, then by order in the voices
+		long[] keys = new long[count];
+		int[] ends = new int[count];
+		MusicElement[] elements = new MusicElement[count];
+		m_references = new HashMap(count * 2);
+		int positioned = 0;
+		int rank = 0;
+		for (int i = 0; i < m_voices.length; i++) {
+			Voice voice = m_voices[i];
+			Object[] voiceElements = voice.toArray();
+			for (int j = 0; j < voiceElements.length; j++, rank++) {
+				MusicElement element = (MusicElement) voiceElements[j];
+				MusicElementReference ref = element.getReference();
+				// an element added to several voices has the reference of
+				// the last one, it can't be found from the others
+				if (ref != null && ref.getVoice() == voice.getVoiceNumber()) {
+					Long key = new Long(key(ref));
+					if (!m_references.containsKey(key))
+						m_references.put(key, element);
+				}
+				if (element instanceof PositionableInCharStream) {
+					PositionableInCharStream pos = (PositionableInCharStream) element;
+					CharStreamPosition position = pos.getPosition();
+					if (position != null) {
+						int start = position.getCharactersOffset();
+						keys[positioned] = ((long) start << 32) | rank;
+						ends[rank] = start + pos.getLength();
+						elements[rank] = element;
+						positioned++;
+					}
+				}
+			}
+		}
+		Arrays.sort(keys, 0, positioned);
+		int longCount = 0;
+		for (int i = 0; i < positioned; i++)
+			if (ends[(int) keys[i]] - (int) (keys[i] >> 32) > LONG_SPAN)
+				longCount++;
+		m_starts = new int[positioned - longCount];
+		m_ends = new int[positioned - longCount];
+		m_ranks = new int[positioned - longCount];
+		m_elements = new MusicElement[positioned - longCount];
+		m_longStarts = new int[longCount];
+		m_longEnds = new int[longCount];
+		m_longRanks = new int[longCount];
+		m_longElements = new MusicElement[longCount];
+		for (int i = 0, n = 0, l = 0; i < positioned; i++) {
+			int r = (int) keys[i];
+			int start = (int) (keys[i] >> 32);
+			if (ends[r] - start > LONG_SPAN) {
+				m_longStarts[l] = start;
+				m_longEnds[l] = ends[r];
+				m_longRanks[l] = r;
+				m_longElements[l] = elements[r];
+				l++;
+			} else {
+				m_starts[n] = start;
+				m_ends[n] = ends[r];
+				m_ranks[n] = r;
+				m_elements[n] = elements[r];
+				m_maxLength = Math.max(m_maxLength, ends[r] - start);
+				n++;
+			}
+		}
+	}
+
+	/**
+	 * Returns <TT>true</TT> if this index describes the given voices : the same
+	 * voices, in the same order, not modified since they were indexed.
+	 *
+	 * @param voices
+	 *            The voices of a music, in their order.
+	 */
+	boolean isValidFor(Collection voices) {
+		if (voices.size() != m_voices.length)
+			return false;
+		int i = 0;
+		for (Iterator it = voices.iterator(); it.hasNext(); i++) {
+			Voice voice = (Voice) it.next();
+			if (voice != m_voices[i]
+					|| voice.getModificationCount() != m_modCounts[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the first element, in the order of the voices, whose position
+	 * includes the given offset (<TT>start &lt;= offset &lt;= start + length</TT>).
+	 *
+	 * @param offset
+	 *            An offset in a char stream.
+	 * @return The element at this offset, <TT>null</TT> if none.
+	 */
+	MusicElement getElementAtStreamPosition(int offset) {
+		// last element starting at or before the offset
+		int low = 0;
+		int high = m_starts.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (m_starts[middle] <= offset)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		// going back while an element may still end after the offset : the
+		// elements starting earlier are shorter than the distance
+		MusicElement found = null;
+		int foundRank = -1;
+		for (int i = high; i >= 0 && m_starts[i] >= offset - m_maxLength; i--) {
+			if (m_ends[i] >= offset
+					&& (found == null || m_ranks[i] < foundRank)) {
+				found = m_elements[i];
+				foundRank = m_ranks[i];
+			}
+		}
+		// the few long elements are all looked at
+		for (int i = 0; i < m_longStarts.length && m_longStarts[i] <= offset; i++) {
+			if (m_longEnds[i] >= offset
+					&& (found == null || m_longRanks[i] < foundRank)) {
+				found = m_longElements[i];
+				foundRank = m_longRanks[i];
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the first element of the voice of the given reference which has
+	 * this reference.
+	 *
+	 * @param ref
+	 *            A reference.
+	 * @return The element, <TT>null</TT> if not found.
+	 */
+	MusicElement getElementByReference(MusicElementReference ref) {
+		return (MusicElement) m_references.get(new Long(key(ref)));
+	}
+
+	/** part (16 bits), voice (8), x (16) and y (8) of a reference */
+	private static long key(MusicElementReference ref) {
+		return ((long) ref.getPart() << 32) | ((ref.getVoice() & 0xffL) << 24)
+				| ((ref.getX() & 0xffffL) << 8) | (ref.getY() & 0xffL);
+	}
+}
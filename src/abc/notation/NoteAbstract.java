@@ -379,4 +379,21 @@ public class NoteAbstract extends DecorableElement implements Cloneable {
 		// clone.m_tuplet = (Tuplet) m_tuplet.clone();
 		return o;
 	}
+
+	void copyFields(StructuralCopy copy) {
+		super.copyFields(copy);
+		if (m_gracingNotes != null) {
+			m_gracingNotes = (Note[]) m_gracingNotes.clone();
+			for (int i = 0; i < m_gracingNotes.length; i++)
+				m_gracingNotes[i] = (Note) copy.element(m_gracingNotes[i]);
+		}
+		if (slurDefinitions != null) {
+			slurDefinitions = (Vector) slurDefinitions.clone();
+			for (int i = 0; i < slurDefinitions.size(); i++)
+				slurDefinitions.setElementAt(copy
+						.element((MusicElement) slurDefinitions.elementAt(i)), i);
+		}
+		tieDefinition = (TieDefinition) copy.element(tieDefinition);
+		m_tuplet = copy.tuplet(m_tuplet);
+	}
 }
@@ -82,4 +82,10 @@ public class RepeatBarLine extends BarLine implements Cloneable {
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
+
+	void copyFields(StructuralCopy copy) {
+		super.copyFields(copy);
+		if (m_repeatNumbers != null)
+			m_repeatNumbers = (byte[]) m_repeatNumbers.clone();
+	}
 }
@@ -0,0 +1,147 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A deep copy of the music of a tune : parts, musics, voices and their
+ * elements. Each object is copied only once, so that objects shared in the
+ * tune (the references of the notes used by ties and slurs, the tuplets and
+ * their notes, the bars...) are shared the same way in the copy, as they would
+ * be by a serialization of the tune.<br>
+ * Elements are first copied field by field, then each class replaces its
+ * mutable fields by copies in <TT>copyFields(StructuralCopy)</TT>.
+ *
+ * @see Tune#Tune(Tune)
+ */
+final class StructuralCopy {
+
+	/** The copy of each object already copied. */
+	private IdentityHashMap m_copies = new IdentityHashMap();
+
+	Part part(Part part) {
+		if (part == null)
+			return null;
+		Part copy = (Part) m_copies.get(part);
+		if (copy == null) {
+			try {
+				copy = (Part) part.clone();
+			} catch (CloneNotSupportedException never) {
+				throw new InternalError(never.toString());
+			}
+			m_copies.put(part, copy);
+			copy.setMusic(music(part.getMusic()));
+		}
+		return copy;
+	}
+
+	Music music(Music music) {
+		if (music == null)
+			return null;
+		Music copy = (Music) m_copies.get(music);
+		if (copy == null) {
+			try {
+				copy = (Music) music.clone();
+			} catch (CloneNotSupportedException never) {
+				throw new InternalError(never.toString());
+			}
+			m_copies.put(music, copy);
+			copy.copyFields(this);
+		}
+		return copy;
+	}
+
+	Voice voice(Voice voice) {
+		if (voice == null)
+			return null;
+		Voice copy = (Voice) m_copies.get(voice);
+		if (copy == null) {
+			copy = (Voice) voice.clone();
+			m_copies.put(voice, copy);
+			copy.copyFields(this);
+		}
+		return copy;
+	}
+
+	MusicElement element(MusicElement element) {
+		if (element == null)
+			return null;
+		MusicElement copy = (MusicElement) m_copies.get(element);
+		if (copy == null) {
+			copy = element.shallowCopy();
+			// registered before its fields, an element can be reached again
+			// from them (a note of a tuplet)
+			m_copies.put(element, copy);
+			copy.copyFields(this);
+		}
+		return copy;
+	}
+
+	MusicElementReference reference(MusicElementReference reference) {
+		if (reference == null)
+			return null;
+		MusicElementReference copy = (MusicElementReference) m_copies
+				.get(reference);
+		if (copy == null) {
+			copy = (MusicElementReference) reference.clone();
+			m_copies.put(reference, copy);
+		}
+		return copy;
+	}
+
+	Tuplet tuplet(Tuplet tuplet) {
+		if (tuplet == null)
+			return null;
+		Tuplet copy = (Tuplet) m_copies.get(tuplet);
+		if (copy == null) {
+			try {
+				copy = (Tuplet) tuplet.clone();
+			} catch (CloneNotSupportedException never) {
+				throw new InternalError(never.toString());
+			}
+			m_copies.put(tuplet, copy);
+			copy.copyFields(this);
+		}
+		return copy;
+	}
+
+	Bar bar(Bar bar) {
+		if (bar == null)
+			return null;
+		Bar copy = (Bar) m_copies.get(bar);
+		if (copy == null) {
+			copy = new Bar(bar.getBarNumber(), bar.getPosInMusic());
+			m_copies.put(bar, copy);
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns a copy of the given map of bars : same keys, copied bars.
+	 */
+	TreeMap bars(TreeMap bars) {
+		TreeMap copy = new TreeMap();
+		for (Iterator it = bars.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			copy.put(entry.getKey(), bar((Bar) entry.getValue()));
+		}
+		return copy;
+	}
+}
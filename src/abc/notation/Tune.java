@@ -15,11 +15,6 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.notation;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Iterator;
 import java.util.TreeMap;
@@ -78,50 +73,48 @@ public class Tune implements Cloneable, Serializable {
 	 * Copy constructor
 	 * 
 	 * @param tune
-	 *            The tune to be copied in depth.
+	 *            The tune to be copied in depth. Elements shared in its music
+	 *            (tuplets, references used by ties and slurs...) are shared
+	 *            the same way in the copy.
 	 */
 	public Tune(Tune tune) {
-		try {
-			this.m_area = tune.m_area;
-			this.m_book = tune.m_book;
-			this.m_composer = tune.m_composer;
-			if (tune.m_defaultPart != null)
-				this.m_defaultPart = (Part) tune.m_defaultPart.clone();
-			this.m_discography = tune.m_discography;
-			this.m_elemskip = tune.m_elemskip;
-			this.m_fileurl = tune.m_fileurl;
-			this.m_group = tune.m_group;
-			this.m_history = tune.m_history;
-			this.m_information = tune.m_information;
-			// if (tune.m_key != null)
-			// this.m_key = (KeySignature)tune.m_key.clone();
-			this.m_lyricist = tune.m_lyricist;
-			// m_multiPartsDef after m_parts
-			this.m_notes = tune.m_notes;
-			this.m_origin = tune.m_origin;
-			if (tune.m_parts != null) {
-				this.m_parts = new TreeMap();
-				for (Iterator itK = tune.m_parts.keySet().iterator(); itK
-						.hasNext();) {
-					Character key = (Character) itK.next();
-					Part value = (Part) tune.m_parts.get(key);
-					this.m_parts.put(new Character(key.charValue()),
-							value.clone());
-				}
-				// this.m_parts = (Hashtable)tune.m_parts.clone();
+		StructuralCopy copy = new StructuralCopy();
+		this.m_area = tune.m_area;
+		this.m_book = tune.m_book;
+		this.m_composer = tune.m_composer;
+		this.m_defaultPart = copy.part(tune.m_defaultPart);
+		this.m_discography = tune.m_discography;
+		this.m_elemskip = tune.m_elemskip;
+		this.m_fileurl = tune.m_fileurl;
+		this.m_group = tune.m_group;
+		this.m_history = tune.m_history;
+		this.m_information = tune.m_information;
+		// if (tune.m_key != null)
+		// this.m_key = (KeySignature)tune.m_key.clone();
+		this.m_lyricist = tune.m_lyricist;
+		// m_multiPartsDef after m_parts
+		this.m_notes = tune.m_notes;
+		this.m_origin = tune.m_origin;
+		if (tune.m_parts != null) {
+			this.m_parts = new TreeMap();
+			for (Iterator itK = tune.m_parts.keySet().iterator(); itK
+					.hasNext();) {
+				Character key = (Character) itK.next();
+				Part value = (Part) tune.m_parts.get(key);
+				this.m_parts.put(new Character(key.charValue()), copy
+						.part(value));
 			}
-			if (tune.m_multiPartsDef != null)
-				this.m_multiPartsDef = (MultiPartsDefinition) tune.m_multiPartsDef
-						.clone(this);
-			this.m_referenceNumber = tune.m_referenceNumber;
-			this.m_rhythm = tune.m_rhythm;
-			this.m_source = tune.m_source;
-			if (tune.m_titles != null)
-				this.m_titles = (Vector) tune.m_titles.clone();
-			this.m_transcriptionNotes = tune.m_transcriptionNotes;
-		} catch (CloneNotSupportedException never) {
-			never.printStackTrace();
+			// this.m_parts = (Hashtable)tune.m_parts.clone();
 		}
+		if (tune.m_multiPartsDef != null)
+			this.m_multiPartsDef = (MultiPartsDefinition) tune.m_multiPartsDef
+					.clone(this);
+		this.m_referenceNumber = tune.m_referenceNumber;
+		this.m_rhythm = tune.m_rhythm;
+		this.m_source = tune.m_source;
+		if (tune.m_titles != null)
+			this.m_titles = (Vector) tune.m_titles.clone();
+		this.m_transcriptionNotes = tune.m_transcriptionNotes;
 	}
 
 	/**
@@ -576,6 +569,16 @@ public class Tune implements Cloneable, Serializable {
 		return tuneAsString;
 	}
 
+	/**
+	 * Returns the given tune transposed.
+	 * 
+	 * @param t
+	 *            The tune to be transposed, it is not changed.
+	 * @param semitones
+	 *            The transposition in semitones.
+	 * @return A transposed copy of the tune, a plain copy if
+	 *         <TT>semitones</TT> is 0.
+	 */
 	static public Tune transpose(Tune t, int semitones) {
 		Tune ret = (Tune) t.clone();
 		if (semitones == 0)
@@ -850,146 +853,10 @@ public class Tune implements Cloneable, Serializable {
 
 	/**
 	 * Returns a deep clone of the Tune object
+	 * 
+	 * @see #Tune(Tune)
 	 */
 	public Object clone() {
-		/*
-		 * if (false) { Tune ret = new Tune(this); return ret; }
-		 */
-		Tune ret = null;
-		try {
-			// long s = System.currentTimeMillis();
-			// Write the object out to a byte array
-			FastByteArrayOutputStream fbos = new FastByteArrayOutputStream();
-			ObjectOutputStream out = new ObjectOutputStream(fbos);
-			out.writeObject(this);
-			out.flush();
-			out.close();
-
-			// Retrieve an input stream from the byte array and read
-			// a copy of the object back in.
-			ObjectInputStream in = new ObjectInputStream(fbos.getInputStream());
-			ret = (Tune) in.readObject();
-			// long e = System.currentTimeMillis();
-			// System.out.println("Tune.clone: "+fbos.getSize()+" en "+((e-s)/1000.0)+"s");
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException cnfe) {
-			cnfe.printStackTrace();
-		}
-		return ret;
-	}
-
-	/**
-	 * ByteArrayInputStream implementation that does not synchronize methods.
-	 */
-	private class FastByteArrayInputStream extends InputStream {
-		/** Our byte buffer */
-		protected byte[] buf = null;
-		/** Number of bytes that we can read from the buffer */
-		protected int count = 0;
-		/** Number of bytes that have been read from the buffer */
-		protected int pos = 0;
-
-		public FastByteArrayInputStream(byte[] buf, int count) {
-			this.buf = buf;
-			this.count = count;
-		}
-
-		public final int available() {
-			return count - pos;
-		}
-
-		public final int read() {
-			return (pos < count) ? (buf[pos++] & 0xff) : -1;
-		}
-
-		public final int read(byte[] b, int off, int len) {
-			if (pos >= count)
-				return -1;
-			if ((pos + len) > count)
-				len = (count - pos);
-			System.arraycopy(buf, pos, b, off, len);
-			pos += len;
-			return len;
-		}
-
-		public final long skip(long n) {
-			if ((pos + n) > count)
-				n = count - pos;
-			if (n < 0)
-				return 0;
-			pos += n;
-			return n;
-		}
-	}
-
-	/**
-	 * ByteArrayOutputStream implementation that doesn't synchronize methods and
-	 * doesn't copy the data on toByteArray().
-	 */
-	private class FastByteArrayOutputStream extends OutputStream {
-		/** Buffer and size */
-		protected byte[] buf = null;
-		protected int size = 0;
-
-		/** Constructs a stream with buffer capacity size 5K */
-		public FastByteArrayOutputStream() {
-			this(5 * 1024);
-		}
-
-		/** Constructs a stream with the given initial size */
-		public FastByteArrayOutputStream(int initSize) {
-			this.size = 0;
-			this.buf = new byte[initSize];
-		}
-
-		/** Ensures that we have a large enough buffer for the given size. */
-		private void verifyBufferSize(int sz) {
-			if (sz > buf.length) {
-				byte[] old = buf;
-				buf = new byte[Math.max(sz, 2 * buf.length)];
-				System.arraycopy(old, 0, buf, 0, old.length);
-				old = null;
-			}
-		}
-
-		public int getSize() {
-			return size;
-		}
-
-		/**
-		 * Returns the byte array containing the written data. Note that this
-		 * array will almost always be larger than the amount of data actually
-		 * written.
-		 */
-		public byte[] getByteArray() {
-			return buf;
-		}
-
-		public final void write(byte b[]) {
-			verifyBufferSize(size + b.length);
-			System.arraycopy(b, 0, buf, size, b.length);
-			size += b.length;
-		}
-
-		public final void write(byte b[], int off, int len) {
-			verifyBufferSize(size + len);
-			System.arraycopy(b, off, buf, size, len);
-			size += len;
-		}
-
-		public final void write(int b) {
-			verifyBufferSize(size + 1);
-			buf[size++] = (byte) b;
-		}
-
-		public void reset() {
-			size = 0;
-		}
-
-		/** Returns a ByteArrayInputStream for reading back the written data */
-		public InputStream getInputStream() {
-			return new FastByteArrayInputStream(buf, size);
-		}
+		return new Tune(this);
 	}
 }
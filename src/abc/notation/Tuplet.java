@@ -92,4 +92,13 @@ public class Tuplet implements Cloneable, Serializable {
 			((Tuplet) o).m_notes = (Vector) m_notes.clone();
 		return o;
 	}
+
+	void copyFields(StructuralCopy copy) {
+		// m_notes has already been cloned by clone()
+		if (m_notes != null) {
+			for (int i = 0; i < m_notes.size(); i++)
+				m_notes.setElementAt(copy.element((MusicElement) m_notes
+						.elementAt(i)), i);
+		}
+	}
 }
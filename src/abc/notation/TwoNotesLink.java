@@ -99,4 +99,11 @@ public class TwoNotesLink extends MusicElement implements Cloneable,
 		// ((TwoNotesLink) o).end = (NoteAbstract) end.clone();
 		return o;
 	}
+
+	void copyFields(StructuralCopy copy) {
+		super.copyFields(copy);
+		// the references are shared with the linked notes
+		start = copy.reference(start);
+		end = copy.reference(end);
+	}
 }
\ No newline at end of file
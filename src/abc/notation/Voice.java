@@ -454,4 +454,40 @@ public class Voice extends Vector implements Cloneable, Serializable {
 
 	// TODO hasLyrics...
 
+	/**
+	 * Replaces the element at the given index. Counted as a modification,
+	 * unlike in <TT>Vector</TT>, so that indexes of the elements see it.
+	 *
+	 * @see #getModificationCount()
+	 */
+	public synchronized Object set(int index, Object element) {
+		modCount++;
+		return super.set(index, element);
+	}
+
+	/**
+	 * Replaces the element at the given index. Counted as a modification,
+	 * unlike in <TT>Vector</TT>, so that indexes of the elements see it.
+	 *
+	 * @see #getModificationCount()
+	 */
+	public synchronized void setElementAt(Object obj, int index) {
+		modCount++;
+		super.setElementAt(obj, index);
+	}
+
+	/**
+	 * Returns the number of times this voice has been modified : elements
+	 * added, removed or replaced.
+	 */
+	int getModificationCount() {
+		return modCount;
+	}
+
+	void copyFields(StructuralCopy copy) {
+		for (int i = 0; i < size(); i++)
+			super.setElementAt(copy.element((MusicElement) elementAt(i)), i);
+		m_bars = copy.bars(m_bars);
+		lastNote = (NoteAbstract) copy.element(lastNote);
+	}
 }
@@ -0,0 +1,340 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import abc.notation.Tune;
+
+/**
+ * The tunes of an abc file, found by one scan of the memory-mapped file
+ * without parsing it. A tune begins with a <TT>X:</TT> line and ends after
+ * the first empty line, or where the next tune begins. Only the offsets of the
+ * tunes and their reference numbers are kept: the notation and the header of
+ * a tune are decoded from the mapped file when asked for.<br/>
+ * The file must not be changed while it is indexed, and stays mapped until
+ * the index is closed : it is replaced, not written in place, by
+ * {@link TuneBook#save()}.
+ */
+class AbcFileIndex {
+
+	/** Initial capacity of the index arrays, they grow by half. */
+	private static final int INITIAL_CAPACITY = 256;
+
+	/** The mapped content of the file, never read through its position. */
+	private MappedByteBuffer m_content = null;
+	/** The charset the bytes of the file are decoded with. */
+	private Charset m_charset = null;
+	/** The offset of the <TT>X:</TT> line of each tune. */
+	private int[] m_starts = null;
+	/** The offset following the last line of each tune. */
+	private int[] m_ends = null;
+	/** The reference number of each tune, -1 if it has none. */
+	private int[] m_referenceNumbers = null;
+	/** The number of tunes found. */
+	private int m_size = 0;
+
+	/**
+	 * Maps and indexes the specified file.
+	 *
+	 * @param abcFile
+	 *            The file that contains tunes in abc notation.
+	 * @param charset
+	 *            The charset the file is encoded with, it must encode
+	 *            <TT>X</TT>, <TT>:</TT> and the line feed as ASCII does.
+	 * @exception IOException
+	 *                If the file can't be read or is larger than 2 GB.
+	 */
+	AbcFileIndex(File abcFile, Charset charset) throws IOException {
+		m_charset = charset;
+		RandomAccessFile file = new RandomAccessFile(abcFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(abcFile + " is too large to be indexed");
+			// the mapping remains valid once the channel is closed
+			m_content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+					.size());
+		} finally {
+			file.close();
+		}
+		m_starts = new int[INITIAL_CAPACITY];
+		m_ends = new int[INITIAL_CAPACITY];
+		m_referenceNumbers = new int[INITIAL_CAPACITY];
+		scan();
+	}
+
+	/** Finds the tunes, line by line. */
+	private void scan() {
+		MappedByteBuffer content = m_content;
+		int limit = content.limit();
+		boolean isInTune = false;
+		int lineStart = 0;
+		while (lineStart < limit) {
+			int lineEnd = lineStart;
+			while (lineEnd < limit && content.get(lineEnd) != '\n')
+				lineEnd++;
+			if (lineEnd < limit)
+				lineEnd++;
+			if (lineEnd - lineStart > 1 && content.get(lineStart) == 'X'
+					&& content.get(lineStart + 1) == ':') {
+				if (isInTune)
+					m_ends[m_size - 1] = lineStart;
+				addTune(lineStart, referenceNumber(lineStart + 2, lineEnd));
+				isInTune = true;
+			} else if (isInTune && isEmpty(lineStart, lineEnd)) {
+				m_ends[m_size - 1] = lineEnd;
+				isInTune = false;
+			}
+			lineStart = lineEnd;
+		}
+		if (isInTune)
+			m_ends[m_size - 1] = limit;
+	}
+
+	private void addTune(int start, int referenceNumber) {
+		if (m_size == m_starts.length) {
+			int capacity = m_size + (m_size >> 1);
+			m_starts = grow(m_starts, capacity);
+			m_ends = grow(m_ends, capacity);
+			m_referenceNumbers = grow(m_referenceNumbers, capacity);
+		}
+		m_starts[m_size] = start;
+		m_referenceNumbers[m_size] = referenceNumber;
+		m_size++;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/** <TT>true</TT> if the line holds nothing but its line ender. */
+	private boolean isEmpty(int lineStart, int lineEnd) {
+		int length = lineEnd - lineStart;
+		return length == 1
+				|| (length == 2 && m_content.get(lineStart) == '\r');
+	}
+
+	/** The digits following the <TT>X:</TT> of a line, -1 if none. */
+	private int referenceNumber(int from, int lineEnd) {
+		while (from < lineEnd && m_content.get(from) == ' ')
+			from++;
+		int number = -1;
+		for (; from < lineEnd; from++) {
+			byte b = m_content.get(from);
+			if (b < '0' || b > '9')
+				break;
+			number = (number == -1 ? 0 : number * 10) + b - '0';
+		}
+		return number;
+	}
+
+	/** Returns the number of tunes of the file. */
+	int size() {
+		return m_size;
+	}
+
+	/**
+	 * Returns the reference number of a tune.
+	 *
+	 * @param index
+	 *            The position of the tune in the file.
+	 */
+	int getReferenceNumber(int index) {
+		return m_referenceNumbers[index];
+	}
+
+	/**
+	 * Returns the notation of a tune, from its <TT>X:</TT> line to its
+	 * last line.
+	 *
+	 * @param index
+	 *            The position of the tune in the file.
+	 */
+	String getNotation(int index) {
+		return decode(m_starts[index], m_ends[index]);
+	}
+
+	/**
+	 * Returns the text between the previous tune, or the beginning of the
+	 * file, and a tune.
+	 *
+	 * @param index
+	 *            The position of the tune in the file.
+	 * @return The text before the tune, <TT>null</TT> if there is none.
+	 */
+	String getHeader(int index) {
+		int from = index == 0 ? 0 : m_ends[index - 1];
+		return from < m_starts[index] ? decode(from, m_starts[index]) : null;
+	}
+
+	/**
+	 * Returns a tune with the reference number and the text fields of the
+	 * header of a tune: titles, composer, origin... The header is read up to
+	 * its <TT>K:</TT> line, without the parser: the fields that need it, such
+	 * as the key or the meter, are only known once the tune is parsed.
+	 *
+	 * @param index
+	 *            The position of the tune in the file.
+	 */
+	Tune getHeaderFields(int index) {
+		Tune tune = new Tune();
+		tune.setReferenceNumber(m_referenceNumbers[index]);
+		int lineStart = m_starts[index];
+		int end = m_ends[index];
+		while (lineStart < end) {
+			int lineEnd = lineStart;
+			while (lineEnd < end && m_content.get(lineEnd) != '\n')
+				lineEnd++;
+			if (lineEnd - lineStart > 1 && m_content.get(lineStart + 1) == ':') {
+				byte field = m_content.get(lineStart);
+				if (field == 'K')
+					break;
+				addField(tune, field, lineStart + 2, lineEnd);
+			}
+			lineStart = lineEnd + 1;
+		}
+		return tune;
+	}
+
+	private void addField(Tune tune, byte field, int from, int lineEnd) {
+		switch (field) {
+		case 'A':
+		case 'B':
+		case 'C':
+		case 'D':
+		case 'F':
+		case 'G':
+		case 'H':
+		case 'I':
+		case 'N':
+		case 'O':
+		case 'R':
+		case 'S':
+		case 'T':
+		case 'Z':
+			break;
+		default:
+			return;
+		}
+		// the text stops at a comment
+		int to = from;
+		while (to < lineEnd
+				&& (m_content.get(to) != '%' || (to > from && m_content
+						.get(to - 1) == '\\')))
+			to++;
+		String text = decode(from, to).trim();
+		if (text.indexOf('\\') != -1)
+			// replaces the escaped characters as the parser does
+			text = new AbcTextField(AbcTextField.TITLE, text).getText();
+		if (text.length() == 0)
+			return;
+		switch (field) {
+		case 'A':
+			tune.setArea(text);
+			break;
+		case 'B':
+			tune.addBook(text);
+			break;
+		case 'C':
+			tune.addComposer(text);
+			break;
+		case 'D':
+			tune.addDiscography(text);
+			break;
+		case 'F':
+			tune.setFileURL(text);
+			break;
+		case 'G':
+			tune.addGroup(text);
+			break;
+		case 'H':
+			tune.addHistory(text);
+			break;
+		case 'I':
+			tune.addInformation(text);
+			break;
+		case 'N':
+			tune.addNotes(text);
+			break;
+		case 'O':
+			tune.setOrigin(text);
+			break;
+		case 'R':
+			tune.setRhythm(text);
+			break;
+		case 'S':
+			tune.addSource(text);
+			break;
+		case 'T':
+			tune.addTitle(text);
+			break;
+		case 'Z':
+			tune.addTranscriptionNotes(text);
+			break;
+		}
+	}
+
+	/**
+	 * Unmaps the file, so that it can be replaced or deleted, also on the
+	 * systems that don't allow it while it is mapped. The index can't be used
+	 * any longer, and must not be closed while a tune is decoded from it.
+	 */
+	void close() {
+		MappedByteBuffer content = m_content;
+		m_content = null;
+		if (content != null)
+			unmap(content);
+	}
+
+	/**
+	 * Releases the mapping of the buffer at once, through the cleaner of the
+	 * buffer as <TT>sun.misc.Unsafe.invokeCleaner()</TT> of Java 9 and later
+	 * does. Left to the garbage collector if it isn't available.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafeClass.getMethod("invokeCleaner",
+					new Class[] { ByteBuffer.class }).invoke(
+					theUnsafe.get(null), new Object[] { buffer });
+		} catch (Exception e) {
+			// unmapped when the buffer is garbage collected
+		}
+	}
+
+	/**
+	 * Decodes a part of the file. A duplicate of the buffer is read so that
+	 * several threads can decode at the same time.
+	 */
+	private String decode(int from, int to) {
+		ByteBuffer slice = m_content.duplicate();
+		slice.limit(to);
+		slice.position(from);
+		return m_charset.decode(slice).toString();
+	}
+}
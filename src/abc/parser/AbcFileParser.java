@@ -23,6 +23,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import scanner.InvalidCharacterEvent;
 import scanner.NoSuchTokenException;
@@ -43,6 +46,12 @@ import abc.notation.Tune;
  * */
 public class AbcFileParser extends AbcParserAbstract {
 
+	/**
+	 * The number of parts a stream is cut in for each thread parsing it, so
+	 * that a thread done with a short part takes another one.
+	 */
+	private static final int PARTS_PER_THREAD = 4;
+
 	/** Creates a new abc file parser. */
 	public AbcFileParser() {
 		this(AbcVersion.v1_6);
@@ -88,7 +97,7 @@ public class AbcFileParser extends AbcParserAbstract {
 	 * @see #addListener(abc.parser.AbcFileParserListenerInterface)
 	 */
 	public void removeListener(AbcFileParserListenerInterface listener) {
-		super.addListener(listener);
+		super.removeListener(listener);
 	}
 
 	/**
@@ -140,7 +149,7 @@ public class AbcFileParser extends AbcParserAbstract {
 		try {
 			Set current = new Set();
 			init();
-			m_scanner.init(abcCharStream);
+			m_scanner.init(readFully(abcCharStream));
 			notifyListenersForFileBegin();
 			parseAbcFile(current);
 			notifyListenersForFileEnd();
@@ -151,6 +160,106 @@ public class AbcFileParser extends AbcParserAbstract {
 		}
 	}
 
+	/**
+	 * Parses the specified stream in abc notation with several threads. The
+	 * stream is cut in parts of whole tunes, at the <TT>X:</TT> lines that
+	 * follow an empty line, and the parts are parsed at the same time on a
+	 * <TT>ForkJoinPool</TT>, each one by its own parser. The listeners of this
+	 * parser receive the same events, in the same order, as with
+	 * {@link #parseFile(Reader)}: the events of each part are sent from the
+	 * calling thread once the part and the previous ones are parsed. The
+	 * positions of tokens and characters are given in the whole stream.
+	 * 
+	 * @param abcCharStream
+	 *            The abc stream to be parsed.
+	 * @param threads
+	 *            The number of parts parsed at the same time.
+	 */
+	public void parseFile(Reader abcCharStream, int threads) {
+		String chars = readFully(abcCharStream).toString();
+		PartParser[] parts = split(chars, threads * PARTS_PER_THREAD);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (int i = 0; i < parts.length; i++)
+				pool.execute(parts[i]);
+			notifyListenersForFileBegin();
+			for (int i = 0; i < parts.length; i++) {
+				parts[i].join();
+				// the parsing stops where it would have stopped in one go
+				if (!parts[i].notifyListeners())
+					return;
+			}
+			notifyListenersForFileEnd();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Creates the parser of a part of a stream parsed with several threads.
+	 * Sub classes that parse differently return an instance of their own
+	 * class.
+	 * 
+	 * @return A new parser, for the same abc version as this one.
+	 */
+	protected AbcFileParser newParser() {
+		return new AbcFileParser(m_abcVersion);
+	}
+
+	/**
+	 * Cuts the characters in about the specified number of parts of equal
+	 * length, each one beginning with a tune that follows an empty line, or at
+	 * the beginning of the characters.
+	 */
+	private PartParser[] split(String chars, int count) {
+		Vector parts = new Vector(count);
+		int length = chars.length();
+		int partStart = 0, partLine = 1;
+		int nextCut = length / count;
+		int line = 1;
+		boolean previousLineEmpty = false;
+		int lineStart = 0;
+		while (lineStart < length) {
+			int lineEnd = chars.indexOf('\n', lineStart);
+			lineEnd = lineEnd == -1 ? length : lineEnd + 1;
+			if (lineStart >= nextCut && previousLineEmpty
+					&& chars.startsWith("X:", lineStart)) {
+				parts.addElement(new PartParser(chars.substring(partStart,
+						lineStart), partLine, partStart));
+				partStart = lineStart;
+				partLine = line;
+				nextCut = lineStart + (length - lineStart)
+						/ Math.max(1, count - parts.size());
+			}
+			previousLineEmpty = lineEnd - lineStart == 1
+					|| (lineEnd - lineStart == 2 && chars.charAt(lineStart) == '\r');
+			lineStart = lineEnd;
+			line++;
+		}
+		parts.addElement(new PartParser(chars.substring(partStart), partLine,
+				partStart));
+		PartParser[] array = new PartParser[parts.size()];
+		parts.copyInto(array);
+		return array;
+	}
+
+	/**
+	 * Parses a part of a stream, that begins a line of it.
+	 * 
+	 * @return <TT>false</TT> if the parsing stopped before the end of the
+	 *         part, as it does at invalid characters after the last token.
+	 */
+	private boolean parsePart(CharSequence part, int line, int offset) {
+		try {
+			init();
+			m_scanner.init(part, line, offset);
+			parseAbcFile(new Set());
+			return true;
+		} catch (NoSuchTokenException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Parses only tunes header of the the specified file.
 	 * 
@@ -178,7 +287,7 @@ public class AbcFileParser extends AbcParserAbstract {
 			// are missing TEX COMMAND and FILE FIELDS
 			// .createUnion(FIRST_TEX_COMMAND);//.createUnion(FIRST_FILE_FIELDS);
 			m_scanner.setFinaleStateAutomata(AutomataFactory.getAutomata(
-					current.getTypes(), m_abcVersion));
+					current, m_abcVersion));
 			m_token = m_scanner.nextToken();
 			m_tokenType = m_token.getType();
 			while (m_token != null) {
@@ -212,7 +321,7 @@ public class AbcFileParser extends AbcParserAbstract {
 									./* union(FIRST_TEX_COMMAND). */createUnion(
 											FIRST_ABC_MUSIC);
 							m_scanner.setFinaleStateAutomata(AutomataFactory
-									.getAutomata(newCurrent.getTypes(),
+									.getAutomata(newCurrent,
 											m_abcVersion));
 							// this next token is the first of the new line.
 							m_token = m_scanner.nextToken();
@@ -247,4 +356,125 @@ public class AbcFileParser extends AbcParserAbstract {
 			// characters.
 		}
 	}
+
+	/**
+	 * Parses a part of a stream with its own parser, and keeps the events of
+	 * the parser until they can be sent to the listeners of this parser.
+	 */
+	private class PartParser extends RecursiveAction implements
+			AbcFileParserListenerInterface {
+		private static final long serialVersionUID = 1L;
+
+		private static final byte TUNE_BEGIN = 0;
+		private static final byte TUNE_END = 1;
+		private static final byte VALID_TOKEN = 2;
+		private static final byte INVALID_TOKEN = 3;
+		private static final byte INVALID_CHARACTER = 4;
+		private static final byte LINE_PROCESSED = 5;
+
+		private String m_part = null;
+		private int m_line = 0;
+		private int m_offset = 0;
+		/** The type of each event, in the order they were received. */
+		private byte[] m_types = new byte[64];
+		/** The tune, token event or line of each event. */
+		private Vector m_values = new Vector();
+		private boolean m_isComplete = false;
+
+		PartParser(String part, int line, int offset) {
+			m_part = part;
+			m_line = line;
+			m_offset = offset;
+		}
+
+		protected void compute() {
+			AbcFileParser parser = newParser();
+			// events are only kept if someone listens to them
+			if (m_listeners.size() > 0)
+				parser.addListener(this);
+			m_isComplete = parser.parsePart(m_part, m_line, m_offset);
+			m_part = null;
+		}
+
+		/**
+		 * Sends the events of the part to the listeners of the enclosing
+		 * parser.
+		 * 
+		 * @return <TT>false</TT> if the parsing of the part stopped before
+		 *         its end.
+		 */
+		boolean notifyListeners() {
+			for (int i = 0; i < m_values.size(); i++) {
+				Object value = m_values.elementAt(i);
+				for (int j = 0; j < m_listeners.size(); j++) {
+					TuneParserListenerInterface listener = (TuneParserListenerInterface) m_listeners
+							.elementAt(j);
+					switch (m_types[i]) {
+					case TUNE_BEGIN:
+						listener.tuneBegin();
+						break;
+					case TUNE_END:
+						listener.tuneEnd((Tune) value);
+						break;
+					case VALID_TOKEN:
+						listener.validToken((TokenEvent) value);
+						break;
+					case INVALID_TOKEN:
+						listener.invalidToken((InvalidTokenEvent) value);
+						break;
+					case INVALID_CHARACTER:
+						listener.invalidCharacter((InvalidCharacterEvent) value);
+						break;
+					case LINE_PROCESSED:
+						((AbcFileParserListenerInterface) listener)
+								.lineProcessed((String) value);
+						break;
+					}
+				}
+			}
+			m_values = null;
+			return m_isComplete;
+		}
+
+		private void add(byte type, Object value) {
+			int index = m_values.size();
+			if (index == m_types.length) {
+				byte[] types = new byte[index * 2];
+				System.arraycopy(m_types, 0, types, 0, index);
+				m_types = types;
+			}
+			m_types[index] = type;
+			m_values.addElement(value);
+		}
+
+		public void fileBegin() {
+		}
+
+		public void fileEnd() {
+		}
+
+		public void tuneBegin() {
+			add(TUNE_BEGIN, null);
+		}
+
+		public void tuneEnd(Tune tune) {
+			add(TUNE_END, tune);
+		}
+
+		public void validToken(TokenEvent event) {
+			add(VALID_TOKEN, event);
+		}
+
+		public void invalidToken(InvalidTokenEvent event) {
+			add(INVALID_TOKEN, event);
+		}
+
+		public void invalidCharacter(InvalidCharacterEvent event) {
+			add(INVALID_CHARACTER, event);
+		}
+
+		public void lineProcessed(String line) {
+			add(LINE_PROCESSED, line);
+		}
+	}
 }
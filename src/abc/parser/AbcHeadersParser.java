@@ -35,8 +35,13 @@ public class AbcHeadersParser extends AbcFileParser {
 	/** Default constructor. */
 	public AbcHeadersParser(AbcVersion abcVersion) {
 		super(abcVersion);
-		// Override the definition of an abc line
-		FIRST_ABC_LINE = new Set(AbcTokenType.TEXT);
+		// Override the definition of an abc line, for this parser only
+		m_firstAbcLine = new Set(AbcTokenType.TEXT);
+	}
+
+	/** Parts of a stream parsed with several threads only parse headers too. */
+	protected AbcFileParser newParser() {
+		return new AbcHeadersParser(m_abcVersion);
 	}
 
 	/**
@@ -15,6 +15,8 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -246,7 +248,7 @@ public class AbcParserAbstract {
 			.union(AbcTokenType.BEGIN_SLUR).union(AbcTokenType.END_SLUR)
 			.union(AbcTokenType.SPACE)
 	/* .union(AbcTokenType.USER_DEFINED) */;
-	protected static Set FIRST_ABC_LINE = new Set(FIRST_ELEMENT)
+	protected static final Set FIRST_ABC_LINE = new Set(FIRST_ELEMENT)
 			.union(FIRST_MID_TUNE_FIELD)/*
 										 * .union(FIRST_COMMENT).union(
 										 * FIRST_TEX_COMMAND)
@@ -301,6 +303,12 @@ public class AbcParserAbstract {
 
 	protected AbcVersion m_abcVersion = null;
 
+	/**
+	 * The tokens an abc line of this parser starts with,
+	 * {@link #FIRST_ABC_LINE} unless a sub class parses lines differently.
+	 */
+	protected Set m_firstAbcLine = FIRST_ABC_LINE;
+
 	/** Constructs a new tune parser. */
 	public AbcParserAbstract(AbcVersion abcVersion) {
 		m_abcVersion = abcVersion;
@@ -335,6 +343,48 @@ public class AbcParserAbstract {
 		return m_scanner;
 	}
 
+	/**
+	 * Cancels the parsing in progress: the scanner stops returning tokens so
+	 * that the parsing ends at once, without notifying the end of the tune to
+	 * the listeners. This can be called from any thread, it has no effect on
+	 * the next parsing.
+	 */
+	public void cancel() {
+		m_scanner.cancel();
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the last parsing has been cancelled.
+	 * 
+	 * @return <TT>true</TT> if the last parsing has been cancelled,
+	 *         <TT>false</TT> otherwise.
+	 * @see #cancel()
+	 */
+	public boolean isCancelled() {
+		return m_scanner.isCancelled();
+	}
+
+	/**
+	 * Reads all characters from the given stream, so that they can be scanned
+	 * directly instead of being read from the stream one by one.
+	 * 
+	 * @param charStream
+	 *            The stream to be read.
+	 * @return The characters read from the stream.
+	 */
+	protected static CharSequence readFully(Reader charStream) {
+		StringBuffer chars = new StringBuffer();
+		char[] buffer = new char[8192];
+		try {
+			int read;
+			while ((read = charStream.read(buffer)) != -1)
+				chars.append(buffer, 0, read);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return chars;
+	}
+
 	/**
 	 * Adds a listener to catch events thrown by the parser durin tune parsing.
 	 * 
@@ -379,7 +429,7 @@ public class AbcParserAbstract {
 		// are missing TEX COMMAND and FILE FIELDS
 		// .createUnion(FIRST_TEX_COMMAND);//.createUnion(FIRST_FILE_FIELDS);
 		m_scanner.setFinaleStateAutomata(AutomataFactory.getAutomata(
-				current.getTypes(), m_abcVersion));
+				current, m_abcVersion));
 		m_token = m_scanner.nextToken();
 		m_tokenType = m_token.getType();
 		while (m_token != null) {
@@ -1223,11 +1273,11 @@ public class AbcParserAbstract {
 	// ============================================================================================
 	/** abc-music ::= 1*abc-line linefeed */
 	protected void parseAbcMusic(Set follow) {
-		Set current = new Set().union(FIRST_ABC_LINE).union(
+		Set current = new Set().union(m_firstAbcLine).union(
 				AbcTokenType.LINE_FEED);
 		do
 			parseAbcLine(current.createUnion(follow));
-		while (FIRST_ABC_LINE.contains(m_tokenType));
+		while (m_firstAbcLine.contains(m_tokenType));
 		// current = new Set(AbcTokenType.LINE_FEED);
 		// accept(AbcTokenType.LINE_FEED, current, follow);
 	}
@@ -2085,7 +2135,7 @@ public class AbcParserAbstract {
 				 * m_setsForAccept.addElement(union);
 				 */
 				m_automata.setDefinition(DefinitionFactory.getDefinition(
-						union.getTypes(), m_abcVersion));
+						union, m_abcVersion));
 				m_scanner.setFinaleStateAutomata(m_automata);
 				// TokenType[] unionArray = union.getTypes();
 				// m_automata.setDefinition(DefinitionFactory.getDefinition(unionArray));
@@ -2096,13 +2146,13 @@ public class AbcParserAbstract {
 				// typesForAutomata = union;
 			} else if (current != null && current.size() != 0) {
 				m_automata.setDefinition(DefinitionFactory.getDefinition(
-						current.getTypes(), m_abcVersion));
+						current, m_abcVersion));
 				m_scanner.setFinaleStateAutomata(m_automata);
 				// TokenType[] array = current.getTypes();
 				// m_scanner.setFinaleStateAutomata(getAutomataFor(array));
 			} else {
 				m_automata.setDefinition(DefinitionFactory.getDefinition(
-						follow.getTypes(), m_abcVersion));
+						follow, m_abcVersion));
 				m_scanner.setFinaleStateAutomata(m_automata);
 				// TokenType[] array = follow.getTypes();
 				// m_scanner.setFinaleStateAutomata(getAutomataFor(array));
@@ -2148,7 +2198,8 @@ public class AbcParserAbstract {
 		// old algorythm:
 		if (current == null)
 			return follow;
-		return current.createUnion(follow);
+		// shared unions : only read by accept() and skipTo()
+		return current.getUnion(follow);
 		// return foundSet;
 	}
 
@@ -2161,7 +2212,7 @@ public class AbcParserAbstract {
 		// System.out.println("Parser - skipTo("+ targetSet + ") from " +
 		// token.getValue() );
 		m_automata.setDefinition(DefinitionFactory.getDefinition(
-				targetSet.getTypes(), m_abcVersion));
+				targetSet, m_abcVersion));
 		m_scanner.setFinaleStateAutomata(m_automata);
 		// m_scanner.setFinaleStateAutomata(getAutomataFor(targetSet.getTypes()));
 		// ===old
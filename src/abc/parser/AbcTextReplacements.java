@@ -28,13 +28,15 @@ import java.util.ResourceBundle;
  */
 public class AbcTextReplacements extends ResourceBundle {
 
-	private static AbcTextReplacements instance = null;
-
 	static final Map map = new HashMap();
 
+	/**
+	 * Created with the class, as parsers on several threads may ask for it at
+	 * the same time: the map is only read afterwards.
+	 */
+	private static final AbcTextReplacements instance = new AbcTextReplacements();
+
 	public static AbcTextReplacements getInstance() {
-		if (instance == null)
-			instance = new AbcTextReplacements();
 		return instance;
 	}
 
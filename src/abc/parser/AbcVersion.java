@@ -37,4 +37,8 @@ public class AbcVersion {
 			return super.equals(o);
 	}
 
+	public int hashCode() {
+		return Float.floatToIntBits(m_version);
+	}
+
 }
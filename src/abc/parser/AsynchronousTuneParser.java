@@ -17,15 +17,19 @@ package abc.parser;
 
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.Vector;
 
 import abc.notation.Tune;
 
-/** A parser that parses abc gammar into its own thread context. */
+/**
+ * A parser that parses abc gammar into its own thread context. The parsings
+ * are run by the {@link ParsingService}: the parse methods return at once and
+ * the resulting tunes are delivered to the listeners of this parser.
+ */
 public class AsynchronousTuneParser extends TuneParser {
-	private Object m_mutex = new Object();
-	private Thread m_parsingThread = null;
-	private Vector m_queue = null;
+	/**
+	 * <TT>true</TT> if every notation is parsed, in the order they were given,
+	 * <TT>false</TT> if a notation replaces the ones not parsed yet.
+	 */
 	private boolean m_isQueueManagementEnabled = true;
 
 	/** Constructs a new tune parser. */
@@ -36,9 +40,6 @@ public class AsynchronousTuneParser extends TuneParser {
 	/** Constructs a new tune parser. */
 	public AsynchronousTuneParser(AbcVersion abcVersion) {
 		super(abcVersion);
-		m_queue = new Vector();
-		m_parsingThread = new Thread(new ParsingRunnable());
-		m_parsingThread.start();
 	}
 
 	public AsynchronousTuneParser(boolean isQueueManagementEnabled) {
@@ -49,9 +50,6 @@ public class AsynchronousTuneParser extends TuneParser {
 			AbcVersion abcVersion) {
 		super(abcVersion);
 		m_isQueueManagementEnabled = isQueueManagementEnabled;
-		m_queue = new Vector();
-		m_parsingThread = new Thread(new ParsingRunnable());
-		m_parsingThread.start();
 	}
 
 	/**
@@ -63,100 +61,37 @@ public class AsynchronousTuneParser extends TuneParser {
 	 * @return An object representation of the abc notation string.
 	 */
 	public Tune parse(String tune) {
-		synchronized (m_mutex) {
-			if (!m_isQueueManagementEnabled)
-				m_queue.removeAllElements();
-			m_queue.addElement(new QueueElement(new StringReader(tune), false));
-			m_mutex.notify();
-		}
-		return null;
+		return parse(new StringReader(tune));
 	}
 
 	public Tune parse(Reader charStream) {
-		synchronized (m_mutex) {
-			if (!m_isQueueManagementEnabled)
-				m_queue.removeAllElements();
-			m_queue.addElement(new QueueElement(charStream, false));
-			m_mutex.notify();
-		}
+		request(charStream, false);
 		return null;
 	}
 
 	public Tune parseHeader(String tune) {
-		synchronized (m_mutex) {
-			if (!m_isQueueManagementEnabled)
-				m_queue.removeAllElements();
-			m_queue.addElement(new QueueElement(new StringReader(tune), true));
-			m_mutex.notify();
-		}
-		return null;
+		return parseHeader(new StringReader(tune));
 	}
 
 	public Tune parseHeader(Reader charStream) {
-		synchronized (m_mutex) {
-			if (!m_isQueueManagementEnabled)
-				m_queue.removeAllElements();
-			m_queue.addElement(new QueueElement(charStream, true));
-			m_mutex.notify();
-		}
+		request(charStream, true);
 		return null;
 	}
 
-	private Vector getQueue() {
-		return m_queue;
-	}
-
 	public void superParse(Reader r) {
-		super.parse(r);
+		parseTune(r);
 	}
 
 	public void superParseHeader(Reader r) {
-		super.parseHeader(r);
+		parseTuneHeader(r);
 	}
 
-	private class ParsingRunnable implements Runnable {
-		public void run() {
-			try {
-				synchronized (m_mutex) {
-					while (true) {
-						while (!m_queue.isEmpty()) {
-							QueueElement q = (QueueElement) getQueue()
-									.elementAt(0);
-							getQueue().removeElementAt(0);
-							// System.out.println(" parsing " + q);
-							if (q.headerOnly())
-								AsynchronousTuneParser.this.superParseHeader(q
-										.getNotation());
-							else
-								AsynchronousTuneParser.this.superParse(q
-										.getNotation());
-						}
-						// System.out.println("waiting");
-						m_mutex.wait();
-					}
-				}
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-	}
-
-	private class QueueElement {
-		private Reader m_notation = null;
-		private boolean m_headerOnly = false;
-
-		public QueueElement(Reader notation, boolean headerOnly) {
-			m_notation = notation;
-			m_headerOnly = headerOnly;
-		}
-
-		public Reader getNotation() {
-			return m_notation;
-		}
-
-		public boolean headerOnly() {
-			return m_headerOnly;
-		}
-
+	private void request(Reader charStream, boolean headerOnly) {
+		ParsingService service = ParsingService.getInstance();
+		if (!m_isQueueManagementEnabled)
+			// the notations not parsed yet are dropped, and the one in
+			// progress is cancelled
+			service.cancel(this);
+		service.enqueue(this, charStream, headerOnly);
 	}
 }
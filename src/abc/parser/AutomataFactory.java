@@ -16,6 +16,7 @@
 package abc.parser;
 
 import java.util.Vector;
+import scanner.Set;
 import scanner.TokenType;
 import scanner.FinaleStateAutomata;
 import abc.parser.def.DefinitionFactory;
@@ -36,4 +37,10 @@ class AutomataFactory {
 				tokenTypes, abcVersion));
 	}
 
+	public static FinaleStateAutomata getAutomata(Set tokenTypes,
+			AbcVersion abcVersion) {
+		return new FinaleStateAutomata(DefinitionFactory.getDefinition(
+				tokenTypes, abcVersion));
+	}
+
 }
\ No newline at end of file
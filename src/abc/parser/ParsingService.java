@@ -0,0 +1,270 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses tunes in the background, with a few threads shared by all the
+ * editors, so that the thread that changes a notation, such as the event
+ * dispatch thread, never waits for its parsing.<br/>
+ * The parsings are requested per parser, each document being parsed by its
+ * own parser: the parsings of a parser are run one at a time, in the order
+ * they were requested. When the notation of a document changes quickly, as
+ * when typing, {@link #parse(TuneParser, String, int)} replaces the parsings
+ * not begun yet by the new one and cancels the parsing in progress, so that
+ * only the latest notation gets parsed.<br/>
+ * The resulting tune is delivered by the parser to its listeners, in the
+ * thread of this service: a listener that updates a Swing component must do
+ * so through <TT>SwingUtilities.invokeLater()</TT>. A cancelled parsing does
+ * not notify the end of its tune.
+ */
+public class ParsingService {
+
+	/** The name of the threads of the shared service. */
+	public static final String THREAD_NAME = "ABC-Parsing";
+
+	private static ParsingService instance = null;
+
+	private ScheduledThreadPoolExecutor m_executor = null;
+
+	/**
+	 * The parsings requested and the parsing in progress, by parser. A parser
+	 * is removed once it has nothing more to parse.
+	 */
+	private HashMap m_parsers = new HashMap();
+
+	/**
+	 * Returns the service shared by all the editors, its threads are daemon
+	 * threads.
+	 */
+	public static synchronized ParsingService getInstance() {
+		if (instance == null)
+			instance = new ParsingService(Math.min(2, Runtime.getRuntime()
+					.availableProcessors()));
+		return instance;
+	}
+
+	/**
+	 * Creates a new parsing service.
+	 *
+	 * @param threads
+	 *            The number of tunes that can be parsed at the same time.
+	 */
+	public ParsingService(int threads) {
+		m_executor = new ScheduledThreadPoolExecutor(threads,
+				new ThreadFactory() {
+					private int m_count = 0;
+
+					public synchronized Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, THREAD_NAME + "-"
+								+ ++m_count);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Parses a notation once the specified delay is elapsed, instead of the
+	 * notations requested before for the same parser: the parsings not begun
+	 * yet are dropped, the parsing in progress is cancelled.
+	 *
+	 * @param parser
+	 *            The parser of the document.
+	 * @param notation
+	 *            The abc notation of the tune.
+	 * @param delay
+	 *            The time, in milliseconds, to wait before parsing: a new
+	 *            notation requested meanwhile replaces this one and waits
+	 *            again.
+	 */
+	public void parse(TuneParser parser, String notation, int delay) {
+		request(new Request(parser, new StringReader(notation), false, delay),
+				true);
+	}
+
+	/**
+	 * Parses the header of a notation once the specified delay is elapsed,
+	 * instead of the notations requested before for the same parser.
+	 *
+	 * @param parser
+	 *            The parser of the document.
+	 * @param notation
+	 *            The abc notation of the tune.
+	 * @param delay
+	 *            The time, in milliseconds, to wait before parsing.
+	 * @see #parse(TuneParser, String, int)
+	 */
+	public void parseHeader(TuneParser parser, String notation, int delay) {
+		request(new Request(parser, new StringReader(notation), true, delay),
+				true);
+	}
+
+	/**
+	 * Parses a notation after the ones requested before for the same parser,
+	 * none of them being dropped.
+	 *
+	 * @param parser
+	 *            The parser of the document.
+	 * @param notation
+	 *            The stream of the abc notation, read in the thread of the
+	 *            service.
+	 * @param headerOnly
+	 *            <TT>true</TT> to parse the header of the tune only.
+	 */
+	public void enqueue(TuneParser parser, Reader notation, boolean headerOnly) {
+		request(new Request(parser, notation, headerOnly, 0), false);
+	}
+
+	/**
+	 * Drops the parsings of a parser that are not begun yet and cancels its
+	 * parsing in progress.
+	 *
+	 * @param parser
+	 *            The parser of the document.
+	 */
+	public void cancel(TuneParser parser) {
+		synchronized (m_parsers) {
+			Parsings parsings = (Parsings) m_parsers.get(parser);
+			if (parsings != null) {
+				parsings.m_requests.removeAllElements();
+				if (parsings.m_running != null)
+					parser.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Returns <TT>true</TT> if a parsing of this parser is waiting or in
+	 * progress: the tune it delivered last may then be out of date.
+	 *
+	 * @param parser
+	 *            The parser of the document.
+	 */
+	public boolean isPending(TuneParser parser) {
+		synchronized (m_parsers) {
+			Parsings parsings = (Parsings) m_parsers.get(parser);
+			return parsings != null
+					&& (parsings.m_running != null || !parsings.m_requests
+							.isEmpty());
+		}
+	}
+
+	private void request(Request request, boolean replace) {
+		synchronized (m_parsers) {
+			Parsings parsings = (Parsings) m_parsers.get(request.m_parser);
+			if (parsings == null) {
+				parsings = new Parsings(request.m_parser);
+				m_parsers.put(request.m_parser, parsings);
+			}
+			if (replace) {
+				parsings.m_requests.removeAllElements();
+				if (parsings.m_running != null)
+					// a parsing that has just begun may not see it and
+					// deliver its tune before this one
+					request.m_parser.cancel();
+			}
+			parsings.m_requests.addElement(request);
+			// the parsing in progress schedules the next one when it ends
+			if (parsings.m_running == null
+					&& (replace || parsings.m_scheduled == null))
+				parsings.schedule();
+		}
+	}
+
+	/** A notation to be parsed. */
+	private static class Request {
+		private TuneParser m_parser = null;
+		private Reader m_notation = null;
+		private boolean m_headerOnly = false;
+		/** The time the parsing can begin, in nanoseconds. */
+		private long m_time = 0;
+
+		Request(TuneParser parser, Reader notation, boolean headerOnly,
+				int delay) {
+			m_parser = parser;
+			m_notation = notation;
+			m_headerOnly = headerOnly;
+			m_time = System.nanoTime() + delay * 1000000L;
+		}
+	}
+
+	/** The parsings of a parser, run one after the other. */
+	private class Parsings implements Runnable {
+		private TuneParser m_parser = null;
+		/** The parsings not begun yet, in the order they were requested. */
+		private Vector m_requests = new Vector();
+		/** The parsing in progress, <TT>null</TT> if none. */
+		private Request m_running = null;
+		/** The next run of this, <TT>null</TT> if none is scheduled. */
+		private ScheduledFuture m_scheduled = null;
+
+		Parsings(TuneParser parser) {
+			m_parser = parser;
+		}
+
+		/** Schedules the first request, must be called with the lock held. */
+		private void schedule() {
+			if (m_scheduled != null)
+				m_scheduled.cancel(false);
+			long delay = ((Request) m_requests.firstElement()).m_time
+					- System.nanoTime();
+			m_scheduled = m_executor.schedule(this, Math.max(0, delay),
+					TimeUnit.NANOSECONDS);
+		}
+
+		public void run() {
+			Request request = null;
+			synchronized (m_parsers) {
+				// a run replaced by another one may have started already
+				if (m_running != null || m_requests.isEmpty())
+					return;
+				request = (Request) m_requests.firstElement();
+				if (request.m_time > System.nanoTime()) {
+					schedule();
+					return;
+				}
+				m_requests.removeElementAt(0);
+				m_running = request;
+				m_scheduled = null;
+			}
+			try {
+				if (request.m_headerOnly)
+					m_parser.parseTuneHeader(request.m_notation);
+				else
+					m_parser.parseTune(request.m_notation);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				synchronized (m_parsers) {
+					m_running = null;
+					if (!m_requests.isEmpty())
+						schedule();
+					else if (m_parsers.get(m_parser) == this)
+						m_parsers.remove(m_parser);
+				}
+			}
+		}
+	}
+}
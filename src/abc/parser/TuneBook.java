@@ -23,7 +23,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
 
@@ -43,6 +48,8 @@ public class TuneBook {
 	private AbcHeadersParser m_fileParser = null;
 	/** The tune parser used to parse tunes notation. */
 	private TuneParser m_parser = null;
+	/** The version of abc the tunes are parsed with. */
+	private AbcVersion m_abcVersion = null;
 	/**
 	 * The structure used to store the tunes. Key = Integer(ReferenceNumber)
 	 * Value = TranscribedTune instance
@@ -56,6 +63,17 @@ public class TuneBook {
 	 */
 	private Vector m_originalTunesOrder = null;
 	private File m_file = null;
+	/**
+	 * The index of the file of an indexed tunebook, the tunes not changed since
+	 * are read from it. <TT>null</TT> if the tunebook isn't indexed.
+	 */
+	private AbcFileIndex m_index = null;
+	/**
+	 * The tunes parsed last in an indexed tunebook, the least recently used
+	 * first. Key = Integer(ReferenceNumber) Value = Tune. <TT>null</TT> if the
+	 * tunebook isn't indexed, parsed tunes are then kept in m_tunes.
+	 */
+	private LinkedHashMap m_parsedTunes = null;
 
 	/**
 	 * Creates a new tune book from the specified file.
@@ -86,7 +104,7 @@ public class TuneBook {
 		this(abcVersion);
 		m_file = abcFile;
 		buildTunesTreeMap(new BufferedReader(new InputStreamReader(
-				new FileInputStream(abcFile))), null);
+				new FileInputStream(abcFile))), null, 0);
 	}
 
 	/**
@@ -125,7 +143,74 @@ public class TuneBook {
 		this(abcVersion);
 		m_file = abcFile;
 		buildTunesTreeMap(new BufferedReader(new InputStreamReader(
-				new FileInputStream(abcFile))), listener);
+				new FileInputStream(abcFile))), listener, 0);
+	}
+
+	/**
+	 * Creates a new tune book from the specified file, parsed with several
+	 * threads, and gets feedback from the parsing phasis via the specified
+	 * listener. The listener receives the same events in the same order as
+	 * when the file is parsed with one thread.
+	 * 
+	 * @param abcFile
+	 *            The file that contains tunes in abc notation.
+	 * @param listener
+	 *            Listener to be informed of the parsing phasis.
+	 * @param abcVersion
+	 *            Specify which ABC version to use for parsing
+	 *            {@link AbcVersion#v1_6} or {@link AbcVersion#v2_0}
+	 * @param threads
+	 *            The number of threads parsing the file.
+	 * @throws FileNotFoundException
+	 *             Thrown if the specified file doesn't exist.
+	 * @see AbcFileParser#parseFile(Reader, int)
+	 */
+	public TuneBook(File abcFile, AbcFileParserListenerInterface listener,
+			AbcVersion abcVersion, int threads) throws FileNotFoundException {
+		this(abcVersion);
+		m_file = abcFile;
+		buildTunesTreeMap(new BufferedReader(new InputStreamReader(
+				new FileInputStream(abcFile))), listener, threads);
+	}
+
+	/**
+	 * Creates a new tune book that indexes the specified file instead of
+	 * parsing it: the file is memory-mapped and scanned once for the beginning
+	 * and the end of each tune. The notation of a tune is read from the file
+	 * when it is asked for, and only the tunes parsed last are kept, so that
+	 * opening a large file is fast and takes little memory.<br/>
+	 * The tunes returned by {@link #getTunesHeaders()} only have the reference
+	 * number and the text fields of their header (titles, composer...): the
+	 * key or the meter are known from {@link #getTune(int)}. The file must not
+	 * be modified by another program while this tunebook is used.
+	 * 
+	 * @param abcFile
+	 *            The file that contains tunes in abc notation.
+	 * @param abcVersion
+	 *            Specify which ABC version to use for parsing
+	 *            {@link AbcVersion#v1_6} or {@link AbcVersion#v2_0}
+	 * @param maxParsedTunes
+	 *            The number of parsed tunes kept, the least recently used one
+	 *            is dropped beyond.
+	 * @exception IOException
+	 *                Thrown if the specified file can't be read.
+	 */
+	public TuneBook(File abcFile, AbcVersion abcVersion,
+			final int maxParsedTunes) throws IOException {
+		this(abcVersion);
+		m_file = abcFile;
+		m_index = new AbcFileIndex(abcFile, Charset.defaultCharset());
+		m_parsedTunes = new LinkedHashMap(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > maxParsedTunes;
+			}
+		};
+		for (int i = 0; i < m_index.size(); i++) {
+			TranscribedTune tune = new TranscribedTune();
+			tune.m_indexPosition = i;
+			m_tunes.put(new Integer(m_index.getReferenceNumber(i)), tune);
+			m_originalTunesOrder.addElement(tune);
+		}
 	}
 
 	/**
@@ -156,7 +241,7 @@ public class TuneBook {
 	 */
 	public TuneBook(Reader stream, AbcVersion abcVersion) throws IOException {
 		this(abcVersion);
-		buildTunesTreeMap(stream, null);
+		buildTunesTreeMap(stream, null, 0);
 	}
 
 	/**
@@ -195,7 +280,30 @@ public class TuneBook {
 	public TuneBook(Reader stream, AbcFileParserListenerInterface listener,
 			AbcVersion abcVersion) throws IOException {
 		this(abcVersion);
-		buildTunesTreeMap(stream, listener);
+		buildTunesTreeMap(stream, listener, 0);
+	}
+
+	/**
+	 * Creates a new tune book from the specified stream, parsed with several
+	 * threads, and gets feedback from the parsing phasis via the specified
+	 * listener. The listener receives the same events in the same order as
+	 * when the stream is parsed with one thread.
+	 * 
+	 * @param stream
+	 *            The stream in abc notation.
+	 * @param listener
+	 *            Listener to be informed of the parsing phasis.
+	 * @param abcVersion
+	 *            Specify which ABC version to use for parsing
+	 *            {@link AbcVersion#v1_6} or {@link AbcVersion#v2_0}
+	 * @param threads
+	 *            The number of threads parsing the stream.
+	 * @see AbcFileParser#parseFile(Reader, int)
+	 */
+	public TuneBook(Reader stream, AbcFileParserListenerInterface listener,
+			AbcVersion abcVersion, int threads) {
+		this(abcVersion);
+		buildTunesTreeMap(stream, listener, threads);
 	}
 
 	/**
@@ -215,6 +323,7 @@ public class TuneBook {
 	 *            {@link AbcVersion#v1_6} or {@link AbcVersion#v2_0}
 	 */
 	public TuneBook(AbcVersion abcVersion) {
+		m_abcVersion = abcVersion;
 		m_fileParser = new AbcHeadersParser(abcVersion);
 		m_parser = new TuneParser(abcVersion);
 		m_tunes = new TreeMap();
@@ -235,6 +344,15 @@ public class TuneBook {
 		save();
 	}
 
+	/**
+	 * Returns the version of abc the tunes of this tunebook are parsed with.
+	 * 
+	 * @return {@link AbcVersion#v1_6} or {@link AbcVersion#v2_0}
+	 */
+	public AbcVersion getAbcVersion() {
+		return m_abcVersion;
+	}
+
 	/**
 	 * Returns the file associated to this TuneBook if any.
 	 * 
@@ -246,19 +364,45 @@ public class TuneBook {
 		return m_file;
 	}
 
+	/**
+	 * Saves this tunebook to its file. The tunes are written to a
+	 * <TT>.part</TT> file next to it, which then replaces it at once : the
+	 * file indexed by this tunebook is unmapped first, and never written in
+	 * place.
+	 * 
+	 * @exception IOException
+	 *                Thrown if the file can't be written or replaced. If it
+	 *                can't be replaced, the tunes are kept in the
+	 *                <TT>.part</TT> file.
+	 */
 	public void save() throws IOException {
-		FileWriter writer = new FileWriter(m_file);
-		for (int i = 0; i < m_originalTunesOrder.size(); i++) {
-			TranscribedTune tune = (TranscribedTune) m_originalTunesOrder
-					.elementAt(i);
-			if (tune.header != null)
-				writer.write(tune.header);
-			writer.write(tune.notation);
-			if (tune.notation.charAt(tune.notation.length() - 1) != '\n'
-					|| tune.notation.charAt(tune.notation.length() - 2) != '\n')
-				writer.write("\n");
+		if (m_index != null)
+			// the indexed file may be the one replaced
+			readIndexedTunes();
+		File partFile = new File(m_file.getPath() + ".part");
+		FileWriter writer = new FileWriter(partFile);
+		try {
+			for (int i = 0; i < m_originalTunesOrder.size(); i++) {
+				TranscribedTune tune = (TranscribedTune) m_originalTunesOrder
+						.elementAt(i);
+				if (tune.header != null)
+					writer.write(tune.header);
+				writer.write(tune.notation);
+				if (tune.notation.charAt(tune.notation.length() - 1) != '\n'
+						|| tune.notation.charAt(tune.notation.length() - 2) != '\n')
+					writer.write("\n");
+			}
+		} finally {
+			writer.close();
+		}
+		try {
+			Files.move(partFile.toPath(), m_file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new IOException("Could not replace " + m_file
+					+ ", the tunes are saved in " + partFile, e);
 		}
-		writer.flush();
 		System.out.println("Saving to " + m_file.toString());
 	}
 
@@ -276,9 +420,13 @@ public class TuneBook {
 		Integer key = new Integer(parsedTune.getReferenceNumber());
 		TranscribedTune tune = (TranscribedTune) m_tunes.get(key);
 		if (tune != null) {
+			tune.header = tune.getHeader();
+			tune.m_indexPosition = -1;
 			tune.notation = tuneNotation;
 			tune.tune = parsedTune;
 			tune.m_onlyHeader = true;
+			if (m_parsedTunes != null)
+				m_parsedTunes.remove(key);
 			notifyListenersForTuneChange(new TuneChangeEvent(this,
 					TuneChangeEvent.TUNE_UPDATED, tune.tune, tuneNotation));
 		} else {
@@ -305,14 +453,16 @@ public class TuneBook {
 	 */
 	public Tune removeTune(int referenceNumber) {
 		if (m_tunes.remove(new Integer(referenceNumber)) != null) {
+			if (m_parsedTunes != null)
+				m_parsedTunes.remove(new Integer(referenceNumber));
 			TranscribedTune tune = null;
 			for (int i = 0; i < m_originalTunesOrder.size(); i++) {
 				tune = (TranscribedTune) m_originalTunesOrder.elementAt(i);
-				if (tune.tune.getReferenceNumber() == referenceNumber) {
+				if (tune.getTune().getReferenceNumber() == referenceNumber) {
 					m_originalTunesOrder.removeElementAt(i);
 					notifyListenersForTuneChange(new TuneChangeEvent(this,
 							TuneChangeEvent.TUNE_REMOVED, tune.tune,
-							tune.notation));
+							tune.getNotation()));
 					return tune.tune;
 				}
 			}
@@ -332,6 +482,14 @@ public class TuneBook {
 		Integer key = new Integer(referenceNumber);
 		TranscribedTune tune = (TranscribedTune) m_tunes.get(key);
 		if (tune != null) {
+			if (m_parsedTunes != null) {
+				Tune parsedTune = (Tune) m_parsedTunes.get(key);
+				if (parsedTune == null) {
+					parsedTune = m_parser.parse(tune.getNotation());
+					m_parsedTunes.put(key, parsedTune);
+				}
+				return parsedTune;
+			}
 			if (tune.m_onlyHeader == true) {
 				tune.tune = m_parser.parse(tune.notation);
 				tune.m_onlyHeader = false;
@@ -371,7 +529,7 @@ public class TuneBook {
 		Integer key = new Integer(referenceNumber);
 		TranscribedTune tune = (TranscribedTune) m_tunes.get(key);
 		if (tune != null) {
-			return tune.header;
+			return tune.getHeader();
 		}
 		return null;
 	}
@@ -393,7 +551,7 @@ public class TuneBook {
 		Integer key = new Integer(referenceNumber);
 		TranscribedTune tune = (TranscribedTune) m_tunes.get(key);
 		if (tune != null)
-			return tune.notation;
+			return tune.getNotation();
 		else
 			return null;
 	}
@@ -409,7 +567,7 @@ public class TuneBook {
 		Tune[] tunes = new Tune[m_tunes.size()];
 		int index = 0;
 		while (it.hasNext()) {
-			tunes[index] = ((TranscribedTune) m_tunes.get(it.next())).tune;
+			tunes[index] = ((TranscribedTune) m_tunes.get(it.next())).getTune();
 			index++;
 		}
 		return tunes;
@@ -464,7 +622,8 @@ public class TuneBook {
 		Vector v = new Vector();
 		Iterator keysIterator = keys.iterator();
 		while (keysIterator.hasNext())
-			v.addElement(((TranscribedTune) m_tunes.get(keysIterator.next())).tune);
+			v.addElement(((TranscribedTune) m_tunes.get(keysIterator.next()))
+					.getTune());
 		return v;
 	}
 
@@ -495,23 +654,68 @@ public class TuneBook {
 	}
 
 	// ============================= fills up the tunebook structure
+	/** Parses the stream with the specified threads, 0 to parse it in one go. */
 	private void buildTunesTreeMap(Reader readerStram,
-			AbcFileParserListenerInterface clientListener) {
+			AbcFileParserListenerInterface clientListener, int threads) {
 		m_tunes = new TreeMap();
 		ParserListener listener = new ParserListener();
 		m_fileParser.addListener(listener);
 		if (clientListener != null)
 			m_fileParser.addListener(clientListener);
-		m_fileParser.parseFile(readerStram);
+		if (threads > 0)
+			m_fileParser.parseFile(readerStram, threads);
+		else
+			m_fileParser.parseFile(readerStram);
 		m_fileParser.removeListener(listener);
 		m_fileParser.removeListener(clientListener);
 	}
 
+	/**
+	 * Reads the notation of the tunes from the indexed file, which isn't used
+	 * any longer and is unmapped.
+	 */
+	private void readIndexedTunes() {
+		for (int i = 0; i < m_originalTunesOrder.size(); i++) {
+			TranscribedTune tune = (TranscribedTune) m_originalTunesOrder
+					.elementAt(i);
+			if (tune.m_indexPosition != -1) {
+				tune.getTune();
+				tune.header = tune.getHeader();
+				tune.notation = tune.getNotation();
+				tune.m_indexPosition = -1;
+			}
+		}
+		m_index.close();
+		m_index = null;
+	}
+
 	private class TranscribedTune {
 		public String header = null;
 		public Tune tune = null;
 		public String notation = null;
 		public boolean m_onlyHeader = true;
+		/**
+		 * The position of the tune in m_index, -1 if its header and notation
+		 * are the fields above.
+		 */
+		public int m_indexPosition = -1;
+
+		public String getHeader() {
+			return m_indexPosition == -1 ? header : m_index
+					.getHeader(m_indexPosition);
+		}
+
+		public String getNotation() {
+			return m_indexPosition == -1 ? notation : m_index
+					.getNotation(m_indexPosition);
+		}
+
+		/** Returns the tune, only its header until it is parsed. */
+		public Tune getTune() {
+			if (tune == null)
+				tune = m_index.getHeaderFields(m_indexPosition);
+			return tune;
+		}
 	}
 
 	private class ParserListener implements ScannerListenerInterface,
@@ -70,18 +70,28 @@ public class TuneParser extends AbcParserAbstract {
 	 * 
 	 * @param charStream
 	 *            Tune stream in ABC notation.
-	 * @return A tune representing the ABC notation stream.
+	 * @return A tune representing the ABC notation stream, <TT>null</TT> if
+	 *         the parsing has been cancelled.
+	 * @see #cancel()
 	 */
 	public Tune parse(Reader charStream) {
+		return parseTune(charStream);
+	}
+
+	/**
+	 * Parses the specified stream in this thread, whatever the sub class does
+	 * in {@link #parse(Reader)}.
+	 */
+	Tune parseTune(Reader charStream) {
 		try {
 			Set current = null;
 			init();
-			m_scanner.init(charStream);
+			m_scanner.init(readFully(charStream));
 
 			current = new Set().union(FIRST_ABCHEADER).union(FIRST_FIELD_KEY);
 			// m_scanner.setFinaleStateAutomata(getAutomataFor(current.getTypes()));
 			m_automata.setDefinition(DefinitionFactory.getDefinition(
-					current.getTypes(), m_abcVersion));
+					current, m_abcVersion));
 			m_scanner.setFinaleStateAutomata(m_automata);
 			notifyListenersForTuneBegin();
 			try {
@@ -99,6 +109,8 @@ public class TuneParser extends AbcParserAbstract {
 			// Occurs when the last parts of the tune is just invalid
 			// characters.
 		}
+		if (isCancelled())
+			return null;
 		notifyListenersForTuneEnd(m_tune);
 		return m_tune;
 	}
@@ -122,17 +134,26 @@ public class TuneParser extends AbcParserAbstract {
 	 * @param charStream
 	 *            The stream to be parsed.
 	 * @return An object representation with no score of the abc notation
-	 *         string.
+	 *         string, <TT>null</TT> if the parsing has been cancelled.
+	 * @see #cancel()
 	 */
 	public Tune parseHeader(Reader charStream) {
+		return parseTuneHeader(charStream);
+	}
+
+	/**
+	 * Parses the header of the specified stream in this thread, whatever the
+	 * sub class does in {@link #parseHeader(Reader)}.
+	 */
+	Tune parseTuneHeader(Reader charStream) {
 		notifyListenersForTuneBegin();
 		try {
 			init();
-			m_scanner.init(charStream);
+			m_scanner.init(readFully(charStream));
 			Set current = new Set().union(FIRST_ABCHEADER).union(
 					FIRST_FIELD_KEY);
 			m_automata.setDefinition(DefinitionFactory.getDefinition(
-					current.getTypes(), m_abcVersion));
+					current, m_abcVersion));
 			m_scanner.setFinaleStateAutomata(m_automata);
 			// m_scanner.setFinaleStateAutomata(getAutomataFor(current.getTypes()));
 			try {
@@ -150,6 +171,8 @@ public class TuneParser extends AbcParserAbstract {
 			// characters.
 			// System.out.println("CATCHING NO SUCH ELEMENT EXCEPTION");
 		}
+		if (isCancelled())
+			return null;
 		notifyListenersForTuneEnd(m_tune);
 		return m_tune;
 	}
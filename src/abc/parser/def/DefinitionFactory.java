@@ -15,262 +15,273 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser.def;
 
-import java.util.Vector;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import scanner.AutomataDefinition;
+import scanner.Set;
 import scanner.TokenType;
 import abc.parser.AbcTokenType;
 import abc.parser.AbcVersion;
 
+/**
+ * Creates the automata definitions recognizing token types. A definition is
+ * created once for each set of token types and abc version, and then shared :
+ * definitions are cached in a map keyed by the bitset of the token types and
+ * the abc version, so that a definition is found in constant time whatever the
+ * number of definitions already created. The map can be used by several
+ * threads, and a cached definition is never changed, its transition table
+ * being compiled before the definition is cached.
+ */
 public class DefinitionFactory {
 
-	public static Vector m_allPreviouslyCreatedDefinitions = new Vector();
+	/** The definitions already created, by {@link DefinitionKey}. */
+	private static final ConcurrentHashMap m_definitions = new ConcurrentHashMap();
 
 	public static AutomataDefinition getDefinition(TokenType abcTokenType,
 			AbcVersion abcVersion) {
 		TokenType[] tokenTypes = { abcTokenType };
-		// System.out.println("getAutomataFor(" + toString(tokenTypes));
-		AutomataDefinition automataDef = null;
-		automataDef = getAlreadyCreatedDefinition(tokenTypes);
-
-		if (automataDef == null) {
-			if (abcTokenType == (AbcTokenType.FIELD_NUMBER))
-				automataDef = new FieldNumberDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_TITLE))
-				automataDef = new FieldTitleDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_AREA))
-				automataDef = new FieldAreaDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_BOOK))
-				automataDef = new FieldBookDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_COMPOSER))
-				automataDef = new FieldComposerDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_DISCOGRAPHY))
-				automataDef = new FieldDiscographyDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_ELEMSKIP))
-				automataDef = new FieldElemskipDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_FILEURL))
-				automataDef = new FieldFileDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_GROUP))
-				automataDef = new FieldGroupDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_HISTORY))
-				automataDef = new FieldHistoryDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_INFORMATION))
-				automataDef = new FieldInformationDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_DEFAULT_LENGTH))
-				automataDef = new FieldDefaultLengthDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_METER))
-				automataDef = new FieldMeterDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_NOTES))
-				automataDef = new FieldNotesDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_ORIGIN))
-				automataDef = new FieldOriginDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_PARTS))
-				automataDef = new FieldPartsDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_RHYTHM))
-				automataDef = new FieldRhythmDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_SOURCE))
-				automataDef = new FieldSourceDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_TEMPO))
-				automataDef = new FieldTempoDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_TRANSCRNOTES))
-				automataDef = new FieldTranscriptionNotesDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_KEY))
-				automataDef = new FieldKeyDefinition();
-			else if (abcTokenType == (AbcTokenType.FIELD_WORDS))
-				automataDef = new FieldWordsDefinition();
-			else if (abcTokenType == (AbcTokenType.KEY_HP))
-				automataDef = new KeyHPDefinition();
-			else if (abcTokenType == (AbcTokenType.C_METER))
-				automataDef = new MeterCDefinition();
-			else if (abcTokenType == (AbcTokenType.TEXT))
-				automataDef = new TextDefinition();
-			else if (abcTokenType == (AbcTokenType.NUMBER))
-				automataDef = new NumberDefinition();
-			else if (abcTokenType == (AbcTokenType.DIGIT))
-				automataDef = new DigitDefinition();
-			else if (abcTokenType == (AbcTokenType.FRACTION))
-				automataDef = new FractionDefinition();
-			else if (abcTokenType == (AbcTokenType.PART))
-				automataDef = new PartDefinition();
-			else if (abcTokenType == (AbcTokenType.PARENTHESIS_OPEN))
-				automataDef = new ParenthesisOpenDefinition();
-			else if (abcTokenType == (AbcTokenType.PARENTHESIS_CLOSE))
-				automataDef = new ParenthesisCloseDefinition();
-			else if (abcTokenType == (AbcTokenType.PLUS))
-				automataDef = new PlusDefinition();
-			else if (abcTokenType == (AbcTokenType.SPACE))
-				automataDef = new SpaceDefinition();
-			else if (abcTokenType == (AbcTokenType.LINE_FEED))
-				automataDef = new LineFeedDefinition();
-			else if (abcTokenType == (AbcTokenType.LINE_BREAK))
-				automataDef = new LineBreakDefinition();
-			else if (abcTokenType == (AbcTokenType.NO_LINE_BREAK))
-				automataDef = new NoLineBreakDefinition();
-			else if (abcTokenType == (AbcTokenType.BASE_NOTE))
-				automataDef = new BaseNoteDefinition();
-			else if (abcTokenType == (AbcTokenType.KEY_ACCIDENTAL))
-				automataDef = new KeyAccidentalDefinition();
-			else if (abcTokenType == (AbcTokenType.ACCIDENTAL))
-				automataDef = new AccidentalDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.MODE))
-				automataDef = new ModeDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.CLEF))
-				automataDef = new ClefTextDefinition();
-			else if (abcTokenType == (AbcTokenType.COMMENT))
-				automataDef = new CommentDefinition();
-			else if (abcTokenType == (AbcTokenType.GUITAR_CHORD))
-				automataDef = new GuitarChordDefinition();
-			else if (abcTokenType == (AbcTokenType.GRACING_BEGIN))
-				automataDef = new GracingBeginDefinition();
-			else if (abcTokenType == (AbcTokenType.ACCIACCATURA))
-				automataDef = new AcciaccaturaDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.GRACING_END))
-				automataDef = new GracingEndDefinition();
-			else if (abcTokenType == (AbcTokenType.GRACING))
-				automataDef = new GracingDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.SYMBOL_BEGIN))
-				automataDef = new SymbolBeginDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.SYMBOL))
-				automataDef = new SymbolDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.SYMBOL_END))
-				automataDef = new SymbolEndDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.ANNOTATION_BEGIN))
-				automataDef = new AnnotationBeginDefinition();
-			else if (abcTokenType == (AbcTokenType.ANNOTATION))
-				automataDef = new AnnotationDefinition();
-			else if (abcTokenType == (AbcTokenType.ANNOTATION_END))
-				automataDef = new AnnotationEndDefinition();
-			else if (abcTokenType == (AbcTokenType.SPACER))
-				automataDef = new SpacerDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.REST))
-				automataDef = new RestDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.BARLINE))
-				automataDef = new BarlineDefinition(abcVersion);
-			else if (abcTokenType == (AbcTokenType.NTH_REPEAT))
-				automataDef = new NthRepeatDefinition();
-			else if (abcTokenType == (AbcTokenType.BEGIN_SLUR))
-				automataDef = new SlurBeginDefinition();
-			else if (abcTokenType == (AbcTokenType.END_SLUR))
-				automataDef = new SlurEndDefinition();
-			else if (abcTokenType == (AbcTokenType.USER_DEFINED))
-				automataDef = new UserDefinedDefinition();
-			else if (abcTokenType == (AbcTokenType.OCTAVE))
-				automataDef = new OctaveDefinition();
-			else if (abcTokenType == (AbcTokenType.BROKEN_RHYTHM))
-				automataDef = new BrokenRhythmDefinition();
-			else if (abcTokenType == (AbcTokenType.TIE))
-				automataDef = new TieDefinition();
-			else if (abcTokenType == (AbcTokenType.TUPLET_SPEC))
-				automataDef = new TupletSpecDefinition();
-			else if (abcTokenType == (AbcTokenType.MULTI_NOTE_BEGIN))
-				automataDef = new MultiNoteBeginDefinition();
-			else if (abcTokenType == (AbcTokenType.MULTI_NOTE_END))
-				automataDef = new MultiNoteEndDefinition();
-			// else if (abcTokenType==(AbcTokenType.TEX_COMMAND)) automataDef =
-			// new TexCommandDefinition();
-			else if (abcTokenType == (AbcTokenType.CHORD_NAME))
-				automataDef = new ChordNameDefinition();
-			else if (abcTokenType == (AbcTokenType.EQUALS))
-				automataDef = new EqualsDefinition();
-			else if (abcTokenType == (AbcTokenType.C_TEMPO))
-				automataDef = new TempoCDefinition();
-			else if (abcTokenType == (AbcTokenType.COMA))
-				automataDef = new ComaDefinition();
-			else
-				throw new RuntimeException("NO AUTOMATA FOR " + abcTokenType);
-			m_allPreviouslyCreatedDefinitions.add(new DefinitionCache(
-					tokenTypes, automataDef));
-			// System.out.println("Creating item in cache for  " +
-			// toString(tokenTypes));
+		return getDefinition(tokenTypes, abcVersion);
+	}
 
-		}
-		// else
-		// System.out.println("Using cache for  " + toString(tokenTypes));
+	public static AutomataDefinition getDefinition(TokenType[] tokenTypes,
+			AbcVersion abcVersion) {
+		DefinitionKey key = new DefinitionKey(Set.toBitSet(tokenTypes),
+				abcVersion);
+		AutomataDefinition definition = (AutomataDefinition) m_definitions
+				.get(key);
+		if (definition == null)
+			definition = cache(key, createDefinition(tokenTypes, abcVersion));
+		return definition;
+	}
 
-		return automataDef;
+	/**
+	 * Returns the definition recognizing the token types of the given set.
+	 * Same as <TT>getDefinition(tokenTypes.getTypes(), abcVersion)</TT>, but
+	 * without creating the array of token types if the definition has already
+	 * been created.
+	 * 
+	 * @param tokenTypes
+	 *            The token types to be recognized.
+	 * @param abcVersion
+	 *            The abc version.
+	 * @return The definition recognizing the token types of the set.
+	 */
+	public static AutomataDefinition getDefinition(Set tokenTypes,
+			AbcVersion abcVersion) {
+		DefinitionKey key = new DefinitionKey(tokenTypes.toBitSet(), abcVersion);
+		AutomataDefinition definition = (AutomataDefinition) m_definitions
+				.get(key);
+		if (definition == null)
+			definition = cache(key, createDefinition(tokenTypes.getTypes(),
+					abcVersion));
+		return definition;
 	}
 
-	/*
-	 * public static AutomataDefinition getDefinition(Set aSet) { aSet. return
-	 * null; }
+	/**
+	 * Caches a definition, unless another thread has already cached one for
+	 * the same key.
+	 * 
+	 * @return The definition cached for the key.
 	 */
+	private static AutomataDefinition cache(DefinitionKey key,
+			AutomataDefinition definition) {
+		// compiled here, so that a cached definition is only read
+		definition.getTransitionTable();
+		AutomataDefinition alreadyCreated = (AutomataDefinition) m_definitions
+				.putIfAbsent(key, definition);
+		return alreadyCreated != null ? alreadyCreated : definition;
+	}
 
-	public static AutomataDefinition getDefinition(TokenType[] tokenTypes,
+	/**
+	 * Creates the union of the definitions of the given token types. The
+	 * definitions of the token types are created for this union only : the
+	 * union changes their states, so cached definitions cannot be used.
+	 */
+	private static AutomataDefinition createDefinition(TokenType[] tokenTypes,
 			AbcVersion abcVersion) {
-		// System.out.println("getAutomataFor(" + toString(tokenTypes));
-		AutomataDefinition alreadyCreated = getAlreadyCreatedDefinition(tokenTypes);
-		if (alreadyCreated != null) {
-			// System.out.println("Cache used for " + toString(tokenTypes));
-			return alreadyCreated;
-		} else {
-			AutomataDefinition definition = getDefinition(tokenTypes[0],
-					abcVersion);
-			if (tokenTypes.length >= 1) {
-				for (int i = 1; i < tokenTypes.length; i++)
-					definition = definition.union(getDefinition(tokenTypes[i],
-							abcVersion));
-			}
-			// System.out.println("Adding automataDef in cache for : " +
-			// toString(tokenTypes));
-			m_allPreviouslyCreatedDefinitions.addElement(new DefinitionCache(
-					tokenTypes, definition));
-			return definition;
-		}
+		AutomataDefinition definition = createDefinition(tokenTypes[0],
+				abcVersion);
+		for (int i = 1; i < tokenTypes.length; i++)
+			definition = definition.union(createDefinition(tokenTypes[i],
+					abcVersion));
+		return definition;
 	}
 
-	private static AutomataDefinition getAlreadyCreatedDefinition(
-			TokenType[] tokenTypes) {
-		AutomataDefinition alreadyCreatedAutomata = null;
-		for (int i = 0; i < m_allPreviouslyCreatedDefinitions.size()
-				&& (alreadyCreatedAutomata == null); i++) {
-			if (((DefinitionCache) m_allPreviouslyCreatedDefinitions
-					.elementAt(i)).isValidFor(tokenTypes))
-				alreadyCreatedAutomata = ((DefinitionCache) m_allPreviouslyCreatedDefinitions
-						.elementAt(i)).getAutomataResult();
-		}
-		return alreadyCreatedAutomata;
+	private static AutomataDefinition createDefinition(TokenType abcTokenType,
+			AbcVersion abcVersion) {
+		AutomataDefinition automataDef = null;
+		if (abcTokenType == (AbcTokenType.FIELD_NUMBER))
+			automataDef = new FieldNumberDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_TITLE))
+			automataDef = new FieldTitleDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_AREA))
+			automataDef = new FieldAreaDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_BOOK))
+			automataDef = new FieldBookDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_COMPOSER))
+			automataDef = new FieldComposerDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_DISCOGRAPHY))
+			automataDef = new FieldDiscographyDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_ELEMSKIP))
+			automataDef = new FieldElemskipDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_FILEURL))
+			automataDef = new FieldFileDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_GROUP))
+			automataDef = new FieldGroupDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_HISTORY))
+			automataDef = new FieldHistoryDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_INFORMATION))
+			automataDef = new FieldInformationDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_DEFAULT_LENGTH))
+			automataDef = new FieldDefaultLengthDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_METER))
+			automataDef = new FieldMeterDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_NOTES))
+			automataDef = new FieldNotesDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_ORIGIN))
+			automataDef = new FieldOriginDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_PARTS))
+			automataDef = new FieldPartsDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_RHYTHM))
+			automataDef = new FieldRhythmDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_SOURCE))
+			automataDef = new FieldSourceDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_TEMPO))
+			automataDef = new FieldTempoDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_TRANSCRNOTES))
+			automataDef = new FieldTranscriptionNotesDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_KEY))
+			automataDef = new FieldKeyDefinition();
+		else if (abcTokenType == (AbcTokenType.FIELD_WORDS))
+			automataDef = new FieldWordsDefinition();
+		else if (abcTokenType == (AbcTokenType.KEY_HP))
+			automataDef = new KeyHPDefinition();
+		else if (abcTokenType == (AbcTokenType.C_METER))
+			automataDef = new MeterCDefinition();
+		else if (abcTokenType == (AbcTokenType.TEXT))
+			automataDef = new TextDefinition();
+		else if (abcTokenType == (AbcTokenType.NUMBER))
+			automataDef = new NumberDefinition();
+		else if (abcTokenType == (AbcTokenType.DIGIT))
+			automataDef = new DigitDefinition();
+		else if (abcTokenType == (AbcTokenType.FRACTION))
+			automataDef = new FractionDefinition();
+		else if (abcTokenType == (AbcTokenType.PART))
+			automataDef = new PartDefinition();
+		else if (abcTokenType == (AbcTokenType.PARENTHESIS_OPEN))
+			automataDef = new ParenthesisOpenDefinition();
+		else if (abcTokenType == (AbcTokenType.PARENTHESIS_CLOSE))
+			automataDef = new ParenthesisCloseDefinition();
+		else if (abcTokenType == (AbcTokenType.PLUS))
+			automataDef = new PlusDefinition();
+		else if (abcTokenType == (AbcTokenType.SPACE))
+			automataDef = new SpaceDefinition();
+		else if (abcTokenType == (AbcTokenType.LINE_FEED))
+			automataDef = new LineFeedDefinition();
+		else if (abcTokenType == (AbcTokenType.LINE_BREAK))
+			automataDef = new LineBreakDefinition();
+		else if (abcTokenType == (AbcTokenType.NO_LINE_BREAK))
+			automataDef = new NoLineBreakDefinition();
+		else if (abcTokenType == (AbcTokenType.BASE_NOTE))
+			automataDef = new BaseNoteDefinition();
+		else if (abcTokenType == (AbcTokenType.KEY_ACCIDENTAL))
+			automataDef = new KeyAccidentalDefinition();
+		else if (abcTokenType == (AbcTokenType.ACCIDENTAL))
+			automataDef = new AccidentalDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.MODE))
+			automataDef = new ModeDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.CLEF))
+			automataDef = new ClefTextDefinition();
+		else if (abcTokenType == (AbcTokenType.COMMENT))
+			automataDef = new CommentDefinition();
+		else if (abcTokenType == (AbcTokenType.GUITAR_CHORD))
+			automataDef = new GuitarChordDefinition();
+		else if (abcTokenType == (AbcTokenType.GRACING_BEGIN))
+			automataDef = new GracingBeginDefinition();
+		else if (abcTokenType == (AbcTokenType.ACCIACCATURA))
+			automataDef = new AcciaccaturaDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.GRACING_END))
+			automataDef = new GracingEndDefinition();
+		else if (abcTokenType == (AbcTokenType.GRACING))
+			automataDef = new GracingDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.SYMBOL_BEGIN))
+			automataDef = new SymbolBeginDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.SYMBOL))
+			automataDef = new SymbolDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.SYMBOL_END))
+			automataDef = new SymbolEndDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.ANNOTATION_BEGIN))
+			automataDef = new AnnotationBeginDefinition();
+		else if (abcTokenType == (AbcTokenType.ANNOTATION))
+			automataDef = new AnnotationDefinition();
+		else if (abcTokenType == (AbcTokenType.ANNOTATION_END))
+			automataDef = new AnnotationEndDefinition();
+		else if (abcTokenType == (AbcTokenType.SPACER))
+			automataDef = new SpacerDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.REST))
+			automataDef = new RestDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.BARLINE))
+			automataDef = new BarlineDefinition(abcVersion);
+		else if (abcTokenType == (AbcTokenType.NTH_REPEAT))
+			automataDef = new NthRepeatDefinition();
+		else if (abcTokenType == (AbcTokenType.BEGIN_SLUR))
+			automataDef = new SlurBeginDefinition();
+		else if (abcTokenType == (AbcTokenType.END_SLUR))
+			automataDef = new SlurEndDefinition();
+		else if (abcTokenType == (AbcTokenType.USER_DEFINED))
+			automataDef = new UserDefinedDefinition();
+		else if (abcTokenType == (AbcTokenType.OCTAVE))
+			automataDef = new OctaveDefinition();
+		else if (abcTokenType == (AbcTokenType.BROKEN_RHYTHM))
+			automataDef = new BrokenRhythmDefinition();
+		else if (abcTokenType == (AbcTokenType.TIE))
+			automataDef = new TieDefinition();
+		else if (abcTokenType == (AbcTokenType.TUPLET_SPEC))
+			automataDef = new TupletSpecDefinition();
+		else if (abcTokenType == (AbcTokenType.MULTI_NOTE_BEGIN))
+			automataDef = new MultiNoteBeginDefinition();
+		else if (abcTokenType == (AbcTokenType.MULTI_NOTE_END))
+			automataDef = new MultiNoteEndDefinition();
+		// else if (abcTokenType==(AbcTokenType.TEX_COMMAND)) automataDef =
+		// new TexCommandDefinition();
+		else if (abcTokenType == (AbcTokenType.CHORD_NAME))
+			automataDef = new ChordNameDefinition();
+		else if (abcTokenType == (AbcTokenType.EQUALS))
+			automataDef = new EqualsDefinition();
+		else if (abcTokenType == (AbcTokenType.C_TEMPO))
+			automataDef = new TempoCDefinition();
+		else if (abcTokenType == (AbcTokenType.COMA))
+			automataDef = new ComaDefinition();
+		else
+			throw new RuntimeException("NO AUTOMATA FOR " + abcTokenType);
+		return automataDef;
 	}
 
-	public static class DefinitionCache {
-		private TokenType[] m_tokenTypes = null;
-		private AutomataDefinition m_automataDefResult = null;
+	/** The key of a definition : its token types and the abc version. */
+	private static class DefinitionKey {
+		private BitSet m_tokenTypes = null;
+		private AbcVersion m_abcVersion = null;
 
-		public DefinitionCache(TokenType[] tokenTypes,
-				AutomataDefinition automataDef) {
+		DefinitionKey(BitSet tokenTypes, AbcVersion abcVersion) {
 			m_tokenTypes = tokenTypes;
-			m_automataDefResult = automataDef;
+			m_abcVersion = abcVersion;
 		}
 
-		public boolean isValidFor(TokenType[] tokenTypes) {
-			boolean isValidFor = true;
-			if (m_tokenTypes.length == tokenTypes.length) {
-				for (int i = 0; i < m_tokenTypes.length && isValidFor; i++)
-					if (!contains(m_tokenTypes[i], tokenTypes))
-						isValidFor = false;
+		public boolean equals(Object o) {
+			if (o instanceof DefinitionKey) {
+				DefinitionKey key = (DefinitionKey) o;
+				return m_tokenTypes.equals(key.m_tokenTypes)
+						&& (m_abcVersion == null ? key.m_abcVersion == null
+								: m_abcVersion.equals(key.m_abcVersion));
 			} else
-				isValidFor = false;
-			return isValidFor;
+				return false;
 		}
 
-		public AutomataDefinition getAutomataResult() {
-			return m_automataDefResult;
+		public int hashCode() {
+			return 31 * m_tokenTypes.hashCode()
+					+ (m_abcVersion == null ? 0 : m_abcVersion.hashCode());
 		}
-
-		public TokenType[] getTokenTypes() {
-			return m_tokenTypes;
-		}
-
-	}
-
-	private static boolean contains(TokenType type, TokenType[] types) {
-		boolean contains = false;
-		int index = 0;
-		while (!contains && index < types.length)
-			if (type.equals(types[index]))
-				contains = true;
-			else
-				index++;
-		return contains;
 	}
 
 	public static String toString(TokenType[] types) {
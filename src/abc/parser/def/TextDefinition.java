@@ -15,9 +15,9 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser.def;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 
 import scanner.AutomataDefinition;
 import scanner.State;
@@ -55,24 +55,34 @@ public class TextDefinition extends AutomataDefinition {
 			// thorn '' and ''
 			'\u00DE', '\u00FE', };
 
-	private static char[] acceptedChars = null;
+	/** Filled once, then shared by all definitions and threads. */
+	private static volatile char[] acceptedChars = null;
 
 	public TextDefinition() {
 		if (acceptedChars == null) {
 			// Fills the char array with all latin extended
-			// chars defined in the AbcTextReplacements class.
-			Collection allChars = new ArrayList(chars.length + 100);
+			// chars defined in the AbcTextReplacements class. Each char is
+			// kept once : some replacements are already in the array, and
+			// Transition.intersect() fails on a char found twice.
+			Collection allChars = new LinkedHashSet(chars.length + 100);
 			for (int i = 0; i < chars.length; i++) {
-				allChars.add(String.valueOf(chars[i]));
+				allChars.add(new Character(chars[i]));
 			}
-			allChars.addAll(AbcTextReplacements.getInstance().values());
-			acceptedChars = new char[allChars.size()];
+			Iterator replacements = AbcTextReplacements.getInstance().values()
+					.iterator();
+			while (replacements.hasNext())
+				allChars.add(new Character(((String) replacements.next())
+						.charAt(0)));
+			// published only once filled, definitions may be created by
+			// several threads
+			char[] filled = new char[allChars.size()];
 			Iterator it = allChars.iterator();
 			int i = 0;
 			while (it.hasNext()) {
-				acceptedChars[i] = ((String) it.next()).charAt(0);
+				filled[i] = ((Character) it.next()).charValue();
 				i++;
 			}
+			acceptedChars = filled;
 		}
 
 		// ===================== FIELD
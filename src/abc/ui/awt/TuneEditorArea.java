@@ -22,19 +22,20 @@ import abc.parser.*;
 
 /**
  * A pane for displaying and editing tunes. This pane handles copy/paste
- * actions.
+ * actions. The text is parsed by the {@link ParsingService} once the user
+ * stops typing.
  */
 public class TuneEditorArea extends TextArea {
 	private static final long serialVersionUID = -687399329203942962L;
 	private static final int IDLE_TIME_BEFORE_REFRESH = 200;
 	private int m_idleTimeBeforeRefresh = IDLE_TIME_BEFORE_REFRESH;
 	/**
-	 * The thread in charge of refreshing the tune representation of this editor
-	 * pane.
+	 * The object in charge of refreshing the tune representation of this
+	 * editor pane.
 	 */
 	private ParsingRefresh m_refresher = null;
 	/** The tune currently represented in this editor pane. */
-	private Tune m_tune = null;
+	private volatile Tune m_tune = null;
 
 	// private int m_idleTime = 0;
 	// private boolean m_notationChanged = false;
@@ -60,60 +61,31 @@ public class TuneEditorArea extends TextArea {
 		return m_tune;
 	}
 
-	private class ParsingRefresh extends Thread implements TextListener {
+	private class ParsingRefresh extends TuneParserAdapter implements
+			TextListener {
 		private TextArea m_document = null;
 		private TuneParser m_parser = null;
-		private int m_idleTime = 0;
-		private Object m_mutex = new Object();
 
 		public ParsingRefresh(TextArea document, TuneParser parser) {
-			super("ABC-TuneEditorAreaRefresh");
 			m_parser = parser;
+			m_parser.addListener(this);
 			m_document = document;
 			m_document.addTextListener(this);
-			start();
 		}
 
 		public TuneParser getParser() {
 			return m_parser;
 		}
 
-		public void run() {
-			while (true) {
-				try {
-					synchronized (m_mutex) {
-						// System.out.println("Area - wait()");
-						m_mutex.wait();
-						do {
-							// System.out.println("Area - compting before parsing : "
-							// + m_idleTime);
-							m_mutex.wait(10);
-							m_idleTime += 10;
-						} while (m_idleTime <= IDLE_TIME_BEFORE_REFRESH);
-						try {
-
-							String tuneNotation = TuneEditorArea.this.getText();
-							if (!tuneNotation.equals("")) {
-								// System.out.println("Area - parsing("+
-								// tuneNotation +")");
-								m_tune = m_parser.parse(tuneNotation);
-							}
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
-					}
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
+		public void textValueChanged(TextEvent e) {
+			String tuneNotation = m_document.getText();
+			if (!tuneNotation.equals(""))
+				ParsingService.getInstance().parse(m_parser, tuneNotation,
+						m_idleTimeBeforeRefresh);
 		}
 
-		public void textValueChanged(TextEvent e) {
-			// m_notationChanged = true;
-			synchronized (m_mutex) {
-				m_idleTime = 0;
-				m_mutex.notify();
-			}
+		public void tuneEnd(Tune tune) {
+			m_tune = tune;
 		}
 	}
 }
@@ -20,6 +20,8 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -31,6 +33,7 @@ import java.util.Vector;
 
 import javax.imageio.ImageIO;
 import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
 
 import abc.notation.MusicElement;
 import abc.notation.Tune;
@@ -54,6 +57,13 @@ public class JScoreComponent extends JComponent implements
 
 	private static final long serialVersionUID = 7903517456075406436L;
 	private static final Color SELECTED_ITEM_COLOR = Color.RED;
+	/** The default memory the drawn tiles of the score may take. */
+	private static final long DEFAULT_TILE_CACHE_SIZE = 32 * 1024 * 1024;
+	/**
+	 * The space around the bounding box of an element that is drawn again when
+	 * it is (un)selected.
+	 */
+	private static final int SELECTION_MARGIN = 4;
 	/**
 	 * The graphical representation of the tune currently set. <TT>null</TT> if
 	 * no tune is set.
@@ -66,17 +76,18 @@ public class JScoreComponent extends JComponent implements
 	/** The place where all spacing dimensions are expressed. */
 	private ScoreTemplate m_template = null;
 	/**
-	 * The buffer where the score image is put before rendition in the swing
-	 * component.
+	 * The image whose graphic context is given to the template to measure the
+	 * score elements.
 	 */
 	private BufferedImage m_bufferedImage = null;
-	/** The graphic context of the buffered image used to generate the score. */
+	/** The graphic context of the buffered image used to measure the score. */
 	private Graphics2D m_bufferedImageGfx = null;
 	/**
-	 * Set to <TT>true</TT> if the score drawn into the buffered image is
-	 * outdated and does not represent the tune currently set.
+	 * The tiles of the score already drawn. Only the tiles intersecting the
+	 * visible area are drawn, and drawn again when the elements they show
+	 * change.
 	 */
-	private boolean m_isBufferedImageOutdated = true;
+	private ScoreTileCache m_tiles = new ScoreTileCache(DEFAULT_TILE_CACHE_SIZE);
 
 	/**
 	 * A vector of selected item(s) in this score. <TT>null</TT> if no item is
@@ -95,9 +106,10 @@ public class JScoreComponent extends JComponent implements
 	}
 
 	protected void initGfx() {
-		m_bufferedImage = new BufferedImage((int) m_dimension.getWidth(),
-				(int) m_dimension.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		// the score is drawn into tiles, this one only gives font metrics
+		m_bufferedImage = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
 		m_bufferedImageGfx = (Graphics2D) m_bufferedImage.createGraphics();
+		m_tiles.clear();
 		// staffLinesSpacing =
 		// (int)(m_metrics.getStaffCharBounds().getHeight()*2.5);
 	}
@@ -143,24 +155,78 @@ public class JScoreComponent extends JComponent implements
 		}
 	}
 
+	/**
+	 * Paints the tiles of the score intersecting the clip of the given graphic
+	 * context (the visible area when the score is in a scroll pane). The tiles
+	 * that are not in the cache are drawn first.
+	 */
 	public void paint(Graphics g) {
-		if (m_isBufferedImageOutdated) {
-			// System.out.println("buf image is outdated");
-			if (m_bufferedImage == null
-					|| m_dimension.getWidth() > m_bufferedImage.getWidth()
-					|| m_dimension.getHeight() > m_bufferedImage.getHeight()) {
-				initGfx();
+		Rectangle area = new Rectangle(0, 0, (int) m_dimension.getWidth(),
+				(int) m_dimension.getHeight());
+		Rectangle clip = g.getClipBounds();
+		if (clip != null)
+			area = area.intersection(clip);
+		if (area.isEmpty())
+			return;
+		int size = ScoreTileCache.TILE_SIZE;
+		for (int row = area.y / size; row <= (area.y + area.height - 1) / size; row++) {
+			for (int column = area.x / size; column <= (area.x + area.width - 1)
+					/ size; column++) {
+				BufferedImage tile = m_tiles.get(column, row);
+				if (tile == null) {
+					tile = drawTile(column, row);
+					m_tiles.put(column, row, tile);
+				}
+				g.drawImage(tile, column * size, row * size, null);
 			}
-			m_bufferedImageGfx.setColor(getBackground());
-			m_bufferedImageGfx.fillRect(0, 0, (int) m_bufferedImage.getWidth(),
-					(int) m_bufferedImage.getHeight());
-			drawIn(m_bufferedImageGfx);
-			m_isBufferedImageOutdated = false;
 		}
-		((Graphics2D) g).drawImage(m_bufferedImage, 0, 0, null);
 		// ((Graphics2D)g).drawString("test", 100, 100);
 	}
 
+	/** Draws the part of the score shown by a tile. */
+	private BufferedImage drawTile(int column, int row) {
+		int size = ScoreTileCache.TILE_SIZE;
+		BufferedImage tile = new BufferedImage(size, size,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D tileGfx = tile.createGraphics();
+		tileGfx.setColor(getBackground());
+		tileGfx.fillRect(0, 0, size, size);
+		tileGfx.translate(-column * size, -row * size);
+		// only the staff lines close to the tile are rendered
+		tileGfx.clipRect(column * size, row * size, size, size);
+		drawIn(tileGfx);
+		tileGfx.dispose();
+		return tile;
+	}
+
+	/**
+	 * Changes the memory the drawn tiles of the score may take. The tiles
+	 * least recently painted are dropped first.
+	 * 
+	 * @param bytes
+	 *            The memory in bytes, 32MB by default.
+	 */
+	public void setTileCacheSize(long bytes) {
+		m_tiles.setMaxBytes(bytes);
+	}
+
+	/**
+	 * Draws again the tiles showing the given elements, after their color has
+	 * changed.
+	 */
+	private void invalidateTiles(Collection elements) {
+		for (Iterator it = elements.iterator(); it.hasNext();) {
+			Rectangle2D box = ((JScoreElement) it.next()).getBoundingBox();
+			Rectangle2D.Double area = new Rectangle2D.Double(box.getX()
+					- SELECTION_MARGIN, box.getY() - SELECTION_MARGIN, box
+					.getWidth()
+					+ 2 * SELECTION_MARGIN, box.getHeight() + 2
+					* SELECTION_MARGIN);
+			m_tiles.invalidate(area);
+			repaint(area.getBounds());
+		}
+	}
+
 	/**
 	 * The size of the font used to display the music score.
 	 * 
@@ -223,7 +289,10 @@ public class JScoreComponent extends JComponent implements
 	public void refresh() {
 		initGfx();
 		if (m_jTune != null) {
-			setTune(m_jTune.getTune());
+			Tune tune = m_jTune.getTune();
+			// engraver and metrics may have changed, nothing can be kept
+			m_jTune = null;
+			setTune(tune);
 		}
 		repaint();
 	}
@@ -292,26 +361,40 @@ public class JScoreComponent extends JComponent implements
 		m_template.addListener(this);
 		// from refresh()
 		initGfx();
+		m_jTune = null;
 		setTune(tune);
 	}
 
 	/**
-	 * Sets the tune to be renderered.
+	 * Sets the tune to be renderered.<br>
+	 * When the tune is the one already displayed, the staff lines before the
+	 * first changed element are kept as they are, only the following ones are
+	 * computed again : setting the tune again after appending notes to it is
+	 * fast, whatever its length.<br>
+	 * The layout is changed in place while it is drawn : this method must be
+	 * called on the event dispatch thread. The tune is not copied, it must
+	 * only be changed on that thread too.
 	 * 
 	 * @param tune
 	 *            The tune to be displayed.
 	 */
 	public void setTune(Tune tune) {
-		m_jTune = new JTune(tune, new Point(0, 0), getTemplate());
+		assert SwingUtilities.isEventDispatchThread() : "setTune() outside"
+				+ " the event dispatch thread";
+		// kept elements must not stay highlighted
+		setSelectedItems(null);
+		if (m_jTune == null)
+			m_jTune = new JTune(tune, new Point(0, 0), getTemplate(), true);
+		else
+			m_jTune.setTune(tune);
 		m_jTune.setColor(getForeground());
 
 //		m_jTune.setColor(Color.RED);
 		
-		m_selectedItems = null;
 		m_dimension.setSize(m_jTune.getWidth(), m_jTune.getHeight());
 		setPreferredSize(m_dimension);
 		setSize(m_dimension);
-		m_isBufferedImageOutdated = true;
+		m_tiles.clear();
 		repaint();
 	}
 
@@ -373,6 +456,24 @@ public class JScoreComponent extends JComponent implements
 			return null;
 	}
 
+	/**
+	 * Returns the graphical score elements intersecting the given rectangle,
+	 * e.g. to select them with a rubber band.
+	 * 
+	 * @param area
+	 *            A rectangle in the score.
+	 * @return The graphical score elements found in the specified rectangle,
+	 *         in the order of the score. An empty collection is returned if no
+	 *         item is found.
+	 * @see #setSelectedItems(Collection)
+	 */
+	public Collection getScoreElementsIn(Rectangle2D area) {
+		if (m_jTune != null)
+			return m_jTune.getScoreElementsIn(area);
+		else
+			return new Vector(0);
+	}
+
 	/**
 	 * Highlights the given score element in the score. If an item was
 	 * previously selected, this previous item is unselected.
@@ -408,14 +509,15 @@ public class JScoreComponent extends JComponent implements
 			for (Iterator it = m_selectedItems.iterator(); it.hasNext();) {
 				((JScoreElement) it.next()).setColor(null);
 			}
+			invalidateTiles(m_selectedItems);
 			m_selectedItems = null;
 		}
 		if (elmnt != null) {
 			m_selectedItems = new Vector(1, 0);
 			m_selectedItems.add(elmnt);
 			elmnt.setColor(SELECTED_ITEM_COLOR);
+			invalidateTiles(m_selectedItems);
 		}
-		repaint();
 	}
 
 	/**
@@ -432,6 +534,7 @@ public class JScoreComponent extends JComponent implements
 			for (Iterator it = m_selectedItems.iterator(); it.hasNext();) {
 				((JScoreElement) it.next()).setColor(null);
 			}
+			invalidateTiles(m_selectedItems);
 			m_selectedItems = null;
 		}
 		if ((elements != null) && (elements.size() > 0)) {
@@ -439,6 +542,7 @@ public class JScoreComponent extends JComponent implements
 			for (Iterator it = m_selectedItems.iterator(); it.hasNext();) {
 				((JScoreElement) it.next()).setColor(SELECTED_ITEM_COLOR);
 			}
+			invalidateTiles(m_selectedItems);
 		}
 	}
 
@@ -469,6 +573,7 @@ public class JScoreComponent extends JComponent implements
 		if (m_jTune != null)
 			m_jTune.setOutdated();
 		getScoreMetrics().reload();
+		m_tiles.clear();
 	}
 
 }
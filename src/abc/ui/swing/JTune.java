@@ -18,6 +18,7 @@ package abc.ui.swing;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.geom.FlatteningPathIterator;
 import java.awt.geom.GeneralPath;
@@ -29,6 +30,7 @@ import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Vector;
@@ -81,6 +83,12 @@ public class JTune extends JScoreElementAbstract {
 	public final static byte STEMS_DOWN = 2;
 
 	private Tune m_tuneBeforeTransposition = null;
+	/**
+	 * <TT>true</TT> if the caller guarantees that the tune is not changed
+	 * while it is laid out or drawn, so that an untransposed tune can be laid
+	 * out as it is, without a copy.
+	 */
+	private boolean m_isTuneShared = false;
 
 	/** The tune to be displayed. */
 	private Tune m_tune = null;
@@ -110,6 +118,53 @@ public class JTune extends JScoreElementAbstract {
 	/** The staff lines drawings. */
 	private Vector m_staffLines = null;
 
+	/**
+	 * The elements of the staff lines by location, built on the first lookup
+	 * after {@link #compute()}.
+	 */
+	private ScoreElementsGrid m_grid = null;
+
+	/**
+	 * The points of the slurs and ties already drawn since the last
+	 * {@link #compute()} : finding the best curve is long, and each tile of
+	 * the score draws the links it shows.
+	 */
+	private HashMap m_linkPoints = new HashMap();
+
+	/**
+	 * The state of the engraving when each staff line was started, to engrave
+	 * again from there. Reset to compute the whole score.
+	 */
+	private Vector m_staffLineStarts = new Vector();
+	/** The width of each staff line before justification, as Double. */
+	private Vector m_naturalWidths = new Vector();
+	/** The width the staff lines have been justified to, -1 if none. */
+	private double m_justifiedWidth = -1;
+	/**
+	 * The music elements engraved by the last {@link #compute()}, voice
+	 * after voice, each voice preceded by its number.
+	 */
+	private Object[] m_engravedElements = new Object[0];
+	/**
+	 * What the layout of each staff line depends on, besides its elements.
+	 * 
+	 * @see #getLayoutKey()
+	 */
+	private String m_layoutKey = null;
+	/** Where the first staff line started, below the headers. */
+	private Point2D m_musicStart = null;
+	/** The tune engraved by the last {@link #compute()}. */
+	private Tune m_engravedTune = null;
+	/** The keys of {@link #m_scoreElements}, in the order they were put. */
+	private Vector m_scoreElementsKeys = new Vector();
+	/**
+	 * The value each put of {@link #m_scoreElementsKeys} has replaced,
+	 * <TT>null</TT> if none.
+	 */
+	private Vector m_scoreElementsReplaced = new Vector();
+	/** The state of the engraving before the current element. */
+	private StaffLineStart m_nextStaffLineStart = null;
+
 	private double m_height = -1;
 	private double m_width = -1;
 
@@ -131,7 +186,21 @@ public class JTune extends JScoreElementAbstract {
 	private Point2D cursor = null;
 
 	protected JTune(Tune tune, Point2D base, ScoreTemplate st) {
+		this(tune, base, st, false);
+	}
+
+	/**
+	 * @param isTuneShared
+	 *            <TT>true</TT> if the tune is only changed by the thread that
+	 *            lays it out, between two layouts : the untransposed tune is
+	 *            then laid out as it is, and only the staff lines after the
+	 *            elements appended to it are engraved again. Otherwise the
+	 *            tune is copied at each layout.
+	 */
+	protected JTune(Tune tune, Point2D base, ScoreTemplate st,
+			boolean isTuneShared) {
 		super(base, st.getMetrics());
+		m_isTuneShared = isTuneShared;
 		m_headerAndFooterTexts = new ArrayList();
 		m_staffLines = new Vector();
 		m_scoreElements = new Hashtable();
@@ -268,15 +337,42 @@ public class JTune extends JScoreElementAbstract {
 	 * matching the location.
 	 */
 	public JScoreElement getScoreElementAt(Point location) {
-		JScoreElement scoreEl = null;
-		for (int i = 0; i < m_staffLines.size(); i++) {
-			scoreEl = ((JStaffLine) m_staffLines.elementAt(i))
-					.getScoreElementAt(location);
-			if (scoreEl != null)
-				return scoreEl;
-			scoreEl = null;
+		return getGrid().getScoreElementAt(location);
+	}
+
+	/**
+	 * Returns the parts of the score (as JScoreElement instances) intersecting
+	 * a given rectangle, e.g. for a rubber band selection. The notes of a group
+	 * of notes are returned one by one, as {@link #getScoreElementAt(Point)}
+	 * does.
+	 * 
+	 * @param area
+	 *            A rectangle in the score.
+	 * @return A collection of JScoreElement instances, in the order of the
+	 *         score. Empty if no JScoreElement intersects the rectangle.
+	 */
+	public Collection getScoreElementsIn(Rectangle2D area) {
+		Vector elements = getGrid().getScoreElementsIn(area);
+		Vector ret = new Vector(elements.size());
+		for (int i = 0; i < elements.size(); i++) {
+			JScoreElement element = (JScoreElement) elements.elementAt(i);
+			if (element instanceof JGroupOfNotes) {
+				JScoreElementAbstract[] notes = ((JGroupOfNotes) element)
+						.getRenditionElements();
+				for (int j = 0; j < notes.length; j++) {
+					if (notes[j].getBoundingBox().intersects(area))
+						ret.addElement(notes[j]);
+				}
+			} else
+				ret.addElement(element);
 		}
-		return scoreEl;
+		return ret;
+	}
+
+	private ScoreElementsGrid getGrid() {
+		if (m_grid == null)
+			m_grid = new ScoreElementsGrid(m_staffLines);
+		return m_grid;
 	}
 
 	/**
@@ -294,6 +390,8 @@ public class JTune extends JScoreElementAbstract {
 	protected void setOutdated() {
 		m_isOutdated = true;
 		m_tune = null;
+		// the template has changed, nothing can be kept
+		m_staffLineStarts.clear();
 	}
 
 	private void computeTextFieldToJText(byte textField) {
@@ -397,7 +495,13 @@ public class JTune extends JScoreElementAbstract {
 	}
 
 	/**
-	 * (Re)calculate everything for the tune.
+	 * (Re)calculate everything for the tune.<br>
+	 * The staff lines whose music elements (the same objects, at the same
+	 * place in their voice) and all the elements before them are unchanged
+	 * since the previous computation are kept as they are, the engraving
+	 * starts again at the first staff line that may have changed. When
+	 * appending notes at the end of a tune, only the last staff line is
+	 * engraved again.
 	 */
 	private void compute() {
 		getBase().setLocation(
@@ -413,14 +517,17 @@ public class JTune extends JScoreElementAbstract {
 		// m_tuneBeforeTransposition = (Tune) m_tune.clone();
 		m_isOutdated = false;
 		m_music = null;
-		m_tune = Tune.transpose(m_tuneBeforeTransposition, getTransposition());
+		if ((getTransposition() == 0) && m_isTuneShared)
+			// the caller does not change its tune while it is drawn
+			m_tune = m_tuneBeforeTransposition;
+		else
+			m_tune = Tune.transpose(m_tuneBeforeTransposition,
+					getTransposition());
 
 		getEngraver().adaptToTune(m_tune, getMetrics());
 
-		m_scoreElements.clear();
-		m_scoreNoteGroups.clear();
-		m_staffLines.removeAllElements();
-		m_beginningNotesLinkElements.clear();
+		m_grid = null;
+		m_linkPoints.clear();
 
 		currentKey = null;
 		previousKey = null;
@@ -485,27 +592,89 @@ public class JTune extends JScoreElementAbstract {
 		// int durationInCurrentMeasure = 0;
 		Tuplet tupletContainer = null;
 		int staffLineNb = 0;
-		// init attributes that are for iterating through the score of the tune.
-		currentKey = m_tune.getKey();
-		if (currentKey != null) {
-			try {
-				previousKey = (KeySignature) currentKey.clone();
-			} catch (CloneNotSupportedException never) {
-				never.printStackTrace();
+		Voice[] voices = (Voice[]) m_music.getVoices().toArray(new Voice[0]);
+		int[] voicesOffsets = new int[voices.length];
+		Object[] engravedElements = getEngravedElements(voices, voicesOffsets);
+		String layoutKey = getLayoutKey();
+		StaffLineStart start = getStaffLineStart(engravedElements, layoutKey);
+		if (start != null
+				&& !isWidestStaffLineKept(m_staffLineStarts.indexOf(start)))
+			// the justified width is going to change, the kept staff lines
+			// would have to be justified again
+			start = null;
+		int firstVoice = 0, firstIndex = 0, keptLines = 0;
+		if (start == null) {
+			m_scoreElements.clear();
+			m_scoreElementsKeys.clear();
+			m_scoreElementsReplaced.clear();
+			m_scoreNoteGroups.clear();
+			m_staffLines.removeAllElements();
+			m_staffLineStarts.clear();
+			m_naturalWidths.clear();
+			m_beginningNotesLinkElements.clear();
+			m_musicStart = (Point2D) cursor.clone();
+			// init attributes that are for iterating through the score of the
+			// tune.
+			currentKey = m_tune.getKey();
+			if (currentKey != null) {
+				try {
+					previousKey = (KeySignature) currentKey.clone();
+				} catch (CloneNotSupportedException never) {
+					never.printStackTrace();
+				}
+			} else
+				previousKey = null;
+			previousTime = null;
+			currentTime = null;
+			currentStaffLineInitialized = false;
+			currentStaffLine = null;
+		} else {
+			// keep the staff lines before the start, and what they have
+			// added to the score
+			keptLines = m_staffLineStarts.indexOf(start);
+			m_staffLines.setSize(keptLines);
+			m_staffLineStarts.setSize(keptLines);
+			m_naturalWidths.setSize(keptLines);
+			for (int i = m_scoreElementsKeys.size() - 1; i >= start.m_scoreElementsNb; i--) {
+				Object replaced = m_scoreElementsReplaced.elementAt(i);
+				if (replaced != null)
+					m_scoreElements.put(m_scoreElementsKeys.elementAt(i),
+							replaced);
+				else
+					m_scoreElements.remove(m_scoreElementsKeys.elementAt(i));
 			}
-		} else
-			previousKey = null;
-		previousTime = null;
-		currentTime = null;
-		currentStaffLineInitialized = false;
-		currentStaffLine = null;
-		Iterator itVoices = m_music.getVoices().iterator();
-		while (itVoices.hasNext()) {
-			Voice voice = (Voice) itVoices.next();
+			m_scoreElementsKeys.setSize(start.m_scoreElementsNb);
+			m_scoreElementsReplaced.setSize(start.m_scoreElementsNb);
+			m_scoreNoteGroups.setSize(start.m_scoreNoteGroupsNb);
+			m_beginningNotesLinkElements
+					.setSize(start.m_beginningNotesLinkElementsNb);
+			cursor.setLocation(start.m_cursor);
+			currentKey = start.m_currentKey;
+			previousKey = start.m_previousKey;
+			currentClef = start.m_currentClef;
+			currentTime = start.m_currentTime;
+			previousTime = start.m_previousTime;
+			tupletContainer = start.m_tupletContainer;
+			lessThanQuarter.addAll(start.m_lessThanQuarter);
+			staffLineNb = start.m_staffLineNb;
+			currentStaffLineInitialized = false;
+			currentStaffLine = keptLines > 0 ? (JStaffLine) m_staffLines
+					.lastElement() : null;
+			firstVoice = start.m_voice;
+			firstIndex = start.m_index;
+		}
+		for (int v = firstVoice; v < voices.length; v++) {
+			Voice voice = voices[v];
 			m_currentVoice = voice.getVoiceNumber();
 			int size = 0;
-			for (m_index = 0, size = voice.size(); m_index < size; m_index++) {
+			for (m_index = (v == firstVoice) ? firstIndex : 0, size = voice
+					.size(); m_index < size; m_index++) {
 				MusicElement s = (MusicElement) voice.elementAt(m_index);
+				// the next staff line may start with this element
+				if (!currentStaffLineInitialized)
+					m_nextStaffLineStart = new StaffLineStart(v, m_index,
+							voicesOffsets[v] + 1 + m_index, lessThanQuarter,
+							tupletContainer, staffLineNb);
 				// System.out.println(s.toString() + " " +
 				// s.getReference().toString());
 				// ==== Notes>quarter, rests, notes without slur,tuplet ====
@@ -666,8 +835,17 @@ public class JTune extends JScoreElementAbstract {
 			// durationInGroup = 0;
 		}
 
-		if (isJustified())
-			justify();
+		if (!justify(keptLines)) {
+			// a new staff line is wider than the kept ones, they must be
+			// justified again
+			m_staffLineStarts.clear();
+			compute();
+			return;
+		}
+		m_nextStaffLineStart = null;
+		m_engravedTune = m_tuneBeforeTransposition;
+		m_engravedElements = engravedElements;
+		m_layoutKey = layoutKey;
 
 		cursor.setLocation(cursor.getX(), cursor.getY()
 				+ getMetrics().getStaffCharBounds().getHeight());
@@ -727,6 +905,7 @@ public class JTune extends JScoreElementAbstract {
 	 */
 	private void appendToScore(JScoreElementAbstract element) {
 		if (!currentStaffLineInitialized) {
+			m_staffLineStarts.addElement(m_nextStaffLineStart);
 			currentStaffLine = initNewStaffLine();
 			m_staffLines.addElement(currentStaffLine);
 			currentStaffLineInitialized = true;
@@ -775,15 +954,14 @@ public class JTune extends JScoreElementAbstract {
 		cursor.setLocation(cursorNewLocationX, cursor.getY());
 
 		if (element instanceof JNote)
-			m_scoreElements.put(element.getMusicElement().getReference(),
-					element);
+			putScoreElement(element.getMusicElement().getReference(), element);
 		else if (element instanceof JGroupOfNotes) {
 			JGroupOfNotes g = (JGroupOfNotes) element;
 			m_scoreNoteGroups.add(g);
 
 			for (int j = 0; j < g.getRenditionElements().length; j++) {
 				if ((g.getRenditionElements()[j]) instanceof JNote)
-					m_scoreElements.put(g.getMusicElements()[j].getReference(),
+					putScoreElement(g.getMusicElements()[j].getReference(),
 							g.getRenditionElements()[j]);
 				else if (g.getRenditionElements()[j] instanceof JChord) {
 					JNote[] jnotes = ((JChord) g.getRenditionElements()[j])
@@ -796,10 +974,10 @@ public class JTune extends JScoreElementAbstract {
 					// jnotes should be the same...
 					// System.out.println("Warning - abc4j - current limitation prevents you from using chords with different notes lengths.");
 					for (int i = 0; i < jnotes.length; i++)
-						m_scoreElements.put(jnotes[i].getMusicElement()
+						putScoreElement(jnotes[i].getMusicElement()
 								.getReference(), jnotes[i]);
 					// adds also the chords itself
-					m_scoreElements.put(g.getRenditionElements()[j]
+					putScoreElement(g.getRenditionElements()[j]
 							.getMusicElement().getReference(), g
 							.getRenditionElements()[j]);
 				}
@@ -813,14 +991,24 @@ public class JTune extends JScoreElementAbstract {
 			// should be the same...
 			// System.out.println("Warning - abc4j - current limitation prevents you from using chords with different notes lengths.");
 			for (int i = 0; i < jnotes.length; i++)
-				m_scoreElements.put(jnotes[i].getMusicElement().getReference(),
+				putScoreElement(jnotes[i].getMusicElement().getReference(),
 						jnotes[i]);
 			// adds also the chords itself
-			m_scoreElements.put(element.getMusicElement().getReference(),
-					element);
+			putScoreElement(element.getMusicElement().getReference(), element);
 		}
 	}
 
+	/**
+	 * Maps a music element reference to its rendition, remembering the order
+	 * of the mappings so that those of the staff lines engraved again can be
+	 * removed.
+	 */
+	private void putScoreElement(Object reference, JScoreElement element) {
+		m_scoreElementsKeys.addElement(reference);
+		m_scoreElementsReplaced.addElement(m_scoreElements.put(reference,
+				element));
+	}
+
 	private void appendToScore(ArrayList lessThanQuarterGroup) {
 		if (lessThanQuarterGroup.size() > 0) {
 			JScoreElementAbstract renditionResult = null;
@@ -888,7 +1076,7 @@ public class JTune extends JScoreElementAbstract {
 			// and N-2 is up too, then set N-1 up
 			// e.g.: in G clef A B A (B is up), c B c (B is down)
 			int count = currentStaffLine.countElement();
-			if (stemmable.isStemUp() && (count >= 2)) {
+			if (stemmable.isStemUp() && (count >= 3)) {
 				Vector staffElements = currentStaffLine.getStaffElements();
 				JScoreElement N1 = (JScoreElement) staffElements.get(count - 2);
 				JScoreElement N2 = (JScoreElement) staffElements.get(count - 3);
@@ -965,15 +1153,35 @@ public class JTune extends JScoreElementAbstract {
 		// for (int i=0; i<staffS.length; i++)
 		// staffS[i] = ScoreMetrics.STAFF_SIX_LINES;
 
+		// only the staff lines close to the clip, if any : a staff line
+		// is drawn between the top of the previous one and the top of the
+		// one after the next one
+		Rectangle clip = g2.getClipBounds();
+		JStaffLine firstRenderedStaffLine = null;
 		JStaffLine currentStaffLine = null;
 		for (int i = 0; i < m_staffLines.size(); i++) {
+			if (clip != null) {
+				if (i > 0
+						&& clip.getMaxY() < ((JStaffLine) m_staffLines
+								.elementAt(i - 1)).getTopY())
+					break;
+				if (i + 2 < m_staffLines.size()
+						&& clip.getMinY() > ((JStaffLine) m_staffLines
+								.elementAt(i + 2)).getTopY())
+					continue;
+			}
 			currentStaffLine = (JStaffLine) m_staffLines.elementAt(i);
 			currentStaffLine.render(g2);
+			if (firstRenderedStaffLine == null)
+				firstRenderedStaffLine = currentStaffLine;
 			// g2.drawChars(staffS, 0, staffS.length,
 			// (int)(currentStaffLine.getBase().getX()),
 			// (int)(currentStaffLine.getBase().getY()));
 		}
-		renderSlursAndTies(g2);
+		if (clip == null)
+			renderSlursAndTies(g2, null, null);
+		else if (firstRenderedStaffLine != null)
+			renderSlursAndTies(g2, firstRenderedStaffLine, currentStaffLine);
 
 		return getWidth();
 	}
@@ -1007,34 +1215,156 @@ public class JTune extends JScoreElementAbstract {
 
 	/**
 	 * Triggers the re computation of all staff lines elements in order to get
-	 * the alignment justified.
+	 * the alignment justified, if the score is justified.<br>
+	 * The kept staff lines have already been justified : only the others are
+	 * scaled, if the width of the widest staff line has not changed.
+	 * 
+	 * @param keptLines
+	 *            The number of staff lines kept from the previous
+	 *            computation.
+	 * @return <TT>false</TT> if the kept staff lines should have been
+	 *         justified to another width.
 	 */
-	private void justify() {
-		if (m_staffLines.size() > 1) {
-			double maxWidth = ((JStaffLine) m_staffLines.elementAt(0))
-					.getWidth();
-			for (int i = 1; i < m_staffLines.size(); i++) {
-				JStaffLine currentStaffLine = (JStaffLine) m_staffLines
-						.elementAt(i);
-				maxWidth = Math.max(maxWidth, currentStaffLine.getWidth());
-			}
-			for (int i = 0; i < m_staffLines.size(); i++) {
+	private boolean justify(int keptLines) {
+		// widths before scaling, kept ones have already been scaled
+		for (int i = m_naturalWidths.size(); i < m_staffLines.size(); i++)
+			m_naturalWidths.addElement(new Double(((JStaffLine) m_staffLines
+					.elementAt(i)).getWidth()));
+		double maxWidth = -1;
+		if (isJustified() && m_staffLines.size() > 1) {
+			for (int i = 0; i < m_naturalWidths.size(); i++)
+				maxWidth = Math.max(maxWidth, ((Double) m_naturalWidths
+						.elementAt(i)).doubleValue());
+		}
+		if (keptLines > 0 && maxWidth != m_justifiedWidth)
+			return false;
+		m_justifiedWidth = maxWidth;
+		if (maxWidth != -1) {
+			for (int i = keptLines; i < m_staffLines.size(); i++) {
 				JStaffLine currentStaffLine = (JStaffLine) m_staffLines
 						.elementAt(i);
 				if (currentStaffLine.getWidth() > maxWidth / 2)
 					currentStaffLine.scaleToWidth(maxWidth);
 			}
 		}
+		return true;
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the widest staff line of the previous
+	 * computation is among the kept ones, so that the kept staff lines stay
+	 * justified to the same width as long as the new ones are not wider.
+	 * 
+	 * @param keptLines
+	 *            The number of staff lines to keep from the previous
+	 *            computation.
+	 */
+	private boolean isWidestStaffLineKept(int keptLines) {
+		if (m_justifiedWidth == -1)
+			return true;
+		double maxWidth = -1;
+		for (int i = 0; i < keptLines; i++)
+			maxWidth = Math.max(maxWidth, ((Double) m_naturalWidths
+					.elementAt(i)).doubleValue());
+		return maxWidth == m_justifiedWidth;
+	}
+
+	/**
+	 * Returns the elements of the given voices, voice after voice, each voice
+	 * preceded by its number.
+	 * 
+	 * @param voicesOffsets
+	 *            Filled with the index of the number of each voice in the
+	 *            returned array.
+	 */
+	private Object[] getEngravedElements(Voice[] voices, int[] voicesOffsets) {
+		int size = voices.length;
+		for (int v = 0; v < voices.length; v++)
+			size += voices[v].size();
+		Object[] elements = new Object[size];
+		int offset = 0;
+		for (int v = 0; v < voices.length; v++) {
+			voicesOffsets[v] = offset;
+			elements[offset++] = new Byte(voices[v].getVoiceNumber());
+			Object[] voiceElements = voices[v].toArray();
+			System.arraycopy(voiceElements, 0, elements, offset,
+					voiceElements.length);
+			offset += voiceElements.length;
+		}
+		return elements;
+	}
+
+	/**
+	 * Returns what the layout of a staff line depends on, besides its
+	 * elements and the template : the spacing of the engraver, and the
+	 * space left above each staff line.
+	 */
+	private String getLayoutKey() {
+		StringBuffer key = new StringBuffer();
+		Note shortestNote = m_tune.getMusic().getShortestNoteInAllVoices();
+		key.append(shortestNote == null ? -1 : shortestNote.getDuration());
+		key.append(m_music.hasPartLabel() ? 'P' : '-');
+		key.append(m_music.hasTempo() ? 'T' : '-');
+		for (Iterator it = m_music.getVoices().iterator(); it.hasNext();)
+			key.append(((Voice) it.next()).hasChordNames() ? 'C' : '-');
+		return key.toString();
+	}
+
+	/**
+	 * Returns the start of the last staff line of the previous computation
+	 * that can be engraved again from, keeping the staff lines before it :
+	 * all the elements before it are the elements engraved the last time,
+	 * the layout is the same, and the music starts at the same place.
+	 * 
+	 * @return The start of a staff line of {@link #m_staffLineStarts},
+	 *         <TT>null</TT> if all the score must be engraved.
+	 */
+	private StaffLineStart getStaffLineStart(Object[] engravedElements,
+			String layoutKey) {
+		if (m_staffLineStarts.isEmpty()
+				|| m_engravedTune != m_tuneBeforeTransposition
+				|| !layoutKey.equals(m_layoutKey)
+				|| !cursor.equals(m_musicStart))
+			return null;
+		// length of the common part, elements compared by identity
+		int common = 0;
+		int length = Math.min(engravedElements.length,
+				m_engravedElements.length);
+		while (common < length) {
+			Object element = engravedElements[common];
+			Object engraved = m_engravedElements[common];
+			if (element != engraved
+					&& !(element instanceof Byte && element.equals(engraved)))
+				break;
+			common++;
+		}
+		for (int i = m_staffLineStarts.size() - 1; i >= 0; i--) {
+			StaffLineStart start = (StaffLineStart) m_staffLineStarts
+					.elementAt(i);
+			if (start.m_position <= common)
+				return start;
+		}
+		return null;
 	}
 
-	private void renderSlursAndTies(Graphics2D g2) {
+	/**
+	 * @param firstStaffLine
+	 *            The first of the staff lines that have been rendered, only
+	 *            the links spanning one of them are drawn. <TT>null</TT> to
+	 *            draw all the links.
+	 * @param lastStaffLine
+	 *            The last of the staff lines that have been rendered.
+	 */
+	private void renderSlursAndTies(Graphics2D g2, JStaffLine firstStaffLine,
+			JStaffLine lastStaffLine) {
 		Color previousColor = g2.getColor();
 		// System.err.println("renderSlursAndTies");
 		for (int j = 0; j < m_beginningNotesLinkElements.size(); j++) {
 			NoteAbstract n = (NoteAbstract) m_beginningNotesLinkElements
 					.elementAt(j);
 			TwoNotesLink link = n.getTieDefinition();
-			if (link != null && link.getEnd() != null) {
+			if (link != null && link.getEnd() != null
+					&& isOnStaffLines(link, firstStaffLine, lastStaffLine)) {
 				setColor(g2, ScoreElements.TIE);
 				drawLink(g2, link);
 			}
@@ -1043,7 +1373,8 @@ public class JTune extends JScoreElementAbstract {
 			int i = 0;
 			while (i < slurs.size()) {
 				link = (SlurDefinition) slurs.elementAt(i);
-				if (link != null && link.getEnd() != null) {
+				if (link != null && link.getEnd() != null
+						&& isOnStaffLines(link, firstStaffLine, lastStaffLine)) {
 					drawLink(g2, link);
 				}
 				i++;
@@ -1052,6 +1383,32 @@ public class JTune extends JScoreElementAbstract {
 		g2.setColor(previousColor);
 	}
 
+	/**
+	 * Returns <TT>true</TT> if the link spans one of the staff lines from the
+	 * first to the last given one : it starts or ends on one of them, or
+	 * starts above them and ends below them. Also <TT>true</TT> if its notes
+	 * can't be found.
+	 */
+	private boolean isOnStaffLines(TwoNotesLink link, JStaffLine firstStaffLine,
+			JStaffLine lastStaffLine) {
+		if (firstStaffLine == null)
+			return true;
+		JScoreElement start = getRenditionObjectFor(link.getStart());
+		JScoreElement end = getRenditionObjectFor(link.getEnd());
+		if (!(start instanceof JScoreElementAbstract)
+				|| !(end instanceof JScoreElementAbstract))
+			return true;
+		JStaffLine startLine = ((JScoreElementAbstract) start).getStaffLine();
+		JStaffLine endLine = ((JScoreElementAbstract) end).getStaffLine();
+		if (startLine == null || endLine == null)
+			return true;
+		// the staff lines are laid out from top to bottom
+		double top = Math.min(startLine.getTopY(), endLine.getTopY());
+		double bottom = Math.max(startLine.getTopY(), endLine.getTopY());
+		return top <= lastStaffLine.getTopY()
+				&& bottom >= firstStaffLine.getTopY();
+	}
+
 	/**
 	 * Draw a link between 2 notes
 	 * 
@@ -1060,15 +1417,23 @@ public class JTune extends JScoreElementAbstract {
 	 * @param slurDef
 	 */
 	protected void drawLink(Graphics2D g2, TwoNotesLink slurDef) {
-		Point2D[] points = null;
-		try {
-			points = getLinkPoints(slurDef);
-		} catch (Exception e) {
-			System.err.println("Exception in drawLink : " + e.getMessage());
-			e.printStackTrace();
+		Point2D[] bestPoints = (Point2D[]) m_linkPoints.get(slurDef);
+		if (bestPoints == null) {
+			try {
+				bestPoints = getLinkPoints(slurDef);
+			} catch (Exception e) {
+				System.err.println("Exception in drawLink : " + e.getMessage());
+				e.printStackTrace();
+			}
+			if (bestPoints != null)
+				m_linkPoints.put(slurDef, bestPoints);
 		}
-		if ((points == null) || (points.length != 3))
+		if ((bestPoints == null) || (bestPoints.length != 3))
 			return;
+		// the control point is moved below
+		Point2D[] points = new Point2D[3];
+		for (int i = 0; i < points.length; i++)
+			points[i] = (Point2D) bestPoints[i].clone();
 
 		// TODO move this in JSlurOrTie.render(g2);
 		JSlurOrTie jSlurDef = getJSlurOrTie(slurDef);
@@ -1752,6 +2117,49 @@ public class JTune extends JScoreElementAbstract {
 		return newCtrl;
 	}
 
+	/**
+	 * The state of the engraving before the first element of a staff line,
+	 * to engrave the score again from this staff line.
+	 */
+	private class StaffLineStart {
+		/** Index of the voice of the element in the voices of the music. */
+		int m_voice;
+		/** Index of the element in its voice. */
+		int m_index;
+		/** Index of the element in {@link JTune#m_engravedElements}. */
+		int m_position;
+		Point2D m_cursor;
+		KeySignature m_currentKey, m_previousKey;
+		Clef m_currentClef;
+		TimeSignature m_currentTime, m_previousTime;
+		Tuplet m_tupletContainer;
+		/** The notes waiting to be grouped. */
+		ArrayList m_lessThanQuarter;
+		int m_staffLineNb;
+		int m_scoreElementsNb, m_scoreNoteGroupsNb,
+				m_beginningNotesLinkElementsNb;
+
+		StaffLineStart(int voice, int index, int position,
+				ArrayList lessThanQuarter, Tuplet tupletContainer,
+				int staffLineNb) {
+			m_voice = voice;
+			m_index = index;
+			m_position = position;
+			m_cursor = (Point2D) cursor.clone();
+			m_currentKey = currentKey;
+			m_previousKey = previousKey;
+			m_currentClef = currentClef;
+			m_currentTime = currentTime;
+			m_previousTime = previousTime;
+			m_tupletContainer = tupletContainer;
+			m_lessThanQuarter = new ArrayList(lessThanQuarter);
+			m_staffLineNb = staffLineNb;
+			m_scoreElementsNb = m_scoreElementsKeys.size();
+			m_scoreNoteGroupsNb = m_scoreNoteGroups.size();
+			m_beginningNotesLinkElementsNb = m_beginningNotesLinkElements
+					.size();
+		}
+	}
 }
 
 class MalFormedCurveException extends Exception {
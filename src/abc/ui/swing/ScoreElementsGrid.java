@@ -0,0 +1,220 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.ui.swing;
+
+import java.awt.Point;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * A uniform grid over the bounding boxes of the elements of the staff lines
+ * of a score. Each cell of the grid knows the elements whose bounding box
+ * overlaps it, in the order of the staff lines and of their elements, so that
+ * a location is resolved by looking at the few elements of a single cell.<br>
+ * The bounding boxes are read when the grid is built : it must be built again
+ * when the score is computed again.
+ *
+ * @see JTune#getScoreElementAt(Point)
+ * @see JTune#getScoreElementsIn(Rectangle2D)
+ */
+class ScoreElementsGrid {
+
+	/** The elements of the staff lines, in their order. */
+	private JScoreElement[] m_elements = null;
+	/** The bounding box of each element : minX, minY, maxX, maxY. */
+	private double[] m_boxes = null;
+
+	/** The top left corner of the grid. */
+	private double m_x = 0, m_y = 0;
+	private double m_cellWidth = 1, m_cellHeight = 1;
+	private int m_columns = 0, m_rows = 0;
+	/**
+	 * The elements of cell <TT>c</TT> (<TT>row * columns + column</TT>) are
+	 * at indexes <TT>m_cellStarts[c]</TT> to <TT>m_cellStarts[c+1]</TT> of
+	 * {@link #m_cellElements}.
+	 */
+	private int[] m_cellStarts = null;
+	/** The index of the elements in each cell, in increasing order. */
+	private int[] m_cellElements = null;
+
+	/**
+	 * Builds the grid over the elements of the given staff lines.
+	 *
+	 * @param staffLines
+	 *            A vector of <TT>JStaffLine</TT>.
+	 */
+	ScoreElementsGrid(Vector staffLines) {
+		Vector elements = new Vector();
+		for (int i = 0; i < staffLines.size(); i++)
+			elements.addAll(((JStaffLine) staffLines.elementAt(i))
+					.getStaffElements());
+		int count = elements.size();
+		m_elements = new JScoreElement[count];
+		m_boxes = new double[count * 4];
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		double totalWidth = 0, totalHeight = 0;
+		for (int i = 0; i < count; i++) {
+			JScoreElement element = (JScoreElement) elements.elementAt(i);
+			Rectangle2D box = element.getBoundingBox();
+			m_elements[i] = element;
+			m_boxes[i * 4] = box.getMinX();
+			m_boxes[i * 4 + 1] = box.getMinY();
+			m_boxes[i * 4 + 2] = box.getMaxX();
+			m_boxes[i * 4 + 3] = box.getMaxY();
+			minX = Math.min(minX, box.getMinX());
+			minY = Math.min(minY, box.getMinY());
+			maxX = Math.max(maxX, box.getMaxX());
+			maxY = Math.max(maxY, box.getMaxY());
+			totalWidth += box.getWidth();
+			totalHeight += box.getHeight();
+		}
+		if (count == 0) {
+			m_cellStarts = new int[1];
+			m_cellElements = new int[0];
+			return;
+		}
+
+		// cells about twice the size of an average element, at most about 4
+		// cells per element
+		m_x = minX;
+		m_y = minY;
+		m_cellWidth = Math.max(1, 2 * totalWidth / count);
+		m_cellHeight = Math.max(1, 2 * totalHeight / count);
+		double cells = Math.ceil((maxX - minX) / m_cellWidth)
+				* Math.ceil((maxY - minY) / m_cellHeight);
+		if (cells > 4 * count) {
+			double scale = Math.sqrt(cells / (4 * count));
+			m_cellWidth *= scale;
+			m_cellHeight *= scale;
+		}
+		m_columns = (int) ((maxX - minX) / m_cellWidth) + 1;
+		m_rows = (int) ((maxY - minY) / m_cellHeight) + 1;
+
+		// count, then fill the elements of each cell
+		m_cellStarts = new int[m_columns * m_rows + 1];
+		for (int i = 0; i < count; i++) {
+			int firstColumn = column(m_boxes[i * 4]), lastColumn = column(m_boxes[i * 4 + 2]);
+			int firstRow = row(m_boxes[i * 4 + 1]), lastRow = row(m_boxes[i * 4 + 3]);
+			for (int r = firstRow; r <= lastRow; r++)
+				for (int c = firstColumn; c <= lastColumn; c++)
+					m_cellStarts[r * m_columns + c + 1]++;
+		}
+		for (int c = 0; c < m_columns * m_rows; c++)
+			m_cellStarts[c + 1] += m_cellStarts[c];
+		m_cellElements = new int[m_cellStarts[m_columns * m_rows]];
+		int[] filled = new int[m_columns * m_rows];
+		for (int i = 0; i < count; i++) {
+			int firstColumn = column(m_boxes[i * 4]), lastColumn = column(m_boxes[i * 4 + 2]);
+			int firstRow = row(m_boxes[i * 4 + 1]), lastRow = row(m_boxes[i * 4 + 3]);
+			for (int r = firstRow; r <= lastRow; r++)
+				for (int c = firstColumn; c <= lastColumn; c++) {
+					int cell = r * m_columns + c;
+					m_cellElements[m_cellStarts[cell] + filled[cell]++] = i;
+				}
+		}
+	}
+
+	private int column(double x) {
+		return Math.max(0, Math.min(m_columns - 1,
+				(int) Math.floor((x - m_x) / m_cellWidth)));
+	}
+
+	private int row(double y) {
+		return Math.max(0, Math.min(m_rows - 1,
+				(int) Math.floor((y - m_y) / m_cellHeight)));
+	}
+
+	private boolean isOutside(double x, double y) {
+		return m_columns == 0 || x < m_x || y < m_y
+				|| x > m_x + m_columns * m_cellWidth
+				|| y > m_y + m_rows * m_cellHeight;
+	}
+
+	/**
+	 * Returns the score element located at the given point : the first
+	 * element, in the order of the staff lines, whose
+	 * {@link JScoreElement#getScoreElementAt(Point)} matches.
+	 *
+	 * @param location
+	 *            A location.
+	 * @return The score element at this location, <TT>null</TT> if none.
+	 */
+	JScoreElement getScoreElementAt(Point location) {
+		if (location == null || isOutside(location.getX(), location.getY()))
+			return null;
+		int cell = row(location.getY()) * m_columns + column(location.getX());
+		for (int k = m_cellStarts[cell]; k < m_cellStarts[cell + 1]; k++) {
+			int i = m_cellElements[k];
+			// the bounding box of an element includes the boxes of the
+			// elements it can return (notes of a group or of a chord)
+			if (location.getX() >= m_boxes[i * 4]
+					&& location.getY() >= m_boxes[i * 4 + 1]
+					&& location.getX() <= m_boxes[i * 4 + 2]
+					&& location.getY() <= m_boxes[i * 4 + 3]) {
+				JScoreElement found = m_elements[i].getScoreElementAt(location);
+				if (found != null)
+					return found;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the elements of the staff lines whose bounding box intersects
+	 * the given rectangle, in the order of the staff lines.
+	 *
+	 * @param area
+	 *            A rectangle in the score.
+	 * @return A vector of <TT>JScoreElement</TT>, empty if none.
+	 */
+	Vector getScoreElementsIn(Rectangle2D area) {
+		Vector result = new Vector();
+		if (m_columns == 0 || area.getMaxX() < m_x || area.getMaxY() < m_y
+				|| area.getMinX() > m_x + m_columns * m_cellWidth
+				|| area.getMinY() > m_y + m_rows * m_cellHeight)
+			return result;
+		int firstColumn = column(area.getMinX()), lastColumn = column(area.getMaxX());
+		int firstRow = row(area.getMinY()), lastRow = row(area.getMaxY());
+		int[] found = new int[16];
+		int foundNb = 0;
+		for (int r = firstRow; r <= lastRow; r++)
+			for (int c = firstColumn; c <= lastColumn; c++) {
+				int cell = r * m_columns + c;
+				for (int k = m_cellStarts[cell]; k < m_cellStarts[cell + 1]; k++) {
+					int i = m_cellElements[k];
+					if (area.getMinX() <= m_boxes[i * 4 + 2]
+							&& area.getMinY() <= m_boxes[i * 4 + 3]
+							&& area.getMaxX() >= m_boxes[i * 4]
+							&& area.getMaxY() >= m_boxes[i * 4 + 1]) {
+						if (foundNb == found.length) {
+							int[] larger = new int[found.length * 2];
+							System.arraycopy(found, 0, larger, 0, foundNb);
+							found = larger;
+						}
+						found[foundNb++] = i;
+					}
+				}
+			}
+		// an element overlapping several cells is found once per cell
+		Arrays.sort(found, 0, foundNb);
+		for (int k = 0; k < foundNb; k++)
+			if (k == 0 || found[k] != found[k - 1])
+				result.addElement(m_elements[found[k]]);
+		return result;
+	}
+}
@@ -0,0 +1,143 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.ui.swing;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * The images of the square tiles of a score already drawn, by column and row.
+ * The tiles least recently used are dropped when the images take more memory
+ * than allowed.<br>
+ * The tiles are only used on the event dispatch thread, where the score is
+ * painted : the changes asked by other threads are done there later.
+ *
+ * @see JScoreComponent#paint(java.awt.Graphics)
+ */
+class ScoreTileCache {
+
+	/** The width and height of a tile, in pixels. */
+	static final int TILE_SIZE = 256;
+
+	/** The memory a tile takes, 4 bytes per pixel. */
+	private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+	/** <TT>Long</TT> key of a tile => its image, least recently used first. */
+	private LinkedHashMap m_tiles = new LinkedHashMap(64, 0.75f, true);
+
+	/** The memory the tiles may take, in bytes. */
+	private long m_maxBytes = 0;
+
+	/**
+	 * @param maxBytes
+	 *            The memory the tiles may take, in bytes.
+	 */
+	ScoreTileCache(long maxBytes) {
+		// no tile to drop yet
+		m_maxBytes = maxBytes;
+	}
+
+	/**
+	 * Changes the memory the tiles may take, dropping tiles if needed. At least
+	 * one tile is kept.
+	 *
+	 * @param maxBytes
+	 *            The memory the tiles may take, in bytes.
+	 */
+	void setMaxBytes(final long maxBytes) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					setMaxBytes(maxBytes);
+				}
+			});
+			return;
+		}
+		m_maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * Returns the image of a tile.
+	 *
+	 * @return The image of the tile, <TT>null</TT> if it has not been drawn
+	 *         or has been dropped.
+	 */
+	BufferedImage get(int column, int row) {
+		assert SwingUtilities.isEventDispatchThread();
+		return (BufferedImage) m_tiles.get(new Long(key(column, row)));
+	}
+
+	/** Keeps the image of a tile. */
+	void put(int column, int row, BufferedImage tile) {
+		assert SwingUtilities.isEventDispatchThread();
+		m_tiles.put(new Long(key(column, row)), tile);
+		evict();
+	}
+
+	/** Drops all the tiles. */
+	void clear() {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					clear();
+				}
+			});
+			return;
+		}
+		m_tiles.clear();
+	}
+
+	/**
+	 * Drops the tiles intersecting the given area, to draw them again.
+	 *
+	 * @param area
+	 *            An area of the score.
+	 */
+	void invalidate(final Rectangle2D area) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					invalidate(area);
+				}
+			});
+			return;
+		}
+		int firstColumn = (int) Math.floor(area.getMinX() / TILE_SIZE);
+		int lastColumn = (int) Math.floor(area.getMaxX() / TILE_SIZE);
+		int firstRow = (int) Math.floor(area.getMinY() / TILE_SIZE);
+		int lastRow = (int) Math.floor(area.getMaxY() / TILE_SIZE);
+		for (int row = firstRow; row <= lastRow; row++)
+			for (int column = firstColumn; column <= lastColumn; column++)
+				m_tiles.remove(new Long(key(column, row)));
+	}
+
+	private void evict() {
+		Iterator it = m_tiles.entrySet().iterator();
+		while (m_tiles.size() > 1 && m_tiles.size() * TILE_BYTES > m_maxBytes) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	private static long key(int column, int row) {
+		return ((long) row << 32) | (column & 0xffffffffL);
+	}
+}
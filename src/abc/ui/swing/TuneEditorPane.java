@@ -47,12 +47,14 @@ import scanner.TokenType;
 import abc.notation.Tune;
 import abc.parser.AbcTokenType;
 import abc.parser.InvalidTokenEvent;
+import abc.parser.ParsingService;
 import abc.parser.TuneParser;
 import abc.parser.TuneParserListenerInterface;
 
 /**
  * A JTextPane to display and edit abc tunes. This pane handles copy/paste.
- * actions.
+ * actions. The text is parsed by the {@link ParsingService} once the user
+ * stops typing, so that typing never waits for the parsing.
  */
 public class TuneEditorPane extends JTextPane// implements ActionListener
 {
@@ -80,24 +82,30 @@ public class TuneEditorPane extends JTextPane// implements ActionListener
 	private static final String FIELD_STYLE = "field";
 	private static final String RHYTHM_STYLE = "rhythm";
 	private static final String DEFAULT_STYLE = "rhythm";
+	/**
+	 * @deprecated the panes no longer have their own thread, they are parsed
+	 *             by the threads of the {@link ParsingService}.
+	 */
 	public static final String REFRESHER_THREAD_NAME = "ABC-TunePaneRefresh";
 
 	// private static final boolean ENABLE_COLORING = true;
 
 	// private int nbApply =0;
-	private boolean m_forceRefresh = false;
 	/** */
 	private Style m_barStyle, m_textStyle, m_errorStyle, m_fieldStyle,
 			m_rhythmStyle, m_defaultStyle, m_baseNoteStyle, m_commentStyle,
 			m_gracingStyle, m_symbolStyle = null;
 	private static final int IDLE_TIME_BEFORE_REFRESH = 200;
 	/**
-	 * The thread in charge of refreshing the tune representation of this editor
-	 * pane.
+	 * The object in charge of refreshing the tune representation of this
+	 * editor pane.
 	 */
 	private ParsingRefresh m_refresher = null;
-	/** The tune currently represented in this editor pane. */
-	private Tune m_tune = null;
+	/**
+	 * The tune currently represented in this editor pane, set by the thread of
+	 * the parsing service.
+	 */
+	private volatile Tune m_tune = null;
 	// private TuneParser m_tuneParser = null;
 	private int m_idleTimeBeforeRefresh = IDLE_TIME_BEFORE_REFRESH;
 	private boolean m_enableColoring = false;
@@ -152,6 +160,7 @@ public class TuneEditorPane extends JTextPane// implements ActionListener
 		setSelectionColor(SELECTION_BACKGROUND_COLOR);
 		setFont(new Font("Courier", Font.PLAIN, 12));
 		// m_tuneParser = parser;
+		m_idleTimeBeforeRefresh = idleTimeBeforeRefresh;
 		m_refresher = new ParsingRefresh((DefaultStyledDocument) getDocument(),
 				parser);
 		KeyStroke copy = KeyStroke.getKeyStroke(KeyEvent.VK_C,
@@ -245,7 +254,9 @@ public class TuneEditorPane extends JTextPane// implements ActionListener
 	}
 
 	/**
-	 * Returns the tune that is currently described in this tune editor.
+	 * Returns the tune that is currently described in this tune editor. It may
+	 * be out of date for a short while after the text is changed, until its
+	 * parsing ends.
 	 * 
 	 * @return The tune that is currently described in this tune editor.
 	 */
@@ -284,6 +295,23 @@ public class TuneEditorPane extends JTextPane// implements ActionListener
 		// m_tuneParser.parse(text);
 	}
 
+	/**
+	 * Appends the given text at the end of the tune notation. Contrary to
+	 * {@link #setText(String)} this does not force an immediate parsing, the
+	 * refresher parses the tune once the idle time is elapsed.
+	 * 
+	 * @param text
+	 *            The abc text to be appended.
+	 */
+	public void appendText(String text) {
+		try {
+			getDocument().insertString(getDocument().getLength(), text,
+					m_defaultStyle);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	private void createStyles() {
 		m_defaultStyle = addStyle(DEFAULT_STYLE, null);
 		StyleConstants.setFontFamily(m_defaultStyle, "Courier");
@@ -351,20 +379,22 @@ public class TuneEditorPane extends JTextPane// implements ActionListener
 		}
 	}
 
-	private class ParsingRefresh extends Thread implements DocumentListener,
+	/**
+	 * Submits the text of the document to the parsing service when it changes,
+	 * and colors the text with the events of the parsing.
+	 */
+	private class ParsingRefresh implements DocumentListener,
 			TuneParserListenerInterface {
-		private int m_elapsedTimeSinceLastParsing = 0;
 		private DefaultStyledDocument m_document = null;
 		private TuneParser m_parser = null;
-		private int m_idleTime = 0;
-		private Object m_mutex = new Object();
+		/** The events of the parsing in progress, in the service thread. */
 		private Vector m_parsingEvents = null;
+		/** The events of the last parsing ended, the text is colored with. */
+		private volatile Vector m_lastParsingEvents = new Vector();
 		private TokenType m_contextForText = null;
 		private TokenType m_contextForNote = null;
 
 		public ParsingRefresh(DefaultStyledDocument document, TuneParser parser) {
-			super(REFRESHER_THREAD_NAME);
-			start();
 			m_parser = parser;
 			m_parsingEvents = new Vector();
 			m_parser.addListener(this);
@@ -375,11 +405,7 @@ public class TuneEditorPane extends JTextPane// implements ActionListener
 
 		public void startIt() {
 			m_document.addDocumentListener(this);
-			m_forceRefresh = true;
-			synchronized (m_mutex) {
-				m_mutex.notify();
-			}
-
+			refresh(0);
 		}
 
 		public void stopIt() {
@@ -391,80 +417,51 @@ public class TuneEditorPane extends JTextPane// implements ActionListener
 		}
 
 		public void setDocument(DefaultStyledDocument doc) {
+			// System.out.println(this.getClass().getName() +
+			// " - setDocument(" + doc + ")");
+			m_document.removeDocumentListener(this);
+			m_document = doc;
+			m_document.addDocumentListener(this);
+			refresh(0);
+		}
+
+		/**
+		 * Submits the text of the document, replacing the text submitted
+		 * before if it is not parsed yet.
+		 * 
+		 * @param delay
+		 *            The time to wait before parsing, in milliseconds.
+		 */
+		private void refresh(int delay) {
 			try {
-				// System.out.println(this.getClass().getName() +
-				// " - setDocument(" + doc + ")");
-				m_document.removeDocumentListener(this);
-				m_document = doc;
-				m_tune = m_parser.parse(doc.getText(0, doc.getLength()));
-				m_document.addDocumentListener(this);
+				String tuneNotation = m_document.getText(0, m_document
+						.getLength());
+				if (!tuneNotation.equals(""))
+					ParsingService.getInstance().parse(m_parser, tuneNotation,
+							delay);
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
 		}
 
-		public void run() {
-			while (true) {
-				try {
-					synchronized (m_mutex) {
-						// System.out.println("Area - wait()");
-						m_mutex.wait();
-						if (!m_forceRefresh) {
-							do {
-								// System.out.println("Area - compting before parsing : "
-								// + m_idleTime);
-								m_mutex.wait(10);
-								m_idleTime += 10;
-							} while (m_idleTime <= m_idleTimeBeforeRefresh);
-						}
-						try {
-
-							String tuneNotation = TuneEditorPane.this
-									.getDocument().getText(
-											0,
-											TuneEditorPane.this.getDocument()
-													.getLength());
-							if (!tuneNotation.equals("")) {
-								if (m_forceRefresh == true) {
-									m_forceRefresh = false;
-									// System.out.println("Area - Forcing refresh");
-								}
-								// System.out.println("Area - parsing("+
-								// tuneNotation +")");
-								m_tune = m_parser.parse(tuneNotation);
-							}
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
-					}
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
 		public void changedUpdate(DocumentEvent e) {
 		}
 
 		public void insertUpdate(DocumentEvent e) {
-			synchronized (m_mutex) {
-				m_mutex.notify();
-				m_idleTime = 0;
-			}
+			refresh(m_idleTimeBeforeRefresh);
 		}
 
 		public void removeUpdate(DocumentEvent e) {
-			synchronized (m_mutex) {
-				m_mutex.notify();
-				m_idleTime = 0;
-			}
+			refresh(m_idleTimeBeforeRefresh);
 		}
 
 		public void tuneBegin() {
-			m_parsingEvents.removeAllElements();
+			m_parsingEvents = new Vector();
 		}
 
 		public void tuneEnd(Tune tune) {
+			m_tune = tune;
+			m_lastParsingEvents = m_parsingEvents;
 			if (m_enableColoring) {
 				// ===========================================================THOSE
 				// CALLBACK CREATE A DEADLOCK WHEN SETTING TEXT ATTRIBUTES.
@@ -485,9 +482,10 @@ public class TuneEditorPane extends JTextPane// implements ActionListener
 		}
 
 		private void redrawTune() {
+			Vector parsingEvents = m_lastParsingEvents;
 			EventObject event = null;
-			for (int i = 0; i < m_parsingEvents.size(); i++) {
-				event = (EventObject) m_parsingEvents.elementAt(i);
+			for (int i = 0; i < parsingEvents.size(); i++) {
+				event = (EventObject) parsingEvents.elementAt(i);
 				if (event instanceof TokenEvent) {
 					Token token = ((TokenEvent) event).getToken();
 					if (token != null) {
@@ -15,17 +15,29 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.xml;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
@@ -49,6 +61,8 @@ import abc.notation.TimeSignature;
 import abc.notation.Tune;
 import abc.notation.Tuplet;
 import abc.notation.Voice;
+import abc.parser.TuneBook;
+import abc.parser.TuneParser;
 
 public class Abc2xml {
 
@@ -100,6 +114,8 @@ public class Abc2xml {
 	protected static final String ACCIDENTAL_TAG = "accidental";
 
 	protected static final String BEAM_TAG = "beam";
+	protected static final String ENDING_TAG = "ending";
+	protected static final String PRINT_TAG = "print";
 
 	protected static final String ID_ATTRIBUTE = "id";
 	protected static final String NUMBER_ATTRIBUTE = "number";
@@ -171,8 +187,14 @@ public class Abc2xml {
 			Accidental.FLAT, Accidental.FLAT, Accidental.FLAT, Accidental.FLAT,
 			Accidental.FLAT, Accidental.FLAT };
 
+	protected static final String DOCTYPE = "<!DOCTYPE score-partwise PUBLIC "
+			+ "\"-//Recordare//DTD MusicXML 2.0 Partwise//EN\" "
+			+ "\"http://www.musicxml.org/dtds/partwise.dtd\">";
+
 	private KeySignature keySignature;
 
+	private XMLOutputFactory outputFactory = null;
+
 	/**
 	 * Writes the specified tune to the specified file as MusicXML.
 	 * 
@@ -182,14 +204,143 @@ public class Abc2xml {
 	 *            A tune.
 	 * @throws IOException
 	 *             Thrown if the file cannot be created.
+	 * @see #writeAsMusicXML(Tune, OutputStream)
 	 */
 	public void writeAsMusicXML(Tune tune, File file) throws IOException {
-		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-		Document doc = createMusicXmlDOM(tune);
-		// dumpDOM(doc);
-		writeAsMusicXML(doc, writer);
-		writer.flush();
-		writer.close();
+		OutputStream stream = new BufferedOutputStream(new FileOutputStream(
+				file));
+		try {
+			writeAsMusicXML(tune, stream);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Writes the specified tune to the specified stream as MusicXML, encoded
+	 * in UTF-8. The elements are written while going once through the music,
+	 * without building a DOM: the document is the same as the one of
+	 * {@link #createMusicXmlDOM(Tune)}, but only the elements of the measure
+	 * being written are looked at twice, to write its key and time signatures
+	 * first.
+	 * 
+	 * @param tune
+	 *            A tune.
+	 * @param stream
+	 *            The stream to write to. It is not closed.
+	 * @throws IOException
+	 *             Thrown if the stream cannot be written.
+	 */
+	public void writeAsMusicXML(Tune tune, OutputStream stream)
+			throws IOException {
+		try {
+			if (outputFactory == null)
+				outputFactory = XMLOutputFactory.newInstance();
+			// the XML writer writes each name, value and indent on its own :
+			// they are buffered before being encoded
+			Writer writer = new BufferedWriter(new OutputStreamWriter(stream,
+					"UTF-8"));
+			XMLStreamWriter xml = outputFactory.createXMLStreamWriter(writer);
+			xml.writeStartDocument("UTF-8", "1.0");
+			xml.writeCharacters("\n");
+			xml.writeDTD(DOCTYPE);
+			xml.writeCharacters("\n");
+			IndentingStreamWriter out = new IndentingStreamWriter(xml);
+			out.start(SCORE_PARTWISE_TAG);
+			out.attribute("version", "2.0");
+			out.empty(MOVEMENT_NUMBER_TAG);
+			out.text(MOVEMENT_TITLE_TAG, tune.getTitles().length > 0 ? tune
+					.getTitles()[0] : null);
+			out.start(IDENTIFICATION_TAG);
+			out.start(ENCODING_TAG);
+			out.text(SOFTWARE_TAG, "ABC4J");
+			SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+			out.text(ENCODING_DATE_TAG, sdf.format(new Date()));
+			out.end();
+			out.end();
+			out.start(PART_LIST_TAG);
+			out.start(SCORE_PART_TAG);
+			out.attribute(ID_ATTRIBUTE, "P1");
+			out.empty(PART_NAME_TAG);
+			out.end();
+			out.end();
+			out.start(PART_TAG);
+			out.attribute(ID_ATTRIBUTE, "P1");
+			write(out, tune.getMusic());
+			out.end();
+			out.end();
+			xml.writeCharacters("\n");
+			xml.writeEndDocument();
+			xml.close();
+			writer.flush();
+		} catch (XMLStreamException e) {
+			IOException ioe = new IOException(e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Writes the tunes of a tunebook as MusicXML, each one to a file named
+	 * after its reference number in the specified directory. The tunes are
+	 * parsed and written in parallel, each one with its own parser and
+	 * converter.
+	 * 
+	 * @param book
+	 *            A tunebook.
+	 * @param directory
+	 *            The directory where the files are written.
+	 * @param threads
+	 *            The number of tunes converted at the same time.
+	 * @return The files written, in the order of the reference numbers.
+	 * @throws IOException
+	 *             Thrown if a file cannot be written, once all the others
+	 *             have been.
+	 */
+	public static File[] writeAsMusicXML(final TuneBook book, File directory,
+			int threads) throws IOException {
+		int[] refNumbers = book.getReferenceNumbers();
+		File[] files = new File[refNumbers.length];
+		Vector futures = new Vector(refNumbers.length);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (int i = 0; i < refNumbers.length; i++) {
+				final String notation = book.getTuneNotation(refNumbers[i]);
+				final File file = new File(directory, refNumbers[i] + ".xml");
+				files[i] = file;
+				futures.add(pool.submit(new Callable() {
+					public Object call() throws IOException {
+						Tune tune = new TuneParser(book.getAbcVersion())
+								.parse(notation);
+						new Abc2xml().writeAsMusicXML(tune, file);
+						return null;
+					}
+				}));
+			}
+			IOException error = null;
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					((Future) futures.elementAt(i)).get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						if (error == null)
+							error = (IOException) e.getCause();
+					} else if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException) e.getCause();
+					else
+						throw (Error) e.getCause();
+				} catch (InterruptedException e) {
+					IOException ioe = new IOException("interrupted");
+					ioe.initCause(e);
+					throw ioe;
+				}
+			}
+			if (error != null)
+				throw error;
+			return files;
+		} finally {
+			pool.shutdownNow();
+		}
 	}
 
 	/**
@@ -536,76 +687,82 @@ public class Abc2xml {
 	protected Node convert(Document doc, KeySignature signature) {
 		Element keyEl = doc.createElement(KEY_TAG);
 		Element fifthEl = doc.createElement(FIFTHS_TAG);
+		String fifths = getFifths(signature);
+		if (fifths != null)
+			fifthEl.appendChild(doc.createTextNode(fifths));
+		keyEl.appendChild(fifthEl);
+		Element modeEl = doc.createElement(MODE_TAG);
+		modeEl.appendChild(doc.createTextNode(getMode(signature)));
+		keyEl.appendChild(modeEl);
+		return keyEl;
+	}
+
+	/**
+	 * @return The number of sharps (positive) or flats (negative) of the key,
+	 *         <TT>null</TT> if its accidentals are not the ones of a major
+	 *         key.
+	 */
+	protected String getFifths(KeySignature signature) {
 		Accidental[] acc = signature.getAccidentals();
 		if (Arrays.equals(acc, KEY_NO_ACCIDENTAL))
-			fifthEl.appendChild(doc.createTextNode("0"));
+			return "0";
 		else if (signature.hasOnlySharps()) {
 			if (Arrays.equals(acc, KEY_SHARP_1ST))
-				fifthEl.appendChild(doc.createTextNode("1"));
+				return "1";
 			else if (Arrays.equals(acc, KEY_SHARP_2ND))
-				fifthEl.appendChild(doc.createTextNode("2"));
+				return "2";
 			else if (Arrays.equals(acc, KEY_SHARP_3RD))
-				fifthEl.appendChild(doc.createTextNode("3"));
+				return "3";
 			else if (Arrays.equals(acc, KEY_SHARP_4TH))
-				fifthEl.appendChild(doc.createTextNode("4"));
+				return "4";
 			else if (Arrays.equals(acc, KEY_SHARP_5TH))
-				fifthEl.appendChild(doc.createTextNode("5"));
+				return "5";
 			else if (Arrays.equals(acc, KEY_SHARP_6TH))
-				fifthEl.appendChild(doc.createTextNode("6"));
+				return "6";
 			else if (Arrays.equals(acc, KEY_SHARP_7TH))
-				fifthEl.appendChild(doc.createTextNode("7"));
+				return "7";
 		} else {
 			if (Arrays.equals(acc, KEY_FLAT_1ST))
-				fifthEl.appendChild(doc.createTextNode("-1"));
+				return "-1";
 			else if (Arrays.equals(acc, KEY_FLAT_2ND))
-				fifthEl.appendChild(doc.createTextNode("-2"));
+				return "-2";
 			else if (Arrays.equals(acc, KEY_FLAT_3RD))
-				fifthEl.appendChild(doc.createTextNode("-3"));
+				return "-3";
 			else if (Arrays.equals(acc, KEY_FLAT_4TH))
-				fifthEl.appendChild(doc.createTextNode("-4"));
+				return "-4";
 			else if (Arrays.equals(acc, KEY_FLAT_5TH))
-				fifthEl.appendChild(doc.createTextNode("-5"));
+				return "-5";
 			else if (Arrays.equals(acc, KEY_FLAT_6TH))
-				fifthEl.appendChild(doc.createTextNode("-6"));
+				return "-6";
 			else if (Arrays.equals(acc, KEY_FLAT_7TH))
-				fifthEl.appendChild(doc.createTextNode("-7"));
+				return "-7";
 		}
-		keyEl.appendChild(fifthEl);
-		Element modeEl = doc.createElement(MODE_TAG);
+		return null;
+	}
+
+	protected String getMode(KeySignature signature) {
 		switch (signature.getMode()) {
 		case 0:
-			modeEl.appendChild(doc.createTextNode("aeolian"));
-			break;
+			return "aeolian";
 		case 1:
-			modeEl.appendChild(doc.createTextNode("dorian"));
-			break;
+			return "dorian";
 		case 2:
-			modeEl.appendChild(doc.createTextNode("ionian"));
-			break;
+			return "ionian";
 		case 3:
-			modeEl.appendChild(doc.createTextNode("locrian"));
-			break;
+			return "locrian";
 		case 4:
-			modeEl.appendChild(doc.createTextNode("lydian"));
-			break;
+			return "lydian";
 		case 5:
-			modeEl.appendChild(doc.createTextNode("major"));
-			break;
+			return "major";
 		case 6:
-			modeEl.appendChild(doc.createTextNode("minor"));
-			break;
+			return "minor";
 		case 7:
-			modeEl.appendChild(doc.createTextNode("mixolydian"));
-			break;
+			return "mixolydian";
 		case 8:
-			modeEl.appendChild(doc.createTextNode("phrygian"));
-			break;
+			return "phrygian";
 		default:
-			modeEl.appendChild(doc.createTextNode("major"));
-			break;
+			return "major";
 		}
-		keyEl.appendChild(modeEl);
-		return keyEl;
 	}
 
 	protected Node convert(Document doc, TimeSignature signature) {
@@ -639,35 +796,12 @@ public class Abc2xml {
 		Element durationEl = doc.createElement(DURATION_TAG);
 
 		String stepValue = null;
-		byte strictHeight = note.getStrictHeight();
 		int octave = note.getOctaveTransposition();
 		if (note.isRest()) {
 			Element rest = doc.createElement(REST_TAG);
 			noteEl.appendChild(rest);
 		} else {
-			switch (strictHeight) {
-			case Note.C:
-				stepValue = "C";
-				break;
-			case Note.D:
-				stepValue = "D";
-				break;
-			case Note.E:
-				stepValue = "E";
-				break;
-			case Note.F:
-				stepValue = "F";
-				break;
-			case Note.G:
-				stepValue = "G";
-				break;
-			case Note.A:
-				stepValue = "A";
-				break;
-			case Note.B:
-				stepValue = "B";
-				break;
-			}
+			stepValue = getStep(note);
 
 			octave = octave + 4;
 			String octaveValue = new Integer(octave).toString();
@@ -779,33 +913,10 @@ public class Abc2xml {
 			}
 		}
 
-		Node type = doc.createElement(TYPE_TAG);
-		Node typeValue = null;
-		switch (note.getStrictDuration()) {
-		case Note.SIXTY_FOURTH:
-			typeValue = doc.createTextNode("64th");
-			break;
-		case Note.THIRTY_SECOND:
-			typeValue = doc.createTextNode("32nd");
-			break;
-		case Note.SIXTEENTH:
-			typeValue = doc.createTextNode("16th");
-			break;
-		case Note.EIGHTH:
-			typeValue = doc.createTextNode("eighth");
-			break;
-		case Note.QUARTER:
-			typeValue = doc.createTextNode("quarter");
-			break;
-		case Note.HALF:
-			typeValue = doc.createTextNode("half");
-			break;
-		case Note.WHOLE:
-			typeValue = doc.createTextNode("whole");
-			break;
-		}
+		String typeValue = getType(note);
 		if (typeValue != null) {
-			type.appendChild(typeValue);
+			Node type = doc.createElement(TYPE_TAG);
+			type.appendChild(doc.createTextNode(typeValue));
 			noteEl.appendChild(type);
 		}
 
@@ -818,6 +929,384 @@ public class Abc2xml {
 		return noteEl;
 	}
 
+	/**
+	 * Writes the measures of the specified music, as
+	 * {@link #convert(Document, Music, Element)} appends them to the part
+	 * element.
+	 */
+	protected void write(IndentingStreamWriter out, Music music)
+			throws XMLStreamException {
+		Voice[] voices = (Voice[]) music.getVoices().toArray(new Voice[0]);
+		int measureNb = 1;
+		int addedMusicElement = 0;
+		// a note shorter than a quarter note has been written, and no
+		// separator since
+		boolean beamRunning = false;
+		int voltaRunning = 0;
+		startMeasure(out, voices, 0, 0, measureNb);
+		for (int v = 0; v < voices.length; v++) {
+			Voice voice = voices[v];
+			for (int i = 0; i < voice.size(); i++) {
+				Object element = voice.elementAt(i);
+				if (element instanceof Note) {
+					Note note = (Note) element;
+					String beam = null;
+					if (note.getStrictDuration() < Note.QUARTER) {
+						// the DOM changes the last beam to "end" at the
+						// separator, here it is looked for before
+						if (endsBeam(voices, v, i))
+							beam = "end";
+						else
+							beam = beamRunning ? "continue" : "begin";
+						beamRunning = true;
+					}
+					write(out, note, false, beam);
+					addedMusicElement++;
+				} else if (element instanceof MultiNote) {
+					Vector notes = ((MultiNote) element).getNotesAsVector();
+					for (int j = 0; j < notes.size(); j++)
+						write(out, (Note) notes.elementAt(j), j != 0, null);
+					addedMusicElement++;
+				} else if (element instanceof KeySignature) {
+					// already written in the attributes of the measure
+					keySignature = (KeySignature) element;
+				} else if (element instanceof BarLine) {
+					BarLine barline = (BarLine) element;
+					// the ending and repeat elements of the barline element,
+					// null if it is not needed
+					Vector barLineNode = null;
+					String location = null;
+					if (voltaRunning > 1) { // end of volta > 2 on the first bar
+											// line we find
+						barLineNode = new Vector();
+						barLineNode.add(new String[] { ENDING_TAG,
+								Integer.toString(voltaRunning), "discontinue" });
+						voltaRunning = 0;
+					}
+					if (barline instanceof RepeatBarLine) { // start of volta
+						int number = ((RepeatBarLine) barline)
+								.getRepeatNumbers()[0];
+						if (barLineNode == null)
+							barLineNode = new Vector();
+						barLineNode.add(new String[] { ENDING_TAG,
+								Integer.toString(number), "start" });
+						voltaRunning = number;
+					}
+					if (barline.getType() == BarLine.REPEAT_CLOSE
+							&& barline.toString().equals(":|")) {
+						if (barLineNode == null)
+							barLineNode = new Vector();
+						if (voltaRunning == 1) {
+							barLineNode.add(new String[] { ENDING_TAG,
+									Integer.toString(voltaRunning), "stop" });
+							voltaRunning = 0;
+						}
+						location = "right";
+						barLineNode.add(new String[] { REPEAT_TAG, "backward" });
+					}
+					boolean repeatOpen = barline.getType() == BarLine.REPEAT_OPEN;
+					if (addedMusicElement == 0) {
+						if (repeatOpen) {
+							if (barLineNode == null)
+								barLineNode = new Vector();
+							location = "left";
+							barLineNode.add(new String[] { REPEAT_TAG,
+									"forward" });
+						}
+						if (barLineNode != null)
+							write(out, barLineNode, location);
+					} else {// a bar line has been detected, a new measure
+						// starts, with the barline if it opens a repeat
+						if (barLineNode != null && !repeatOpen)
+							write(out, barLineNode, location);
+						out.end();
+						measureNb++;
+						startMeasure(out, voices, v, i + 1, measureNb);
+						if (repeatOpen) {
+							if (barLineNode == null) {
+								barLineNode = new Vector();
+								location = "left";
+							}
+							barLineNode.add(new String[] { REPEAT_TAG,
+									"forward" });
+							write(out, barLineNode, location);
+						}
+						addedMusicElement = 0;
+					}
+				} else if (element instanceof EndOfStaffLine) {
+					out.empty(PRINT_TAG);
+					out.attribute("new-system", "yes");
+				}
+				if (element instanceof NotesSeparator)
+					beamRunning = false;
+			}// end each element in voice
+		}// end each voice in music
+		out.end();
+	}
+
+	/**
+	 * Opens the element of a measure and writes its attributes if it has key
+	 * or time signatures. The measure ends at the first bar line after a note.
+	 * 
+	 * @param v
+	 *            The index of the voice of the first element of the measure.
+	 * @param i
+	 *            The index of the first element of the measure in its voice.
+	 */
+	private void startMeasure(IndentingStreamWriter out, Voice[] voices,
+			int v, int i, int measureNb) throws XMLStreamException {
+		out.start(MEASURE_TAG);
+		out.attribute(NUMBER_ATTRIBUTE, Integer.toString(measureNb));
+		boolean hasAttributes = false;
+		int addedMusicElement = 0;
+		measure: for (; v < voices.length; v++, i = 0) {
+			for (; i < voices[v].size(); i++) {
+				Object element = voices[v].elementAt(i);
+				if (element instanceof Note || element instanceof MultiNote)
+					addedMusicElement++;
+				else if (element instanceof BarLine && addedMusicElement > 0)
+					break measure;
+				else if (element instanceof KeySignature
+						|| element instanceof TimeSignature) {
+					if (!hasAttributes) {
+						writeMeasureGeneralAttributes(out);
+						hasAttributes = true;
+					}
+					if (element instanceof KeySignature)
+						write(out, (KeySignature) element);
+					else
+						write(out, (TimeSignature) element);
+				}
+			}
+		}
+		if (hasAttributes)
+			out.end();
+	}
+
+	/**
+	 * Returns <TT>true</TT> if a separator comes after the note at the given
+	 * place before any other note shorter than a quarter note: the beam of the
+	 * note then ends.
+	 */
+	private static boolean endsBeam(Voice[] voices, int v, int i) {
+		for (i++; v < voices.length; v++, i = 0) {
+			for (; i < voices[v].size(); i++) {
+				Object element = voices[v].elementAt(i);
+				if (element instanceof NotesSeparator)
+					return true;
+				if (element instanceof Note
+						&& ((Note) element).getStrictDuration() < Note.QUARTER)
+					return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Opens the attributes element of a measure, as
+	 * {@link #createMeasureGeneralAttributes(Document)} creates it.
+	 */
+	protected void writeMeasureGeneralAttributes(IndentingStreamWriter out)
+			throws XMLStreamException {
+		out.start(ATTRIBUTES_TAG);
+		out.text(DIVISIONS_TAG, Integer.toString(DIVISIONS_PER_QUARTER_NOTE));
+		out.start(CLEF_TAG);
+		out.text(SIGN_TAG, "G");
+		out.text(LINE_TAG, "2");
+		out.end();
+	}
+
+	/**
+	 * Writes a barline element.
+	 * 
+	 * @param barLineNode
+	 *            The ending (tag, number, type) and repeat (tag, direction)
+	 *            elements of the barline, as <TT>String</TT> arrays.
+	 * @param location
+	 *            The location attribute, <TT>null</TT> if none.
+	 */
+	private void write(IndentingStreamWriter out, Vector barLineNode,
+			String location) throws XMLStreamException {
+		out.start(BAR_LINE_TAG);
+		if (location != null)
+			out.attribute(LOCATION_ATTRIBUTE, location);
+		for (int i = 0; i < barLineNode.size(); i++) {
+			String[] child = (String[]) barLineNode.elementAt(i);
+			out.empty(child[0]);
+			if (child[0].equals(ENDING_TAG)) {
+				out.attribute(NUMBER_ATTRIBUTE, child[1]);
+				out.attribute(TYPE_ATTRIBUTE, child[2]);
+			} else
+				out.attribute(DIRECTION_ATTRIBUTE, child[1]);
+		}
+		out.end();
+	}
+
+	protected void write(IndentingStreamWriter out, KeySignature signature)
+			throws XMLStreamException {
+		out.start(KEY_TAG);
+		out.text(FIFTHS_TAG, getFifths(signature));
+		out.text(MODE_TAG, getMode(signature));
+		out.end();
+	}
+
+	protected void write(IndentingStreamWriter out, TimeSignature signature)
+			throws XMLStreamException {
+		out.start(TIME_TAG);
+		out.text(BEATS_TAG, Integer.toString(signature.getNumerator()));
+		out.text(BEAT_TYPE_TAG, Integer.toString(signature.getDenominator()));
+		out.end();
+	}
+
+	/**
+	 * Writes a note element, as {@link #convert(Document, Note)} creates it.
+	 * 
+	 * @param chord
+	 *            <TT>true</TT> if the note is not the first one of a chord.
+	 * @param beam
+	 *            The text of the beam element, <TT>null</TT> if none.
+	 */
+	protected void write(IndentingStreamWriter out, Note note, boolean chord,
+			String beam) throws XMLStreamException {
+		out.start(NOTE_TAG);
+		if (chord)
+			out.empty(CHORD_TAG);
+		if (note.isRest()) {
+			out.empty(REST_TAG);
+		} else {
+			out.start(PITCH_TAG);
+			out.text(STEP_TAG, getStep(note));
+			if (keySignature != null) {
+				Accidental accidental = note.getAccidental();
+				if (accidental.isInTheKey()) {
+					accidental = keySignature.getAccidentalFor(note
+							.getStrictHeight());
+				}
+				if (accidental.isDefined())
+					out.text(ALTER_TAG, Integer.toString(accidental
+							.getNearestOccidentalValue()));
+			}
+			out.text(OCTAVE_TAG, Integer.toString(note
+					.getOctaveTransposition() + 4));
+			out.end();
+			if (note.hasAccidental()) {
+				String accValue = null;
+				if (note.getAccidental().isFlat())
+					accValue = "flat";
+				else if (note.getAccidental().isNatural())
+					accValue = "natural";
+				else if (note.getAccidental().isSharp())
+					accValue = "sharp";
+				// TODO double flat/sharp
+				out.text(ACCIDENTAL_TAG, accValue);
+			}
+		}
+		out.text(DURATION_TAG, Integer.toString(note.getDuration()
+				* DIVISIONS_PER_QUARTER_NOTE / Note.QUARTER));
+		if (note.isTied()) {
+			String type = null;
+			if (note.isBeginningTie()) {
+				type = "start";
+			} else if (note.isEndingTie()) {
+				type = "stop";
+			}
+			if (type != null) {
+				out.empty(TIE_TAG);
+				out.attribute(TYPE_ATTRIBUTE, type);
+				out.start(NOTATIONS_TAG);
+				out.empty(TIED_TAG);
+				out.attribute(TYPE_ATTRIBUTE, type);
+				out.end();
+			}
+		}
+
+		if (note.isPartOfTuplet()) {
+			Tuplet tuplet = note.getTuplet();
+			Vector notes = tuplet.getNotesAsVector();
+			int d = 0;
+			for (Iterator iterator = notes.iterator(); iterator.hasNext();) {
+				Note n = (Note) iterator.next();
+				d += n.getStrictDuration();
+			}
+			int gcd = MathUtils.pgcd(d, tuplet.getTotalDuration());
+			out.start(TIMEMODIFICATION_TAG);
+			out.text(ACTUALNOTES_TAG, Integer.toString(d / gcd));
+			out.text(NORMALNOTES_TAG, Integer.toString(tuplet
+					.getTotalDuration()
+					/ gcd));
+			out.end();
+
+			String type = null;
+			if (note.equals(notes.get(0)))
+				type = "start";
+			else if (note.equals(notes.get(notes.size() - 1)))
+				type = "stop";
+			if (type != null) {
+				out.start(NOTATIONS_TAG);
+				out.empty(TUPLET_TAG);
+				out.attribute(TYPE_ATTRIBUTE, type);
+				out.end();
+			}
+		}
+
+		String type = getType(note);
+		if (type != null)
+			out.text(TYPE_TAG, type);
+		for (int i = 0; i < note.countDots(); i++)
+			out.empty(DOT_TAG);
+		if (beam != null) {
+			out.start(BEAM_TAG);
+			out.attribute(NUMBER_ATTRIBUTE, "1");
+			out.characters(beam);
+			out.end();
+		}
+		out.end();
+	}
+
+	protected String getStep(Note note) {
+		switch (note.getStrictHeight()) {
+		case Note.C:
+			return "C";
+		case Note.D:
+			return "D";
+		case Note.E:
+			return "E";
+		case Note.F:
+			return "F";
+		case Note.G:
+			return "G";
+		case Note.A:
+			return "A";
+		case Note.B:
+			return "B";
+		}
+		return null;
+	}
+
+	/**
+	 * @return The type of the note, <TT>null</TT> if its strict duration has
+	 *         none.
+	 */
+	protected String getType(Note note) {
+		switch (note.getStrictDuration()) {
+		case Note.SIXTY_FOURTH:
+			return "64th";
+		case Note.THIRTY_SECOND:
+			return "32nd";
+		case Note.SIXTEENTH:
+			return "16th";
+		case Note.EIGHTH:
+			return "eighth";
+		case Note.QUARTER:
+			return "quarter";
+		case Note.HALF:
+			return "half";
+		case Note.WHOLE:
+			return "whole";
+		}
+		return null;
+	}
+
 	protected void dumpDOM(Document doc) {
 		try {
 			TransformerFactory transfac = TransformerFactory.newInstance();
@@ -0,0 +1,116 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.xml;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes elements to a <TT>XMLStreamWriter</TT>, each one on its own line and
+ * indented by its depth, as the transformer of the DOM does with
+ * <TT>OutputKeys.INDENT</TT>.
+ */
+class IndentingStreamWriter {
+
+	private static final String INDENT = "    ";
+
+	/**
+	 * A line feed followed by the indent of each depth, by depth, written at
+	 * once as each call to the writer is costly.
+	 */
+	private static final String[] NEW_LINES = new String[16];
+	static {
+		NEW_LINES[0] = "\n";
+		for (int i = 1; i < NEW_LINES.length; i++)
+			NEW_LINES[i] = NEW_LINES[i - 1] + INDENT;
+	}
+
+	private XMLStreamWriter m_writer = null;
+
+	/** The depth of the element currently open, 0 outside the root. */
+	private int m_depth = 0;
+
+	/**
+	 * <TT>true</TT> if the element currently open has child elements, its end
+	 * tag is then put on its own line.
+	 */
+	private boolean m_hasChildren = false;
+
+	IndentingStreamWriter(XMLStreamWriter writer) {
+		m_writer = writer;
+	}
+
+	/** Opens an element, its attributes and content follow. */
+	void start(String name) throws XMLStreamException {
+		if (m_depth > 0)
+			newLine();
+		m_writer.writeStartElement(name);
+		m_depth++;
+		m_hasChildren = false;
+	}
+
+	/** Adds an attribute to the element just opened. */
+	void attribute(String name, String value) throws XMLStreamException {
+		m_writer.writeAttribute(name, value);
+	}
+
+	/** Writes the text of the element just opened. */
+	void characters(String text) throws XMLStreamException {
+		m_writer.writeCharacters(text);
+	}
+
+	/** Closes the element opened last. */
+	void end() throws XMLStreamException {
+		m_depth--;
+		if (m_hasChildren)
+			newLine();
+		m_writer.writeEndElement();
+		m_hasChildren = true;
+	}
+
+	/** Writes an element without attributes or content. */
+	void empty(String name) throws XMLStreamException {
+		newLine();
+		m_writer.writeEmptyElement(name);
+		m_hasChildren = true;
+	}
+
+	/**
+	 * Writes an element with only a text, or an empty element if the text is
+	 * <TT>null</TT>.
+	 */
+	void text(String name, String text) throws XMLStreamException {
+		if (text == null) {
+			empty(name);
+			return;
+		}
+		newLine();
+		m_writer.writeStartElement(name);
+		m_writer.writeCharacters(text);
+		m_writer.writeEndElement();
+		m_hasChildren = true;
+	}
+
+	private void newLine() throws XMLStreamException {
+		if (m_depth < NEW_LINES.length)
+			m_writer.writeCharacters(NEW_LINES[m_depth]);
+		else {
+			m_writer.writeCharacters(NEW_LINES[NEW_LINES.length - 1]);
+			for (int i = NEW_LINES.length - 1; i < m_depth; i++)
+				m_writer.writeCharacters(INDENT);
+		}
+	}
+}
@@ -21,10 +21,27 @@ package be.hogent.tarsos.midi;
  * Boston, MA  02110-1301  USA
  */
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +55,7 @@ import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Soundbank;
 import javax.sound.midi.Track;
 import javax.sound.sampled.AudioFileFormat;
@@ -55,6 +73,12 @@ import com.sun.media.sound.AudioSynthesizer;
  * href="http://www.jfugue.org/code/Midi2WavRenderer.java"
  * >Midi2WavRenderer.java</a> file.
  * </p>
+ * <p>
+ * Many sequences are rendered at the same time by
+ * {@link #createWavFiles(Sequence[], File[], int)}, each worker with its own
+ * synthesizer. The output format, the interpolation and the polyphony are
+ * configurable, a soundbank is loaded once and shared by all synthesizers.
+ * </p>
  * 
  * @author Karl Helgason
  * @author David Koelle
@@ -68,6 +92,12 @@ public final class MidiToWavRenderer {
 	private static final Logger LOG = Logger.getLogger(MidiToWavRenderer.class
 			.getName());
 
+	/**
+	 * The rate, in Hz, at which the synthesizer processes the MIDI events: it
+	 * renders its audio in blocks of sample rate / control rate frames.
+	 */
+	private static final int CONTROL_RATE = 147;
+
 	/**
 	 * The synth used to render the audio.
 	 */
@@ -75,6 +105,29 @@ public final class MidiToWavRenderer {
 
 	private double[] rebasedTuning;
 
+	/**
+	 * The format of the rendered audio, 96000Hz 24 bit stereo by default.
+	 */
+	private AudioFormat format = new AudioFormat(96000, 24, 2, true, false);
+
+	/**
+	 * The interpolation of the samples: point, linear, cubic or sinc.
+	 */
+	private String interpolation = "sinc";
+
+	private int maxPolyphony = 1024;
+
+	/**
+	 * The soundbank loaded in each synthesizer, null for the default
+	 * soundbank.
+	 */
+	private Soundbank soundbank;
+
+	/**
+	 * The silence, in seconds, a sequence can be cut at, 0 to never cut.
+	 */
+	private double splitSilence = 0;
+
 	public MidiToWavRenderer() throws MidiUnavailableException,
 			InvalidMidiDataException, IOException {
 		try {
@@ -106,10 +159,69 @@ public final class MidiToWavRenderer {
 		rebasedTuning = MidiCommon.tuningFromPeaks(tuning);
 	}
 
+	/**
+	 * Sets the format of the rendered audio, 96000Hz 24 bit stereo PCM by
+	 * default.
+	 * 
+	 * @param format
+	 *            A PCM format.
+	 */
+	public void setFormat(final AudioFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * Sets the rendering quality.
+	 * 
+	 * @param interpolation
+	 *            The interpolation of the samples: point, linear, cubic or
+	 *            sinc (the default, the highest quality).
+	 * @param maxPolyphony
+	 *            The maximum number of voices sounding at the same time, 1024
+	 *            by default.
+	 */
+	public void setQuality(final String interpolation, final int maxPolyphony) {
+		this.interpolation = interpolation;
+		this.maxPolyphony = maxPolyphony;
+	}
+
+	/**
+	 * Loads a soundbank once, its instruments are used by all the following
+	 * renderings.
+	 * 
+	 * @param soundbankFile
+	 *            The soundbank, null to use the default soundbank again.
+	 * @throws InvalidMidiDataException
+	 * @throws IOException
+	 * @throws MidiUnavailableException
+	 */
+	public void setSoundbank(final File soundbankFile)
+			throws MidiUnavailableException, InvalidMidiDataException,
+			IOException {
+		soundbank = soundbankFile == null ? null : loadSoundbank(soundbankFile);
+	}
+
+	/**
+	 * Lets {@link #createWavFiles(Sequence[], File[], int)} cut a long
+	 * sequence where nothing sounds, so that its parts are rendered by
+	 * different workers. A sequence is cut where no note sounds for at least
+	 * the given time, which must be longer than the release and the reverb of
+	 * the instruments: the parts rendered from a silence are then the same as
+	 * one rendering, within one least significant bit. Sequences are not cut
+	 * by default, and a sequence rendered whole is sample-identical to
+	 * {@link #createWavFile(Sequence, File)}.
+	 * 
+	 * @param seconds
+	 *            The silence needed to cut, 0 to never cut.
+	 */
+	public void setSplitSilence(final double seconds) {
+		this.splitSilence = seconds;
+	}
+
 	/**
 	 * Creates a WAV file based on the Sequence, using the sounds from the
-	 * specified soundbank; to prevent memory problems, this method asks for an
-	 * array of patches (instruments) to load.
+	 * specified soundbank. The soundbank is kept for the following
+	 * renderings.
 	 * 
 	 * @param soundbankFile
 	 * @param midiFile
@@ -121,16 +233,7 @@ public final class MidiToWavRenderer {
 	public void createWavFile(final File soundbankFile, final File midiFile,
 			final File outputFile) throws MidiUnavailableException,
 			InvalidMidiDataException, IOException {
-		// Load soundbank
-		final Soundbank soundbank = loadSoundbank(soundbankFile);
-
-		// Open the Synthesizer and load the requested instruments
-		this.synth.open();
-		this.synth.unloadAllInstruments(soundbank);
-		final Instrument[] instruments = soundbank.getInstruments();
-		for (final Instrument instrument : instruments) {
-			synth.loadInstrument(instrument);
-		}
+		setSoundbank(soundbankFile);
 		createWavFile(midiFile, outputFile);
 	}
 
@@ -165,28 +268,400 @@ public final class MidiToWavRenderer {
 	public void createWavFile(final Sequence sequence, final File outputFile)
 			throws MidiUnavailableException, InvalidMidiDataException,
 			IOException {
-		/*
-		 * Open synthesizer in pull mode in the format 96000hz 24 bit stereo
-		 * using Sinc interpolation for highest quality. With 1024 as max
-		 * polyphony.
-		 */
-		final AudioFormat format = new AudioFormat(96000, 24, 2, true, false);
+		render(synth, sequence, outputFile);
+	}
+
+	/**
+	 * Creates WAV files based on many Sequences at the same time, each worker
+	 * rendering with its own synthesizer. A sequence rendered whole gives the
+	 * same file as {@link #createWavFile(Sequence, File)}, see
+	 * {@link #setSplitSilence(double)} to render the parts of long sequences
+	 * at the same time.
+	 * 
+	 * @param sequences
+	 *            The sequences to render.
+	 * @param outputFiles
+	 *            The WAV file of each sequence.
+	 * @param threads
+	 *            The number of synthesizers rendering at the same time.
+	 * @return The realtime factor: the seconds of audio rendered per second.
+	 * @throws MidiUnavailableException
+	 * @throws InvalidMidiDataException
+	 * @throws IOException
+	 */
+	public double createWavFiles(final Sequence[] sequences,
+			final File[] outputFiles, final int threads)
+			throws MidiUnavailableException, InvalidMidiDataException,
+			IOException {
+		final long start = System.nanoTime();
+		final BlockingQueue<AudioSynthesizer> synths = new ArrayBlockingQueue<AudioSynthesizer>(
+				threads);
+		for (int i = 0; i < threads; i++) {
+			synths.add((AudioSynthesizer) MidiSystem.getSynthesizer());
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<Long>> renderings = new ArrayList<Future<Long>>();
+		final List<Part[]> splits = new ArrayList<Part[]>();
+		long frames = 0;
+		try {
+			for (int i = 0; i < sequences.length; i++) {
+				final Part[] parts = split(sequences[i]);
+				splits.add(parts);
+				if (parts == null) {
+					renderings.add(executor.submit(new Rendering(synths,
+							sequences[i], outputFiles[i])));
+				} else {
+					for (final Part part : parts) {
+						renderings.add(executor.submit(new Rendering(synths,
+								part)));
+					}
+				}
+			}
+			for (final Future<Long> rendering : renderings) {
+				frames += get(rendering);
+			}
+			for (int i = 0; i < sequences.length; i++) {
+				if (splits.get(i) != null) {
+					join(splits.get(i), outputFiles[i]);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			for (final Part[] parts : splits) {
+				if (parts != null) {
+					for (final Part part : parts) {
+						part.file.delete();
+					}
+				}
+			}
+		}
+		final double seconds = (System.nanoTime() - start) / 1000000000.0;
+		final double realtimeFactor = frames / format.getFrameRate() / seconds;
+		LOG.info(String.format("Rendered %d sequences, %.1f s of audio in"
+				+ " %.1f s with %d synthesizers: %.2f times realtime",
+				sequences.length, frames / format.getFrameRate(), seconds,
+				threads, realtimeFactor));
+		return realtimeFactor;
+	}
+
+	/**
+	 * Opens a synthesizer in pull mode in the configured format, with the
+	 * shared soundbank if one is set.
+	 */
+	private AudioInputStream openStream(final AudioSynthesizer synthesizer)
+			throws MidiUnavailableException {
 		final Map<String, Object> map = new HashMap<String, Object>();
-		map.put("interpolation", "sinc");
-		map.put("max polyphony", "1024");
-		AudioInputStream stream = synth.openStream(format, map);
+		map.put("interpolation", interpolation);
+		map.put("max polyphony", String.valueOf(maxPolyphony));
+		map.put("control rate", String.valueOf(CONTROL_RATE));
+		final AudioInputStream stream = synthesizer.openStream(format, map);
+		if (soundbank != null) {
+			synthesizer.unloadAllInstruments(synthesizer.getDefaultSoundbank());
+			final Instrument[] instruments = soundbank.getInstruments();
+			for (final Instrument instrument : instruments) {
+				synthesizer.loadInstrument(instrument);
+			}
+		}
+		return stream;
+	}
+
+	/**
+	 * Renders a whole sequence to a WAV file and closes the synthesizer.
+	 * 
+	 * @return The number of frames rendered.
+	 */
+	private long render(final AudioSynthesizer synthesizer,
+			final Sequence sequence, final File outputFile)
+			throws MidiUnavailableException, IOException {
+		try {
+			AudioInputStream stream = openStream(synthesizer);
 
-		// Play Sequence into AudioSynthesizer Receiver.
-		final double total = send(sequence, synth.getReceiver());
+			// Play Sequence into AudioSynthesizer Receiver.
+			final double total = send(sequence, synthesizer.getReceiver());
 
-		// Calculate how long the WAVE file needs to be.
-		final long len = (long) (stream.getFormat().getFrameRate() * (total + 40));
-		stream = new AudioInputStream(stream, stream.getFormat(), len);
+			// Calculate how long the WAVE file needs to be.
+			final long len = (long) (stream.getFormat().getFrameRate() * (total + 40));
+			stream = new AudioInputStream(stream, stream.getFormat(), len);
 
-		// Write WAVE file to disk.
-		AudioSystem.write(stream, AudioFileFormat.Type.WAVE, outputFile);
+			// Write WAVE file to disk.
+			AudioSystem.write(stream, AudioFileFormat.Type.WAVE, outputFile);
+			return len;
+		} finally {
+			synthesizer.close();
+		}
+	}
+
+	/**
+	 * Renders a part of a sequence to a file of raw audio and closes the
+	 * synthesizer. The part begins with the messages that set the state of
+	 * the channels before it.
+	 * 
+	 * @return The number of frames rendered.
+	 */
+	private long render(final AudioSynthesizer synthesizer, final Part part)
+			throws MidiUnavailableException, IOException {
+		try {
+			final AudioInputStream stream = openStream(synthesizer);
+			final Receiver recv = synthesizer.getReceiver();
+			for (final TimedMessage message : part.messages) {
+				if (message.time < 0) {
+					recv.send(message.message, message.time);
+				} else if (message.time < part.start) {
+					if (!isNote(message.message)) {
+						recv.send(message.message, 0);
+					}
+				} else if (message.time < part.end) {
+					recv.send(message.message, message.time - part.start);
+				}
+			}
+			final OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(part.file));
+			try {
+				final byte[] buffer = new byte[format.getFrameSize() * 4096];
+				long remaining = part.frames * format.getFrameSize();
+				while (remaining > 0) {
+					final int read = stream.read(buffer, 0, (int) Math.min(
+							buffer.length, remaining));
+					if (read == -1) {
+						throw new IOException("The synthesizer stream ended");
+					}
+					out.write(buffer, 0, read);
+					remaining -= read;
+				}
+			} finally {
+				out.close();
+			}
+			return part.frames;
+		} finally {
+			synthesizer.close();
+		}
+	}
+
+	/**
+	 * Cuts a sequence in parts at the silences of at least
+	 * {@link #splitSilence} seconds.
+	 * 
+	 * @return The parts, null if the sequence is rendered whole.
+	 */
+	private Part[] split(final Sequence sequence) throws IOException {
+		final float sampleRate = format.getSampleRate();
+		if (splitSilence <= 0 || sampleRate != Math.round(sampleRate)) {
+			return null;
+		}
+		// the messages and their time, as they are sent to the synthesizer
+		final List<TimedMessage> messages = new ArrayList<TimedMessage>();
+		final double total = send(sequence, new Receiver() {
+			public void send(final MidiMessage message, final long timeStamp) {
+				messages.add(new TimedMessage(message, timeStamp));
+			}
+
+			public void close() {
+			}
+		});
+		final long cutStep = cutStep(Math.round(sampleRate));
+		final long minimumSilence = (long) (splitSilence * 1000000);
+		final List<Long> cuts = new ArrayList<Long>();
+		cuts.add(0L);
+		final int[][] sounding = new int[16][128];
+		final boolean[] sustain = new boolean[16];
+		int notes = 0;
+		int sustained = 0;
+		long silentSince = 0;
+		for (final TimedMessage message : messages) {
+			if (!(message.message instanceof ShortMessage)) {
+				continue;
+			}
+			final ShortMessage sm = (ShortMessage) message.message;
+			final int channel = sm.getChannel();
+			final boolean silent = notes == 0 && sustained == 0;
+			if (sm.getCommand() == ShortMessage.NOTE_ON && sm.getData2() > 0) {
+				if (silent && message.time > 0) {
+					final long cut = message.time / cutStep * cutStep;
+					if (cut - silentSince >= minimumSilence
+							&& cut > cuts.get(cuts.size() - 1)) {
+						cuts.add(cut);
+					}
+				}
+				sounding[channel][sm.getData1()]++;
+				notes++;
+			} else if (sm.getCommand() == ShortMessage.NOTE_OFF
+					|| sm.getCommand() == ShortMessage.NOTE_ON) {
+				if (sounding[channel][sm.getData1()] > 0) {
+					sounding[channel][sm.getData1()]--;
+					notes--;
+				}
+			} else if (sm.getCommand() == ShortMessage.CONTROL_CHANGE
+					&& sm.getData1() == 64) {
+				if (sustain[channel] != sm.getData2() >= 64) {
+					sustain[channel] = sm.getData2() >= 64;
+					sustained += sustain[channel] ? 1 : -1;
+				}
+			}
+			if (!silent && notes == 0 && sustained == 0) {
+				silentSince = message.time;
+			}
+		}
+		if (cuts.size() == 1) {
+			return null;
+		}
+		// as long as the whole rendering
+		final long frames = (long) (format.getFrameRate() * (total + 40));
+		final Part[] parts = new Part[cuts.size()];
+		final List<TimedMessage> shared = Collections.unmodifiableList(messages);
+		for (int i = 0; i < parts.length; i++) {
+			final long start = cuts.get(i);
+			final long end = i + 1 < parts.length ? cuts.get(i + 1)
+					: Long.MAX_VALUE;
+			final long startFrame = start * Math.round(sampleRate) / 1000000;
+			final long endFrame = i + 1 < parts.length ? end
+					* Math.round(sampleRate) / 1000000 : frames;
+			parts[i] = new Part(shared, start, end, endFrame - startFrame,
+					File.createTempFile("part", ".raw"));
+		}
+		return parts;
+	}
+
+	/**
+	 * The step, in microseconds, of the times a sequence can be cut at: a
+	 * part must begin at a whole microsecond and with a block of the
+	 * synthesizer, so that its events are rendered at the same frames as in
+	 * one rendering.
+	 */
+	private static long cutStep(final long sampleRate) {
+		final long block = sampleRate / CONTROL_RATE;
+		// the frames of a whole number of microseconds
+		final long microsecond = sampleRate / gcd(sampleRate, 1000000);
+		final long frames = block / gcd(block, microsecond) * microsecond;
+		return frames * 1000000 / sampleRate;
+	}
+
+	private static long gcd(final long a, final long b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
 
-		this.synth.close();
+	private static boolean isNote(final MidiMessage message) {
+		if (!(message instanceof ShortMessage)) {
+			return false;
+		}
+		final int command = ((ShortMessage) message).getCommand();
+		return command == ShortMessage.NOTE_ON
+				|| command == ShortMessage.NOTE_OFF;
+	}
+
+	/**
+	 * Writes the parts of a sequence, rendered as raw audio, to a WAV file.
+	 */
+	private void join(final Part[] parts, final File outputFile)
+			throws IOException {
+		final Vector<InputStream> streams = new Vector<InputStream>();
+		long frames = 0;
+		try {
+			for (final Part part : parts) {
+				streams.add(new FileInputStream(part.file));
+				frames += part.frames;
+			}
+			final AudioInputStream stream = new AudioInputStream(
+					new SequenceInputStream(streams.elements()), format, frames);
+			AudioSystem.write(stream, AudioFileFormat.Type.WAVE, outputFile);
+		} finally {
+			for (final InputStream stream : streams) {
+				stream.close();
+			}
+		}
+	}
+
+	/**
+	 * Waits for a rendering and throws its exception, if any.
+	 */
+	private static long get(final Future<Long> rendering)
+			throws MidiUnavailableException, IOException {
+		try {
+			return rendering.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while rendering");
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof MidiUnavailableException) {
+				throw (MidiUnavailableException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new Error(cause);
+		}
+	}
+
+	/**
+	 * A MIDI message and the time, in microseconds, it is sent to the
+	 * synthesizer at.
+	 */
+	private static final class TimedMessage {
+		private final MidiMessage message;
+		private final long time;
+
+		private TimedMessage(final MidiMessage message, final long time) {
+			this.message = message;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * The messages from start, inclusive, to end, exclusive, of a sequence
+	 * cut at silences, and the file its audio is rendered to.
+	 */
+	private static final class Part {
+		private final List<TimedMessage> messages;
+		private final long start;
+		private final long end;
+		private final long frames;
+		private final File file;
+
+		private Part(final List<TimedMessage> messages, final long start,
+				final long end, final long frames, final File file) {
+			this.messages = messages;
+			this.start = start;
+			this.end = end;
+			this.frames = frames;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Renders a sequence, or a part of it, with a synthesizer of the pool.
+	 */
+	private final class Rendering implements Callable<Long> {
+		private final BlockingQueue<AudioSynthesizer> synths;
+		private final Sequence sequence;
+		private final File outputFile;
+		private final Part part;
+
+		private Rendering(final BlockingQueue<AudioSynthesizer> synths,
+				final Sequence sequence, final File outputFile) {
+			this.synths = synths;
+			this.sequence = sequence;
+			this.outputFile = outputFile;
+			this.part = null;
+		}
+
+		private Rendering(final BlockingQueue<AudioSynthesizer> synths,
+				final Part part) {
+			this.synths = synths;
+			this.sequence = null;
+			this.outputFile = null;
+			this.part = part;
+		}
+
+		public Long call() throws Exception {
+			final AudioSynthesizer synthesizer = synths.take();
+			try {
+				return part == null ? render(synthesizer, sequence,
+						outputFile) : render(synthesizer, part);
+			} finally {
+				synths.add(synthesizer);
+			}
+		}
 	}
 
 	/**
@@ -0,0 +1,268 @@
+package be.hogent.tarsos.sampled.pitch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes annotations in a compact binary file. The file begins with
+ * a header that identifies what was annotated: the name and the parameters of
+ * the detector, and the length, the modification time and a CRC32 hash of the
+ * annotated audio file. Then come the annotations, column by column: the start
+ * times, the pitches in Hz and the probabilities as doubles, and the index of
+ * the source of each annotation as a byte. The file is read at once through
+ * its channel, and the columns are copied from the buffer straight into the
+ * arrays of an {@link AnnotationList}. The file is not mapped: a mapping is
+ * only released when its buffer is garbage collected, and a mapped cache file
+ * could not be replaced on Windows until then.
+ */
+public final class AnnotationCache {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(AnnotationCache.class
+			.getName());
+
+	/**
+	 * The first bytes of a cache file: TANN.
+	 */
+	private static final int MAGIC = 0x54414E4E;
+
+	private static final int VERSION = 1;
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	// Disable the default constructor.
+	private AnnotationCache() {
+	}
+
+	/**
+	 * Reads the annotations of a cache file if they are up to date.
+	 *
+	 * @param cacheFileName
+	 *            The cache file.
+	 * @param detectorName
+	 *            The name of the detector.
+	 * @param parameters
+	 *            The parameters of the detector.
+	 * @param sourceFileName
+	 *            The annotated audio file. If its length or its modification
+	 *            time changed, its content is hashed again.
+	 * @return The annotations, or null if the cache file does not exist, is
+	 *         not readable or was written for another detector, other
+	 *         parameters or another audio file.
+	 */
+	public static AnnotationList read(final String cacheFileName,
+			final String detectorName, final String parameters,
+			final String sourceFileName) {
+		final File cacheFile = new File(cacheFileName);
+		if (!cacheFile.isFile()) {
+			return null;
+		}
+		AnnotationList annotations = null;
+		try {
+			final ByteBuffer buffer = readFully(cacheFile);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+					|| !detectorName.equals(getString(buffer))
+					|| !parameters.equals(getString(buffer))) {
+				LOG.info(String.format("%s was written by another detector",
+						cacheFileName));
+				return null;
+			}
+			final long sourceLength = buffer.getLong();
+			final long sourceModified = buffer.getLong();
+			final long sourceHash = buffer.getLong();
+			final File source = new File(sourceFileName);
+			if (source.length() != sourceLength
+					|| source.lastModified() != sourceModified
+					&& hash(source) != sourceHash) {
+				LOG.info(String.format("%s changed since %s was written",
+						sourceFileName, cacheFileName));
+				return null;
+			}
+			final PitchDetectionMode[] sources = new PitchDetectionMode[buffer
+					.getInt()];
+			for (int i = 0; i < sources.length; i++) {
+				sources[i] = PitchDetectionMode.valueOf(getString(buffer));
+			}
+			final int size = buffer.getInt();
+			final double[] starts = new double[size];
+			final double[] pitches = new double[size];
+			final double[] probabilities = new double[size];
+			final byte[] sourceIndexes = new byte[size];
+			getDoubles(buffer, starts);
+			getDoubles(buffer, pitches);
+			getDoubles(buffer, probabilities);
+			buffer.get(sourceIndexes);
+			for (final byte index : sourceIndexes) {
+				if (index < 0 || index >= sources.length) {
+					throw new IllegalArgumentException("Unknown source "
+							+ index);
+				}
+			}
+			annotations = new AnnotationList(starts, pitches, probabilities,
+					sourceIndexes, sources);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read " + cacheFileName, e);
+		} catch (final BufferUnderflowException e) {
+			LOG.warning(cacheFileName + " is truncated");
+		} catch (final IllegalArgumentException e) {
+			// An unknown detection mode or source.
+			LOG.warning(cacheFileName + " is not valid: " + e.getMessage());
+		}
+		return annotations;
+	}
+
+	/**
+	 * Writes annotations to a cache file. The file is written next to the
+	 * cache file and replaces it once complete, a cache file is never half
+	 * written. If the cache file can not be replaced, the annotations are not
+	 * cached.
+	 *
+	 * @param cacheFileName
+	 *            The cache file.
+	 * @param detectorName
+	 *            The name of the detector.
+	 * @param parameters
+	 *            The parameters of the detector.
+	 * @param sourceFileName
+	 *            The annotated audio file.
+	 * @param list
+	 *            The annotations.
+	 */
+	public static void write(final String cacheFileName,
+			final String detectorName, final String parameters,
+			final String sourceFileName, final List<Annotation> list) {
+		final AnnotationList annotations = AnnotationList.valueOf(list);
+		final File cacheFile = new File(cacheFileName);
+		final File partFile = new File(cacheFileName + ".part");
+		final PitchDetectionMode[] sources = PitchDetectionMode.values();
+		try {
+			final File source = new File(sourceFileName);
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(partFile),
+							COPY_BUFFER_SIZE));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				putString(out, detectorName);
+				putString(out, parameters);
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+				out.writeLong(hash(source));
+				out.writeInt(sources.length);
+				for (final PitchDetectionMode mode : sources) {
+					putString(out, mode.name());
+				}
+				final int size = annotations.size();
+				out.writeInt(size);
+				for (int i = 0; i < size; i++) {
+					out.writeDouble(annotations.getStart(i));
+				}
+				for (int i = 0; i < size; i++) {
+					out.writeDouble(annotations.getPitchInHz(i));
+				}
+				for (int i = 0; i < size; i++) {
+					out.writeDouble(annotations.getProbability(i));
+				}
+				for (int i = 0; i < size; i++) {
+					out.writeByte(annotations.getSource(i).ordinal());
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(partFile.toPath(), cacheFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not write " + cacheFileName, e);
+			partFile.delete();
+		}
+	}
+
+	/**
+	 * Reads a whole file into a buffer, ready to be read from its start.
+	 */
+	private static ByteBuffer readFully(final File file) throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file,
+				"r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large");
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate((int) channel
+					.size());
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) == -1) {
+					throw new IOException(file + " was truncated while read");
+				}
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private static void getDoubles(final ByteBuffer buffer,
+			final double[] values) {
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + values.length * 8);
+	}
+
+	private static String getString(final ByteBuffer buffer)
+			throws IOException {
+		final int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void putString(final DataOutputStream out,
+			final String value) throws IOException {
+		final byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * @return The CRC32 of the content of a file, 0 if it can not be read.
+	 */
+	private static long hash(final File file) {
+		final CRC32 crc = new CRC32();
+		try {
+			final InputStream in = new FileInputStream(file);
+			try {
+				final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					crc.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not hash " + file, e);
+			return 0;
+		}
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,157 @@
+package be.hogent.tarsos.sampled.pitch;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable list of annotations backed by primitive arrays: one array
+ * for the start times, one for the pitches in Hz and one for the
+ * probabilities. The annotation objects are only created when they are asked
+ * for, the primitive values can be read without creating them.
+ */
+public final class AnnotationList extends AbstractList<Annotation> implements
+		RandomAccess {
+
+	/**
+	 * The start times in seconds.
+	 */
+	private final double[] starts;
+
+	/**
+	 * The pitches in Hz.
+	 */
+	private final double[] pitches;
+
+	/**
+	 * The probabilities, between zero and one (inclusive).
+	 */
+	private final double[] probabilities;
+
+	/**
+	 * The index of the source of each annotation in sourceModes.
+	 */
+	private final byte[] sources;
+
+	private final PitchDetectionMode[] sourceModes;
+
+	/**
+	 * The annotations created so far.
+	 */
+	private final Annotation[] annotations;
+
+	/**
+	 * Create a list from its columns, the arrays are not copied.
+	 *
+	 * @param startTimes
+	 *            The start times in seconds.
+	 * @param pitchesInHz
+	 *            The pitches in Hz.
+	 * @param saliences
+	 *            The probabilities.
+	 * @param sourceIndexes
+	 *            The index of the source of each annotation in the array of
+	 *            sources.
+	 * @param annotationSources
+	 *            The sources of the annotations.
+	 */
+	public AnnotationList(final double[] startTimes,
+			final double[] pitchesInHz, final double[] saliences,
+			final byte[] sourceIndexes,
+			final PitchDetectionMode[] annotationSources) {
+		if (pitchesInHz.length != startTimes.length
+				|| saliences.length != startTimes.length
+				|| sourceIndexes.length != startTimes.length) {
+			throw new IllegalArgumentException(
+					"The columns should have the same length");
+		}
+		this.starts = startTimes;
+		this.pitches = pitchesInHz;
+		this.probabilities = saliences;
+		this.sources = sourceIndexes;
+		this.sourceModes = annotationSources;
+		this.annotations = new Annotation[startTimes.length];
+	}
+
+	/**
+	 * Create a list with the values of annotations.
+	 *
+	 * @param list
+	 *            The annotations.
+	 * @return A primitive backed list, the list itself if it is one.
+	 */
+	public static AnnotationList valueOf(final List<Annotation> list) {
+		if (list instanceof AnnotationList) {
+			return (AnnotationList) list;
+		}
+		final int size = list.size();
+		final double[] startTimes = new double[size];
+		final double[] pitchesInHz = new double[size];
+		final double[] saliences = new double[size];
+		final byte[] sourceIndexes = new byte[size];
+		final PitchDetectionMode[] modes = PitchDetectionMode.values();
+		int index = 0;
+		for (final Annotation annotation : list) {
+			startTimes[index] = annotation.getStart();
+			pitchesInHz[index] = annotation.getPitch(PitchUnit.HERTZ);
+			saliences[index] = annotation.getProbability();
+			sourceIndexes[index] = (byte) annotation.getSource().ordinal();
+			index++;
+		}
+		return new AnnotationList(startTimes, pitchesInHz, saliences,
+				sourceIndexes, modes);
+	}
+
+	@Override
+	public Annotation get(final int index) {
+		Annotation annotation = annotations[index];
+		if (annotation == null) {
+			// Annotations are immutable: creating one twice does no harm.
+			annotation = new Annotation(starts[index], pitches[index],
+					sourceModes[sources[index]], probabilities[index]);
+			annotations[index] = annotation;
+		}
+		return annotation;
+	}
+
+	@Override
+	public int size() {
+		return starts.length;
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The start time of the annotation in seconds.
+	 */
+	public double getStart(final int index) {
+		return starts[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The pitch of the annotation in Hz.
+	 */
+	public double getPitchInHz(final int index) {
+		return pitches[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The probability of the annotation.
+	 */
+	public double getProbability(final int index) {
+		return probabilities[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The source of the annotation.
+	 */
+	public PitchDetectionMode getSource(final int index) {
+		return sourceModes[sources[index]];
+	}
+}
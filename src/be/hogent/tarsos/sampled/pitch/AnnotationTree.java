@@ -1,19 +1,32 @@
 package be.hogent.tarsos.sampled.pitch;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import be.hogent.tarsos.ui.pitch.AnnotationSelection;
 import be.hogent.tarsos.util.StopWatch;
-import edu.wlu.cs.levy.CG.KDTree;
-import edu.wlu.cs.levy.CG.KeyDuplicateException;
-import edu.wlu.cs.levy.CG.KeySizeException;
 
 /**
  * Annotation tree can be used for range selection on a list of annotations. To
  * make the range search efficient it backed by a KD-tree. One dimension is
- * time, the other dimension pitch. The unit of pitch is defined during the
- * construction phase.
+ * time, the other dimension pitch, the third the probability. The unit of
+ * pitch is defined during the construction phase.
+ * <p>
+ * The KD-tree is built in one go and kept in parallel arrays of primitives,
+ * one array per dimension and one with the index of each annotation. The
+ * arrays are ordered as an implicit tree: the node of a range of the arrays is
+ * the element in the middle of the range, its left subtree the elements before
+ * it and its right subtree the elements after it. A range is ordered by
+ * partitioning it around its median, the tree is balanced and annotations with
+ * the same key are kept. Annotations added afterwards are searched one by one
+ * until there are enough of them to rebuild the tree.
+ * </p>
  */
 public final class AnnotationTree {
 
@@ -21,13 +34,65 @@ public final class AnnotationTree {
 			.getName());
 
 	/**
-	 * The backing kd-tree.
+	 * Time, pitch and probability.
 	 */
-	private final KDTree<Annotation> tree;
+	private static final int DIMENSIONS = 3;
 
 	/**
-	 * Create a new annotation tree.
-	 * 
+	 * The highest probability an annotation can have.
+	 */
+	private static final double MAX_PROBABILITY = 1.0;
+
+	/**
+	 * The depth of the tree is at most 32 (for 2^31 annotations), three ints
+	 * are pushed per level.
+	 */
+	private static final int STACK_SIZE = 3 * 33;
+
+	/**
+	 * Ranges smaller than this are not built in a thread of their own.
+	 */
+	private static final int MIN_PARALLEL_RANGE = 1 << 15;
+
+	/**
+	 * The tree is rebuilt when more than this number of annotations, or one
+	 * eighth of the tree, are added.
+	 */
+	private static final int MIN_REBUILD = 1024;
+
+	private final PitchUnit unit;
+
+	/**
+	 * The annotations the tree was constructed with, followed by the added
+	 * annotations.
+	 */
+	private final List<Annotation> annotations;
+	private final List<Annotation> added;
+
+	/**
+	 * The keys per dimension, in the order of the tree.
+	 */
+	private double[][] keys;
+
+	/**
+	 * The index of each annotation in the tree, in the order of the tree.
+	 */
+	private int[] indexes;
+
+	/**
+	 * The number of annotations in the tree. The annotations from treeSize on
+	 * are searched one by one.
+	 */
+	private int treeSize;
+
+	/**
+	 * The number of annotations, in the tree or not.
+	 */
+	private int size;
+
+	/**
+	 * Create a new annotation tree, built in the calling thread.
+	 *
 	 * @param annotations
 	 *            A list of annotations.
 	 * @param unit
@@ -36,64 +101,326 @@ public final class AnnotationTree {
 	 */
 	public AnnotationTree(final List<Annotation> annotations,
 			final PitchUnit unit) {
-		StopWatch watch = new StopWatch();
-		// Three dimensional tree
-		tree = new KDTree<Annotation>(3);
-		for (Annotation annotation : annotations) {
-			add(annotation, unit);
+		this(annotations, unit, 1);
+	}
+
+	/**
+	 * Create a new annotation tree.
+	 *
+	 * @param annotationList
+	 *            A list of annotations. The list is not copied if it allows
+	 *            random access, it should not be modified afterwards.
+	 * @param pitchUnit
+	 *            The pitch unit. The pitch unit needs to be defined here to be
+	 *            able to do range selection in a certain unit.
+	 * @param threads
+	 *            The number of threads that build the tree.
+	 */
+	public AnnotationTree(final List<Annotation> annotationList,
+			final PitchUnit pitchUnit, final int threads) {
+		final StopWatch watch = new StopWatch();
+		if (annotationList instanceof RandomAccess) {
+			annotations = annotationList;
+		} else {
+			annotations = new ArrayList<Annotation>(annotationList);
+		}
+		unit = pitchUnit;
+		added = new ArrayList<Annotation>();
+		size = annotations.size();
+		keys = new double[DIMENSIONS][size];
+		indexes = new int[size];
+		if (annotations instanceof AnnotationList) {
+			// Read the values without creating the annotations.
+			final AnnotationList list = (AnnotationList) annotations;
+			for (int i = 0; i < size; i++) {
+				keys[0][i] = list.getStart(i);
+				keys[1][i] = Pitch.getInstance(PitchUnit.HERTZ,
+						list.getPitchInHz(i)).getPitch(unit);
+				keys[2][i] = list.getProbability(i);
+				indexes[i] = i;
+			}
+		} else {
+			for (int i = 0; i < size; i++) {
+				setKey(i, annotations.get(i));
+				indexes[i] = i;
+			}
 		}
+		build(threads);
 		LOG.fine(String.format(
-				"KD Tree with %s annotations constructed in %s.", tree.size(),
-				watch));
+				"KD Tree with %s annotations constructed in %s.", size, watch));
 	}
 
 	/**
 	 * Select a subset of all annotations within a pitch - time range.
-	 * 
+	 *
+	 * @param selection
+	 *            The time, pitch and probability range.
 	 * @return A range selection of annotations.
 	 */
 	public List<Annotation> select(final AnnotationSelection selection) {
-		final StopWatch watch = new StopWatch();
-		double startTime = selection.getStartTime();
-		double stopTime = selection.getStopTime();
-		double startPitch = selection.getStartPitch();
-		double stopPitch = selection.getStopPitch();
-		double startProbability = selection.getMinProbability();
-		double stopProbability = AnnotationSelection.MAX_PROBABILITY;
+		return select(selection.getStartTime(), selection.getStopTime(),
+				selection.getStartPitch(), selection.getStopPitch(),
+				selection.getMinProbability());
+	}
 
-		double[] lowKey = { startTime, startPitch, startProbability };
-		double[] upperKey = { stopTime, stopPitch, stopProbability };
+	/**
+	 * Select a subset of all annotations within a pitch - time range. The
+	 * bounds are inclusive.
+	 *
+	 * @param startTime
+	 *            The start of the time range in seconds.
+	 * @param stopTime
+	 *            The end of the time range in seconds.
+	 * @param startPitch
+	 *            The lowest pitch, in the unit of the tree.
+	 * @param stopPitch
+	 *            The highest pitch, in the unit of the tree.
+	 * @param minProbability
+	 *            The lowest probability.
+	 * @return A range selection of annotations.
+	 */
+	public List<Annotation> select(final double startTime,
+			final double stopTime, final double startPitch,
+			final double stopPitch, final double minProbability) {
+		final StopWatch watch = new StopWatch();
+		final double[] low = { startTime, startPitch, minProbability };
+		final double[] high = { stopTime, stopPitch, MAX_PROBABILITY };
+		final List<Annotation> selectedAnnotations = new ArrayList<Annotation>();
 
-		List<Annotation> selectedAnnotations = null;
-		try {
-			selectedAnnotations = tree.range(lowKey, upperKey);
-		} catch (KeySizeException e) {
-			new IllegalStateException(
-					"The dimenstion of the tree is two, the dimension of the key also.");
+		// Walk the tree with a stack of (from, to, depth) ranges.
+		final int[] stack = new int[STACK_SIZE];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = treeSize;
+		stack[top++] = 0;
+		while (top > 0) {
+			int depth = stack[--top];
+			int to = stack[--top];
+			int from = stack[--top];
+			while (from < to) {
+				final int node = (from + to) >>> 1;
+				final int dimension = depth % DIMENSIONS;
+				final double split = keys[dimension][node];
+				if (inRange(node, low, high)) {
+					selectedAnnotations.add(get(indexes[node]));
+				}
+				// Keys equal to the split can be on both sides.
+				final boolean left = low[dimension] <= split;
+				final boolean right = split <= high[dimension];
+				depth++;
+				if (left && right) {
+					stack[top++] = node + 1;
+					stack[top++] = to;
+					stack[top++] = depth;
+					to = node;
+				} else if (left) {
+					to = node;
+				} else if (right) {
+					from = node + 1;
+				} else {
+					from = to;
+				}
+			}
+		}
+		for (int i = treeSize; i < size; i++) {
+			if (inRange(i, low, high)) {
+				selectedAnnotations.add(get(indexes[i]));
+			}
 		}
 		LOG.finer(String
 				.format("Selected %s annotations from a KD-tree of %s annotations in %s.",
-						selectedAnnotations.size(), tree.size(),
+						selectedAnnotations.size(), size,
 						watch.formattedToString()));
 		return selectedAnnotations;
 	}
 
 	public int size() {
-		return tree.size();
+		return size;
+	}
+
+	/**
+	 * Adds an annotation to the tree.
+	 *
+	 * @param annotation
+	 *            The annotation to add.
+	 * @param pitchUnit
+	 *            The unit of the tree.
+	 */
+	public void add(final Annotation annotation, final PitchUnit pitchUnit) {
+		if (pitchUnit != unit) {
+			throw new IllegalArgumentException("The unit of the tree is "
+					+ unit + ", not " + pitchUnit);
+		}
+		if (size == indexes.length) {
+			final int capacity = Math.max(16, size + (size >> 1));
+			for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+				final double[] grown = new double[capacity];
+				System.arraycopy(keys[dimension], 0, grown, 0, size);
+				keys[dimension] = grown;
+			}
+			final int[] grown = new int[capacity];
+			System.arraycopy(indexes, 0, grown, 0, size);
+			indexes = grown;
+		}
+		added.add(annotation);
+		setKey(size, annotation);
+		indexes[size] = annotations.size() + added.size() - 1;
+		size++;
+		if (size - treeSize > Math.max(MIN_REBUILD, treeSize >> 3)) {
+			build(1);
+		}
+	}
+
+	private Annotation get(final int index) {
+		final int fromList = annotations.size();
+		if (index < fromList) {
+			return annotations.get(index);
+		}
+		return added.get(index - fromList);
+	}
+
+	private void setKey(final int position, final Annotation annotation) {
+		keys[0][position] = annotation.getStart();
+		keys[1][position] = annotation.getPitch(unit);
+		keys[2][position] = annotation.getProbability();
+	}
+
+	private boolean inRange(final int position, final double[] low,
+			final double[] high) {
+		for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+			final double key = keys[dimension][position];
+			if (key < low[dimension] || key > high[dimension]) {
+				return false;
+			}
+		}
+		return true;
 	}
 
-	public void add(final Annotation annotation, final PitchUnit unit) {
-		double[] key = { annotation.getStart(), annotation.getPitch(unit),
-				annotation.getProbability() };
+	/**
+	 * Orders all annotations as a tree. The top of the tree is partitioned in
+	 * the calling thread, until there are enough subtrees to keep the threads
+	 * busy, the subtrees are built in parallel.
+	 */
+	private void build(final int threads) {
+		treeSize = size;
+		if (threads <= 1 || size < 2 * MIN_PARALLEL_RANGE) {
+			build(0, size, 0);
+			return;
+		}
+		final List<int[]> subtrees = new ArrayList<int[]>();
+		split(0, size, 0, Math.max(MIN_PARALLEL_RANGE, size / (threads * 4)),
+				subtrees);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
 		try {
-			tree.insert(key, annotation);
-		} catch (KeySizeException e) {
-			new IllegalStateException("The dimenstion of the tree is 3,"
-					+ " the dimension of the key also.");
-		} catch (KeyDuplicateException e) {
-			new IllegalStateException(
-					"No two annotations with the same timestamp and starttime should be present!");
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final int[] subtree : subtrees) {
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						build(subtree[0], subtree[1], subtree[2]);
+					}
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building", e);
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("Could not build the tree",
+					e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Partitions the top of a range until its subtrees are smaller than the
+	 * given size.
+	 */
+	private void split(final int from, final int to, final int depth,
+			final int subtreeSize, final List<int[]> subtrees) {
+		if (to - from <= subtreeSize) {
+			subtrees.add(new int[] { from, to, depth });
+		} else {
+			final int node = (from + to) >>> 1;
+			partition(from, to, node, depth % DIMENSIONS);
+			split(from, node, depth + 1, subtreeSize, subtrees);
+			split(node + 1, to, depth + 1, subtreeSize, subtrees);
+		}
+	}
+
+	/**
+	 * Orders a range as a subtree: partitions it around its median and orders
+	 * both halves, one depth further.
+	 */
+	private void build(final int from, final int to, final int depth) {
+		int start = from;
+		int level = depth;
+		while (to - start > 1) {
+			final int node = (start + to) >>> 1;
+			partition(start, to, node, level % DIMENSIONS);
+			build(start, node, level + 1);
+			start = node + 1;
+			level++;
+		}
+	}
+
+	/**
+	 * Moves the element of rank k within a range to position k, with the
+	 * elements before it not greater and the elements after it not smaller
+	 * (Hoare's selection).
+	 */
+	private void partition(final int from, final int to, final int k,
+			final int dimension) {
+		final double[] key = keys[dimension];
+		int left = from;
+		int right = to - 1;
+		while (left < right) {
+			// The median of three as pivot, at position k.
+			if (key[left] > key[k]) {
+				swap(left, k);
+			}
+			if (key[k] > key[right]) {
+				swap(k, right);
+				if (key[left] > key[k]) {
+					swap(left, k);
+				}
+			}
+			final double pivot = key[k];
+			int i = left;
+			int j = right;
+			do {
+				while (key[i] < pivot) {
+					i++;
+				}
+				while (pivot < key[j]) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			} while (i <= j);
+			if (j < k) {
+				left = i;
+			}
+			if (k < i) {
+				right = j;
+			}
 		}
+	}
 
+	private void swap(final int i, final int j) {
+		for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+			final double[] key = keys[dimension];
+			final double value = key[i];
+			key[i] = key[j];
+			key[j] = value;
+		}
+		final int index = indexes[i];
+		indexes[i] = indexes[j];
+		indexes[j] = index;
 	}
 }
@@ -11,6 +11,12 @@ import be.hogent.tarsos.util.FileUtils;
  * Caches the results of a pitch detector by serializing annotations to a file.
  * If a file with annotations exists it reads the contents, otherwise the pitch
  * detector is executed and the annotations are stored.
+ * <p>
+ * The annotations are cached in the binary format of {@link AnnotationCache},
+ * the cache is executed again when the audio file or the parameters of the
+ * detector changed. A text cache of an earlier version is converted to the
+ * binary format the first time it is read.
+ * </p>
  * 
  * @author Joren Six
  */
@@ -18,6 +24,7 @@ public final class CachingDetector implements PitchDetector {
 	private List<Annotation> annotations;
 	private final AudioFile file;
 	private final PitchDetector detector;
+	private final String parameters;
 
 	/**
 	 * Log messages.
@@ -35,25 +42,56 @@ public final class CachingDetector implements PitchDetector {
 	 */
 	public CachingDetector(final AudioFile audioFile,
 			final PitchDetector pitchDetector) {
+		this(audioFile, pitchDetector, "");
+	}
+
+	/**
+	 * Create a new caching pitch detector.
+	 * 
+	 * @param audioFile
+	 *            The file to cache results for.
+	 * @param pitchDetector
+	 *            The detector used.
+	 * @param detectorParameters
+	 *            The parameters of the detector that are not part of its
+	 *            name, the cached annotations are only used for the same
+	 *            parameters.
+	 */
+	public CachingDetector(final AudioFile audioFile,
+			final PitchDetector pitchDetector, final String detectorParameters) {
 		file = audioFile;
 		detector = pitchDetector;
+		parameters = detectorParameters;
 		annotations = new ArrayList<Annotation>();
 	}
 
 	public List<Annotation> executePitchDetection() {
 		String directory = file.transcodedDirectory();
-		String annotationsFileName = detector.getName() + "_" + file.basename()
-				+ ".txt";
-		annotationsFileName = FileUtils.combine(directory, annotationsFileName);
-		if (FileUtils.exists(annotationsFileName)) {
-			annotations = FileUtils.readPitchAnnotations(annotationsFileName);
+		String baseName = detector.getName() + "_" + file.basename();
+		String annotationsFileName = FileUtils.combine(directory, baseName
+				+ ".annotations");
+		String textFileName = FileUtils.combine(directory, baseName + ".txt");
+		String source = file.transcodedPath();
+		List<Annotation> cached = AnnotationCache.read(annotationsFileName,
+				detector.getName(), parameters, source);
+		if (cached != null) {
+			annotations = cached;
 			LOG.info(String.format("Read cached annotations for %s from %s",
 					detector.getName(), annotationsFileName));
+		} else if (!FileUtils.exists(annotationsFileName)
+				&& FileUtils.exists(textFileName)) {
+			annotations = FileUtils.readPitchAnnotations(textFileName);
+			AnnotationCache.write(annotationsFileName, detector.getName(),
+					parameters, source, annotations);
+			LOG.info(String.format("Converted cached annotations for %s from"
+					+ " %s to %s", detector.getName(), textFileName,
+					annotationsFileName));
 		} else {
 			detector.executePitchDetection();
 			// Do not copy the annotations, use the same list:
 			annotations = detector.getAnnotations();
-			FileUtils.writePitchAnnotations(annotationsFileName, annotations);
+			AnnotationCache.write(annotationsFileName, detector.getName(),
+					parameters, source, annotations);
 			LOG.info(String.format("Cached annotation results for %s to %s",
 					detector.getName(), annotationsFileName));
 		}
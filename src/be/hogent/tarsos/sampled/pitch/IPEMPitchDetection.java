@@ -100,7 +100,8 @@ public final class IPEMPitchDetection implements PitchDetector {
 				transcodedBaseName + ".txt");
 		String command = null;
 
-		String audioDirectory = file.transcodedDirectory() + "/";
+		// The transcoded audio is in the cache of transcoded files.
+		String audioDirectory = FileUtils.path(file.transcodedPath()) + "/";
 		String executableDirectory = Configuration.get(ConfKey.data_directory);
 
 		if (System.getProperty("os.name").contains("indows")) {
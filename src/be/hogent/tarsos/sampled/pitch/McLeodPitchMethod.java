@@ -5,6 +5,8 @@ package be.hogent.tarsos.sampled.pitch;
 import java.util.ArrayList;
 import java.util.List;
 
+import be.hogent.tarsos.util.FFT;
+
 /**
  * <p>
  * Implementation of The McLeod Pitch Method (MPM). It is described in the
@@ -26,14 +28,13 @@ import java.util.List;
  * </p>
  * </bufferCount> </blockquote>
  * <p>
- * For the moment this implementation uses the inefficient way of calculating
- * the pitch. It uses <code>O(Ww)</code> with W the window size in samples and w
- * the desired number of ACF coefficients. The implementation can be optimized
- * to <code>O((W+w)log(W+w))</code> by using an <abbr
+ * By default this implementation uses the inefficient way of calculating the
+ * pitch. It uses <code>O(Ww)</code> with W the window size in samples and w
+ * the desired number of ACF coefficients. When constructed with
+ * <code>fftNormalizedSquareDifference</code> it is optimized to
+ * <code>O((W+w)log(W+w))</code> by using an <abbr
  * title="Fast Fourier Transform">FFT</abbr> to calculate the <abbr
- * title="Auto-Correlation Function">ACF</abbr>. But I am still afraid of the
- * dark magic of the FFT and clinging to the familiar, friendly, laggard time
- * domain.
+ * title="Auto-Correlation Function">ACF</abbr>.
  * </p>
  * 
  * @author Phillip McLeod
@@ -111,6 +112,25 @@ public final class McLeodPitchMethod implements PurePitchDetector {
 	 */
 	private float probability;
 
+	/**
+	 * The FFT used to calculate the ACF. Null if the normalized square
+	 * difference is calculated in the time domain.
+	 */
+	private final FFT fft;
+
+	/**
+	 * The size of the FFT: the smallest power of two that holds twice the
+	 * audio buffer, so the circular correlation of the FFT equals the linear
+	 * ACF.
+	 */
+	private final int fftSize;
+
+	/**
+	 * Interlaced complex scratch buffer for the FFT based ACF. Allocated once
+	 * and reused for every buffer.
+	 */
+	private final float[] acfBuffer;
+
 	/**
 	 * Initializes the normalized square difference value array and stores the
 	 * sample rate.
@@ -148,10 +168,46 @@ public final class McLeodPitchMethod implements PurePitchDetector {
 	 */
 	public McLeodPitchMethod(final float audioSampleRate,
 			final int audioBufferSize, final double cutoffMPM) {
+		this(audioSampleRate, audioBufferSize, cutoffMPM, false);
+	}
+
+	/**
+	 * Create a new pitch detector.
+	 * 
+	 * @param audioSampleRate
+	 *            The sample rate of the audio.
+	 * @param audioBufferSize
+	 *            The size of one audio buffer 1024 samples is common.
+	 * @param cutoffMPM
+	 *            The cutoff (similar to the YIN threshold). In the Tartini
+	 *            paper 0.93 is used.
+	 * @param fftNormalizedSquareDifference
+	 *            If true the normalized square difference is calculated using
+	 *            an FFT based ACF, <code>O(N log N)</code> instead of
+	 *            <code>O(N^2)</code>. The results are the same within floating
+	 *            point tolerance.
+	 */
+	public McLeodPitchMethod(final float audioSampleRate,
+			final int audioBufferSize, final double cutoffMPM,
+			final boolean fftNormalizedSquareDifference) {
 		this.sampleRate = audioSampleRate;
 		nsdf = new float[audioBufferSize];
 		this.cutoff = cutoffMPM;
 		probability = 0;
+
+		if (fftNormalizedSquareDifference) {
+			int size = 1;
+			while (size < 2 * audioBufferSize) {
+				size <<= 1;
+			}
+			fftSize = size;
+			fft = new FFT(fftSize);
+			acfBuffer = new float[2 * fftSize];
+		} else {
+			fftSize = 0;
+			fft = null;
+			acfBuffer = null;
+		}
 	}
 
 	// jAM
@@ -161,8 +217,9 @@ public final class McLeodPitchMethod implements PurePitchDetector {
 
 	/**
 	 * Implements the normalized square difference function. See section 4 (and
-	 * the explanation before) in the MPM article. This calculation can be
-	 * optimized by using an FFT. The results should remain the same.
+	 * the explanation before) in the MPM article. See
+	 * {@link #normalizedSquareDifferenceFFT(float[])} for the FFT based
+	 * version, the results remain the same.
 	 * 
 	 * @param audioBuffer
 	 *            The buffer with audio information.
@@ -180,6 +237,51 @@ public final class McLeodPitchMethod implements PurePitchDetector {
 		}
 	}
 
+	/**
+	 * Implements the normalized square difference function using an FFT. The
+	 * ACF r(tau) is the inverse transform of the power spectrum of the zero
+	 * padded audio buffer. The divisor m'(tau) is a running sum: m'(0) is twice
+	 * the power of the buffer and each next tau removes the two samples that
+	 * leave the overlapping part.
+	 * 
+	 * @param audioBuffer
+	 *            The buffer with audio information.
+	 */
+	private void normalizedSquareDifferenceFFT(final float[] audioBuffer) {
+		final int length = audioBuffer.length;
+
+		for (int i = 0; i < fftSize; i++) {
+			acfBuffer[2 * i] = i < length ? audioBuffer[i] : 0;
+			acfBuffer[2 * i + 1] = 0;
+		}
+		fft.forwardTransform(acfBuffer);
+
+		// power spectrum
+		for (int i = 0; i < fftSize; i++) {
+			final float re = acfBuffer[2 * i];
+			final float im = acfBuffer[2 * i + 1];
+			acfBuffer[2 * i] = re * re + im * im;
+			acfBuffer[2 * i + 1] = 0;
+		}
+		fft.backwardsTransform(acfBuffer);
+
+		// a double keeps the running sum from drifting for large tau
+		double divisorM = 0;
+		for (int i = 0; i < length; i++) {
+			divisorM += audioBuffer[i] * audioBuffer[i];
+		}
+		divisorM *= 2;
+
+		for (int tau = 0; tau < length; tau++) {
+			// the inverse transform is not normalized
+			final float acf = acfBuffer[2 * tau] / fftSize;
+			nsdf[tau] = (float) (2 * acf / divisorM);
+			divisorM -= audioBuffer[tau] * audioBuffer[tau]
+					+ audioBuffer[length - 1 - tau]
+					* audioBuffer[length - 1 - tau];
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -195,7 +297,11 @@ public final class McLeodPitchMethod implements PurePitchDetector {
 		ampEstimates.clear();
 
 		// 1. Calculate the normalized square difference for each Tau value.
-		normalizedSquareDifference(audioBuffer);
+		if (fft == null) {
+			normalizedSquareDifference(audioBuffer);
+		} else {
+			normalizedSquareDifferenceFFT(audioBuffer);
+		}
 		// 2. Peak picking time: time to pick some peaks.
 		peakPicking();
 
@@ -96,12 +96,17 @@ public enum PitchDetectionMode {
 	 */
 	public PitchDetector getPitchDetector(final AudioFile audioFile) {
 		PitchDetector detector;
+		String parameters = "";
 		switch (this) {
 		case IPEM_SIX:
 			detector = new IPEMPitchDetection(audioFile, this);
+			parameters = "ipem_pitch_threshold="
+					+ Configuration.get(ConfKey.ipem_pitch_threshold);
 			break;
 		case IPEM_ONE:
 			detector = new IPEMPitchDetection(audioFile, this);
+			parameters = "ipem_pitch_threshold="
+					+ Configuration.get(ConfKey.ipem_pitch_threshold);
 			break;
 		case TARSOS_YIN:
 			detector = new TarsosPitchDetection(audioFile, this);
@@ -113,7 +118,7 @@ public enum PitchDetectionMode {
 			detector = new VampPitchDetection(audioFile, this);
 			break;
 		}
-		return new CachingDetector(audioFile, detector);
+		return new CachingDetector(audioFile, detector, parameters);
 	}
 
 	public String getDetectionModeName() {
@@ -1,5 +1,7 @@
 package be.hogent.tarsos.sampled.pitch;
 
+import be.hogent.tarsos.util.FFT;
+
 /**
  * An implementation of the AUBIO_YIN pitch tracking algorithm. See <a href=
  * "http://recherche.ircam.fr/equipes/pcm/cheveign/ps/2002_JASA_YIN_proof.pdf"
@@ -15,7 +17,7 @@ public final class Yin implements PurePitchDetector {
 	 * The default YIN threshold value. Should be around 0.10~0.15. See YIN
 	 * paper for more information.
 	 */
-	private static final double DEFAULT_THRESHOLD = 0.20;
+	public static final double DEFAULT_THRESHOLD = 0.20;
 
 	/**
 	 * The default size of an audio buffer (in samples).
@@ -48,6 +50,67 @@ public final class Yin implements PurePitchDetector {
 	 */
 	private float probability;
 
+	/**
+	 * The FFT used to calculate the difference function through the
+	 * autocorrelation. Null if the plain O(N^2) difference function is used.
+	 */
+	private final FFT fft;
+
+	/**
+	 * The size of the FFT: the smallest power of two that holds the audio
+	 * buffer.
+	 */
+	private final int fftSize;
+
+	/**
+	 * Scratch buffers for the FFT based difference function, interlaced
+	 * complex values. Allocated once to avoid garbage on every buffer.
+	 */
+	private final float[] audioBufferFFT, kernel, yinStyleACF;
+
+	/**
+	 * Create a new pitch detector for a stream with the defined sample rate.
+	 * Processes the audio in blocks of the defined size.
+	 *
+	 * @param audioSampleRate
+	 *            The sample rate of the audio stream. E.g. 44.1 kHz.
+	 * @param bufferSize
+	 *            The size of a buffer. E.g. 1024.
+	 * @param yinThreshold
+	 *            The parameter that defines which peaks are kept as possible
+	 *            pitch candidates. See the YIN paper for more details.
+	 * @param fftDifference
+	 *            If true the difference function (step 2) is calculated using
+	 *            an FFT based autocorrelation, <code>O(N log N)</code> instead
+	 *            of <code>O(N^2)</code>. The results are the same within
+	 *            floating point tolerance. Pays off from buffers of about 1024
+	 *            samples.
+	 */
+	public Yin(final float audioSampleRate, final int bufferSize,
+			final double yinThreshold, final boolean fftDifference) {
+		this.sampleRate = audioSampleRate;
+		this.threshold = yinThreshold;
+		yinBuffer = new float[bufferSize / 2];
+
+		if (fftDifference) {
+			int size = 1;
+			while (size < bufferSize) {
+				size <<= 1;
+			}
+			fftSize = size;
+			fft = new FFT(fftSize);
+			audioBufferFFT = new float[2 * fftSize];
+			kernel = new float[2 * fftSize];
+			yinStyleACF = new float[2 * fftSize];
+		} else {
+			fftSize = 0;
+			fft = null;
+			audioBufferFFT = null;
+			kernel = null;
+			yinStyleACF = null;
+		}
+	}
+
 	/**
 	 * Create a new pitch detector for a stream with the defined sample rate.
 	 * Processes the audio in blocks of the defined size.
@@ -75,9 +138,7 @@ public final class Yin implements PurePitchDetector {
 	 */
 	public Yin(final float audioSampleRate, final int bufferSize,
 			final double yinThreshold) {
-		this.sampleRate = audioSampleRate;
-		this.threshold = yinThreshold;
-		yinBuffer = new float[bufferSize / 2];
+		this(audioSampleRate, bufferSize, yinThreshold, false);
 
 		/*
 		 * jAM optimize YIN ?:
@@ -104,7 +165,11 @@ public final class Yin implements PurePitchDetector {
 		float pitchInHertz = -1;
 
 		// step 2
-		difference(audioBuffer);
+		if (fft == null) {
+			difference(audioBuffer);
+		} else {
+			differenceFFT(audioBuffer);
+		}
 
 		// step 3
 		cumulativeMeanNormalizedDifference();
@@ -157,6 +222,67 @@ public final class Yin implements PurePitchDetector {
 		// MathUtils.printArray(yinBuffer);
 	}
 
+	/**
+	 * Implements the difference function of step 2 using the autocorrelation.
+	 * With W the size of the yinBuffer the difference function can be written
+	 * as
+	 *
+	 * <pre>
+	 * d(tau) = r(0) + r'(tau) - 2 * r(tau)
+	 * </pre>
+	 *
+	 * with r(0) the power of the first W samples, r'(tau) the power of the W
+	 * samples starting at tau and r(tau) the cross correlation of the first W
+	 * samples with the W samples starting at tau. The power terms are a
+	 * running sum, the cross correlation is calculated for all tau at once by
+	 * convolving the audio buffer with the reversed first W samples via the
+	 * FFT.
+	 */
+	private void differenceFFT(final float[] audioBuffer) {
+		final int w = yinBuffer.length;
+
+		// the power terms: r(0) and the first r'(tau)
+		float powerTermZero = 0;
+		for (int j = 0; j < w; j++) {
+			powerTermZero += audioBuffer[j] * audioBuffer[j];
+		}
+
+		// spectrum of the audio buffer, zero padded to the FFT size
+		for (int j = 0; j < fftSize; j++) {
+			audioBufferFFT[2 * j] = j < audioBuffer.length ? audioBuffer[j] : 0;
+			audioBufferFFT[2 * j + 1] = 0;
+		}
+		fft.forwardTransform(audioBufferFFT);
+
+		// spectrum of the reversed first W samples
+		for (int j = 0; j < fftSize; j++) {
+			kernel[2 * j] = j < w ? audioBuffer[w - 1 - j] : 0;
+			kernel[2 * j + 1] = 0;
+		}
+		fft.forwardTransform(kernel);
+
+		// convolution: complex multiplication of both spectra
+		for (int j = 0; j < fftSize; j++) {
+			final float re = audioBufferFFT[2 * j];
+			final float im = audioBufferFFT[2 * j + 1];
+			final float kre = kernel[2 * j];
+			final float kim = kernel[2 * j + 1];
+			yinStyleACF[2 * j] = re * kre - im * kim;
+			yinStyleACF[2 * j + 1] = re * kim + im * kre;
+		}
+		fft.backwardsTransform(yinStyleACF);
+
+		// the inverse transform is not normalized: r(tau) is found at index
+		// tau + W - 1 of the convolution, scaled by the FFT size
+		float powerTermTau = powerTermZero;
+		for (int tau = 0; tau < w; tau++) {
+			final float acf = yinStyleACF[2 * (tau + w - 1)] / fftSize;
+			yinBuffer[tau] = powerTermZero + powerTermTau - 2 * acf;
+			powerTermTau += audioBuffer[tau + w] * audioBuffer[tau + w]
+					- audioBuffer[tau] * audioBuffer[tau];
+		}
+	}
+
 	/**
 	 * The cumulative mean normalized difference function as described in step 3
 	 * of the YIN paper. <br>
@@ -39,11 +39,19 @@ public final class AudioFile {
 	private static final Logger LOG = Logger.getLogger(AudioFile.class
 			.getName());
 
+	/**
+	 * The file in the data directory with the hash of the content of the
+	 * original file.
+	 */
+	private static final String CONTENT_HASH_FILE = "content_hash.txt";
+
 	private final String originalPath;
+	private final String transcodedPath;
 	private final long lengthInMicroSeconds;
 
 	/**
-	 * Create and transcode an audio file.
+	 * Create and transcode an audio file. The audio is only transcoded if no
+	 * file with the same content was transcoded before.
 	 * 
 	 * @param filePath
 	 *            the originalPath for the audio file
@@ -53,28 +61,25 @@ public final class AudioFile {
 	 */
 	public AudioFile(final String filePath) throws EncoderException {
 		this.originalPath = new File(filePath).getAbsolutePath();
-		if (AudioTranscoder.transcodingRequired(transcodedPath())) {
-			AudioTranscoder.transcode(filePath, transcodedPath());
+		this.transcodedPath = AudioTranscoder.cachedPath(originalPath,
+				FileUtils.combine(transcodedDirectory(), CONTENT_HASH_FILE));
+		if (AudioTranscoder.transcodingRequired(transcodedPath)) {
+			AudioTranscoder.transcode(filePath, transcodedPath);
 		}
 		lengthInMicroSeconds = calculateLengthInMilliSeconds();
 	}
 
 	/**
-	 * @return the path of the transcoded audio file.
+	 * @return the path of the transcoded audio file, in the cache of
+	 *         transcoded files of the data directory.
 	 */
 	public String transcodedPath() {
-		// 01. qsdflj.mp3 => 01._qsdfj
-		final String baseName = FileUtils.basename(StringUtils
-				.sanitize(originalPath));
-		// 01._qsdfj => 01._qsdfj.wav
-		final String fileName = baseName + "_transcoded."
-				+ AudioTranscoder.TARGET_ENCODING.getAttributes().getFormat();
-		// return the name where the transcoded file should go
-		return FileUtils.combine(transcodedDirectory(), fileName);
+		return transcodedPath;
 	}
 
 	/**
-	 * @return the directory where the transcoded audio file resides.
+	 * @return the directory where the annotations and other data files of the
+	 *         audio file reside.
 	 */
 	public String transcodedDirectory() {
 		// 01. qsdflj.mp3 => 01._qsdfj
@@ -94,7 +99,7 @@ public final class AudioFile {
 		final String subFolder = baseName + "_" + md5;
 		// create the directory if it is not already there
 		FileUtils.mkdirs(FileUtils.combine(dataFolder, subFolder));
-		// return the name where the transcoded file should go
+		// return the name where the data files should go
 		return FileUtils.combine(dataFolder, subFolder);
 	}
 
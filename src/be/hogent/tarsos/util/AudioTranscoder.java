@@ -1,6 +1,19 @@
 package be.hogent.tarsos.util;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
 
 import be.hogent.tarsos.transcoder.Attributes;
 import be.hogent.tarsos.transcoder.DefaultAttributes;
@@ -8,17 +21,38 @@ import be.hogent.tarsos.transcoder.Transcoder;
 import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
 
 /**
- * Transcodes audio. Uses ffmpeg: a vast number of formats are supported. A
- * compiled ffmpeg binary is provided for Windows and Linux (32bit). If support
- * on another platform is required check the <a
+ * Transcodes audio. WAV, AIFF and AU files are transcoded in Java to a PCM wave
+ * target, see {@link PcmTranscoder}. Other formats, and other targets, are
+ * transcoded with ffmpeg: a vast number of formats are supported. A compiled
+ * ffmpeg binary is provided for Windows and Linux (32bit). If support on
+ * another platform is required check the <a
  * href="http://www.sauronsoftware.it/projects/jave/manual.php">documentation of
  * JAVE</a> or disable transcoding (trough configuration) and perform it
  * manually .
+ * <p>
+ * Transcoded files are cached in the data directory under the hash of the
+ * content of the original file and the name of the target encoding: the same
+ * audio is transcoded once, whatever its name or location.
+ * </p>
  * 
  * @author Joren Six
  */
 public final class AudioTranscoder {
 
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(AudioTranscoder.class
+			.getName());
+
+	/**
+	 * The sub directory of the data directory with the cached transcoded
+	 * files.
+	 */
+	private static final String CACHE_DIRECTORY = "transcoded";
+
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
 	// makes sure no instances of AudioTranscoder are created.
 	private AudioTranscoder() {
 	};
@@ -74,15 +108,179 @@ public final class AudioTranscoder {
 
 		// if transcoding is enabled transcode
 		if (Configuration.getBoolean(ConfKey.transcode_audio)) {
-			Transcoder.transcode(sourceFile, targetFile, attributes);
+			final AudioFormat format = pcmFormat(attributes);
+			if (format == null
+					|| !transcodeInJava(sourceFile, targetFile, format)) {
+				Transcoder.transcode(sourceFile, targetFile, attributes);
+			}
 		} else {
 			// if transcoding is disabled: copy the audio
 			FileUtils.cp(source, target);
 		}
 	}
 
+	/**
+	 * Transcode the source file to the target with PcmTranscoder. The target
+	 * is written next to its final location and renamed once complete.
+	 * 
+	 * @return False if the source can not be decoded in Java.
+	 */
+	private static boolean transcodeInJava(final File source,
+			final File target, final AudioFormat format) {
+		File part = null;
+		try {
+			part = File.createTempFile(target.getName(), ".part",
+					target.getAbsoluteFile().getParentFile());
+			PcmTranscoder.transcode(source, part, format);
+			// A file with the same content may have been transcoded meanwhile.
+			if (target.exists()) {
+				target.delete();
+			}
+			if (!part.renameTo(target)) {
+				throw new IOException("Could not rename " + part + " to "
+						+ target);
+			}
+			return true;
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.fine(String.format("%s can not be decoded in Java: %s",
+					source, e.getMessage()));
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not transcode " + source
+					+ " in Java.", e);
+		}
+		if (part != null) {
+			part.delete();
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a transcoded file is missing or is not in the target format.
+	 * 
+	 * @param transcodedPath
+	 *            The path of the transcoded file.
+	 * @return True if the file needs to be transcoded.
+	 */
 	public static boolean transcodingRequired(final String transcodedPath) {
-		return Transcoder.transcodingRequired(transcodedPath,
-				TARGET_ENCODING.getAttributes());
+		final File transcoded = new File(transcodedPath);
+		if (!Configuration.getBoolean(ConfKey.transcode_audio)) {
+			return !transcoded.exists();
+		}
+		final AudioFormat format = pcmFormat(TARGET_ENCODING.getAttributes());
+		if (format == null) {
+			return Transcoder.transcodingRequired(transcodedPath,
+					TARGET_ENCODING.getAttributes());
+		}
+		boolean required = true;
+		if (transcoded.isFile()) {
+			try {
+				required = !AudioSystem.getAudioFileFormat(transcoded)
+						.getFormat().matches(format);
+			} catch (final UnsupportedAudioFileException e) {
+				LOG.warning(transcodedPath + " is not a valid audio file.");
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not read " + transcodedPath, e);
+			}
+		}
+		return required;
+	}
+
+	/**
+	 * Returns the path in the cache of the transcoded audio of a file. The
+	 * name of the cached file is the hash of the content of the source and
+	 * the name of the target encoding.
+	 * 
+	 * @param source
+	 *            The path of the audio file.
+	 * @param hashFile
+	 *            A file to keep the hash of the source in. The source is only
+	 *            hashed again when its length or modification time changes.
+	 * @return The path of the transcoded audio file.
+	 */
+	public static String cachedPath(final String source, final String hashFile) {
+		final String encoding;
+		if (Configuration.getBoolean(ConfKey.transcode_audio)) {
+			encoding = TARGET_ENCODING.name().toLowerCase();
+		} else {
+			encoding = "original";
+		}
+		final String fileName = contentHash(source, hashFile) + "_" + encoding
+				+ "." + TARGET_ENCODING.getAttributes().getFormat();
+		final String directory = FileUtils.combine(
+				Configuration.get(ConfKey.data_directory), CACHE_DIRECTORY);
+		FileUtils.mkdirs(directory);
+		return FileUtils.combine(directory, fileName);
+	}
+
+	/**
+	 * @return The MD5 hash of the content of a file, read from the hash file
+	 *         if the length and the modification time of the file are the
+	 *         ones written there.
+	 */
+	private static String contentHash(final String source,
+			final String hashFile) {
+		final File sourceFile = new File(source);
+		final String key = sourceFile.length() + " " + sourceFile.lastModified()
+				+ " ";
+		if (FileUtils.exists(hashFile)) {
+			final String line = FileUtils.readFile(hashFile).trim();
+			if (line.startsWith(key)) {
+				return line.substring(key.length());
+			}
+		}
+		final String hash;
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			final InputStream in = new FileInputStream(sourceFile);
+			try {
+				final byte[] buffer = new byte[HASH_BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+			hash = String.format("%1$032X", new BigInteger(1, digest.digest()));
+		} catch (final NoSuchAlgorithmException e) {
+			// MD5 Should be supported by the runtime!
+			throw new IllegalStateException(e);
+		} catch (final IOException e) {
+			// Fall back on the path, as before the cache.
+			LOG.log(Level.WARNING, "Could not hash " + source, e);
+			return StringUtils.messageDigestFive(sourceFile.getAbsolutePath());
+		}
+		FileUtils.writeFile(key + hash, hashFile);
+		return hash;
+	}
+
+	/**
+	 * @return The format of the samples of the target, or null if the target
+	 *         is not a PCM wave file PcmTranscoder can write.
+	 */
+	private static AudioFormat pcmFormat(final Attributes attributes) {
+		final String codec = attributes.getCodec();
+		final Integer channels = attributes.getChannels();
+		final Integer samplingRate = attributes.getSamplingRate();
+		if (!"wav".equalsIgnoreCase(attributes.getFormat()) || codec == null
+				|| channels == null || samplingRate == null) {
+			return null;
+		}
+		final int bits;
+		Encoding encoding = Encoding.PCM_SIGNED;
+		if ("pcm_u8".equals(codec)) {
+			bits = 8;
+			encoding = Encoding.PCM_UNSIGNED;
+		} else if ("pcm_s16le".equals(codec)) {
+			bits = 16;
+		} else if ("pcm_s24le".equals(codec)) {
+			bits = 24;
+		} else if ("pcm_s32le".equals(codec)) {
+			bits = 32;
+		} else {
+			return null;
+		}
+		return new AudioFormat(encoding, samplingRate, bits, channels,
+				channels * bits / 8, samplingRate, false);
 	}
 }
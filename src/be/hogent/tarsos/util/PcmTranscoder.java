@@ -0,0 +1,556 @@
+package be.hogent.tarsos.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Transcodes audio the Java sound API can read (WAV, AIFF and AU files with
+ * PCM, float, a-law or u-law samples) to a PCM wave file, without an external
+ * process. The audio streams through in blocks: the samples of a block are
+ * decoded to floats, mixed to the target number of channels, resampled to the
+ * target sample rate and encoded in the target sample size. Only a few blocks
+ * of audio are in memory at any time.
+ * <p>
+ * Channels are mixed by averaging: target channel c is the mean of the source
+ * channels c, c + n, c + 2n... with n the number of target channels. A mono
+ * source is copied to every target channel. The sample rate is converted by
+ * band limited interpolation with a Blackman windowed sinc.
+ * </p>
+ */
+public final class PcmTranscoder {
+
+	/**
+	 * The number of frames read at once.
+	 */
+	private static final int BLOCK_FRAMES = 8192;
+
+	/**
+	 * The size of the header of a PCM wave file.
+	 */
+	private static final int HEADER_SIZE = 44;
+
+	// Disable the default constructor.
+	private PcmTranscoder() {
+	}
+
+	/**
+	 * Transcode an audio file to a PCM wave file.
+	 *
+	 * @param source
+	 *            The audio file to transcode.
+	 * @param target
+	 *            The wave file to write.
+	 * @param format
+	 *            The format of the wave file: signed little endian samples of
+	 *            16, 24 or 32 bits, or unsigned samples of 8 bits.
+	 * @throws UnsupportedAudioFileException
+	 *             If the Java sound API can not decode the source file.
+	 * @throws IOException
+	 *             If the source file can not be read or the target file can
+	 *             not be written.
+	 */
+	public static void transcode(final File source, final File target,
+			final AudioFormat format) throws UnsupportedAudioFileException,
+			IOException {
+		final int targetBits = format.getSampleSizeInBits();
+		final boolean unsigned = format.getEncoding().equals(
+				Encoding.PCM_UNSIGNED);
+		if (!format.getEncoding().equals(Encoding.PCM_SIGNED) && !unsigned
+				|| unsigned != (targetBits == 8) || targetBits % 8 != 0
+				|| targetBits > 32 || targetBits > 8 && format.isBigEndian()) {
+			throw new IllegalArgumentException(
+					"A PCM wave file can not be written in " + format);
+		}
+		final AudioInputStream stream = decodable(AudioSystem
+				.getAudioInputStream(source));
+		try {
+			final AudioFormat sourceFormat = stream.getFormat();
+			final int sourceChannels = sourceFormat.getChannels();
+			final int targetChannels = format.getChannels();
+			final long sourceRate = Math.round(sourceFormat.getSampleRate());
+			final long targetRate = Math.round(format.getSampleRate());
+			if (sourceRate <= 0 || sourceChannels <= 0) {
+				throw new UnsupportedAudioFileException(
+						"Unknown sample rate or channels: " + sourceFormat);
+			}
+
+			final byte[] sourceBytes = new byte[BLOCK_FRAMES
+					* sourceFormat.getFrameSize()];
+			final float[][] decoded = new float[sourceChannels][BLOCK_FRAMES];
+			final float[][] mixed;
+			if (sourceChannels == targetChannels) {
+				mixed = decoded;
+			} else {
+				mixed = new float[targetChannels][BLOCK_FRAMES];
+			}
+			final Resampler resampler;
+			final float[][] resampled;
+			if (sourceRate == targetRate) {
+				resampler = null;
+				resampled = mixed;
+			} else {
+				resampler = new Resampler(targetChannels, sourceRate,
+						targetRate);
+				resampled = new float[targetChannels][BLOCK_FRAMES];
+			}
+			final byte[] targetBytes = new byte[BLOCK_FRAMES
+					* format.getFrameSize()];
+
+			final RandomAccessFile out = new RandomAccessFile(target, "rw");
+			try {
+				out.setLength(0);
+				out.write(new byte[HEADER_SIZE]);
+				long dataSize = 0;
+				int read;
+				while ((read = stream.read(sourceBytes)) > 0) {
+					final int frames = read / sourceFormat.getFrameSize();
+					decode(sourceBytes, frames, sourceFormat, decoded);
+					if (mixed != decoded) {
+						mix(decoded, frames, mixed);
+					}
+					if (resampler == null) {
+						dataSize += write(out, resampled, frames, format,
+								targetBytes);
+					} else {
+						resampler.push(mixed, frames);
+						int resampledFrames;
+						while ((resampledFrames = resampler.pull(resampled,
+								false)) > 0) {
+							dataSize += write(out, resampled, resampledFrames,
+									format, targetBytes);
+						}
+					}
+				}
+				if (resampler != null) {
+					int resampledFrames;
+					while ((resampledFrames = resampler.pull(resampled, true)) > 0) {
+						dataSize += write(out, resampled, resampledFrames,
+								format, targetBytes);
+					}
+				}
+				out.seek(0);
+				out.write(header(format, dataSize));
+			} finally {
+				out.close();
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * @return A stream of PCM or float samples: a-law and u-law are converted
+	 *         to 16 bit PCM.
+	 */
+	private static AudioInputStream decodable(final AudioInputStream stream)
+			throws UnsupportedAudioFileException {
+		final AudioFormat format = stream.getFormat();
+		final Encoding encoding = format.getEncoding();
+		if (encoding.equals(Encoding.PCM_SIGNED)
+				|| encoding.equals(Encoding.PCM_UNSIGNED)
+				|| encoding.equals(Encoding.PCM_FLOAT)) {
+			return stream;
+		}
+		final AudioFormat pcm = new AudioFormat(Encoding.PCM_SIGNED,
+				format.getSampleRate(), 16, format.getChannels(),
+				format.getChannels() * 2, format.getSampleRate(), false);
+		if (!AudioSystem.isConversionSupported(pcm, format)) {
+			throw new UnsupportedAudioFileException("Can not decode "
+					+ encoding);
+		}
+		return AudioSystem.getAudioInputStream(pcm, stream);
+	}
+
+	/**
+	 * Decodes interleaved samples to one array of floats between -1 and 1 per
+	 * channel.
+	 */
+	private static void decode(final byte[] bytes, final int frames,
+			final AudioFormat format, final float[][] samples) {
+		final int channels = format.getChannels();
+		final int bytesPerSample = format.getFrameSize() / channels;
+		final int bits = bytesPerSample * 8;
+		final boolean bigEndian = format.isBigEndian();
+		final Encoding encoding = format.getEncoding();
+		final boolean isFloat = encoding.equals(Encoding.PCM_FLOAT);
+		final boolean unsigned = encoding.equals(Encoding.PCM_UNSIGNED);
+		final double scale = 1.0 / (1L << (bits - 1));
+		int position = 0;
+		for (int frame = 0; frame < frames; frame++) {
+			for (int channel = 0; channel < channels; channel++) {
+				long value = 0;
+				if (bigEndian) {
+					for (int i = 0; i < bytesPerSample; i++) {
+						value = value << 8 | bytes[position + i] & 0xFF;
+					}
+				} else {
+					for (int i = bytesPerSample - 1; i >= 0; i--) {
+						value = value << 8 | bytes[position + i] & 0xFF;
+					}
+				}
+				position += bytesPerSample;
+				final double sample;
+				if (isFloat) {
+					if (bits == 64) {
+						sample = Double.longBitsToDouble(value);
+					} else {
+						sample = Float.intBitsToFloat((int) value);
+					}
+				} else if (unsigned) {
+					sample = (value - (1L << (bits - 1))) * scale;
+				} else {
+					// Sign extension.
+					sample = (value << (64 - bits) >> (64 - bits)) * scale;
+				}
+				samples[channel][frame] = (float) sample;
+			}
+		}
+	}
+
+	/**
+	 * Mixes the source channels to the number of target channels.
+	 */
+	private static void mix(final float[][] source, final int frames,
+			final float[][] target) {
+		final int sourceChannels = source.length;
+		final int targetChannels = target.length;
+		for (int channel = 0; channel < targetChannels; channel++) {
+			final float[] mixed = target[channel];
+			if (sourceChannels < targetChannels) {
+				System.arraycopy(source[channel % sourceChannels], 0, mixed,
+						0, frames);
+				continue;
+			}
+			int count = 0;
+			for (int i = channel; i < sourceChannels; i += targetChannels) {
+				final float[] samples = source[i];
+				if (count == 0) {
+					System.arraycopy(samples, 0, mixed, 0, frames);
+				} else {
+					for (int frame = 0; frame < frames; frame++) {
+						mixed[frame] += samples[frame];
+					}
+				}
+				count++;
+			}
+			if (count > 1) {
+				final float gain = 1.0f / count;
+				for (int frame = 0; frame < frames; frame++) {
+					mixed[frame] *= gain;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encodes samples and writes them.
+	 *
+	 * @return The number of bytes written.
+	 */
+	private static int write(final RandomAccessFile out,
+			final float[][] samples, final int frames,
+			final AudioFormat format, final byte[] bytes) throws IOException {
+		final int channels = format.getChannels();
+		final int bytesPerSample = format.getSampleSizeInBits() / 8;
+		final long max = (1L << (bytesPerSample * 8 - 1)) - 1;
+		long offset = 0;
+		if (format.getEncoding().equals(Encoding.PCM_UNSIGNED)) {
+			offset = max + 1;
+		}
+		int position = 0;
+		for (int frame = 0; frame < frames; frame++) {
+			for (int channel = 0; channel < channels; channel++) {
+				long value = Math.round(samples[channel][frame]
+						* (double) (max + 1));
+				if (value > max) {
+					value = max;
+				} else if (value < -max - 1) {
+					value = -max - 1;
+				}
+				value += offset;
+				// Little endian.
+				for (int i = 0; i < bytesPerSample; i++) {
+					bytes[position++] = (byte) (value >> (8 * i));
+				}
+			}
+		}
+		out.write(bytes, 0, position);
+		return position;
+	}
+
+	/**
+	 * @return The header of a PCM wave file.
+	 */
+	private static byte[] header(final AudioFormat format, final long dataSize) {
+		final int channels = format.getChannels();
+		final int rate = Math.round(format.getSampleRate());
+		final int frameSize = format.getFrameSize();
+		final byte[] header = new byte[HEADER_SIZE];
+		putAscii(header, 0, "RIFF");
+		putInt(header, 4, (int) Math.min(dataSize + HEADER_SIZE - 8,
+				0xFFFFFFFFL));
+		putAscii(header, 8, "WAVE");
+		putAscii(header, 12, "fmt ");
+		putInt(header, 16, 16);
+		// PCM
+		putShort(header, 20, 1);
+		putShort(header, 22, channels);
+		putInt(header, 24, rate);
+		putInt(header, 28, rate * frameSize);
+		putShort(header, 32, frameSize);
+		putShort(header, 34, format.getSampleSizeInBits());
+		putAscii(header, 36, "data");
+		putInt(header, 40, (int) Math.min(dataSize, 0xFFFFFFFFL));
+		return header;
+	}
+
+	private static void putAscii(final byte[] bytes, final int offset,
+			final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			bytes[offset + i] = (byte) value.charAt(i);
+		}
+	}
+
+	private static void putInt(final byte[] bytes, final int offset,
+			final int value) {
+		putShort(bytes, offset, value);
+		putShort(bytes, offset + 2, value >>> 16);
+	}
+
+	private static void putShort(final byte[] bytes, final int offset,
+			final int value) {
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >>> 8);
+	}
+
+	/**
+	 * Converts the sample rate of a stream of blocks. An output sample is the
+	 * sum of the input samples around its position, weighed by a windowed sinc
+	 * with its cutoff just under the lowest of both Nyquist frequencies. The
+	 * input samples that are still needed are kept between blocks.
+	 * <p>
+	 * The position of output sample j in the input is j * M / L, with M / L
+	 * the ratio of the sample rates in lowest terms: the weights repeat every
+	 * L output samples. If L is small enough the weights of the L phases are
+	 * computed once.
+	 * </p>
+	 */
+	private static final class Resampler {
+
+		/**
+		 * The number of zero crossings of the sinc on each side.
+		 */
+		private static final int ZERO_CROSSINGS = 16;
+
+		/**
+		 * The number of values of the kernel table between two zero
+		 * crossings.
+		 */
+		private static final int TABLE_RESOLUTION = 512;
+
+		/**
+		 * The cutoff relative to the lowest Nyquist frequency, leaves room
+		 * for the transition band of the filter.
+		 */
+		private static final double CUTOFF = 0.95;
+
+		/**
+		 * The largest number of phases for which the weights are kept.
+		 */
+		private static final int MAX_PHASES = 1024;
+
+		/**
+		 * The windowed sinc from zero to the last zero crossing.
+		 */
+		private static final double[] KERNEL = kernel();
+
+		/**
+		 * The input step M and the output step L.
+		 */
+		private final long inputStep;
+		private final long outputStep;
+
+		/**
+		 * The cutoff relative to the input Nyquist frequency.
+		 */
+		private final double cutoff;
+
+		/**
+		 * An output sample at input position p is computed from the input
+		 * samples floor(p) - halfTaps + 1 to floor(p) + halfTaps.
+		 */
+		private final int halfTaps;
+
+		/**
+		 * The weights of the input samples per phase, or null if there are
+		 * too many phases.
+		 */
+		private final double[][] phases;
+
+		/**
+		 * The weights of the current output sample if they are not kept.
+		 */
+		private final double[] weights;
+
+		/**
+		 * The input samples kept, per channel.
+		 */
+		private float[][] buffer;
+
+		/**
+		 * The index in the input of the first sample in the buffer.
+		 */
+		private long bufferStart;
+		private int buffered;
+
+		/**
+		 * The index in the output of the next sample.
+		 */
+		private long next;
+
+		Resampler(final int channels, final long inputRate,
+				final long outputRate) {
+			final long divisor = BigInteger.valueOf(inputRate)
+					.gcd(BigInteger.valueOf(outputRate)).longValue();
+			inputStep = inputRate / divisor;
+			outputStep = outputRate / divisor;
+			cutoff = CUTOFF * Math.min(1.0, outputRate / (double) inputRate);
+			halfTaps = (int) Math.ceil(ZERO_CROSSINGS / cutoff);
+			weights = new double[2 * halfTaps];
+			if (outputStep <= MAX_PHASES) {
+				phases = new double[(int) outputStep][];
+				for (int phase = 0; phase < outputStep; phase++) {
+					phases[phase] = weights(phase, new double[2 * halfTaps]);
+				}
+			} else {
+				phases = null;
+			}
+			buffer = new float[channels][BLOCK_FRAMES + 2 * halfTaps];
+		}
+
+		/**
+		 * Adds a block of input samples.
+		 */
+		void push(final float[][] samples, final int frames) {
+			if (buffered + frames > buffer[0].length) {
+				final float[][] grown = new float[buffer.length][buffered
+						+ frames];
+				for (int channel = 0; channel < buffer.length; channel++) {
+					System.arraycopy(buffer[channel], 0, grown[channel], 0,
+							buffered);
+				}
+				buffer = grown;
+			}
+			for (int channel = 0; channel < buffer.length; channel++) {
+				System.arraycopy(samples[channel], 0, buffer[channel],
+						buffered, frames);
+			}
+			buffered += frames;
+		}
+
+		/**
+		 * Computes the output samples of the input pushed so far.
+		 *
+		 * @param samples
+		 *            The output samples, per channel.
+		 * @param end
+		 *            True if all input was pushed: the samples after the end
+		 *            are taken to be zero.
+		 * @return The number of output samples, zero if more input is needed
+		 *         or all output was computed.
+		 */
+		int pull(final float[][] samples, final boolean end) {
+			final int max = samples[0].length;
+			final long bufferEnd = bufferStart + buffered;
+			final long outputLength = (bufferEnd * outputStep + inputStep - 1)
+					/ inputStep;
+			int frames = 0;
+			while (frames < max) {
+				if (end && next >= outputLength) {
+					break;
+				}
+				final long position = next * inputStep;
+				final long first = position / outputStep - halfTaps + 1;
+				if (!end && first + 2 * halfTaps > bufferEnd) {
+					break;
+				}
+				final int phase = (int) (position % outputStep);
+				final double[] tapWeights;
+				if (phases == null) {
+					tapWeights = weights(phase, weights);
+				} else {
+					tapWeights = phases[phase];
+				}
+				// Samples before the start and after the end are zero.
+				final int from = (int) Math.max(0, bufferStart - first);
+				final int to = (int) Math.min(2 * halfTaps, bufferEnd - first);
+				final int offset = (int) (first - bufferStart);
+				for (int channel = 0; channel < samples.length; channel++) {
+					final float[] input = buffer[channel];
+					double sum = 0;
+					for (int tap = from; tap < to; tap++) {
+						sum += input[offset + tap] * tapWeights[tap];
+					}
+					samples[channel][frames] = (float) sum;
+				}
+				frames++;
+				next++;
+			}
+			// Drop the input samples no output sample needs anymore.
+			final long needed = next * inputStep / outputStep - halfTaps + 1;
+			final int drop = (int) Math.min(buffered,
+					Math.max(0, needed - bufferStart));
+			if (drop > 0) {
+				for (final float[] channel : buffer) {
+					System.arraycopy(channel, drop, channel, 0, buffered
+							- drop);
+				}
+				bufferStart += drop;
+				buffered -= drop;
+			}
+			return frames;
+		}
+
+		/**
+		 * Computes the weights of the input samples of an output sample at
+		 * floor(p) + phase / L.
+		 */
+		private double[] weights(final int phase, final double[] tapWeights) {
+			final double fraction = phase / (double) outputStep;
+			for (int tap = 0; tap < tapWeights.length; tap++) {
+				final double distance = Math.abs(fraction + halfTaps - 1 - tap);
+				final double index = distance * cutoff * TABLE_RESOLUTION;
+				final int i = (int) index;
+				if (i >= KERNEL.length - 1) {
+					tapWeights[tap] = 0;
+				} else {
+					tapWeights[tap] = cutoff
+							* (KERNEL[i] + (index - i)
+									* (KERNEL[i + 1] - KERNEL[i]));
+				}
+			}
+			return tapWeights;
+		}
+
+		private static double[] kernel() {
+			final int size = ZERO_CROSSINGS * TABLE_RESOLUTION;
+			final double[] kernel = new double[size + 2];
+			kernel[0] = 1.0;
+			for (int i = 1; i <= size; i++) {
+				final double x = Math.PI * i / TABLE_RESOLUTION;
+				final double window = 0.42 + 0.5 * Math.cos(Math.PI * i / size)
+						+ 0.08 * Math.cos(2 * Math.PI * i / size);
+				kernel[i] = Math.sin(x) / x * window;
+			}
+			return kernel;
+		}
+	}
+}
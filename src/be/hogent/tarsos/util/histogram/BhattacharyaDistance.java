@@ -11,12 +11,6 @@ public final class BhattacharyaDistance implements HistogramCorrelation {
 			final Histogram second) {
 		// number of bins (classes)
 		final int numberOfClasses = first.getNumberOfClasses();
-		// start value
-		final double start = first.getStart();
-		// stop value
-		final double stop = first.getStop();
-		// classWidth
-		final double classWidth = first.getClassWidth();
 
 		int actualDisplacement = displacement;
 		// make displacement positive
@@ -27,12 +21,9 @@ public final class BhattacharyaDistance implements HistogramCorrelation {
 
 		double distance = 0.0;
 
-		for (double current = start + classWidth / 2; current <= stop; current += classWidth) {
-			final double displacedValue = (current + actualDisplacement
-					* classWidth)
-					% (numberOfClasses * classWidth);
+		for (int i = 0; i < numberOfClasses; i++) {
 			distance += Math.pow(
-					first.getCount(current) * second.getCount(displacedValue),
+					first.getCountForClass(i) * second.getCountForClass(i + actualDisplacement),
 					0.5);
 		}
 
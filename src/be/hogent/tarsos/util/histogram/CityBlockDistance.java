@@ -12,12 +12,6 @@ public final class CityBlockDistance implements HistogramCorrelation {
 			final int displacement, final Histogram otherHistogram) {
 		// number of bins (classes)
 		final int numberOfClasses = thisHistogam.getNumberOfClasses();
-		// start value
-		final double start = thisHistogam.getStart();
-		// stop value
-		final double stop = thisHistogam.getStop();
-		// classWidth
-		final double classWidth = thisHistogam.getClassWidth();
 
 		int actualDisplacement = displacement;
 		// make displacement positive
@@ -28,12 +22,9 @@ public final class CityBlockDistance implements HistogramCorrelation {
 
 		double distance = 0.0;
 
-		for (double current = start + classWidth / 2; current <= stop; current += classWidth) {
-			final double displacedValue = (current + actualDisplacement
-					* classWidth)
-					% (numberOfClasses * classWidth);
-			distance += Math.abs(thisHistogam.getCount(current)
-					- otherHistogram.getCount(displacedValue));
+		for (int i = 0; i < numberOfClasses; i++) {
+			distance += Math.abs(thisHistogam.getCountForClass(i)
+					- otherHistogram.getCountForClass(i + actualDisplacement));
 		}
 
 		return -1 * distance / thisHistogam.getSumFreq() + 1;
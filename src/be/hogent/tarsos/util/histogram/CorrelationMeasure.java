@@ -12,41 +12,55 @@ public enum CorrelationMeasure {
 	/**
 	 * Is a distance measure using city block distances.
 	 */
-	CITY_BLOCK(new CityBlockDistance()),
+	CITY_BLOCK(new CityBlockDistance(), false),
 	/**
-	 * A direct euclidean distance.
+	 * A direct euclidean distance. The squared distance is the sum of squares
+	 * of both histograms minus twice their cross correlation, so the
+	 * displacement with minimal distance can be found with an FFT.
 	 */
-	EUCLIDEAN(new EuclideanDistance()),
+	EUCLIDEAN(new EuclideanDistance(), true),
 	/**
 	 * The intersection computes the matching areas under the curve. It is a
 	 * symmetric correlation measure: 1.0 is perfect correlation, 0.0 means no
 	 * correlation. Symmetric: f(a,b) = f(b,a)
 	 */
-	INTERSECTION(new Intersection()),
+	INTERSECTION(new Intersection(), false),
 	/**
 	 * Another distance measure, with an impressive sounding name... TODO Write
 	 * better description
 	 */
-	BHATTACHARYA(new BhattacharyaDistance()),
+	BHATTACHARYA(new BhattacharyaDistance(), false),
 	/**
 	 * Another correlation measure, seems to work also, TODO Write better
-	 * description.
+	 * description. The correlation for all displacements is calculated at
+	 * once with an FFT.
 	 */
-	CROSSCORRELATION(new CrossCorrelation());
+	CROSSCORRELATION(new CrossCorrelation(), true);
 
 	/**
 	 * The underlying histogram correlation.
 	 */
 	private final HistogramCorrelation histoCorrelation;
 
+	/**
+	 * True if the correlation increases with the cross correlation of the
+	 * histograms.
+	 */
+	private final boolean crossCorrelationBased;
+
 	/**
 	 * Create a new correlation measure.
 	 * 
 	 * @param histoCor
 	 *            The underlying histogram correlation.
+	 * @param crossCorrelation
+	 *            True if, for a fixed pair of histograms, the correlation
+	 *            increases with the cross correlation of the histograms.
 	 */
-	private CorrelationMeasure(final HistogramCorrelation histoCor) {
+	private CorrelationMeasure(final HistogramCorrelation histoCor,
+			final boolean crossCorrelation) {
 		this.histoCorrelation = histoCor;
+		this.crossCorrelationBased = crossCorrelation;
 	}
 
 	/**
@@ -56,4 +70,15 @@ public enum CorrelationMeasure {
 	public HistogramCorrelation getHistogramCorrelation() {
 		return this.histoCorrelation;
 	}
+
+	/**
+	 * @return true if the displacement with optimal correlation can be found
+	 *         with an FFT of the histograms, in <code>O(n log n)</code>
+	 *         instead of trying all displacements in <code>O(n^2)</code>.
+	 *         Other measures (e.g. {@link #INTERSECTION}) try each
+	 *         displacement.
+	 */
+	public boolean isComputedWithFFT() {
+		return this.crossCorrelationBased;
+	}
 }
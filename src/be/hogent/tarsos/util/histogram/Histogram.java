@@ -1,15 +1,14 @@
 package be.hogent.tarsos.util.histogram;
 
 import java.text.NumberFormat;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
-import org.apache.commons.math.stat.StatUtils;
-
+import be.hogent.tarsos.util.FFT;
 import be.hogent.tarsos.util.FileUtils;
 import be.hogent.tarsos.util.SimplePlot;
 
@@ -21,10 +20,11 @@ import be.hogent.tarsos.util.SimplePlot;
  * {[0,1[;[1,2[;[2,3[;[3,4];[4,5[} with [0,1[ meaning the interval between 0
  * inclusive and 1 exclusive.
  * <p>
- * The histogram uses a red and black tree as underlying structure: Search,
- * insert and delete are O(LOG n). The tree keeps the keys in order and makes
- * iteration (in order) easy. Optimization is possible by replacing the tree
- * with arrays.
+ * The histogram uses a plain array of counts as underlying structure: the
+ * index of the class is calculated directly from the value, so adding a value
+ * and looking up a count are O(1) without boxing. The class index can be
+ * used directly with {@link #getCountForClass(int)}, which is the fastest way
+ * to iterate over the classes.
  * </p>
  * <p>
  * The histogram uses doubles as key values. Java doubles are prone to rounding
@@ -50,11 +50,18 @@ public class Histogram implements Cloneable {
 	 */
 	private final int numberOfClasses;
 	/**
-	 * A red black tree backing the frequency table, easy to iterate (in order)
-	 * TODO Optimization: serious optimization possible by using a plain array
-	 * (or two).
+	 * The frequency table: the count of the class with index i is counts[i].
+	 * Not final because a clone needs its own copy.
+	 */
+	private long[] counts;
+	/**
+	 * The key (class middle) of each class, shared by clones.
+	 */
+	private final double[] keys;
+	/**
+	 * Read only view on the keys, created when needed.
 	 */
-	private final TreeMap<Double, Long> freqTable;
+	private Set<Double> keySet;
 	/**
 	 * The starting value != the first class middle start == the first class
 	 * middle - classWidth / 2.
@@ -122,7 +129,6 @@ public class Histogram implements Cloneable {
 				/ totalClasses);
 		this.start = startVal;
 		this.stop = stopVal;
-		this.freqTable = new TreeMap<Double, Long>();
 		this.wraps = wrapping;
 		this.ignoreValuesOutsideRange = ignoreOutsideRange;
 
@@ -134,14 +140,21 @@ public class Histogram implements Cloneable {
 		} else {
 			stopValue = lastKey + getClassWidth() / 2;
 		}
-		freqTable
-				.put(preventRoundingErrors(startVal + getClassWidth() / 2), 0L);
+		// count the classes the same way the keys were generated: the class
+		// width is rounded so there can be one class more or less than asked
+		int classes = 0;
 		for (double current = startVal + getClassWidth() / 2; current <= stopValue;) {
-			freqTable.put(valueToKey(current), 0L);
+			classes++;
 			current = current + getClassWidth();
 		}
 
-		this.numberOfClasses = freqTable.keySet().size();
+		this.numberOfClasses = Math.max(1, classes);
+		this.counts = new long[numberOfClasses];
+		this.keys = new double[numberOfClasses];
+		for (int i = 0; i < numberOfClasses; i++) {
+			keys[i] = preventRoundingErrors(startVal + i * classWidth
+					+ classWidth / 2.0);
+		}
 	}
 
 	/**
@@ -223,16 +236,20 @@ public class Histogram implements Cloneable {
 	 * @return the key for class with index bufferCount
 	 */
 	public final double getKeyForClass(final int i) {
-		int classIndex = i;
+		return keys[classIndex(i)];
+	}
+
+	/**
+	 * Maps a class index to the interval <code>[0,getNumberOfClasses()[</code>
+	 * using a modulo calculation.
+	 */
+	private int classIndex(final int i) {
+		int classIndex = i % numberOfClasses;
 		// make sure classIndex is positive
-		while (classIndex < 0) {
-			classIndex += getNumberOfClasses();
+		if (classIndex < 0) {
+			classIndex += numberOfClasses;
 		}
-		// make sure bufferCount is within range
-		classIndex = classIndex % getNumberOfClasses();
-		final double key = getStart() + classIndex * getClassWidth()
-				+ getClassWidth() / 2.0;
-		return preventRoundingErrors(key);
+		return classIndex;
 	}
 
 	/**
@@ -245,16 +262,22 @@ public class Histogram implements Cloneable {
 	 * @return the number of items in bin with index bufferCount
 	 */
 	public final long getCountForClass(final int i) {
-		return getCount(getKeyForClass(i));
+		return counts[classIndex(i)];
 	}
 
 	/**
-	 * @return the set with histogram keys; Do not add keys to the set directly.
-	 *         Use histogram methods instead. For performance reasons it is not
-	 *         wrapped in an immutable set so handle with care.
+	 * @return the set with histogram keys in ascending order. The set is read
+	 *         only, use histogram methods to change the counts.
 	 */
 	public final Set<Double> keySet() {
-		return freqTable.keySet();
+		if (keySet == null) {
+			final Set<Double> set = new LinkedHashSet<Double>(numberOfClasses * 2);
+			for (final double key : keys) {
+				set.add(key);
+			}
+			keySet = Collections.unmodifiableSet(set);
+		}
+		return keySet;
 	}
 
 	/**
@@ -280,12 +303,9 @@ public class Histogram implements Cloneable {
 		}
 
 		if (value > 0) {
-			final double key = valueToKey(value);
-			final Long count = freqTable.get(key);
-			assert count != null : "All key values should be initialized, "
-					+ key + " is not.";
-			if (count != null) {
-				freqTable.put(key, Long.valueOf(count.longValue() + 1));
+			final int index = valueToIndex(value);
+			if (index >= 0 && index < numberOfClasses) {
+				counts[index]++;
 			}
 		} else {
 			LOG.warning("Using values below zero in is not tested, "
@@ -306,6 +326,13 @@ public class Histogram implements Cloneable {
 
 	private static final double PRECISION_FACTOR = 10000.0;
 
+	/**
+	 * Relative tolerance on the cross correlation calculated with an FFT.
+	 * Displacements with a cross correlation within this tolerance of the
+	 * maximum are checked with the correlation measure itself.
+	 */
+	private static final double FFT_CORRELATION_TOLERANCE = 1e-4;
+
 	/**
 	 * Prevents rounding errors by multiplying and dividing by
 	 * {@link Histogram#PRECISION_FACTOR} Limits the use of the histogram class
@@ -324,14 +351,16 @@ public class Histogram implements Cloneable {
 	}
 
 	/**
-	 * returns the key for a value. E.g. if the bin width is 1 then
-	 * valueToKey(3.2) returns 3.5
+	 * returns the class index for a value. E.g. if the histogram starts at 0
+	 * and the bin width is 1 then valueToIndex(3.2) returns 3 (the class with
+	 * key 3.5)
 	 * 
 	 * @param value
-	 *            the value to get the key to
-	 * @return the key closest to the value
+	 *            the value to get the class index for
+	 * @return the class index, outside <code>[0,getNumberOfClasses()[</code>
+	 *         if the histogram does not wrap and the value is out of range
 	 */
-	private double valueToKey(final double value) {
+	private int valueToIndex(final double value) {
 		// TODO remove the value below zero limitation
 		// by changing the wraps modulo calculation and test
 		if (value < 0) {
@@ -342,21 +371,14 @@ public class Histogram implements Cloneable {
 		double roundedValue = value;
 		if (wraps) {
 			final double interval = stop - start;
-			while (roundedValue < freqTable.firstKey()) {
-				roundedValue = preventRoundingErrors(roundedValue + interval);
+			roundedValue = (roundedValue - start) % interval;
+			if (roundedValue < 0) {
+				roundedValue += interval;
 			}
-			roundedValue = preventRoundingErrors(start + (roundedValue - start)
-					% interval);
+			roundedValue = preventRoundingErrors(start + roundedValue);
 		}
 
-		// assert validValue(roundedValue);
-
-		final double classes = Math.floor((roundedValue + start) / classWidth);
-		final double offset = classWidth / 2 - start;
-		final double key = preventRoundingErrors(classes * classWidth + offset);
-		// assert key >= freqTable.firstKey();
-		// assert key <= freqTable.lastKey();
-		return key;
+		return (int) Math.floor((roundedValue - start) / classWidth);
 	}
 
 	/**
@@ -367,18 +389,18 @@ public class Histogram implements Cloneable {
 	 * @return the frequency of v.
 	 */
 	public final long getCount(final double value) {
-		final double key = valueToKey(value);
+		final int index = valueToIndex(value);
 		long result = 0;
-		final Long count = freqTable.get(key);
-		if (count != null) {
-			result = count.longValue();
+		if (index >= 0 && index < numberOfClasses) {
+			result = counts[index];
 		}
 		return result;
 	}
 
 	/**
 	 * Sets the number of values for a key (bin) The value is automatically
-	 * mapped to a key.
+	 * mapped to a key. Values outside the range of a histogram that does not
+	 * wrap are ignored.
 	 * 
 	 * @param value
 	 *            the value mapped to a key of the class to set the count for.
@@ -386,8 +408,10 @@ public class Histogram implements Cloneable {
 	 *            the number of items in the bin
 	 */
 	public final void setCount(final double value, final long count) {
-		final double key = valueToKey(value);
-		freqTable.put(key, count);
+		final int index = valueToIndex(value);
+		if (index >= 0 && index < numberOfClasses) {
+			counts[index] = count;
+		}
 	}
 
 	/**
@@ -411,7 +435,7 @@ public class Histogram implements Cloneable {
 	 * @return the starting value
 	 */
 	public final double getStart() {
-		// assert Math.abs(start - freqTable.firstKey() - classWidth / 2.0) <
+		// assert Math.abs(start - keys[0] - classWidth / 2.0) <
 		// 0.0001;
 		return start;
 	}
@@ -423,7 +447,7 @@ public class Histogram implements Cloneable {
 	 * @return the stop value
 	 */
 	public double getStop() {
-		// assert Math.abs(stop - freqTable.lastKey() + classWidth / 2.0) <
+		// assert Math.abs(stop - keys[numberOfClasses - 1] + classWidth / 2.0) <
 		// 0.001;
 		// stop is cached for performance reasons
 		return stop;
@@ -443,7 +467,7 @@ public class Histogram implements Cloneable {
 	 *         {@link Histogram#lastValidValue()}]
 	 */
 	private double firstValidValue() {
-		return this.freqTable.firstKey() - classWidth / 2.0;
+		return keys[0] - classWidth / 2.0;
 	}
 
 	/**
@@ -452,7 +476,7 @@ public class Histogram implements Cloneable {
 	 *         {@link Histogram#lastValidValue()}]
 	 */
 	private double lastValidValue() {
-		return this.freqTable.lastKey() + classWidth / 2.0;
+		return keys[numberOfClasses - 1] + classWidth / 2.0;
 	}
 
 	/**
@@ -486,26 +510,22 @@ public class Histogram implements Cloneable {
 		long cumulativeFreq = -1;
 		if (getSumFreq() == 0) {
 			cumulativeFreq = 0;
-		} else if (v.compareTo(freqTable.firstKey()) < 0) {
+		} else if (v.compareTo(keys[0]) < 0) {
 			cumulativeFreq = 0;
-		} else if (v.compareTo(freqTable.lastKey()) >= 0) {
+		} else if (v.compareTo(keys[numberOfClasses - 1]) >= 0) {
 			cumulativeFreq = getSumFreq();
 		} else {
-
-			// the frequency of this key
+			// add the frequencies of the keys smaller than v and the frequency
+			// of v itself if v is a key
 			long result = 0;
-			final Long value = freqTable.get(v);
-			if (value != null) {
-				result = value.longValue();
-			}
-
-			// add the frequencies of values smaller than this key
-			final Iterator<Double> values = freqTable.keySet().iterator();
-			while (values.hasNext()) {
-				final Double nextValue = values.next();
-				if (v.compareTo(nextValue) > 0) {
-					result += getCount(nextValue);
+			for (int i = 0; i < numberOfClasses; i++) {
+				final int comparison = v.compareTo(keys[i]);
+				if (comparison > 0) {
+					result += counts[i];
 				} else {
+					if (comparison == 0) {
+						result += counts[i];
+					}
 					cumulativeFreq = result;
 					break;
 				}
@@ -549,9 +569,8 @@ public class Histogram implements Cloneable {
 	 */
 	public long getSumFreq() {
 		long result = 0;
-		final Iterator<Long> iterator = freqTable.values().iterator();
-		while (iterator.hasNext()) {
-			result += iterator.next().longValue();
+		for (final long count : counts) {
+			result += count;
 		}
 		return result;
 	}
@@ -564,9 +583,8 @@ public class Histogram implements Cloneable {
 	 */
 	public long getAbsoluteSumFreq() {
 		long result = 0;
-		final Iterator<Long> iterator = freqTable.values().iterator();
-		while (iterator.hasNext()) {
-			result += Math.abs(iterator.next().longValue());
+		for (final long count : counts) {
+			result += Math.abs(count);
 		}
 		return result;
 	}
@@ -615,7 +633,7 @@ public class Histogram implements Cloneable {
 		double entropy = 0.0;
 		final double total = getSumFreq();
 		for (int b = 0; b < numberOfClasses; b++) {
-			final double p = getCountForClass(b) / total;
+			final double p = counts[b] / total;
 			if (p != 0.0) {
 				entropy -= p * Math.log(p) / log2;
 			}
@@ -631,13 +649,7 @@ public class Histogram implements Cloneable {
 	 * @return the mean bin count.
 	 */
 	public double getMean() {
-		final double[] binCounts = new double[this.getNumberOfClasses() + 1];
-		int i = 0;
-		for (final double key : this.keySet()) {
-			binCounts[i] = this.getCount(key);
-			i++;
-		}
-		return StatUtils.mean(binCounts);
+		return getSumFreq() / (double) numberOfClasses;
 	}
 
 	/**
@@ -668,9 +680,7 @@ public class Histogram implements Cloneable {
 		if (asciiArt) {
 			final StringBuffer outBuffer = new StringBuffer();
 			outBuffer.append('\n');
-			final Iterator<Double> iter = freqTable.keySet().iterator();
-			while (iter.hasNext()) {
-				final Double value = iter.next();
+			for (final Double value : keySet()) {
 				outBuffer.append(value).append("\t\t|");
 				for (int i = 0; i < getPct(value) * 100; i++) {
 					outBuffer.append('x');
@@ -683,9 +693,7 @@ public class Histogram implements Cloneable {
 			final NumberFormat nf = NumberFormat.getPercentInstance();
 			final StringBuffer outBuffer = new StringBuffer();
 			outBuffer.append("\nValue \t Freq. \t Pct. \t Cum Pct. \n");
-			final Iterator<Double> iter = freqTable.keySet().iterator();
-			while (iter.hasNext()) {
-				final Double value = iter.next();
+			for (final Double value : keySet()) {
 				outBuffer.append(value);
 				outBuffer.append('\t');
 				outBuffer.append(getCount(value));
@@ -716,14 +724,10 @@ public class Histogram implements Cloneable {
 	 * @return a Histogram with normalized peak.
 	 */
 	public Histogram normalize() {
-		final List<Long> normalizedCounts = new ArrayList<Long>();
-		for (final double key : freqTable.keySet()) {
-			normalizedCounts.add((long) (getPct(key) * 10000));
-		}
-		int index = 0;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, normalizedCounts.get(index));
-			index++;
+		final long sumFreq = getSumFreq();
+		for (int i = 0; i < numberOfClasses; i++) {
+			final double pct = sumFreq == 0 ? Double.NaN : counts[i] / (double) sumFreq;
+			counts[i] = (long) (pct * 10000);
 		}
 		return this;
 	}
@@ -744,8 +748,8 @@ public class Histogram implements Cloneable {
 	public Histogram addToEachBin(final long value) {
 		// do nothing if value == 0
 		if (value != 0) {
-			for (final double key : freqTable.keySet()) {
-				this.setCount(key, getCount(key) + value);
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] += value;
 			}
 		}
 		return this;
@@ -771,8 +775,8 @@ public class Histogram implements Cloneable {
 	 */
 	public Histogram baselineHistogram() {
 		long smallestValue = Long.MAX_VALUE;
-		for (final double key : freqTable.keySet()) {
-			smallestValue = Math.min(getCount(key), smallestValue);
+		for (final long count : counts) {
+			smallestValue = Math.min(count, smallestValue);
 		}
 		final long valueToAdd = (long) -1.0 * smallestValue;
 		return addToEachBin(valueToAdd);
@@ -794,15 +798,30 @@ public class Histogram implements Cloneable {
 	 *         the bins.
 	 */
 	public Histogram add(final Histogram other) {
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, this.getCount(key) + other.getCount(key));
+		if (sameClasses(other)) {
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] += other.counts[i];
+			}
+		} else {
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] += other.getCount(keys[i]);
+			}
 		}
 		return this;
 	}
 
+	/**
+	 * @return true if the other histogram has the same classes so the counts
+	 *         can be combined by index
+	 */
+	private boolean sameClasses(final Histogram other) {
+		return numberOfClasses == other.numberOfClasses
+				&& start == other.start && classWidth == other.classWidth;
+	}
+
 	/**
 	 * Takes the maximum of the bin value in each histogram and keeps it.
 	 * 
@@ -810,12 +829,13 @@ public class Histogram implements Cloneable {
 	 * @return
 	 */
 	public Histogram max(final Histogram other) {
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key,
-					Math.max(this.getCount(key), other.getCount(key)));
+		final boolean sameClasses = sameClasses(other);
+		for (int i = 0; i < numberOfClasses; i++) {
+			final long otherCount = sameClasses ? other.counts[i] : other.getCount(keys[i]);
+			counts[i] = Math.max(counts[i], otherCount);
 		}
 		return this;
 	}
@@ -867,8 +887,8 @@ public class Histogram implements Cloneable {
 	 * @return histogram with each bin value multiplied by the factor.
 	 */
 	public Histogram multiply(final double factor) {
-		for (final double key : this.freqTable.keySet()) {
-			this.setCount(key, Math.round(this.getCount(key) * factor));
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = Math.round(counts[i] * factor);
 		}
 		return this;
 	}
@@ -885,9 +905,8 @@ public class Histogram implements Cloneable {
 	 * @return Histogram with each bin count raised with exponent.
 	 */
 	public Histogram raise(final double exponent) {
-		for (final double key : this.freqTable.keySet()) {
-			this.setCount(key,
-					Math.round(Math.pow(this.getCount(key), exponent)));
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = Math.round(Math.pow(counts[i], exponent));
 		}
 		return this;
 	}
@@ -901,9 +920,7 @@ public class Histogram implements Cloneable {
 	@Override
 	public Histogram clone() throws CloneNotSupportedException {
 		final Histogram clone = (Histogram) super.clone();
-		for (final double key : this.freqTable.keySet()) {
-			clone.setCount(key, this.getCount(key));
-		}
+		clone.counts = counts.clone();
 		return clone;
 	}
 
@@ -922,19 +939,16 @@ public class Histogram implements Cloneable {
 		if (!histograms.isEmpty()) {
 			final Histogram first = histograms.get(0);
 			mean = new Histogram(first);
-			for (final double key : first.freqTable.keySet()) {
-				final double[] values = new double[histograms.size()];
-				int countIndex = 0;
+			for (int i = 0; i < first.numberOfClasses; i++) {
+				double sum = 0;
 				for (final Histogram h : histograms) {
-					assert h.keySet().size() == first.keySet().size();
+					assert h.numberOfClasses == first.numberOfClasses;
 					assert first.classWidth == h.classWidth;
 					assert first.start == h.start;
 					assert first.stop == h.stop;
-					values[countIndex] = h.getCount(key);
-					countIndex++;
+					sum += h.counts[i];
 				}
-				final long currentMean = Math.round(StatUtils.mean(values));
-				mean.setCount(key, currentMean);
+				mean.counts[i] = Math.round(sum / histograms.size());
 			}
 		}
 		return mean;
@@ -1020,7 +1034,7 @@ public class Histogram implements Cloneable {
 				double weightTotal = 0;
 				for (int i = min; i < max; i++) {
 					final double w = weights[offset++];
-					acc += getCountForClass(i) * w;
+					acc += counts[i] * w;
 					weightTotal += w;
 				}
 
@@ -1039,7 +1053,7 @@ public class Histogram implements Cloneable {
 				// Accumulate the total for the range.
 				int acc = 0;
 				for (int i = min; i < max; i++) {
-					acc += getCountForClass(i);
+					acc += counts[i];
 				}
 
 				// Calculate the average for the range.
@@ -1054,9 +1068,7 @@ public class Histogram implements Cloneable {
 		// the same as for the same band of the original histogram.
 		final double factor = getSumFreq() / (double) sum;
 		for (int b = 0; b < numberOfClasses; b++) {
-			final int smoothedCount = (int) (smoothedCounts[b] * factor + 0.5);
-			final double key = getKeyForClass(b);
-			this.setCount(key, smoothedCount);
+			counts[b] = (int) (smoothedCounts[b] * factor + 0.5);
 		}
 
 		return this;
@@ -1132,7 +1144,7 @@ public class Histogram implements Cloneable {
 			double weightTotal = 0;
 			for (int i = min; i < max; i++) {
 				final double w = weights[offset++];
-				acc += getCountForClass(i) * w;
+				acc += counts[i] * w;
 				weightTotal += w;
 			}
 
@@ -1147,9 +1159,7 @@ public class Histogram implements Cloneable {
 		// the same as for the same band of the original histogram.
 		final double factor = getSumFreq() / (double) sum;
 		for (int b = 0; b < numberOfClasses; b++) {
-			final int smoothedCount = (int) (smoothedCounts[b] * factor + 0.5);
-			final double key = getKeyForClass(b);
-			this.setCount(key, smoothedCount);
+			counts[b] = (int) (smoothedCounts[b] * factor + 0.5);
 		}
 		return this;
 	}
@@ -1167,20 +1177,11 @@ public class Histogram implements Cloneable {
 	}
 
 	public void displace(final int displacement) {
-		try {
-			Histogram original = clone();
-			// Makes sure the displacement is positive.
-			final int actualDisplacement = (displacement + numberOfClasses)
-					% numberOfClasses;
-
-			for (final double key : freqTable.keySet()) {
-				final double displacedValue = (key + actualDisplacement
-						* classWidth)
-						% (numberOfClasses * classWidth);
-				this.setCount(key, original.getCount(displacedValue));
-			}
-		} catch (CloneNotSupportedException e) {
-			throw new AssertionError("Cloning a histogram is supported!");
+		// Makes sure the displacement is positive.
+		final int actualDisplacement = classIndex(displacement);
+		final long[] original = counts.clone();
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = original[(i + actualDisplacement) % numberOfClasses];
 		}
 	}
 
@@ -1232,6 +1233,14 @@ public class Histogram implements Cloneable {
 	 * Returns the number of classes the other histogram needs to be displaced
 	 * to get optimal correlation with this histogram. The correlation is
 	 * defined by the chosen correlation measure.
+	 * <p>
+	 * For measures that are {@link CorrelationMeasure#isComputedWithFFT()
+	 * computed with an FFT} the cross correlation for all displacements is
+	 * calculated at once. The displacements with a cross correlation close to
+	 * the maximum are checked with the correlation measure itself, so the
+	 * result is the same as trying each displacement. Other measures try each
+	 * displacement. The method used is logged (level fine).
+	 * </p>
 	 * 
 	 * @param otherHistogram
 	 *            The other histogram.
@@ -1243,14 +1252,30 @@ public class Histogram implements Cloneable {
 	public int displacementForOptimalCorrelation(
 			final Histogram otherHistogram,
 			final CorrelationMeasure correlationMeasure) {
-		int optimalDisplacement = 0; // displacement with best correlation
-		double maximumCorrelation = -1; // best found correlation
 		final int numberOfClasses = getNumberOfClasses();
+		final boolean useFFT = correlationMeasure.isComputedWithFFT()
+				&& otherHistogram.getNumberOfClasses() == numberOfClasses;
+
+		final boolean[] candidates;
+		if (useFFT) {
+			candidates = crossCorrelationCandidates(otherHistogram);
+		} else {
+			candidates = null;
+		}
+
+		int optimalDisplacement = 0; // displacement with best correlation
+		// best found correlation, distance measures are negative
+		double maximumCorrelation = Double.NEGATIVE_INFINITY;
+		int evaluated = 0;
 
 		// current displacement, incremented with class width
 		for (int currentDisplacement = 0; currentDisplacement < numberOfClasses; currentDisplacement++) {
+			if (candidates != null && !candidates[currentDisplacement]) {
+				continue;
+			}
 			final double currentCorrelation = correlationWithDisplacement(
 					currentDisplacement, otherHistogram, correlationMeasure);
+			evaluated++;
 			if (maximumCorrelation < currentCorrelation) {
 				maximumCorrelation = currentCorrelation;
 				optimalDisplacement = currentDisplacement;
@@ -1260,9 +1285,88 @@ public class Histogram implements Cloneable {
 			optimalDisplacement = optimalDisplacement - getNumberOfClasses();
 		}
 
+		LOG.fine("Optimal displacement for " + correlationMeasure + " "
+				+ (useFFT ? "computed with FFT" : "computed by trying each displacement")
+				+ ": " + evaluated + " of " + numberOfClasses
+				+ " displacements evaluated.");
+
 		return optimalDisplacement;
 	}
 
+	/**
+	 * Calculates the circular cross correlation of this histogram with the
+	 * other histogram for all displacements using an FFT and marks the
+	 * displacements worth checking with the correlation measure.
+	 * <p>
+	 * The FFT size is a power of two of at least <code>2n - 1</code>: the
+	 * linear cross correlation is calculated with zero padded histograms and
+	 * folded to get the circular one. The FFT works with floats so the values
+	 * are only approximate; every displacement within a tolerance of the
+	 * maximum is a candidate.
+	 * </p>
+	 * 
+	 * @param otherHistogram
+	 *            the histogram to displace, with the same number of classes.
+	 * @return for each displacement true if its cross correlation is close to
+	 *         the maximum.
+	 */
+	private boolean[] crossCorrelationCandidates(final Histogram otherHistogram) {
+		final int n = numberOfClasses;
+		int fftSize = 1;
+		while (fftSize < 2 * n - 1) {
+			fftSize *= 2;
+		}
+		final float[] thisSpectrum = new float[2 * fftSize];
+		final float[] otherSpectrum = new float[2 * fftSize];
+		double thisNorm = 0;
+		double otherNorm = 0;
+		for (int i = 0; i < n; i++) {
+			final long thisCount = getCountForClass(i);
+			final long otherCount = otherHistogram.getCountForClass(i);
+			thisSpectrum[2 * i] = thisCount;
+			otherSpectrum[2 * i] = otherCount;
+			thisNorm += thisCount * (double) thisCount;
+			otherNorm += otherCount * (double) otherCount;
+		}
+
+		final FFT fft = new FFT(fftSize);
+		fft.forwardTransform(thisSpectrum);
+		fft.forwardTransform(otherSpectrum);
+		// conj(this) * other: correlation of this with the displaced other
+		for (int j = 0; j < fftSize; j++) {
+			final float re = thisSpectrum[2 * j];
+			final float im = -thisSpectrum[2 * j + 1];
+			final float otherRe = otherSpectrum[2 * j];
+			final float otherIm = otherSpectrum[2 * j + 1];
+			thisSpectrum[2 * j] = re * otherRe - im * otherIm;
+			thisSpectrum[2 * j + 1] = re * otherIm + im * otherRe;
+		}
+		fft.backwardsTransform(thisSpectrum);
+
+		// circular correlation for displacement d: linear correlation at d
+		// plus the part that wrapped around, at d - n
+		final double[] correlation = new double[n];
+		double maximum = Double.NEGATIVE_INFINITY;
+		for (int d = 0; d < n; d++) {
+			double value = thisSpectrum[2 * d];
+			if (d > 0) {
+				value += thisSpectrum[2 * (fftSize + d - n)];
+			}
+			correlation[d] = value / fftSize;
+			maximum = Math.max(maximum, correlation[d]);
+		}
+
+		// the rounding error of the float FFT is relative to the norms of the
+		// histograms
+		final double tolerance = FFT_CORRELATION_TOLERANCE
+				* Math.sqrt(thisNorm * otherNorm);
+		final boolean[] candidates = new boolean[n];
+		for (int d = 0; d < n; d++) {
+			candidates[d] = correlation[d] >= maximum - tolerance;
+		}
+		return candidates;
+	}
+
 	public void plotCorrelation(final Histogram otherHistogram,
 			final CorrelationMeasure correlationMeasure, final String fileName,
 			final String title) {
@@ -1305,8 +1409,8 @@ public class Histogram implements Cloneable {
 	public final void export(final String fileName) {
 		final StringBuilder sb = new StringBuilder();
 		sb.append("key;value\n");
-		for (final double key : keySet()) {
-			sb.append(key).append(";").append(getCount(key)).append("\n");
+		for (int i = 0; i < numberOfClasses; i++) {
+			sb.append(keys[i]).append(";").append(counts[i]).append("\n");
 		}
 		FileUtils.writeFile(sb.toString(), fileName);
 	}
@@ -1321,9 +1425,9 @@ public class Histogram implements Cloneable {
 	public final void exportMatLab(final String fileName) {
 		final StringBuilder sb = new StringBuilder();
 		sb.append("histogram_values = [");
-		for (final double key : keySet()) {
-			for (int i = 0; i < getCount(key); i++) {
-				sb.append(key).append(",");
+		for (int c = 0; c < numberOfClasses; c++) {
+			for (int i = 0; i < counts[c]; i++) {
+				sb.append(keys[c]).append(",");
 			}
 		}
 		sb.append("]\n");
@@ -1336,10 +1440,8 @@ public class Histogram implements Cloneable {
 	 */
 	public final long getMaxBinCount() {
 		long maxValue = -1;
-		if (!freqTable.values().isEmpty()) {
-			for (final long value : freqTable.values()) {
-				maxValue = Math.max(maxValue, value);
-			}
+		for (final long value : counts) {
+			maxValue = Math.max(maxValue, value);
 		}
 		return maxValue;
 	}
@@ -1348,8 +1450,6 @@ public class Histogram implements Cloneable {
 	 * Sets each bin to 0.
 	 */
 	public void clear() {
-		for (final double key : keySet()) {
-			setCount(key, 0);
-		}
+		Arrays.fill(counts, 0);
 	}
 }
@@ -14,12 +14,6 @@ public final class Intersection implements HistogramCorrelation {
 
 		// number of bins (classes)
 		final int numberOfClasses = thisHistogram.getNumberOfClasses();
-		// start value
-		final double start = thisHistogram.getStart();
-		// stop value
-		final double stop = thisHistogram.getStop();
-		// classWidth
-		final double classWidth = thisHistogram.getClassWidth();
 
 		int actualDisplacement = displacement;
 		// make displacement positive
@@ -31,12 +25,9 @@ public final class Intersection implements HistogramCorrelation {
 		// matching area, displaced
 		double matchingArea = 0.0;
 
-		for (double current = start + classWidth / 2; current <= stop; current += classWidth) {
-			final double displacedValue;
-			displacedValue = (current + actualDisplacement * classWidth)
-					% (numberOfClasses * classWidth);
-			matchingArea += Math.min(thisHistogram.getCount(current),
-					otherHistogram.getCount(displacedValue));
+		for (int i = 0; i < numberOfClasses; i++) {
+			matchingArea += Math.min(thisHistogram.getCountForClass(i),
+					otherHistogram.getCountForClass(i + actualDisplacement));
 		}
 
 		// the biggest area under the curve
@@ -49,6 +49,8 @@ public class ControllerEngine extends AbstractController {
 
 	public static final String UPDATE_SCORE_PROPERTY = "updateScore"; // nur die
 																		// Noten
+	public static final String APPEND_TO_SCORE_PROPERTY = "appendToScore"; // nur die
+																		// neuen Noten
 	public static final String PARSE_AND_SET_TUNE_PROPERTY = "parseAndSetTune"; // den
 																				// ganzen
 																				// "TuneAsString"
@@ -75,6 +77,7 @@ public class ControllerEngine extends AbstractController {
 	public static final String PLAYBACK_PROPERTY = "setPlaybackSelected";
 	public static final String PLOTTING_PROPERTY = "setPlottingSelected";
 	public static final String LOWPASS_PROPERTY = "setLowPassEnabled";
+	public static final String FFT_PROPERTY = "setFFTSelected";
 	public static final String CHUNK_PROPERTY = "setChunk";
 	public static final String OVERLAP_PROPERTY = "setOverlap";
 	public static final String PDA_PROPERTY = "setPDA";
@@ -173,6 +176,10 @@ public class ControllerEngine extends AbstractController {
 		setModelProperty(LOWPASS_PROPERTY, s);
 	}
 
+	public void setFFTSelected(boolean s) {
+		setModelProperty(FFT_PROPERTY, s);
+	}
+
 	public void setChunk(int CHUNK) {
 		setModelProperty(CHUNK_PROPERTY, CHUNK);
 	}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sound.midi.Instrument;
 import javax.sound.midi.MidiSystem;
@@ -16,9 +17,10 @@ import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.Mixer;
 import javax.sound.sampled.TargetDataLine;
+import javax.swing.SwingUtilities;
 
-import abc.midi.BasicMidiConverter;
-import abc.midi.MidiConverterAbstract;
+import abc.midi.BasicPositionableMidiConverter;
+import abc.midi.MidiConverterInterface;
 import abc.midi.PlayerStateChangeEvent;
 import abc.midi.TempoChangeEvent;
 import abc.midi.TunePlayer;
@@ -30,7 +32,9 @@ import abc.notation.Note;
 import abc.notation.NoteAbstract;
 import abc.notation.Tune;
 import abc.notation.Voice;
+import abc.parser.ParsingService;
 import abc.parser.TuneParser;
+import abc.parser.TuneParserAdapter;
 import be.hogent.tarsos.sampled.AudioDispatcher;
 import be.hogent.tarsos.sampled.AudioProcessor;
 import be.hogent.tarsos.sampled.BlockingAudioPlayer;
@@ -42,6 +46,8 @@ import be.hogent.tarsos.sampled.pitch.Yin;
 import de.hsa.jam.ControllerEngine;
 import de.hsa.jam.jAM;
 import de.hsa.jam.audio.collector.AudioBufferQueue;
+import de.hsa.jam.audio.collector.AudioBufferQueue.OverflowPolicy;
+import de.hsa.jam.audio.collector.CollectorModel;
 import de.hsa.jam.audio.collector.NoteCollectorWorker;
 import de.hsa.jam.audio.midi.MidiMetronome;
 import de.hsa.jam.evaluation.Evaluator;
@@ -59,7 +65,7 @@ import de.hsa.jam.util.jAMUtils;
  *     
  * @author Michael Wager
  */
-public class Model extends AbstractModel {
+public class Model extends AbstractModel implements CollectorModel {
     private String savedFileName = jAM.HOME_PATH + "/jAM/jAM_session.wav";
 
 //    private boolean ALREADY_WRITTEN_TO_FILE = false;
@@ -77,6 +83,7 @@ public class Model extends AbstractModel {
     private boolean metroSelected = true;
     private boolean plottingSelected = false;
     private boolean lowPassSelected = false;
+    private boolean fftSelected = false;
     private boolean playbackSelected = false;
     private int transposeRecIndex = 0;
 
@@ -93,11 +100,23 @@ public class Model extends AbstractModel {
     private AudioProcessor myAudioProcessor;
     private MidiMetronome metro;
     private TunePlayer player;
+    /** converts the tune for playback and export, keeps its sequence until the tune changes */
+    private MidiConverterInterface midiConverter = new BasicPositionableMidiConverter();
 
     // ----- ABC Tune params -----
-    private Tune tune;
+    /** the last parsed tune, set by the thread of the ParsingService */
+    private volatile Tune tune;
+    /** the parser of the score, the tunes are parsed in the background */
+    private TuneParser parser = new TuneParser();
+    /** the tunes parsed but not set yet, on their way to the EDT: the tune may be out of date */
+    private final AtomicInteger tunesNotSet = new AtomicInteger();
+    /** changed on the EDT when the text is parsed there: the tunes of the parsings begun before are dropped */
+    private volatile int parsingGeneration;
+    /** time to wait after a key stroke before parsing, in ms */
+    private static final int EDIT_PARSING_DELAY = 200;
     final String NEWLINE = "\n";
-    private String tuneAsString = "", lastTuneAsString="";
+    private StringBuilder tuneAsString = new StringBuilder();
+    private String lastTuneAsString="";
     private String[] tuneAsArray;
     private Vector<String> notesAsArray;
     private int INDEX = 6;
@@ -116,6 +135,35 @@ public class Model extends AbstractModel {
     public Model() {
         metro = new MidiMetronome(bpm);// default 60 bpm
 
+        // the tune is parsed off the EDT, a newer text cancels the parsing
+        parser.addListener(new TuneParserAdapter() {
+            // of the parsing in progress, the parsings of the parser are run one at a time
+            private int generation;
+
+            public void tuneBegin() {
+                generation = parsingGeneration;
+            }
+
+            public void tuneEnd(final Tune parsed) {
+                final int parsedGeneration = generation;
+                // converted now, so that play starts at once, while only this thread knows the tune
+                if (parsed != null)
+                    midiConverter.toMidiSequence(parsed);
+                // counted while the parsing is still pending, until the tune is set
+                tunesNotSet.incrementAndGet();
+                // die View bekommt den schon geparsten Tune, muss also nicht nochmal parsen
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        tunesNotSet.decrementAndGet();
+                        if (parsedGeneration != parsingGeneration)
+                            return;
+                        tune = parsed;
+                        firePropertyChange(ControllerEngine.SHOW_TUNE_PROPERTY, "", parsed);
+                    }
+                });
+            }
+        });
+
         myAudioProcessor = new AudioProcessor() {
             // int processedSampless;
             int cnt = 0;
@@ -162,16 +210,16 @@ public class Model extends AbstractModel {
             	//TODO dB ???
                 float level = jAMUtils.calculateRMSLevel(audioByteBuffer, audioFloatBuffer);
                 
-                levels.add(level);
+                // levels.add(level); // nur fuer die Minima-Suche oben, kostet sonst pro Buffer eine Allokation
 
-                // JUST ADD to queue
+                // JUST ADD to queue (kopiert in einen freien Slot, blockiert nicht)
                 queue.add(audioFloatBuffer/*, level*/);
 
                 firePropertyChange(ControllerEngine.INPUTLEVEL_PROPERTY, 0, level);
             }
         };
 
-        player = new TunePlayer();
+        player = new TunePlayer(midiConverter);
         player.addListener(new TunePlayerListenerInterface() {
             public void tempoChanged(TempoChangeEvent e) {}
             public void playBegin(PlayerStateChangeEvent e) {}
@@ -219,7 +267,8 @@ public class Model extends AbstractModel {
     private int[] overlaps = new int[] { 0, 10, 25, 50, 75 };
 
     /**
-     * run complete evaluation
+     * run complete evaluation (serial, reference melodies from the mysql database).<br />
+     * See {@link de.hsa.jam.evaluation.ParameterSweep} for the parallel evaluation on a file based corpus.
      * */
     public void evaluationRun() throws Exception {
         String[] pdas = { "YIN", "MPM" };
@@ -256,6 +305,7 @@ public class Model extends AbstractModel {
                             queue = new AudioBufferQueue();
                             collector = new NoteCollectorWorker(this, queue,SAMPLERATE, CHUNK, OVERLAP, bpm, PDA);
                             collector.setEvaluator(evaluator);
+                            collector.setFFT(fftSelected);
                             setTonart(TONART); // -> setzt auch fuer collector!
                             setTaktart(TAKTARTINDEX); // -> setzt auch fuer
                                                         // collector!
@@ -324,8 +374,11 @@ public class Model extends AbstractModel {
         // overlapPercentage);
 
         try {
-            queue = new AudioBufferQueue();
+            // vom Mikro lieber alte Buffer verwerfen als die Aufnahme aufzuhalten, bei Dateien darf nichts verloren gehen
+            queue = new AudioBufferQueue(AudioBufferQueue.DEFAULT_CAPACITY,
+                    audioFile == null ? OverflowPolicy.DROP_OLDEST : OverflowPolicy.BLOCK);
             collector = new NoteCollectorWorker(this, queue, SAMPLERATE, CHUNK,OVERLAP, bpm, PDA);
+            collector.setFFT(fftSelected);
             // setTonart(this.TONART);
             // setTaktart(this.TAKTARTINDEX);
 
@@ -464,7 +517,7 @@ public class Model extends AbstractModel {
             firePropertyChange(ControllerEngine.START_STOP_PROCESSING_BUTTON_PROPERTY,"rec", "stop");
             initNewTuneAsString();
             updateScore("");
-            firePropertyChange(ControllerEngine.UPDATE_SCORE_PROPERTY, "old", tuneAsString);
+            firePropertyChange(ControllerEngine.UPDATE_SCORE_PROPERTY, "old", tuneAsString.toString());
         }
     }
 
@@ -476,7 +529,7 @@ public class Model extends AbstractModel {
             stopMIDI();
         } else {
             this.player.start();
-            this.player.play(tune, tuneAsString);
+            this.player.play(getParsedTune(), tuneAsString.toString());
             this.PLAYING_MIDI = true;
             firePropertyChange(ControllerEngine.MIDIBUTTON_NAME_PROPERTY,
                     "play", "stop");
@@ -514,26 +567,97 @@ public class Model extends AbstractModel {
     public void updateScore(String notesAsString) {
         tuneAsArray[INDEX] = notesAsString;
 
-        String tuneAsString = "";
+        StringBuilder tuneAsString = new StringBuilder();
         for (int i = 0; i < tuneAsArray.length; i++) {
-            tuneAsString += tuneAsArray[i];
+            tuneAsString.append(tuneAsArray[i]);
         }
 
-        parseAndSetTune(tuneAsString);
+        parseAndSetTune(tuneAsString.toString(), 0);
     }
 
+    /**
+     * the text edited by the user: parsed in the background once the user stops typing,
+     * the tune comes with SHOW_TUNE_PROPERTY
+     */
     public void parseAndSetTune(String tuneAsString) {
-        this.tuneAsString = tuneAsString;
-        tune = new TuneParser().parse(tuneAsString);
+        parseAndSetTune(tuneAsString, EDIT_PARSING_DELAY);
+    }
+
+    private void parseAndSetTune(String tuneAsString, int delay) {
+        this.tuneAsString.setLength(0);
+        this.tuneAsString.append(tuneAsString);
 
 //        extractTuneAsString(tune);
         
         // System.out.println("Backup: \n" + tuneAsString);
         firePropertyChange(ControllerEngine.UPDATE_SCORE_PROPERTY, "", tuneAsString);
+        // replaces a text not parsed yet
+        ParsingService.getInstance().parse(parser, tuneAsString, delay);
+    }
+
+    /**
+     * appends the new detected notes to the current tune, without parsing the whole tune again.<br />
+     * The view only gets the new abc text and the (same) tune to redraw.<br />
+     * Called by the collector thread: the tune and its text are only changed on the EDT, where the view
+     * draws them, so the notes are appended there.
+     * 
+     * @param notesDelta - the new notes as abc string
+     * @param elements - the same notes as abc.notation elements (Note, BarLine, EndOfStaffLine)
+     */
+    public void appendToScore(final String notesDelta, final Vector<MusicElement> elements) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    appendToScore(notesDelta, elements);
+                }
+            });
+            return;
+        }
+        if (tune == null) {
+            tuneAsArray[INDEX] += notesDelta;
+            updateScore(tuneAsArray[INDEX]);
+            return;
+        }
+        if (isTuneOutOfDate()) {
+            // the tune is out of date, the notes are parsed with the whole text
+            tuneAsString.append(notesDelta);
+            firePropertyChange(ControllerEngine.APPEND_TO_SCORE_PROPERTY, null, notesDelta);
+            ParsingService.getInstance().parse(parser, tuneAsString.toString(), 0);
+            return;
+        }
+        Voice voice = tune.getMusic().getVoice(1);
+        for (int i = 0; i < elements.size(); i++)
+            voice.addElement(elements.get(i));
+        tuneAsString.append(notesDelta);
+
+        firePropertyChange(ControllerEngine.APPEND_TO_SCORE_PROPERTY, null, notesDelta);
+        firePropertyChange(ControllerEngine.SHOW_TUNE_PROPERTY, "", tune);
     }
     
+    /**
+     * @return true if the text is being parsed, or its tune hasn't been set yet on the EDT
+     */
+    private boolean isTuneOutOfDate() {
+        return ParsingService.getInstance().isPending(parser) || tunesNotSet.get() > 0;
+    }
+
+    /**
+     * the tune of the current text, on the EDT: if it is out of date, the text is parsed at once, here,
+     * as the EDT can't wait for the tune it sets itself
+     */
+    private Tune getParsedTune() {
+        if (isTuneOutOfDate()) {
+            ParsingService.getInstance().cancel(parser);
+            // drops the tunes of the parsings begun before, still on their way to the EDT
+            parsingGeneration++;
+            tune = new TuneParser().parse(tuneAsString.toString());
+            firePropertyChange(ControllerEngine.SHOW_TUNE_PROPERTY, "", tune);
+        }
+        return tune;
+    }
+
     public void transpose(Integer semitones) {
-        tune = Tune.transpose(tune, semitones);
+        tune = Tune.transpose(getParsedTune(), semitones);
         
         String s = this.tuneAsString + "\n\n";
         
@@ -736,9 +860,8 @@ public class Model extends AbstractModel {
 
     public void writeScoreToMidi(String name) throws Exception {
         File file = new File(name);
-        // from abc: Create a converter to convert a tune into midi sequence
-        MidiConverterAbstract conv = new BasicMidiConverter();
-        Sequence s = conv.toMidiSequence(tune);
+        // the sequence played, converted once per tune
+        Sequence s = midiConverter.toMidiSequence(getParsedTune());
         // All available midi file type for the tune's sequence
         int[] types = MidiSystem.getMidiFileTypes(s);
         // Write the sequence as a midi file.
@@ -785,7 +908,7 @@ public class Model extends AbstractModel {
     public void saveProject(String name) throws Exception {
         File f = new File(name);
         FileWriter writer = new FileWriter(f);
-        writer.write(tuneAsString);
+        writer.write(tuneAsString.toString());
         writer.flush();
         writer.close();
         writer = null;
@@ -879,6 +1002,11 @@ public class Model extends AbstractModel {
         this.lowPassSelected = s;
     }
 
+    public void setFFTSelected(Boolean s) {
+        this.fftSelected = s;
+        collector.setFFT(s);
+    }
+
     public void setChunk(Integer CHUNK) {
         this.CHUNK = CHUNK;
         this.OVERLAP = CHUNK * overlapPercentage / 100;
@@ -1074,7 +1202,8 @@ public class Model extends AbstractModel {
             dispatcherTuner = new AudioDispatcher(stream, line, usedCHUNK,
                     OVERLAP);
             dispatcherTuner.addAudioProcessor(new AudioProcessor() {
-                private Yin yin = new Yin(SAMPLERATE, usedCHUNK);
+                // 4096 samples: the O(N^2) difference function would be 16 times slower than at 1024
+                private Yin yin = new Yin(SAMPLERATE, usedCHUNK, Yin.DEFAULT_THRESHOLD, true);
 
                 public void processFull(float[] audioFloatBuffer,
                         byte[] audioByteBuffer) {
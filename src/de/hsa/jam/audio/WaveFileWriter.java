@@ -1,132 +1,444 @@
 package de.hsa.jam.audio;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.Vector;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 
-import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.AudioFormat.Encoding;
 
 import be.hogent.tarsos.sampled.AudioProcessor;
-import be.hogent.tarsos.sampled.SampledAudioUtilities;
 
 /**
- * Simple WaveFileWriter. After reading buffer from soundcard, write to filename.
+ * WaveFileWriter: streams the captured buffers to a wave file while recording.<br />
+ * <br />
+ * The AudioDispatcher thread only copies each buffer into a recycled chunk and hands it to a background
+ * I/O thread, it never touches the disk. The I/O thread converts the samples to the byte order of the
+ * wave format, collects them in a fixed size direct buffer and writes it through a FileChannel. The 44 byte
+ * RIFF header is written first with empty sizes and its size fields are patched after every second of
+ * audio and when the recording ends: if the application dies, the file holds a valid wave up to the last
+ * patch.<br />
+ * <br />
+ * The memory used does not depend on the length of the recording: at most {@link #MAX_PENDING_CHUNKS}
+ * chunks wait for the disk, if the disk falls that far behind the dispatcher waits for a free chunk.
+ * The file is created with the first buffer, a writer that got no audio leaves the file of the last
+ * session as it is. A new session on the same file starts writing it once the last writer of the file has
+ * ended, as the dispatcher does not wait for it.
  *
  * @author Michael Wager
  */
 public final class WaveFileWriter implements AudioProcessor {
+	/** the number of chunks that can wait for the I/O thread */
+	public static final int MAX_PENDING_CHUNKS = 64;
 
-	private SourceDataLine line;
+	private static final int HEADER_SIZE = 44;
+	private static final int DISK_BUFFER_SIZE = 1 << 16;
+	// the size fields are 32 bit unsigned
+	private static final long MAX_DATA_SIZE = 0xFFFFFFFFL - (HEADER_SIZE - 8);
 
-	private ByteArrayOutputStream out;
-	private AudioFormat format;
+	// the last writer that got audio, by file
+	private static final Map<File, WaveFileWriter> lastWriters = new HashMap<File, WaveFileWriter>();
+
+	private final AudioFormat format;
 
 	/**
 	 * The overlap and step size defined not in samples but in bytes. So it
 	 * depends on the bit depth. Since the integer data type is used only
 	 * 8,16,24,... bits or 1,2,3,... bytes are supported.
 	 */
-	private final int byteOverlap, byteStepSize;
-	private String filename;
+	private final int byteOverlap, byteStepSize, byteBufferSize;
+	private final String filename;
+	// bytes of audio between two patches of the header
+	private final long headerInterval;
+
+	// filled chunks, flush requests and the end marker, in order
+	private final BlockingQueue<Chunk> pending = new ArrayBlockingQueue<Chunk>(MAX_PENDING_CHUNKS);
+	// chunks written to disk, reused by the dispatcher
+	private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(MAX_PENDING_CHUNKS + 1);
+	private final Chunk end = new Chunk(0);
+
+	private Thread thread;
+	// the writer of the file before this one, until its I/O thread has ended
+	private WaveFileWriter previous;
+	private boolean finished = false;
+	private volatile IOException failure;
 
-	private Vector<byte[]> buffer;
+	// ---------- only touched by the I/O thread:
+	private FileChannel channel;
+	private ByteBuffer diskBuffer;
+	private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private long dataSize = 0, patchedSize = 0;
+	// the data size of the file once the I/O thread has ended
+	private volatile long writtenSize = -1;
+	// the data size when the last flush request was served
+	private volatile long lastFlushedSize = 0;
 
-	public WaveFileWriter(final AudioFormat format, final int bufferSize,
-			final int overlap, String filename) throws LineUnavailableException {
-		out = new ByteArrayOutputStream();
-		line = SampledAudioUtilities.getOpenLineFromConfiguredMixer(format);
+	/**
+	 * @param format - format of the captured audio, PCM signed or unsigned
+	 * @param bufferSize - size of the buffers of the dispatcher in samples
+	 * @param overlap - overlap of the buffers in samples
+	 * @param filename - the wave file of the session, overwritten by the first buffer
+	 */
+	public WaveFileWriter(final AudioFormat format, final int bufferSize, final int overlap, String filename) {
+		Encoding encoding = format.getEncoding();
+		if (!Encoding.PCM_SIGNED.equals(encoding) && !Encoding.PCM_UNSIGNED.equals(encoding))
+			throw new IllegalArgumentException("only PCM can be written to wave: " + format);
 		// overlap in samples * nr of bytes / sample = bytes overlap
 		this.byteOverlap = overlap * format.getFrameSize();
-		this.byteStepSize = bufferSize * format.getFrameSize() - byteOverlap;
+		this.byteBufferSize = bufferSize * format.getFrameSize();
+		this.byteStepSize = byteBufferSize - byteOverlap;
 		this.filename = filename;
 		this.format = format;
-		// buffer=new Vector<byte[]>();
+		this.headerInterval = Math.max(1, (long) format.getFrameRate()) * format.getFrameSize();
 	}
 
-	Thread thread;
-	float[] audioFloatBuffer;
-	byte[] audioByteBuffer;
-
-	public void processFull(final float[] audioFloatBuffer,
-			final byte[] audioByteBuffer) {
-		// buffer.add(audioByteBuffer); //store
-		try {
-			out.write(audioByteBuffer, 0, audioByteBuffer.length);
-		} catch (Exception e) {
-			System.err.println("ERROR In WaveFileWriter");
-		}// TODO
+	public void processFull(final float[] audioFloatBuffer, final byte[] audioByteBuffer) {
+		enqueue(audioByteBuffer, 0, audioByteBuffer.length);
 	}
 
-	public void processOverlapping(final float[] audioFloatBuffer,
-			final byte[] audioByteBuffer) {
-		// buffer.add(audioByteBuffer); //store
-		try {
-			out.write(audioByteBuffer, byteOverlap, byteStepSize);
-		} catch (Exception e) {
-			System.err.println("ERROR In WaveFileWriter");
-		}// TODO
+	public void processOverlapping(final float[] audioFloatBuffer, final byte[] audioByteBuffer) {
+		enqueue(audioByteBuffer, byteOverlap, byteStepSize);
 	}
 
+	/**
+	 * ends the recording: the I/O thread writes what is left and the final header, the dispatcher does not
+	 * wait for it
+	 */
 	public void processingFinished() {
-		// cleanup
-		line.drain();
-		line.close();
-
-		// default nach jeder Aufnahme:
-		writeToDisk(this.filename);
+		synchronized (this) {
+			if (thread == null || finished)
+				return;
+			finished = true;
+		}
+		send(end);
 	}
 
+	/**
+	 * writes the audio recorded so far to another wave file. While recording, the chunks handed to the I/O
+	 * thread are flushed first and the recording goes on. If this writer got no audio, the file of the last
+	 * session is copied.
+	 */
 	public void saveToDisk(String name) {
-		writeToDisk(name);
-	}
-
-	private void writeToDisk(String name) {
 		try {
-			out.flush();
-			out.close();
+			long size = awaitWritten();
+			File session = new File(filename);
+			File target = new File(name);
+			if (target.getCanonicalFile().equals(session.getCanonicalFile()))
+				return;
+			copy(session, size, target);
 		} catch (IOException ex) {
 			ex.printStackTrace();
 		}
+	}
 
-		AudioInputStream audioInputStream;
-		byte audioBytes[] = out.toByteArray();
-		// jAMUtils.printArray(audioBytes);
+	/**
+	 * the number of bytes of audio in the session file, once the chunks handed to the I/O thread are
+	 * written and the header patched
+	 */
+	long awaitWritten() throws IOException {
+		CountDownLatch flushed = null;
+		Thread writer;
+		synchronized (this) {
+			writer = thread;
+			if (writer != null && !finished) {
+				flushed = new CountDownLatch(1);
+				Chunk request = new Chunk(0);
+				request.flushed = flushed;
+				send(request);
+			}
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (flushed != null)
+					flushed.await();
+				else if (writer != null)
+					writer.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (failure != null)
+			throw failure;
+		if (flushed != null)
+			return lastFlushedSize;
+		if (writer != null)
+			return writtenSize;
+		// no audio yet: the file of the last session, if any, once written
+		File session = new File(filename);
+		WaveFileWriter last;
+		synchronized (lastWriters) {
+			last = lastWriters.get(session.getAbsoluteFile());
+		}
+		if (last != null)
+			last.join();
+		return session.length() > HEADER_SIZE ? session.length() - HEADER_SIZE : 0;
+	}
 
-		ByteArrayInputStream bais = new ByteArrayInputStream(audioBytes);
-		audioInputStream = new AudioInputStream(bais, format, audioBytes.length
-				/ format.getFrameSize());
+	private void enqueue(byte[] bytes, int offset, int length) {
+		if (failure != null)
+			return;
+		synchronized (this) {
+			if (finished)
+				return;
+			if (thread == null) {
+				thread = new Thread(new Runnable() {
+					public void run() {
+						write();
+					}
+				}, "WaveFileWriter");
+				thread.setDaemon(true);
+				// registered with its thread, which the next writer of the file joins
+				synchronized (lastWriters) {
+					previous = lastWriters.put(new File(filename).getAbsoluteFile(), this);
+				}
+				thread.start();
+			}
+		}
+		Chunk chunk = free.poll();
+		if (chunk == null || chunk.bytes.length < length)
+			chunk = new Chunk(Math.max(length, byteBufferSize));
+		System.arraycopy(bytes, offset, chunk.bytes, 0, length);
+		chunk.length = length;
+		send(chunk);
+	}
 
-		// long milliseconds = (long)((audioInputStream.getFrameLength() * 1000)
-		// / audioInputStream.getFormat().getFrameRate());
-		// double duration = milliseconds / 1000.0;
-		// System.out.println("Captured " + duration +
-		// " seconds of audio data, now writing to wave..."); //TODO tmpdir
+	/** hands a chunk to the I/O thread, waiting if MAX_PENDING_CHUNKS are pending */
+	private void send(Chunk chunk) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				pending.put(chunk);
+				break;
+			} catch (InterruptedException e) {
+				// the dispatcher is interrupted when it is stopped, the chunk must not get lost
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
 
+	/** waits for the I/O thread to end */
+	private void join() {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/** the I/O thread */
+	private void write() {
+		if (previous != null) {
+			// its last chunks and header must not be written into this session
+			previous.join();
+			previous = null;
+		}
+		RandomAccessFile file = null;
 		try {
-			audioInputStream.reset();
-		} catch (Exception ex) {
-			ex.printStackTrace();
+			file = new RandomAccessFile(filename, "rw");
+			file.setLength(0);
+			channel = file.getChannel();
+			diskBuffer = ByteBuffer.allocateDirect(DISK_BUFFER_SIZE);
+			patchHeader();
+			channel.position(HEADER_SIZE);
+		} catch (IOException e) {
+			fail(e);
+		}
+		boolean interrupted = false;
+		Chunk chunk = null;
+		while (chunk != end) {
+			try {
+				chunk = pending.take();
+			} catch (InterruptedException e) {
+				interrupted = true;
+				continue;
+			}
+			try {
+				if (chunk.flushed != null) {
+					if (failure == null) {
+						flush();
+						patchHeader();
+					}
+					lastFlushedSize = patchedSize;
+					chunk.flushed.countDown();
+				} else if (chunk != end) {
+					if (failure == null)
+						append(chunk);
+					free.offer(chunk);
+				}
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		try {
+			if (failure == null) {
+				flush();
+				patchHeader();
+			}
+		} catch (IOException e) {
+			fail(e);
+		} finally {
+			writtenSize = patchedSize;
+			// this writer is kept until the next session on the file starts
+			free.clear();
+			diskBuffer = null;
+			try {
+				if (file != null)
+					file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void fail(IOException e) {
+		if (failure == null) {
+			failure = e;
+			System.err.println("ERROR In WaveFileWriter: " + e.getMessage());
+		}
+	}
+
+	private void append(Chunk chunk) throws IOException {
+		int length = (int) Math.min(chunk.length, MAX_DATA_SIZE - dataSize);
+		length -= length % format.getFrameSize();
+		toWaveOrder(chunk.bytes, length);
+		int offset = 0;
+		while (offset < length) {
+			if (!diskBuffer.hasRemaining())
+				flush();
+			int n = Math.min(diskBuffer.remaining(), length - offset);
+			diskBuffer.put(chunk.bytes, offset, n);
+			offset += n;
+		}
+		dataSize += length;
+		if (dataSize - patchedSize >= headerInterval) {
+			flush();
+			patchHeader();
+		}
+	}
+
+	private void flush() throws IOException {
+		diskBuffer.flip();
+		while (diskBuffer.hasRemaining())
+			channel.write(diskBuffer);
+		diskBuffer.clear();
+	}
+
+	/**
+	 * wave data is little endian, signed except for 8 bit samples which are unsigned
+	 */
+	private void toWaveOrder(byte[] bytes, int length) {
+		int sampleSize = (format.getSampleSizeInBits() + 7) / 8;
+		boolean signed = Encoding.PCM_SIGNED.equals(format.getEncoding());
+		if (sampleSize == 1) {
+			if (signed)
+				for (int i = 0; i < length; i++)
+					bytes[i] ^= 0x80;
 			return;
 		}
+		if (format.isBigEndian())
+			for (int i = 0; i + sampleSize <= length; i += sampleSize)
+				for (int a = i, b = i + sampleSize - 1; a < b; a++, b--) {
+					byte t = bytes[a];
+					bytes[a] = bytes[b];
+					bytes[b] = t;
+				}
+		if (!signed)
+			for (int i = sampleSize - 1; i < length; i += sampleSize)
+				bytes[i] ^= 0x80;
+	}
 
-		File file = new File(name);
+	/** writes the header with the size of the data written to the file */
+	private void patchHeader() throws IOException {
+		fillHeader(header, format, dataSize);
+		header.flip();
+		long position = 0;
+		while (header.hasRemaining())
+			position += channel.write(header, position);
+		patchedSize = dataSize;
+	}
+
+	/** the RIFF header of a PCM wave of the given data size */
+	private static void fillHeader(ByteBuffer header, AudioFormat format, long dataSize) {
+		int channels = format.getChannels();
+		int sampleSize = (format.getSampleSizeInBits() + 7) / 8;
+		int sampleRate = Math.round(format.getSampleRate());
+		header.clear();
+		header.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+		header.putInt((int) (dataSize + HEADER_SIZE - 8));
+		header.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+		header.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+		header.putInt(16);
+		header.putShort((short) 1); // PCM
+		header.putShort((short) channels);
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * channels * sampleSize);
+		header.putShort((short) (channels * sampleSize));
+		header.putShort((short) format.getSampleSizeInBits());
+		header.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+		header.putInt((int) dataSize);
+	}
+
+	/** copies the header and the first dataSize bytes of audio of the session to another file */
+	private void copy(File session, long dataSize, File target) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(target, "rw");
 		try {
-			if (AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE,
-					file) == -1) {
-				throw new IOException("Problems writing to file");
+			out.setLength(0);
+			FileChannel to = out.getChannel();
+			ByteBuffer targetHeader = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			fillHeader(targetHeader, format, dataSize);
+			targetHeader.flip();
+			while (targetHeader.hasRemaining())
+				to.write(targetHeader);
+			if (dataSize == 0)
+				return;
+			RandomAccessFile in = new RandomAccessFile(session, "r");
+			try {
+				FileChannel from = in.getChannel();
+				long position = HEADER_SIZE;
+				while (position < HEADER_SIZE + dataSize) {
+					long n = from.transferTo(position, HEADER_SIZE + dataSize - position, to);
+					if (n <= 0)
+						throw new IOException(session + " is shorter than its header says");
+					position += n;
+				}
+			} finally {
+				in.close();
 			}
+		} finally {
+			out.close();
+		}
+	}
 
-//			System.out.println("WRITTEN!!!!!!");
+	/** a copy of a buffer of the dispatcher, or a flush request if flushed is set */
+	private static final class Chunk {
+		final byte[] bytes;
+		int length;
+		CountDownLatch flushed;
 
-		} catch (Exception ex) {
-			ex.printStackTrace();
+		Chunk(int size) {
+			bytes = new byte[size];
 		}
 	}
 }
@@ -0,0 +1,439 @@
+package de.hsa.jam.audio.batch;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import abc.midi.BasicMidiConverter;
+import abc.notation.MusicElement;
+import abc.notation.Tune;
+import abc.notation.Voice;
+import abc.parser.TuneParser;
+import be.hogent.tarsos.sampled.AudioDispatcher;
+import be.hogent.tarsos.sampled.AudioProcessor;
+import de.hsa.jam.jAM;
+import de.hsa.jam.audio.collector.AudioBufferQueue;
+import de.hsa.jam.audio.collector.CollectorModel;
+import de.hsa.jam.audio.collector.NoteCollectorWorker;
+
+/**
+ * Headless transcription of many audio files.<br />
+ * Every file runs through its own pipeline AudioDispatcher -> AudioBufferQueue -> NoteCollectorWorker,
+ * the pipelines run on a bounded pool (default: one per core). For each file an abc file and
+ * optionally a MIDI file is written, at the end the throughput is reported in files/s and as
+ * realtime factor (seconds of audio per second of wall clock time).<br />
+ * <br />
+ * There is no Model, no Swing view and no metronome involved: the collector talks to a
+ * {@link CollectorModel} which only collects the notes.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.audio.batch.BatchTranscriber [options] files or directories...</code>
+ * <pre>
+ * -threads n     number of parallel pipelines (default: number of cores)
+ * -pda YIN|MPM   pitch detection algorithm (default: MPM)
+ * -chunk n       buffer size in samples (default: 1024)
+ * -overlap n     buffer overlap in percent (default: 0)
+ * -bpm n         beats per minute of the recordings (default: 60)
+ * -key K         key, e.g. C, G, F#, Bb (default: C)
+ * -meter M       4/4, 3/4 or 5/4 (default: 4/4)
+ * -fft           YIN / MPM via FFT
+ * -nomidi        do not write MIDI files
+ * -out dir       output directory (default: next to the audio file)
+ * -v             log the collector statistics of every file
+ * </pre>
+ */
+public class BatchTranscriber {
+	private static final String NEWLINE = "\n";
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private String PDA = "MPM";
+	private int chunk = 1024;
+	private int overlapPercentage = 0;
+	private int bpm = 60;
+	private String tonart = "C";
+	private String taktart = "4/4";
+	private boolean fft = false;
+	private boolean writeMidi = true;
+	private File outputDir = null;
+
+	/**
+	 * Result of one file.
+	 */
+	public static class Result {
+		private final File file;
+		private String abc;
+		private Tune tune;
+		private double audioSeconds;
+		private long processingMillis;
+		private Exception error;
+
+		Result(File file) {
+			this.file = file;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/** @return the whole tune as abc text (header and notes) */
+		public String getAbc() {
+			return abc;
+		}
+
+		public Tune getTune() {
+			return tune;
+		}
+
+		public double getAudioSeconds() {
+			return audioSeconds;
+		}
+
+		public long getProcessingMillis() {
+			return processingMillis;
+		}
+
+		/** @return the exception if the file could not be transcribed, else null */
+		public Exception getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Transcribes all files and waits until all are done.
+	 *
+	 * @return one result per file, in the same order
+	 */
+	public List<Result> transcribe(List<File> files) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (final File file : files) {
+				futures.add(pool.submit(new Callable<Result>() {
+					public Result call() {
+						return transcribe(file);
+					}
+				}));
+			}
+
+			List<Result> results = new ArrayList<Result>();
+			for (Future<Result> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					// transcribe(File) catches everything, just in case
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Transcribes one file in the calling thread (the collector gets its own thread) and writes abc and MIDI.
+	 */
+	public Result transcribe(File file) {
+		Result result = new Result(file);
+		long start = System.currentTimeMillis();
+		try {
+			AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+			try {
+				final float sampleRate = stream.getFormat().getSampleRate();
+				final int overlap = chunk * overlapPercentage / 100;
+
+				final HeadlessModel model = new HeadlessModel(header(file));
+				final AudioBufferQueue queue = new AudioBufferQueue(AudioBufferQueue.DEFAULT_CAPACITY,
+						AudioBufferQueue.OverflowPolicy.BLOCK);
+				final NoteCollectorWorker collector = new NoteCollectorWorker(model, queue, sampleRate, chunk, overlap,
+						bpm, PDA);
+				collector.setFFT(fft);
+				collector.setTonart(NoteCollectorWorker.getTonartIndex(tonart));
+				String[] meter = taktart.split("/");
+				collector.setTaktart(Integer.parseInt(meter[0]), Integer.parseInt(meter[1]));
+
+				// if the collector dies the producer must not wait for a free slot forever
+				final Throwable[] collectorError = new Throwable[1];
+				final Thread producer = Thread.currentThread();
+				collector.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+					public void uncaughtException(Thread t, Throwable e) {
+						collectorError[0] = e;
+						producer.interrupt();
+					}
+				});
+
+				final long[] samples = new long[1];
+				final boolean[] finished = new boolean[1];
+				AudioDispatcher dispatcher = new AudioDispatcher(stream, null, chunk, overlap);
+				dispatcher.addAudioProcessor(new AudioProcessor() {
+					public void processFull(float[] audioFloatBuffer, byte[] audioByteBuffer) {
+						samples[0] += audioFloatBuffer.length;
+						queue.add(audioFloatBuffer);
+						checkCollector();
+					}
+
+					public void processOverlapping(float[] audioFloatBuffer, byte[] audioByteBuffer) {
+						samples[0] += audioFloatBuffer.length - overlap;
+						queue.add(audioFloatBuffer);
+						checkCollector();
+					}
+
+					private void checkCollector() {
+						if (collectorError[0] != null)
+							throw new IllegalStateException("note collector failed", collectorError[0]);
+					}
+
+					public void processingFinished() {
+						finished[0] = true;
+						queue.add(null);
+					}
+				});
+
+				collector.start();
+				try {
+					// run() instead of start(): no thread and no TargetDataLine needed
+					dispatcher.run();
+					// the dispatcher swallows IOExceptions, the collector needs its end marker anyway
+					if (!finished[0])
+						queue.add(null);
+					collector.join();
+				} catch (InterruptedException e) {
+					if (collectorError[0] == null)
+						throw e;
+				} finally {
+					// clear the interrupt of a failed collector, the pool thread gets reused
+					if (collectorError[0] != null)
+						Thread.interrupted();
+				}
+				if (collectorError[0] != null)
+					throw new IllegalStateException("note collector failed", collectorError[0]);
+
+				result.abc = model.getAbc();
+				result.tune = model.getTune();
+				result.audioSeconds = samples[0] / sampleRate;
+			} finally {
+				stream.close();
+			}
+			write(result);
+		} catch (Exception e) {
+			result.error = e;
+		}
+		result.processingMillis = System.currentTimeMillis() - start;
+		return result;
+	}
+
+	private String header(File file) {
+		return "X:1" + NEWLINE + "T:" + file.getName() + NEWLINE + "Q:1/4 = " + bpm + NEWLINE + "M:" + taktart + NEWLINE
+				+ "L:1/16" + NEWLINE + "K:" + tonart + NEWLINE;
+	}
+
+	private void write(Result result) throws Exception {
+		File dir = outputDir != null ? outputDir : result.file.getAbsoluteFile().getParentFile();
+		String name = result.file.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			name = name.substring(0, dot);
+
+		FileWriter writer = new FileWriter(new File(dir, name + ".abc"));
+		try {
+			writer.write(result.abc);
+		} finally {
+			writer.close();
+		}
+
+		if (writeMidi) {
+			Sequence s = new BasicMidiConverter().toMidiSequence(result.tune);
+			int[] types = MidiSystem.getMidiFileTypes(s);
+			MidiSystem.write(s, types[0], new File(dir, name + ".mid"));
+		}
+	}
+
+	/**
+	 * the model of one pipeline: appends the notes to its own tune, no views, no evaluation
+	 */
+	private static class HeadlessModel implements CollectorModel {
+		private final StringBuilder abc = new StringBuilder();
+		private final Tune tune;
+
+		HeadlessModel(String header) {
+			abc.append(header);
+			tune = new TuneParser().parse(header);
+		}
+
+		public boolean isEvaluating() {
+			return false;
+		}
+
+		public boolean plottingSelected() {
+			return false;
+		}
+
+		public int getTransposeRecIndex() {
+			return 0;
+		}
+
+		public void appendToScore(String notesDelta, Vector<MusicElement> elements) {
+			abc.append(notesDelta);
+			Voice voice = tune.getMusic().getVoice(1);
+			for (int i = 0; i < elements.size(); i++)
+				voice.addElement(elements.get(i));
+		}
+
+		public void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+		}
+
+		public void initProcessing(String dummy) {
+		}
+
+		String getAbc() {
+			return abc.toString();
+		}
+
+		Tune getTune() {
+			return tune;
+		}
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/** @param PDA - "YIN" or "MPM" */
+	public void setPDA(String PDA) {
+		this.PDA = PDA;
+	}
+
+	public void setChunk(int chunk) {
+		this.chunk = chunk;
+	}
+
+	/** @param overlapPercentage - 0 to 99 */
+	public void setOverlap(int overlapPercentage) {
+		this.overlapPercentage = overlapPercentage;
+	}
+
+	public void setBPM(int bpm) {
+		this.bpm = bpm;
+	}
+
+	/** @param tonart - "C", "G", "D", "A", "E", "B", "F#", "F", "Bb", "Eb", "Ab", "Db", "C#" or "Gb" */
+	public void setTonart(String tonart) {
+		if (NoteCollectorWorker.getTonartIndex(tonart) < 0)
+			throw new IllegalArgumentException("unsupported key: " + tonart);
+		this.tonart = tonart;
+	}
+
+	/** @param taktart - "4/4", "3/4" or "5/4" */
+	public void setTaktart(String taktart) {
+		this.taktart = taktart;
+	}
+
+	public void setFFT(boolean fft) {
+		this.fft = fft;
+	}
+
+	public void setWriteMidi(boolean writeMidi) {
+		this.writeMidi = writeMidi;
+	}
+
+	/** @param outputDir - null: write next to the audio file */
+	public void setOutputDir(File outputDir) {
+		this.outputDir = outputDir;
+	}
+
+	public static void main(String[] args) throws Exception {
+		BatchTranscriber batch = new BatchTranscriber();
+		List<File> files = new ArrayList<File>();
+		boolean verbose = false;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-threads"))
+				batch.setThreads(Integer.parseInt(args[++i]));
+			else if (arg.equals("-pda"))
+				batch.setPDA(args[++i].toUpperCase());
+			else if (arg.equals("-chunk"))
+				batch.setChunk(Integer.parseInt(args[++i]));
+			else if (arg.equals("-overlap"))
+				batch.setOverlap(Integer.parseInt(args[++i]));
+			else if (arg.equals("-bpm"))
+				batch.setBPM(Integer.parseInt(args[++i]));
+			else if (arg.equals("-key"))
+				batch.setTonart(args[++i]);
+			else if (arg.equals("-meter"))
+				batch.setTaktart(args[++i]);
+			else if (arg.equals("-fft"))
+				batch.setFFT(true);
+			else if (arg.equals("-nomidi"))
+				batch.setWriteMidi(false);
+			else if (arg.equals("-out"))
+				batch.setOutputDir(new File(args[++i]));
+			else if (arg.equals("-v"))
+				verbose = true;
+			else
+				addAudioFiles(new File(arg), files);
+		}
+
+		if (files.isEmpty()) {
+			System.err.println("usage: java " + BatchTranscriber.class.getName()
+					+ " [-threads n] [-pda YIN|MPM] [-chunk n] [-overlap %] [-bpm n] [-key K] [-meter M] [-fft] [-nomidi] [-out dir] [-v] files or directories...");
+			System.exit(1);
+		}
+		if (!verbose)
+			Logger.getLogger(jAM.class.getName()).setLevel(Level.WARNING);
+
+		long start = System.currentTimeMillis();
+		List<Result> results = batch.transcribe(files);
+		double wallSeconds = (System.currentTimeMillis() - start) / 1000.0;
+
+		double audioSeconds = 0;
+		int failed = 0;
+		for (Result r : results) {
+			if (r.getError() != null) {
+				failed++;
+				Throwable cause = r.getError();
+				while (cause.getCause() != null)
+					cause = cause.getCause();
+				System.out.println(String.format("FAILED  %s: %s", r.getFile(), cause));
+			} else {
+				audioSeconds += r.getAudioSeconds();
+				System.out.println(String.format("%7.1fs audio in %6dms  %s", r.getAudioSeconds(),
+						r.getProcessingMillis(), r.getFile()));
+			}
+		}
+		System.out.println(String.format("%d files (%d failed) in %.2fs with %d threads: %.2f files/s, %.1fx realtime",
+				results.size(), failed, wallSeconds, batch.threads, results.size() / wallSeconds, audioSeconds
+						/ wallSeconds));
+	}
+
+	private static void addAudioFiles(File file, List<File> files) throws IOException {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			Arrays.sort(children);
+			for (File child : children) {
+				String name = child.getName().toLowerCase();
+				if (child.isDirectory() || name.endsWith(".wav") || name.endsWith(".aif") || name.endsWith(".aiff")
+						|| name.endsWith(".au"))
+					addAudioFiles(child, files);
+			}
+		} else if (file.exists())
+			files.add(file);
+		else
+			throw new IOException("file not found: " + file);
+	}
+}
@@ -1,47 +1,232 @@
 package de.hsa.jam.audio.collector;
 
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Class implements a blocking AudioBuffer - Queue (FIFO) which holds float arrays
- *  
+ * Class implements an AudioBuffer - Queue (FIFO) for exactly one producer (the AudioDispatcher thread)
+ * and one consumer (the NoteCollectorWorker thread).<br />
+ * <br />
+ * The queue is a ring of preallocated float arrays. add() copies the buffer into the next free slot,
+ * get() copies the oldest slot into a buffer owned by the consumer. Both sides only use two sequence
+ * counters (no locks, no wait/notify) and nothing is allocated once the slots have the buffer size.<br />
+ * <br />
+ * If the ring is full the {@link OverflowPolicy} decides what happens with the new buffer.
+ * The end marker (null) is never dropped, add() waits for a free slot instead. If the producer is
+ * interrupted while it waits, the end marker replaces the oldest buffer.
+ *
  * @author Michael Wager
  */
 public class AudioBufferQueue {
-	//LinkedList<float[][]> queue = new LinkedList<float[][]>();
-	LinkedList<float[]> queue = new LinkedList<float[]>();
-
-	public synchronized void add(float[] audioFloatBuffer) {
-		// ende - bedingung
-		if (audioFloatBuffer == null) {
-//			queue.addLast(new float[][] { null, new float[] { -1 } });
-			queue.addLast(null);
-			return;
+	/**
+	 * what add() does if the ring is full
+	 */
+	public enum OverflowPolicy {
+		/** wait until the consumer has taken a buffer (nothing gets lost) */
+		BLOCK,
+		/** overwrite the oldest buffer in the ring */
+		DROP_OLDEST,
+		/** discard the new buffer */
+		DROP_NEWEST
+	}
+
+	/** default number of slots, must be a power of two */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	// how long a waiting thread parks before it checks the counters again
+	private static final long PARK_NANOS = 500000;
+
+	private final int capacity;
+	private final int mask;
+	private final OverflowPolicy policy;
+
+	private final float[][] slots;
+	private final boolean[] endMarkers;
+
+	// next sequence to read, moved by the consumer (and by the producer on DROP_OLDEST)
+	private final AtomicLong head = new AtomicLong();
+	// next sequence to write, only moved by the producer
+	private volatile long tail = 0;
+
+	// the buffer handed out by get(), only touched by the consumer
+	private float[] consumerBuffer = new float[0];
+
+	private volatile Thread producer, consumer;
+	private volatile boolean producerWaiting = false, consumerWaiting = false;
+
+	// ---------- STATS:
+	private volatile long added = 0, dropped = 0;
+	private volatile int maxOccupancy = 0;
+
+	/**
+	 * a queue with {@link #DEFAULT_CAPACITY} slots which blocks if it is full
+	 */
+	public AudioBufferQueue() {
+		this(DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 * @param capacity - number of slots, gets rounded up to a power of two
+	 * @param policy - what to do if the ring is full
+	 */
+	public AudioBufferQueue(int capacity, OverflowPolicy policy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.policy = policy;
+		this.slots = new float[size][0];
+		this.endMarkers = new boolean[size];
+	}
+
+	/**
+	 * copies the buffer into the ring. Only the producer thread may call this.
+	 *
+	 * @param audioFloatBuffer - the buffer or null as end marker
+	 */
+	public void add(float[] audioFloatBuffer) {
+		// ende - bedingung: darf nie verworfen werden
+		boolean end = audioFloatBuffer == null;
+		long t = tail;
+
+		if (t - head.get() >= capacity) {
+			if (end || policy == OverflowPolicy.BLOCK) {
+				while (t - head.get() >= capacity) {
+					// dispatcher.stop() interrupts the producer, the consumer might be gone already
+					if (Thread.currentThread().isInterrupted()) {
+						if (!end) {
+							dropped++;
+							return;
+						}
+						// the end marker takes the place of the oldest buffer, the consumer must still get it
+						long h = head.get();
+						if (t - h >= capacity && head.compareAndSet(h, h + 1))
+							dropped++;
+						continue;
+					}
+					producer = Thread.currentThread();
+					producerWaiting = true;
+					if (t - head.get() >= capacity)
+						LockSupport.parkNanos(this, PARK_NANOS);
+					producerWaiting = false;
+				}
+			} else if (policy == OverflowPolicy.DROP_NEWEST) {
+				dropped++;
+				return;
+			} else {
+				// DROP_OLDEST: the consumer may take it in the meantime, then there is space anyway
+				long h = head.get();
+				if (t - h >= capacity && head.compareAndSet(h, h + 1))
+					dropped++;
+			}
 		}
 
-		float[] clone = audioFloatBuffer.clone();
-//		queue.addLast(new float[][] { clone, new float[] { level } });
-		queue.addLast(clone);
-		// queue.addLast(new float[][]{audioFloatBuffer, new float[]{level}});
-		notify();
+		int i = (int) (t & mask);
+		endMarkers[i] = end;
+		if (!end) {
+			if (slots[i].length != audioFloatBuffer.length)
+				slots[i] = new float[audioFloatBuffer.length];
+			System.arraycopy(audioFloatBuffer, 0, slots[i], 0, audioFloatBuffer.length);
+			added++;
+		}
+		tail = t + 1;
+
+		int occupancy = (int) (t + 1 - head.get());
+		if (occupancy > maxOccupancy)
+			maxOccupancy = occupancy;
+
+		if (consumerWaiting)
+			LockSupport.unpark(consumer);
 	}
 
-	public synchronized float[] get() throws InterruptedException {
-		// long start = System.currentTimeMillis();
-		while (queue.isEmpty()) { // solange nichts da ist.. warte
-			wait(); // wartet auf notify
-			// System.out.println("WAITING!!!!!");
+	/**
+	 * Takes the oldest buffer, waits if the queue is empty. Only the consumer thread may call this.<br />
+	 * The returned array is reused, it is only valid until the next call of get().
+	 *
+	 * @return the oldest buffer or null if it was the end marker
+	 */
+	public float[] get() throws InterruptedException {
+		while (true) {
+			long h = head.get();
+			if (h == tail) { // solange nichts da ist.. warte
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				consumer = Thread.currentThread();
+				consumerWaiting = true;
+				if (h == tail)
+					LockSupport.parkNanos(this, PARK_NANOS);
+				consumerWaiting = false;
+				continue;
+			}
+
+			int i = (int) (h & mask);
+			boolean end = endMarkers[i];
+			float[] slot = slots[i];
+			if (!end) {
+				if (consumerBuffer.length != slot.length)
+					consumerBuffer = new float[slot.length];
+				System.arraycopy(slot, 0, consumerBuffer, 0, slot.length);
+			}
+			// fails only if the producer dropped (and maybe overwrote) this slot meanwhile
+			if (head.compareAndSet(h, h + 1)) {
+				if (producerWaiting)
+					LockSupport.unpark(producer);
+				return end ? null : consumerBuffer;
+			}
 		}
-		// System.out.println("==================================== WAITED: " +
-		// (System.currentTimeMillis() - start));
-		return queue.removeFirst();
 	}
 
+	/**
+	 * discards all buffers which are in the queue right now
+	 */
 	public void clear() {
-		queue.clear();
+		long t = tail;
+		long h = head.get();
+		while (h < t && !head.compareAndSet(h, t))
+			h = head.get();
 	}
 
+	/**
+	 * @return number of buffers in the queue (occupancy)
+	 */
 	public int size() {
-		return queue.size();
+		return (int) (tail - head.get());
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the highest occupancy since the queue was created
+	 */
+	public int getMaxOccupancy() {
+		return maxOccupancy;
+	}
+
+	/**
+	 * @return number of buffers put into the ring (without the end marker)
+	 */
+	public long getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return number of buffers which got lost because the queue was full
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	public String toString() {
+		return "AudioBufferQueue[" + policy + ", size: " + size() + "/" + capacity + ", max: " + maxOccupancy
+				+ ", added: " + added + ", dropped: " + dropped + "]";
 	}
 }
@@ -0,0 +1,45 @@
+package de.hsa.jam.audio.collector;
+
+import java.util.Vector;
+
+import abc.notation.MusicElement;
+
+/**
+ * What the NoteCollectorWorker needs from its model.<br />
+ * Implemented by the {@link de.hsa.jam.audio.Model} of the application and by headless models
+ * like the one of the {@link de.hsa.jam.audio.batch.BatchTranscriber}.
+ */
+public interface CollectorModel {
+	/**
+	 * @return true during the evaluation: no score updates and no logging of the decisions
+	 */
+	boolean isEvaluating();
+
+	/**
+	 * @return true if the buffers and pitches should be plotted
+	 */
+	boolean plottingSelected();
+
+	/**
+	 * @return 1 if the recording should be transposed (Bb instruments), else 0
+	 */
+	int getTransposeRecIndex();
+
+	/**
+	 * called for every detected note or rest
+	 *
+	 * @param notesDelta - the new notes as abc string
+	 * @param elements - the same notes as abc.notation elements (Note, BarLine, EndOfStaffLine)
+	 */
+	void appendToScore(String notesDelta, Vector<MusicElement> elements);
+
+	/**
+	 * informs the views, see the properties in {@link de.hsa.jam.ControllerEngine}
+	 */
+	void firePropertyChange(String propertyName, Object oldValue, Object newValue);
+
+	/**
+	 * called by the collector after the end marker if the next run should be prepared
+	 */
+	void initProcessing(String dummy);
+}
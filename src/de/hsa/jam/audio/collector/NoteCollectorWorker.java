@@ -4,7 +4,15 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.Vector;
 
+import abc.notation.Accidental;
+import abc.notation.BarLine;
+import abc.notation.EndOfStaffLine;
+import abc.notation.Fraction;
+import abc.notation.MusicElement;
 import abc.notation.Note;
+import abc.notation.TieDefinition;
+import abc.parser.AbcToolkit;
+import abc.parser.AbcToolkit.DurationDescription;
 import be.hogent.tarsos.sampled.pitch.McLeodPitchMethod;
 import be.hogent.tarsos.sampled.pitch.Pitch;
 import be.hogent.tarsos.sampled.pitch.PitchConverter;
@@ -13,7 +21,6 @@ import be.hogent.tarsos.sampled.pitch.Yin;
 
 import de.hsa.jam.ControllerEngine;
 import de.hsa.jam.jAM;
-import de.hsa.jam.audio.Model;
 import de.hsa.jam.evaluation.Evaluator;
 import de.hsa.jam.ui.SimplePlotterFrame;
 import de.hsa.jam.util.jAMUtils;
@@ -27,8 +34,9 @@ import de.hsa.jam.util.jAMUtils;
  */
 public class NoteCollectorWorker implements Runnable {
 	private Thread thread;
+	private Thread.UncaughtExceptionHandler exceptionHandler;
 
-	private Model model; 
+	private CollectorModel model; 
 	private AudioBufferQueue queue;
 	
 	private boolean COLLECTING = false;
@@ -38,6 +46,7 @@ public class NoteCollectorWorker implements Runnable {
 	// different pitch detection algorithms:
 	private Yin yin;
 	private McLeodPitchMethod mpm;
+	private boolean USE_FFT = false; // YIN difference / MPM nsdf via FFT instead of O(N^2)
 	
 	private float pitchInHertz;
 	private Pitch pitch;
@@ -71,7 +80,11 @@ public class NoteCollectorWorker implements Runnable {
 	private int bufferSize, overlap, bpm, timeForOneBeat, timeFor16thNote;
 
 	// ---------- noten malen: -----
-	private String notesAsString = "";
+	private StringBuilder notesAsString = new StringBuilder();
+	// fuer das inkrementelle Update der Partitur: was seit dem letzten addNoteOrRest dazukam
+	private int notesSentToModel = 0;
+	private Vector<MusicElement> newElements = new Vector<MusicElement>();
+	private Note tieStart = null;
 	private int lenge = 0, takte = 0, OBEN = 4, UNTEN = 4;
 	private boolean FLAT_KEY = false;
 
@@ -104,15 +117,15 @@ public class NoteCollectorWorker implements Runnable {
 
 	/** Model instantiates a new collectorWorker for each melody.
 	 * 
-	 * @param model - get Model to set ModelProperties and to communicate with view
-	 * @param queue - the AudioBufferQueue
+	 * @param model - get Model to set ModelProperties and to communicate with view (or a headless model)
+	 * @param queue - the AudioBufferQueue (null if the buffers get pushed with process())
 	 * @param audioSampleRate - samplerate
 	 * @param bufferSize - buffersize in samples
 	 * @param overlap - bufferoverlap in samples
 	 * @param bpm - beats per minute of the recording
 	 * @param PDA - which pitch detection algorithm to use: "YIN" or "MPM"
 	 */
-	public NoteCollectorWorker(Model model, AudioBufferQueue queue, float audioSampleRate, int bufferSize, int overlap, int bpm, String PDA) {
+	public NoteCollectorWorker(CollectorModel model, AudioBufferQueue queue, float audioSampleRate, int bufferSize, int overlap, int bpm, String PDA) {
 		this.model = model;
 		this.queue = queue;
 
@@ -142,7 +155,10 @@ public class NoteCollectorWorker implements Runnable {
 
 		midiKeySammlerInsgesamt = new TreeMap<Integer, Float>();
 		midiKeySammler = new TreeMap<Integer, Float>();
-		notesAsString = "";
+		notesAsString.setLength(0);
+		notesSentToModel = 0;
+		newElements.clear();
+		tieStart = null;
 		midiKeysAndLevels = new Vector<Float[]>(); // darin wird gesammelt und
 													// dann ausgewertet
 		midiKeysRests = new Vector<Integer>();// darin wird gesammelt und dann
@@ -158,9 +174,21 @@ public class NoteCollectorWorker implements Runnable {
 		return COLLECTING;
 	}
 
-	private String[] tonarten = new String[] { "C", "G", "D", "A", "E", "B",
+	private static final String[] tonarten = new String[] { "C", "G", "D", "A", "E", "B",
 			"F#", "F", "Bb", "Eb", "Ab", "Db", "C#", "Gb" };
 
+	/**
+	 * @param tonart - a key like "C", "F#" or "Bb" (without " bass")
+	 * @return the index for setTonart() or -1 if the key is not supported
+	 */
+	public static int getTonartIndex(String tonart) {
+		for (int i = 0; i < tonarten.length; i++) {
+			if (tonarten[i].equals(tonart))
+				return i;
+		}
+		return -1;
+	}
+
 	// TODO besserer Weg um zu checken ob Ton in Tonleiter valide ist!!!???
 	private int[][] tonleitern = { { 0, 2, 4, 5, 7, 9, 11 }, // C-Dur
 			{ 0, 2, 4, 6, 7, 9, 11 }, // G-Dur
@@ -195,13 +223,25 @@ public class NoteCollectorWorker implements Runnable {
 	public void setYinTreshold(float t) {
 		jAM.log("Collector: setYinTreshold() " + t, false);
 		YIN_TRESHOLD = t;
-		yin = new Yin(audioSampleRate, this.bufferSize, YIN_TRESHOLD);
+		yin = new Yin(audioSampleRate, this.bufferSize, YIN_TRESHOLD, USE_FFT);
 	}
 
 	public void setMpmTreshold(float t) {
 		jAM.log("Collector: setMpmTreshold() " + t, false);
 		MPM_TRESHOLD = t;
-		mpm = new McLeodPitchMethod(audioSampleRate, bufferSize, MPM_TRESHOLD);
+		mpm = new McLeodPitchMethod(audioSampleRate, bufferSize, MPM_TRESHOLD, USE_FFT);
+	}
+
+	/**
+	 * select the implementation of YIN's difference function and MPM's normalized square difference:<br />
+	 * true: autocorrelation via FFT, O(N log N) - false: time domain, O(N^2).<br />
+	 * Both give the same pitches, the FFT is much faster from CHUNK 1024 on.
+	 */
+	public void setFFT(boolean fft) {
+		jAM.log("Collector: setFFT() " + fft, false);
+		USE_FFT = fft;
+		yin = new Yin(audioSampleRate, bufferSize, YIN_TRESHOLD, USE_FFT);
+		mpm = new McLeodPitchMethod(audioSampleRate, bufferSize, MPM_TRESHOLD, USE_FFT);
 	}
 
 	public void setMinDur(int d) {
@@ -255,14 +295,16 @@ public class NoteCollectorWorker implements Runnable {
 
 			stat += "AbcNotes-Backup: \n" + notesAsString + "\n";
 
+			stat += "QUEUE: " + queue + "\n";
+
 			stat += "YIN/MPM - STATS:\n";
 			float sum = yin_cnt + mpm_cnt;
 			stat += "YIN: " + yin_cnt / sum * 100 + "% - MPM: " + mpm_cnt / sum
 					* 100 + "%\n";
 			stat += "****************************** END STATS ******************************\n\n";
 			jAM.log(stat, false);
-		}else
-			evaluator.evaluateCurrentTranscription(evaluationSammler, PITCHDETECTOR, notesAsString);
+		}else if (evaluator != null)
+			evaluator.evaluateCurrentTranscription(evaluationSammler, PITCHDETECTOR, notesAsString.toString());
 	}
 
 	private void end(boolean initAfter) {
@@ -303,6 +345,22 @@ public class NoteCollectorWorker implements Runnable {
 		return timestamp + "ms";
 	}
 
+	/**
+	 * waits until the collector thread has processed the end marker
+	 */
+	public void join() throws InterruptedException {
+		Thread t = thread;
+		if (t != null)
+			t.join();
+	}
+
+	/**
+	 * gets called if the collector thread dies, e.g. to stop a producer waiting on a full queue
+	 */
+	public void setUncaughtExceptionHandler(Thread.UncaughtExceptionHandler exceptionHandler) {
+		this.exceptionHandler = exceptionHandler;
+	}
+
 	/**
 	 * start the collector thread 
 	 **/
@@ -312,6 +370,8 @@ public class NoteCollectorWorker implements Runnable {
 		if (!COLLECTING) {
 			queue.clear();
 			thread = new Thread(this);
+			if (exceptionHandler != null)
+				thread.setUncaughtExceptionHandler(exceptionHandler);
 			thread.start();
 			COLLECTING = true;
 		}
@@ -341,7 +401,7 @@ public class NoteCollectorWorker implements Runnable {
 		try {
 			while (thread != null) {
 				// long start = System.currentTimeMillis();
-				// get data: block if queue is empty
+				// get data: wait if queue is empty (the buffer is reused by the next get())
 				float[] audioFloatBuffer = queue.get();
 
 				// check end-of-stream marker
@@ -351,17 +411,9 @@ public class NoteCollectorWorker implements Runnable {
 					return;
 				}
 				
-				double level = jAMUtils.soundPressureLevel(audioFloatBuffer);
-				
-				//TODO level (dB) to percent ?
-//				System.out.println(Math.round(1000000000*Math.pow(10,level/20))/10000000 + "%");
-				
-				countSamples += audioFloatBuffer.length - overlap;
-				
-
 				// ----- ok wir haben nun einen buffer aus der queue geholt
 				// -----
-				detectPitchAndCollect(audioFloatBuffer, level);
+				process(audioFloatBuffer);
 
 				// TODO doc evaluation: auf intel 2 core blabla zB 3ms fuer
 				// detectPitchAndCollect() -> diesen pipeline schritt
@@ -375,6 +427,40 @@ public class NoteCollectorWorker implements Runnable {
 		}
 	}
 
+	/**
+	 * processes one buffer in the calling thread: level, pitch detection and collecting.<br />
+	 * run() calls this for every buffer from the queue. Without start() the buffers of a recording
+	 * can be pushed directly (no queue, no collector thread), see {@link #finish()}.
+	 */
+	public void process(float[] audioFloatBuffer) {
+		double level = jAMUtils.soundPressureLevel(audioFloatBuffer);
+		
+		//TODO level (dB) to percent ?
+//		System.out.println(Math.round(1000000000*Math.pow(10,level/20))/10000000 + "%");
+		
+		countSamples += audioFloatBuffer.length - overlap;
+
+		detectPitchAndCollect(audioFloatBuffer, level);
+	}
+
+	/**
+	 * @return the abc notes of the current recording (without header)
+	 */
+	public String getAbcNotes() {
+		return notesAsString.toString();
+	}
+
+	/**
+	 * ends a recording which was pushed with {@link #process(float[])}, like the end marker in the queue
+	 * 
+	 * @return the detected notes: midiKey and length (in 16th) for each note, 0 as midiKey for rests
+	 */
+	public Vector<Integer> finish() {
+		Vector<Integer> notes = evaluationSammler;
+		end(false);
+		return notes;
+	}
+
 	// ------------- collector-pipeline start --------------
 	//detectPitchAndCollect() and collect() ??? TODO
 
@@ -697,8 +783,11 @@ public class NoteCollectorWorker implements Runnable {
 			break;
 		}
 
+		// nur die neuen Noten an den Tune anhaengen, statt alles neu zu parsen
 		if (!model.isEvaluating())
-			model.updateScore(notesAsString);
+			model.appendToScore(notesAsString.substring(notesSentToModel), newElements);
+		notesSentToModel = notesAsString.length();
+		newElements = new Vector<MusicElement>();
 
 		if (midiKey == 0) {
 			if (!model.isEvaluating()&& jAM.SYSOUT)
@@ -1009,7 +1098,51 @@ public class NoteCollectorWorker implements Runnable {
 				|| (letzteNote.contains("_") && !NOTE.contains("_")))
 			PREFIX = "="; // natural sign
 
-		notesAsString += (PREFIX + NOTE + notenWert + POSTFIX);
+		notesAsString.append(PREFIX).append(NOTE).append(notenWert).append(POSTFIX);
 		letzteNote = NOTE;
+
+		// dasselbe als abc.notation Elemente, so wie sie der TuneParser erzeugen wuerde
+		Note note = createNote(PREFIX + NOTE, notenWert);
+		if (tieStart != null) {
+			if (tieStart.getHeight() == note.getHeight()) {
+				tieStart.getTieDefinition().setEnd(note.getReference());
+				note.setTieDefinition(tieStart.getTieDefinition());
+			}
+			tieStart = null;
+		}
+		if (bindeBogenSameNotes.equals("-")) {
+			TieDefinition tieDef = new TieDefinition();
+			tieDef.setStart(note.getReference());
+			note.setTieDefinition(tieDef);
+			tieStart = note;
+		}
+		newElements.add(note);
+		if (POSTFIX.endsWith("|"))
+			newElements.add(new BarLine());
+		else if (POSTFIX.endsWith("\n"))
+			newElements.add(new EndOfStaffLine());
+	}
+
+	/**
+	 * creates the Note for an abc note like "^C,", "=c'" or "z" with the given length in 16th (L:1/16)
+	 */
+	private Note createNote(String abcNote, int notenWert) {
+		int i = 0;
+		while (i < abcNote.length() && "^_=".indexOf(abcNote.charAt(i)) >= 0)
+			i++;
+		// convertToABC erzeugt hoechstens "=" vor einer Note mit eigenem Vorzeichen, dann gilt das letzte
+		Accidental accidental = i == 0 ? Accidental.NONE : Accidental.convertToAccidental(abcNote.substring(i - 1, i));
+		byte height = Note.convertToNoteType(abcNote.substring(i, i + 1));
+		byte octave = i + 1 < abcNote.length() ? AbcToolkit.convertToOctaveTransposition(abcNote.substring(i + 1)) : 0;
+
+		Note note = height == Note.REST ? new Note(Note.REST, Accidental.NONE) : new Note(height, accidental, octave);
+		try {
+			DurationDescription d = AbcToolkit.getAbsoluteDurationFor(new Fraction(notenWert, 1), Note.SIXTEENTH);
+			note.setStrictDuration(d.getStrictDuration());
+			note.setDotted(d.countDots());
+		} catch (IllegalArgumentException e) {
+			note.setDuration((short) (Note.SIXTEENTH * notenWert));
+		}
+		return note;
 	}
 }
\ No newline at end of file
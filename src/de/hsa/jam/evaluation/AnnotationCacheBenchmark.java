@@ -0,0 +1,166 @@
+package de.hsa.jam.evaluation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import be.hogent.tarsos.sampled.pitch.Annotation;
+import be.hogent.tarsos.sampled.pitch.AnnotationCache;
+import be.hogent.tarsos.sampled.pitch.AnnotationList;
+import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
+import be.hogent.tarsos.sampled.pitch.PitchUnit;
+import be.hogent.tarsos.util.FileUtils;
+
+/**
+ * Checks the binary annotation cache of CachingDetector: annotations written
+ * and read again must have the same start, pitch, probability and source, a
+ * text cache converted to the binary format must give the annotations the text
+ * gives, and the cache must be refused once the parameters of the detector or
+ * the content of the audio file changed, or when it is truncated, but not when
+ * the audio file was only touched.<br />
+ * Then compares the time to load the annotations of a long recording annotated
+ * every 10 ms from the text cache and from the binary cache, reading the
+ * primitive values or creating all the annotations.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.AnnotationCacheBenchmark [minutes] [iterations]</code>
+ */
+public class AnnotationCacheBenchmark {
+	private static final String DETECTOR = "tarsos_yin";
+	private static final String PARAMETERS = "";
+
+	// keeps the JIT from removing the measured calls
+	static double blackhole;
+
+	public static void main(String[] args) throws Exception {
+		double minutes = args.length > 0 ? Double.parseDouble(args[0]) : 60;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		File dir = File.createTempFile("annotations", "");
+		dir.delete();
+		dir.mkdirs();
+		String audio = new File(dir, "audio.wav").getPath();
+		String cache = new File(dir, "cache.annotations").getPath();
+		String text = new File(dir, "cache.txt").getPath();
+		writeAudio(audio, 1);
+		List<Annotation> annotations = generate((int) (minutes * 60 * 100));
+
+		// correctness
+		int mismatches = 0;
+		AnnotationCache.write(cache, DETECTOR, PARAMETERS, audio, annotations);
+		if (!same(annotations, AnnotationCache.read(cache, DETECTOR, PARAMETERS, audio)))
+			mismatches++;
+		FileUtils.writePitchAnnotations(text, annotations);
+		List<Annotation> fromText = FileUtils.readPitchAnnotations(text);
+		AnnotationCache.write(cache, DETECTOR, PARAMETERS, audio, fromText);
+		if (!same(fromText, AnnotationCache.read(cache, DETECTOR, PARAMETERS, audio)))
+			mismatches++;
+		List<String> failures = new ArrayList<String>();
+		if (AnnotationCache.read(cache, DETECTOR, "ipem_pitch_threshold=0.5", audio) != null)
+			failures.add("other parameters");
+		if (AnnotationCache.read(cache, "tarsos_mpm", PARAMETERS, audio) != null)
+			failures.add("other detector");
+		new File(audio).setLastModified(new File(audio).lastModified() - 60000);
+		if (AnnotationCache.read(cache, DETECTOR, PARAMETERS, audio) == null)
+			failures.add("touched audio refused");
+		writeAudio(audio, 2);
+		new File(audio).setLastModified(new File(audio).lastModified() - 120000);
+		if (AnnotationCache.read(cache, DETECTOR, PARAMETERS, audio) != null)
+			failures.add("changed audio");
+		writeAudio(audio, 1);
+		AnnotationCache.write(cache, DETECTOR, PARAMETERS, audio, annotations);
+		RandomAccessFile truncate = new RandomAccessFile(cache, "rw");
+		truncate.setLength(truncate.length() - 100);
+		truncate.close();
+		if (AnnotationCache.read(cache, DETECTOR, PARAMETERS, audio) != null)
+			failures.add("truncated cache");
+		mismatches += failures.size();
+		System.out.println(String.format("%d annotations, text %.1f MB, binary %.1f MB, %d mismatches %s %s",
+				annotations.size(), new File(text).length() / 1048576.0, (new File(cache).length() + 100) / 1048576.0,
+				mismatches, failures, mismatches == 0 ? "" : "MISMATCH"));
+
+		// performance
+		AnnotationCache.write(cache, DETECTOR, PARAMETERS, audio, annotations);
+		for (int warmup = 0; warmup < 3; warmup++) {
+			blackhole += sum(FileUtils.readPitchAnnotations(text));
+			blackhole += sum(AnnotationCache.read(cache, DETECTOR, PARAMETERS, audio));
+		}
+		long t = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			blackhole += sum(FileUtils.readPitchAnnotations(text));
+		long textNanos = (System.nanoTime() - t) / iterations;
+		report("text cache", textNanos, textNanos);
+		t = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			AnnotationList list = AnnotationCache.read(cache, DETECTOR, PARAMETERS, audio);
+			for (int j = 0; j < list.size(); j++)
+				blackhole += list.getPitchInHz(j);
+		}
+		report("binary, primitives", (System.nanoTime() - t) / iterations, textNanos);
+		t = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			blackhole += sum(AnnotationCache.read(cache, DETECTOR, PARAMETERS, audio));
+		report("binary, annotations", (System.nanoTime() - t) / iterations, textNanos);
+		System.out.println(mismatches == 0 ? "the binary cache gives the annotations it was written with"
+				: "MISMATCH, see above");
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	private static void report(String what, long nanos, long reference) {
+		System.out.println(String.format("%-20s %10.1f ms, speedup %.1f", what, nanos / 1000000.0, reference
+				/ (double) nanos));
+	}
+
+	/** the sum of the pitches in cents, through the annotation objects */
+	private static double sum(List<Annotation> annotations) {
+		double sum = 0;
+		for (Annotation annotation : annotations)
+			sum += annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
+		return sum;
+	}
+
+	private static boolean same(List<Annotation> expected, List<Annotation> actual) {
+		if (actual == null || expected.size() != actual.size())
+			return false;
+		for (int i = 0; i < expected.size(); i++) {
+			Annotation a = expected.get(i);
+			Annotation b = actual.get(i);
+			if (a.getStart() != b.getStart() || a.getPitch(PitchUnit.HERTZ) != b.getPitch(PitchUnit.HERTZ)
+					|| a.getProbability() != b.getProbability() || a.getSource() != b.getSource())
+				return false;
+		}
+		return true;
+	}
+
+	/** a melody annotated every 10 ms, with some annotations left out */
+	private static List<Annotation> generate(int count) {
+		Random random = new Random(1);
+		List<Annotation> annotations = new ArrayList<Annotation>(count);
+		double pitch = 220;
+		for (int i = 0; i < count; i++) {
+			if (random.nextInt(50) == 0)
+				pitch = 110 + random.nextDouble() * 770;
+			if (random.nextInt(10) == 0)
+				continue;
+			annotations.add(new Annotation(i * 0.01, pitch * (1 + random.nextGaussian() * 0.002),
+					i % 97 == 0 ? PitchDetectionMode.TARSOS_MPM : PitchDetectionMode.TARSOS_YIN, random.nextDouble()));
+		}
+		return annotations;
+	}
+
+	/** 4 MB of noise, the same length whatever the seed */
+	private static void writeAudio(String fileName, int seed) throws IOException {
+		byte[] bytes = new byte[4 << 20];
+		new Random(seed).nextBytes(bytes);
+		FileOutputStream out = new FileOutputStream(fileName);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package de.hsa.jam.evaluation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import be.hogent.tarsos.sampled.pitch.Annotation;
+import be.hogent.tarsos.sampled.pitch.AnnotationList;
+import be.hogent.tarsos.sampled.pitch.AnnotationTree;
+import be.hogent.tarsos.sampled.pitch.Pitch;
+import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
+import be.hogent.tarsos.sampled.pitch.PitchUnit;
+
+/**
+ * Checks the range selection of AnnotationTree against a scan of all annotations: for random selections
+ * like the ones dragged in the UI, the tree must give each annotation in the range exactly once, also
+ * when several annotations have the same time, pitch and probability, when the tree is built by several
+ * threads and when annotations are added after the construction.<br />
+ * Then compares the time to construct the tree and to select from it with the previous tree, which
+ * inserted the annotations one at a time in a KD-tree with a key array per node and dropped annotations
+ * with a key already in the tree, from 10^5 to 10^7 annotations. The previous tree is rebuilt here as it
+ * worked, the library it came from is not part of the project.<br />
+ * <br />
+ * Usage: <code>java -Xmx2g de.hsa.jam.evaluation.AnnotationTreeBenchmark [max annotations] [max annotations of the previous tree] [selections]</code>
+ */
+public class AnnotationTreeBenchmark {
+	private static final PitchUnit UNIT = PitchUnit.ABSOLUTE_CENTS;
+
+	// keeps the JIT from removing the measured calls
+	static long blackhole;
+
+	public static void main(String[] args) throws Exception {
+		int max = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int maxPrevious = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		int selections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		// correctness
+		AnnotationList annotations = generate(200000, 1);
+		double[][] keys = keys(annotations);
+		double[][] queries = queries(200, annotations, 2);
+		int mismatches = 0;
+		AnnotationTree tree = new AnnotationTree(annotations, UNIT);
+		AnnotationTree parallel = new AnnotationTree(annotations, UNIT, Math.max(2, threads));
+		AnnotationTree grown = new AnnotationTree(annotations.subList(0, annotations.size() / 2), UNIT);
+		for (int i = annotations.size() / 2; i < annotations.size(); i++)
+			grown.add(annotations.get(i), UNIT);
+		PreviousTree previous = new PreviousTree(annotations);
+		long selected = 0;
+		long missedByPrevious = 0;
+		for (double[] q : queries) {
+			List<Annotation> expected = scan(annotations, keys, q);
+			selected += expected.size();
+			if (!same(expected, tree.select(q[0], q[1], q[2], q[3], q[4])))
+				mismatches++;
+			if (!same(expected, parallel.select(q[0], q[1], q[2], q[3], q[4])))
+				mismatches++;
+			if (!same(expected, grown.select(q[0], q[1], q[2], q[3], q[4])))
+				mismatches++;
+			missedByPrevious += expected.size() - previous.select(q[0], q[1], q[2], q[3], q[4]).size();
+		}
+		if (tree.size() != annotations.size() || grown.size() != annotations.size())
+			mismatches++;
+		System.out.println(String.format(
+				"%d annotations, %d duplicate keys, %d selections of %d annotations compared, %d mismatches %s",
+				annotations.size(), annotations.size() - previous.size(), queries.length, selected, mismatches,
+				mismatches == 0 ? "" : "MISMATCH"));
+		System.out.println(String.format("the previous tree dropped %d duplicates and missed %d selected annotations",
+				annotations.size() - previous.size(), missedByPrevious));
+		annotations = null;
+		tree = parallel = grown = null;
+		previous = null;
+
+		// performance
+		for (int count = 100000; count <= max; count *= 10) {
+			annotations = generate(count, 3);
+			queries = queries(selections, annotations, 4);
+			System.out.println(count + " annotations:");
+			long previousBuild = 0, previousSelect = 0;
+			if (count <= maxPrevious) {
+				// warmup
+				blackhole += select(new PreviousTree(annotations), queries);
+				long t = System.nanoTime();
+				previous = new PreviousTree(annotations);
+				previousBuild = System.nanoTime() - t;
+				t = System.nanoTime();
+				blackhole += select(previous, queries);
+				previousSelect = (System.nanoTime() - t) / queries.length;
+				report("previous tree", previousBuild, previousBuild, previousSelect, previousSelect);
+				previous = null;
+			} else {
+				System.out.println("  previous tree skipped, see the usage");
+			}
+			for (int n = 1; n <= threads; n *= 2) {
+				blackhole += select(new AnnotationTree(annotations, UNIT, n), queries);
+				long t = System.nanoTime();
+				tree = new AnnotationTree(annotations, UNIT, n);
+				long build = System.nanoTime() - t;
+				t = System.nanoTime();
+				blackhole += select(tree, queries);
+				long select = (System.nanoTime() - t) / queries.length;
+				report("primitive tree, " + n + " thr.", build, previousBuild, select, previousSelect);
+				tree = null;
+			}
+		}
+		System.out.println(mismatches == 0 ? "the tree selects the annotations a scan selects" : "MISMATCH, see above");
+	}
+
+	private static void report(String what, long build, long previousBuild, long select, long previousSelect) {
+		if (previousBuild == 0)
+			System.out.println(String.format("  %-22s build %9.1f ms, select %8.1f us", what, build / 1000000.0,
+					select / 1000.0));
+		else
+			System.out.println(String.format("  %-22s build %9.1f ms, speedup %5.1f, select %8.1f us, speedup %5.1f",
+					what, build / 1000000.0, previousBuild / (double) build, select / 1000.0, previousSelect
+							/ (double) select));
+	}
+
+	private static long select(AnnotationTree tree, double[][] queries) {
+		long count = 0;
+		for (double[] q : queries)
+			count += tree.select(q[0], q[1], q[2], q[3], q[4]).size();
+		return count;
+	}
+
+	private static long select(PreviousTree tree, double[][] queries) {
+		long count = 0;
+		for (double[] q : queries)
+			count += tree.select(q[0], q[1], q[2], q[3], q[4]).size();
+		return count;
+	}
+
+	/** the annotations in a range, by looking at all of them */
+	private static List<Annotation> scan(AnnotationList annotations, double[][] keys, double[] q) {
+		List<Annotation> selected = new ArrayList<Annotation>();
+		for (int i = 0; i < keys[0].length; i++)
+			if (keys[0][i] >= q[0] && keys[0][i] <= q[1] && keys[1][i] >= q[2] && keys[1][i] <= q[3]
+					&& keys[2][i] >= q[4])
+				selected.add(annotations.get(i));
+		return selected;
+	}
+
+	/** true if both lists hold the same annotations, as many times, in any order */
+	private static boolean same(List<Annotation> expected, List<Annotation> actual) {
+		if (expected.size() != actual.size())
+			return false;
+		Map<Annotation, Integer> counts = new IdentityHashMap<Annotation, Integer>();
+		for (Annotation annotation : expected) {
+			Integer count = counts.get(annotation);
+			counts.put(annotation, count == null ? 1 : count + 1);
+		}
+		for (Annotation annotation : actual) {
+			Integer count = counts.get(annotation);
+			if (count == null)
+				return false;
+			if (count == 1)
+				counts.remove(annotation);
+			else
+				counts.put(annotation, count - 1);
+		}
+		return counts.isEmpty();
+	}
+
+	/** the time, the pitch in the unit of the benchmark and the probability of the annotations */
+	private static double[][] keys(AnnotationList annotations) {
+		double[][] keys = new double[3][annotations.size()];
+		for (int i = 0; i < annotations.size(); i++) {
+			keys[0][i] = annotations.getStart(i);
+			keys[1][i] = Pitch.getInstance(PitchUnit.HERTZ, annotations.getPitchInHz(i)).getPitch(UNIT);
+			keys[2][i] = annotations.getProbability(i);
+		}
+		return keys;
+	}
+
+	/**
+	 * selections as dragged in the UI: a few seconds to a minute, a few semitones to two octaves, with or
+	 * without a minimum probability
+	 */
+	private static double[][] queries(int count, AnnotationList annotations, int seed) {
+		Random random = new Random(seed);
+		double duration = annotations.getStart(annotations.size() - 1);
+		double[][] queries = new double[count][];
+		for (int i = 0; i < count; i++) {
+			double time = 2 + random.nextDouble() * 58;
+			double start = random.nextDouble() * Math.max(0, duration - time);
+			double cents = 300 + random.nextDouble() * 2100;
+			double low = 3600 + random.nextDouble() * (7300 - cents);
+			queries[i] = new double[] { start, start + time, low, low + cents,
+					random.nextBoolean() ? 0 : random.nextDouble() * 0.8 };
+		}
+		return queries;
+	}
+
+	/**
+	 * a melody annotated every 10 ms by two detectors, which often agree: the same time, pitch and
+	 * probability, and now and then an annotation given twice
+	 */
+	private static AnnotationList generate(int count, int seed) {
+		Random random = new Random(seed);
+		double[] starts = new double[count];
+		double[] pitches = new double[count];
+		double[] probabilities = new double[count];
+		byte[] sources = new byte[count];
+		PitchDetectionMode[] modes = { PitchDetectionMode.TARSOS_YIN, PitchDetectionMode.TARSOS_MPM };
+		double pitch = 220;
+		for (int i = 0, frame = 0; i < count; frame++) {
+			if (random.nextInt(50) == 0)
+				pitch = 110 + random.nextDouble() * 770;
+			double hz = pitch * (1 + random.nextGaussian() * 0.002);
+			double probability = Math.round(random.nextDouble() * 100) / 100.0;
+			for (int source = 0; source < 2 && i < count; source++, i++) {
+				starts[i] = frame * 0.01;
+				pitches[i] = source == 0 || random.nextInt(3) == 0 ? hz : hz * (1 + random.nextGaussian() * 0.01);
+				probabilities[i] = source == 0 || random.nextInt(3) == 0 ? probability : random.nextDouble();
+				sources[i] = (byte) (random.nextInt(20) == 0 ? 0 : source);
+			}
+		}
+		return new AnnotationList(starts, pitches, probabilities, sources, modes);
+	}
+
+	/**
+	 * the tree before: a KD-tree in which the annotations are inserted one at a time, each node with its
+	 * key array, an annotation with the key of a node in the tree not inserted
+	 */
+	private static class PreviousTree {
+		private Node root;
+		private int size;
+
+		PreviousTree(List<Annotation> annotations) {
+			for (Annotation annotation : annotations)
+				insert(new double[] { annotation.getStart(), annotation.getPitch(UNIT), annotation.getProbability() },
+						annotation);
+		}
+
+		int size() {
+			return size;
+		}
+
+		private void insert(double[] key, Annotation annotation) {
+			if (root == null) {
+				root = new Node(key, annotation);
+				size++;
+				return;
+			}
+			Node node = root;
+			for (int level = 0;; level = (level + 1) % 3) {
+				if (Arrays.equals(key, node.key))
+					return; // KeyDuplicateException
+				if (key[level] > node.key[level]) {
+					if (node.right == null) {
+						node.right = new Node(key, annotation);
+						break;
+					}
+					node = node.right;
+				} else {
+					if (node.left == null) {
+						node.left = new Node(key, annotation);
+						break;
+					}
+					node = node.left;
+				}
+			}
+			size++;
+		}
+
+		List<Annotation> select(double startTime, double stopTime, double startPitch, double stopPitch,
+				double minProbability) {
+			List<Annotation> selected = new ArrayList<Annotation>();
+			search(root, new double[] { startTime, startPitch, minProbability },
+					new double[] { stopTime, stopPitch, 1.0 }, 0, selected);
+			return selected;
+		}
+
+		private static void search(Node node, double[] low, double[] high, int level, List<Annotation> selected) {
+			if (node == null)
+				return;
+			if (low[level] <= node.key[level])
+				search(node.left, low, high, (level + 1) % 3, selected);
+			boolean in = true;
+			for (int i = 0; i < 3; i++)
+				in &= low[i] <= node.key[i] && node.key[i] <= high[i];
+			if (in)
+				selected.add(node.annotation);
+			if (high[level] > node.key[level])
+				search(node.right, low, high, (level + 1) % 3, selected);
+		}
+	}
+
+	private static class Node {
+		final double[] key;
+		final Annotation annotation;
+		Node left, right;
+
+		Node(double[] key, Annotation annotation) {
+			this.key = key;
+			this.annotation = annotation;
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package de.hsa.jam.evaluation;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.FileUtils;
+import be.hogent.tarsos.util.PcmTranscoder;
+
+/**
+ * Checks the transcoding in Java of PcmTranscoder: WAV, AIFF and AU files with the same random stereo audio
+ * must give the same mono wave, each sample the rounded mean of both channels; a source already in the
+ * target format must keep its samples; 8 bit unsigned and 24 bit sources must give their samples rounded
+ * to 16 bit; and a sine at 48, 22.05 or 44.056 kHz resampled to 44.1 kHz must stay a sine, with at least 80 dB
+ * signal to noise ratio. Two AudioFiles with the same content under different names must share one
+ * transcoded file, transcoded once.<br />
+ * Then compares the time to import a long recording: transcoded in Java with and without resampling, a copy
+ * of the same content (hashed), the same file again (its hash remembered), and, as the floor of the ffmpeg
+ * transcoding used before, the time to start a process that only copies the file.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.AudioTranscoderBenchmark [minutes] [iterations]</code>
+ */
+public class AudioTranscoderBenchmark {
+	private static final AudioFormat TARGET = new AudioFormat(44100, 16, 1, true, false);
+
+	// keeps the JIT from removing the measured calls
+	static long blackhole;
+
+	// numbers the written sources
+	private static int files;
+
+	public static void main(String[] args) throws Exception {
+		double minutes = args.length > 0 ? Double.parseDouble(args[0]) : 10;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		File dir = File.createTempFile("transcode", "");
+		dir.delete();
+		dir.mkdirs();
+		File target = new File(dir, "target.wav");
+
+		// correctness: containers and downmixing
+		int mismatches = 0;
+		AudioFormat stereo = new AudioFormat(44100, 16, 2, true, false);
+		byte[] audio = random(stereo, 2.5, 1);
+		byte[] expected = new byte[audio.length / 2];
+		for (int i = 0, j = 0; i < audio.length; i += 4, j += 2) {
+			int left = (short) ((audio[i] & 0xff) | audio[i + 1] << 8);
+			int right = (short) ((audio[i + 2] & 0xff) | audio[i + 3] << 8);
+			put16(expected, j, (int) Math.floor((left + right) / 2.0 + 0.5));
+		}
+		mismatches += check("wav, 16 bit stereo", write(audio, stereo, AudioFileFormat.Type.WAVE, dir), target,
+				expected);
+		mismatches += check("aiff, 16 bit stereo", write(swap(audio, 2), big(stereo), AudioFileFormat.Type.AIFF,
+				dir), target, expected);
+		mismatches += check("au, 16 bit stereo", write(swap(audio, 2), big(stereo), AudioFileFormat.Type.AU, dir),
+				target, expected);
+		// already in the target format
+		byte[] mono = Arrays.copyOf(audio, audio.length / 2);
+		mismatches += check("wav, 16 bit mono", write(mono, TARGET, AudioFileFormat.Type.WAVE, dir), target, mono);
+		// other sample sizes
+		AudioFormat unsigned = new AudioFormat(44100, 8, 1, false, false);
+		byte[] eight = random(unsigned, 1, 2);
+		expected = new byte[eight.length * 2];
+		for (int i = 0; i < eight.length; i++)
+			put16(expected, 2 * i, ((eight[i] & 0xff) - 128) << 8);
+		mismatches += check("wav, 8 bit unsigned", write(eight, unsigned, AudioFileFormat.Type.WAVE, dir), target,
+				expected);
+		AudioFormat format24 = new AudioFormat(44100, 24, 1, true, true);
+		byte[] twentyFour = random(format24, 1, 3);
+		expected = new byte[twentyFour.length / 3 * 2];
+		for (int i = 0, j = 0; i < twentyFour.length; i += 3, j += 2) {
+			int value = twentyFour[i] << 16 | (twentyFour[i + 1] & 0xff) << 8 | twentyFour[i + 2] & 0xff;
+			put16(expected, j, (int) Math.min(32767, Math.floor(value / 256.0 + 0.5)));
+		}
+		mismatches += check("aiff, 24 bit mono", write(twentyFour, format24, AudioFileFormat.Type.AIFF, dir), target,
+				expected);
+		// resampling
+		for (float rate : new float[] { 48000, 22050, 44056 }) {
+			AudioFormat format = new AudioFormat(rate, 24, 2, true, false);
+			File source = write(sine(format, 3, 1000), format, AudioFileFormat.Type.WAVE, dir);
+			PcmTranscoder.transcode(source, target, TARGET);
+			double snr = snr(data(target), 1000);
+			long frames = (long) Math.ceil((int) (3 * rate) * 44100.0 / rate);
+			boolean ok = snr > 80 && data(target).length == frames * 2;
+			if (!ok)
+				mismatches++;
+			System.out.println(String.format("%-22s %s, %d frames, %.1f dB signal to noise", "wav, " + (int) rate
+					+ " Hz sine", ok ? "ok" : "MISMATCH", data(target).length / 2, snr));
+		}
+		// the cache: the same content under two names
+		File original = write(audio, stereo, AudioFileFormat.Type.WAVE, dir);
+		File copy = new File(dir, "copy of the same audio.wav");
+		FileUtils.cp(original.getPath(), copy.getPath());
+		AudioFile first = new AudioFile(original.getPath());
+		long transcoded = new File(first.transcodedPath()).lastModified();
+		Thread.sleep(1100);
+		AudioFile second = new AudioFile(copy.getPath());
+		boolean shared = first.transcodedPath().equals(second.transcodedPath())
+				&& new File(second.transcodedPath()).lastModified() == transcoded;
+		if (!shared)
+			mismatches++;
+		System.out.println(String.format("%-22s %s", "same content, 2 names", shared ? "transcoded once"
+				: "MISMATCH, transcoded twice"));
+		System.out.println(String.format("%d checks failed %s", mismatches, mismatches == 0 ? "" : "MISMATCH"));
+
+		// performance: a long recording
+		File recording = write(random(stereo, minutes * 60, 4), stereo, AudioFileFormat.Type.WAVE, dir);
+		AudioFormat studio = new AudioFormat(48000, 24, 2, true, false);
+		File studioRecording = write(random(studio, minutes * 60, 5), studio, AudioFileFormat.Type.WAVE, dir);
+		double seconds = minutes * 60;
+		String cachedPath = null;
+		for (int n = 0; n <= iterations; n++) {
+			boolean report = n > 0; // the first run is the warmup
+			long t = System.nanoTime();
+			Process process = new ProcessBuilder("cp", recording.getPath(), target.getPath()).start();
+			blackhole += process.waitFor();
+			long spawn = System.nanoTime() - t;
+			if (report)
+				report("process copying", spawn, seconds);
+			t = System.nanoTime();
+			PcmTranscoder.transcode(recording, target, TARGET);
+			if (report)
+				report("java, 44.1 kHz stereo", System.nanoTime() - t, seconds);
+			t = System.nanoTime();
+			PcmTranscoder.transcode(studioRecording, target, TARGET);
+			if (report)
+				report("java, 48 kHz 24 bit", System.nanoTime() - t, seconds);
+			// a new name for the same content: hashed, found in the cache
+			File renamed = new File(dir, "renamed " + n + ".wav");
+			recording.renameTo(renamed);
+			recording = renamed;
+			if (n == 0)
+				blackhole += new AudioFile(recording.getPath()).getLengthInMilliSeconds();
+			t = System.nanoTime();
+			AudioFile cached = new AudioFile(recording.getPath());
+			if (report)
+				report("cached, new name", System.nanoTime() - t, seconds);
+			t = System.nanoTime();
+			blackhole += new AudioFile(recording.getPath()).getLengthInMilliSeconds();
+			if (report)
+				report("cached, same file", System.nanoTime() - t, seconds);
+			blackhole += cached.getLengthInMilliSeconds();
+			cachedPath = cached.transcodedPath();
+		}
+		System.out.println(String.format("%.0f s of audio, %d MB", seconds, recording.length() >> 20));
+		System.out.println(mismatches == 0 ? "the transcoding in Java gives the expected samples"
+				: "MISMATCH, see above");
+		// the transcoded files in the data directory
+		new File(first.transcodedPath()).delete();
+		new File(cachedPath).delete();
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	private static void report(String what, long nanos, double seconds) {
+		System.out.println(String.format("%-22s %9.1f ms, %8.1f times realtime", what, nanos / 1000000.0, seconds
+				/ (nanos / 1000000000.0)));
+	}
+
+	/** transcodes the source and compares the samples with the expected ones */
+	private static int check(String what, File source, File target, byte[] expected) throws Exception {
+		PcmTranscoder.transcode(source, target, TARGET);
+		AudioFormat format = AudioSystem.getAudioFileFormat(target).getFormat();
+		byte[] data = data(target);
+		boolean ok = format.matches(TARGET) && Arrays.equals(expected, data);
+		System.out.println(String.format("%-22s %s", what, ok ? "same samples" : "MISMATCH"));
+		return ok ? 0 : 1;
+	}
+
+	/**
+	 * the signal to noise ratio of a mono 16 bit 44.1 kHz sine with an amplitude of one half, the edges
+	 * left out
+	 */
+	private static double snr(byte[] data, double frequency) {
+		double signal = 0, noise = 0;
+		for (int i = 2000; i + 1 < data.length - 2000; i += 2) {
+			double expected = 0.5 * Math.sin(2 * Math.PI * frequency * (i / 2) / 44100.0);
+			double actual = (short) ((data[i] & 0xff) | data[i + 1] << 8) / 32768.0;
+			signal += expected * expected;
+			noise += (actual - expected) * (actual - expected);
+		}
+		return 10 * Math.log10(signal / noise);
+	}
+
+	private static byte[] sine(AudioFormat format, double seconds, double frequency) {
+		int frames = (int) (seconds * format.getSampleRate());
+		byte[] bytes = new byte[frames * format.getFrameSize()];
+		for (int i = 0, p = 0; i < frames; i++) {
+			int value = (int) Math.round(0.5 * Math.sin(2 * Math.PI * frequency * i / format.getSampleRate())
+					* 8388608);
+			for (int c = 0; c < format.getChannels(); c++) {
+				bytes[p++] = (byte) value;
+				bytes[p++] = (byte) (value >> 8);
+				bytes[p++] = (byte) (value >> 16);
+			}
+		}
+		return bytes;
+	}
+
+	private static byte[] random(AudioFormat format, double seconds, int seed) {
+		byte[] bytes = new byte[(int) (seconds * format.getSampleRate()) * format.getFrameSize()];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static AudioFormat big(AudioFormat format) {
+		return new AudioFormat(format.getSampleRate(), format.getSampleSizeInBits(), format.getChannels(), true,
+				true);
+	}
+
+	/** swaps the byte order of samples */
+	private static byte[] swap(byte[] bytes, int bytesPerSample) {
+		byte[] swapped = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i += bytesPerSample)
+			for (int j = 0; j < bytesPerSample; j++)
+				swapped[i + j] = bytes[i + bytesPerSample - 1 - j];
+		return swapped;
+	}
+
+	private static void put16(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >> 8);
+	}
+
+	private static File write(byte[] audio, AudioFormat format, AudioFileFormat.Type type, File dir)
+			throws IOException {
+		File file = new File(dir, "source" + files++ + "." + type.getExtension());
+		AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(audio), format, audio.length
+				/ format.getFrameSize());
+		AudioSystem.write(stream, type, file);
+		return file;
+	}
+
+	/** the audio data of a wave file */
+	private static byte[] data(File wave) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(wave, "r");
+		try {
+			byte[] bytes = new byte[(int) in.length() - 44];
+			in.seek(44);
+			in.readFully(bytes);
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+}
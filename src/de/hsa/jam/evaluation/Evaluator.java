@@ -408,28 +408,9 @@ public class Evaluator {
 //		evaluationSammler.add(60);evaluationSammler.add(4);
 //		evaluationSammler.add(0);evaluationSammler.add(4);
 		
-		float anzahlNotenInsgesamt = refMelody.size() / 2;
-		float anzahlErkannterNoten = evaluationSammler.size() / 2;
-
-		float hitsRefNotes = countHitsRef(evaluationSammler); //vR wieviele relevante sind erkannt worden?
-		float hitsTranscribedNotes = countHitsErkannt(evaluationSammler); //vT wieviele erkannte sind relevant? --> a
-		
-		//recall and precision
-		float a=hitsTranscribedNotes, //-> gefunden + relevant
-			  b=anzahlErkannterNoten-hitsTranscribedNotes, //-> gefunden, aber NICHT relevant
-			  c=anzahlNotenInsgesamt-hitsRefNotes; //-> NICHT gefunden, aber relevant
-
-		float recall =    a/ (a+c);
-		float precision = a/ (a+b);
-		//marmonic mean (F-Score) see http://en.wikipedia.org/wiki/Precision_and_recall
-		float F =  2 * ((recall * precision) / (recall + precision)) * 100; // avg: (recall + precision) / 2 * 100;
-		
-		//Notenfehler gem. Ryynaeen:
-		float noteError = 0.5f
-						* (((anzahlNotenInsgesamt - hitsRefNotes) / anzahlNotenInsgesamt) + ((anzahlErkannterNoten - hitsTranscribedNotes) / anzahlErkannterNoten))
-						* 100.0f;
-		
-		float Nn = (100.0f - noteError);
+		TranscriptionScore score = new TranscriptionScore(refMelody, evaluationSammler);
+		float recall = score.getRecall(), precision = score.getPrecision(), F = score.getF();
+		float Nn = score.getNn();
 		
 		//SIMULATE
 //		System.out.println("############################################################");
@@ -475,82 +456,17 @@ public class Evaluator {
 		return String.format("%.4g", f); //4 steht fuer 12.12 also 4 ziffern !
 	}
 	
-	// wieviele ref Noten sind in den erkannten? -> wieviele relevante sind erkannt worden?
 	/**
 	 * count how many relevant notes are detected
 	 **/
-	public int countHitsRef(Vector<Integer> evaluationSammle) {
-		int cnt = 0;
-
-		 Vector<Integer>evaluationSammler = (Vector<Integer>)evaluationSammle.clone();
-		 Vector<Integer>refMelody = (Vector<Integer>)this.refMelody.clone();
-
-		for (int i = 0; i < refMelody.size(); i++) {
-			int referenzTon = refMelody.get(i);
-			int referenzWert = refMelody.get(i+1);
-
-			for (int j = 0; j < evaluationSammler.size(); j++) {
-				int erkannterTon = evaluationSammler.get(j);
-				int erkannterWert = evaluationSammler.get(j+1);
-
-				if (referenzTon == erkannterTon && referenzWert == erkannterWert) {
-					cnt++;
-					
-					refMelody.remove(i);
-					refMelody.remove(i);
-					i -= 2;
-					
-					evaluationSammler.remove(j);
-					evaluationSammler.remove(j);
-					j-=2;
-					
-					break;
-				}
-				j++;
-			}
-			i++;
-		}
-		return cnt;
+	public int countHitsRef(Vector<Integer> evaluationSammler) {
+		return TranscriptionScore.countHitsRef(refMelody, evaluationSammler);
 	}
 
-	// wieviele erkannte Noten sind in der RefMelo? -> wieviele erkannte sind relevant?
 	/**
 	 * count how many detected notes are relevant
 	 **/
-	public int countHitsErkannt(Vector<Integer> evaluationSammle) {
-		int cnt = 0;
-
-		Vector<Integer>refMelody = (Vector<Integer>)this.refMelody.clone();
-		Vector<Integer>evaluationSammler = (Vector<Integer>)evaluationSammle.clone();
-
-		// hole erkanntenTon und erkanntenWert und check GESAMTE REFERENZMELO ob
-		// dieses vorkommt!
-		for (int i = 0; i < evaluationSammler.size(); i++) {
-			int erkannterTon = evaluationSammler.get(i);
-			int erkannterWert = evaluationSammler.get(i+1);
-
-			for (int j = 0; j < refMelody.size(); j++) {
-				int referenzTon = refMelody.get(j);
-				int referenzWert = refMelody.get(j+1);
-
-				if (erkannterTon == referenzTon && erkannterWert == referenzWert) {
-					cnt++;
-					
-					evaluationSammler.remove(i); 
-					evaluationSammler.remove(i);
-					i-=2;
-					
-					refMelody.remove(j);
-					refMelody.remove(j); 
-					j-=2;
-					 
-					// refMelody.remove(j-1);
-					break;
-				}
-				j++;
-			}
-			i++;
-		}
-		return cnt;
+	public int countHitsErkannt(Vector<Integer> evaluationSammler) {
+		return TranscriptionScore.countHitsErkannt(refMelody, evaluationSammler);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+package de.hsa.jam.evaluation;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import be.hogent.tarsos.util.histogram.CorrelationMeasure;
+import be.hogent.tarsos.util.histogram.Histogram;
+
+/**
+ * Measures the array backed histogram on large inputs: adding values, smoothing
+ * and searching the displacement with optimal correlation, with an FFT for the
+ * cross correlation based measures and by trying each displacement for the
+ * intersection.<br />
+ * Before timing, the counts are checked against a reference built with a
+ * TreeMap and the key calculation the histogram used before, and the optimal
+ * displacement is checked against a brute force search on the reference.<br />
+ * Two layouts are measured: a wrapping pitch class histogram (0-1200 cents) and
+ * a non wrapping pitch histogram (0-9600 cents), both with 6 cents classes.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.HistogramBenchmark [samples] [iterations]</code>
+ */
+public class HistogramBenchmark {
+	private static final int BIN_WIDTH = 6;
+
+	// keeps the JIT from removing the measured calls
+	static double blackhole;
+
+	public static void main(String[] args) {
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		boolean ok = true;
+		ok &= run("pitch class", 0, 1200, true, samples, iterations);
+		ok &= run("pitch", 0, 9600, false, samples, iterations);
+		System.out.println(ok ? "all counts and displacements match the reference" : "MISMATCH, see above");
+	}
+
+	private static boolean run(String name, double start, double stop, boolean wraps, int samples, int iterations) {
+		int classes = (int) ((stop - start) / BIN_WIDTH);
+		System.out.println("========== " + name + " histogram: " + classes + " classes, " + samples + " values ==========");
+
+		double[] values = testValues(start, stop, wraps, samples, 1);
+		double[] shifted = testValues(start, stop, wraps, samples, 2);
+
+		Histogram histogram = new Histogram(start, stop, classes, wraps, true);
+		Histogram other = new Histogram(start, stop, classes, wraps, true);
+		for (int i = 0; i < samples; i++) {
+			histogram.add(values[i]);
+			other.add(shifted[i]);
+		}
+
+		// correctness
+		boolean ok = true;
+		TreeMap<Double, Long> reference = reference(start, stop, classes, wraps, values);
+		TreeMap<Double, Long> otherReference = reference(start, stop, classes, wraps, shifted);
+		int mismatches = 0;
+		for (Map.Entry<Double, Long> entry : reference.entrySet()) {
+			if (histogram.getCount(entry.getKey()) != entry.getValue().longValue())
+				mismatches++;
+		}
+		ok &= mismatches == 0 && histogram.getSumFreq() == sum(reference);
+		System.out.println(String.format("counts:       %d classes, %d mismatches %s", reference.size(), mismatches, ok ? "" : "MISMATCH"));
+
+		// the cross correlation and the euclidean distance are optimal at the
+		// same displacement
+		int expected = referenceDisplacement(reference, otherReference);
+		CorrelationMeasure[] measures = { CorrelationMeasure.CROSSCORRELATION, CorrelationMeasure.EUCLIDEAN,
+				CorrelationMeasure.INTERSECTION };
+		for (CorrelationMeasure measure : measures) {
+			if (!measure.isComputedWithFFT())
+				continue;
+			int actual = histogram.displacementForOptimalCorrelation(other, measure);
+			boolean match = expected == actual;
+			ok &= match;
+			System.out.println(String.format("displacement: %d (reference %d) %s %s", actual, expected, measure, match ? "" : "MISMATCH"));
+		}
+
+		// performance
+		Histogram target = new Histogram(start, stop, classes, wraps, true);
+		long t = System.nanoTime();
+		for (int it = 0; it < iterations; it++) {
+			target.clear();
+			for (int i = 0; i < samples; i++)
+				target.add(values[i]);
+		}
+		report("add", System.nanoTime() - t, (long) iterations * samples, "value");
+
+		int smoothIterations = iterations * 50;
+		t = System.nanoTime();
+		for (int it = 0; it < smoothIterations; it++) {
+			target.add(histogram);
+			target.smooth(true, 3);
+		}
+		blackhole += target.getSumFreq();
+		report("smooth", System.nanoTime() - t, smoothIterations, "call");
+
+		t = System.nanoTime();
+		for (int it = 0; it < smoothIterations; it++) {
+			target.add(histogram);
+			target.gaussianSmooth(1.0);
+		}
+		blackhole += target.getSumFreq();
+		report("gaussian", System.nanoTime() - t, smoothIterations, "call");
+
+		for (CorrelationMeasure measure : measures) {
+			int correlationIterations = measure.isComputedWithFFT() ? iterations * 10 : Math.max(1, iterations / (wraps ? 1 : 10));
+			t = System.nanoTime();
+			for (int it = 0; it < correlationIterations; it++)
+				blackhole += histogram.displacementForOptimalCorrelation(other, measure);
+			report("correlate " + measure.name().toLowerCase() + (measure.isComputedWithFFT() ? " (FFT)" : ""),
+					System.nanoTime() - t, correlationIterations, "call");
+		}
+		return ok;
+	}
+
+	private static void report(String what, long nanos, long count, String unit) {
+		System.out.println(String.format("%-28s %10.1f ns/%s (%d in %.1f ms)", what, nanos / (double) count, unit, count,
+				nanos / 1000000.0));
+	}
+
+	/**
+	 * gaussian clusters of values around a few pitch classes, the second set is
+	 * the same scale displaced by 42 cents
+	 */
+	private static double[] testValues(double start, double stop, boolean wraps, int samples, int seed) {
+		double[] scale = { 0, 204, 386, 498, 702, 884, 1088 };
+		double displacement = seed == 1 ? 0 : 42;
+		Random random = new Random(seed);
+		double[] values = new double[samples];
+		for (int i = 0; i < samples; i++) {
+			double octave = wraps ? 0 : 1200 * random.nextInt((int) ((stop - start) / 1200));
+			double value = octave + scale[random.nextInt(scale.length)] + displacement + random.nextGaussian() * 10;
+			values[i] = wraps ? (value <= 0 ? value + 1200 : value) : Math.max(0.001, Math.min(value, stop - 0.001));
+		}
+		return values;
+	}
+
+	/**
+	 * the frequency table as the histogram used to keep it: a TreeMap with
+	 * rounded keys and the key calculated from the value
+	 */
+	private static TreeMap<Double, Long> reference(double start, double stop, int classes, boolean wraps, double[] values) {
+		double classWidth = round((stop - start) / classes);
+		TreeMap<Double, Long> table = new TreeMap<Double, Long>();
+		double lastKey = wraps ? stop - classWidth / 2 : stop;
+		table.put(round(start + classWidth / 2), 0L);
+		for (double current = start + classWidth / 2; current <= lastKey; current += classWidth)
+			table.put(referenceKey(start, stop, classWidth, wraps, table, current), 0L);
+
+		for (double value : values) {
+			if (value <= 0)
+				continue;
+			Double key = referenceKey(start, stop, classWidth, wraps, table, value);
+			Long count = table.get(key);
+			if (count != null)
+				table.put(key, count + 1);
+		}
+		return table;
+	}
+
+	private static double referenceKey(double start, double stop, double classWidth, boolean wraps, TreeMap<Double, Long> table, double value) {
+		double roundedValue = value;
+		if (wraps) {
+			double interval = stop - start;
+			while (roundedValue < table.firstKey())
+				roundedValue = round(roundedValue + interval);
+			roundedValue = round(start + (roundedValue - start) % interval);
+		}
+		double classes = Math.floor((roundedValue + start) / classWidth);
+		return round(classes * classWidth + classWidth / 2 - start);
+	}
+
+	/**
+	 * brute force search of the displacement with maximal cross correlation on
+	 * the reference tables
+	 */
+	private static int referenceDisplacement(TreeMap<Double, Long> first, TreeMap<Double, Long> second) {
+		Long[] a = first.values().toArray(new Long[0]);
+		Long[] b = second.values().toArray(new Long[0]);
+		int n = a.length;
+		int best = 0;
+		double max = -1;
+		for (int d = 0; d < n; d++) {
+			double correlation = 0;
+			for (int i = 0; i < n; i++)
+				correlation += a[i] * (double) b[(i + d) % n];
+			correlation /= n;
+			if (max < correlation) {
+				max = correlation;
+				best = d;
+			}
+		}
+		return best > n / 2.0 ? best - n : best;
+	}
+
+	private static long sum(TreeMap<Double, Long> table) {
+		long sum = 0;
+		for (Long count : table.values())
+			sum += count;
+		return sum;
+	}
+
+	// same rounding as the histogram keys
+	private static double round(double value) {
+		return Math.floor(value * 10000) / 10000.0;
+	}
+}
@@ -0,0 +1,239 @@
+package de.hsa.jam.evaluation;
+
+import java.awt.geom.Rectangle2D;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import abc.notation.BarLine;
+import abc.notation.MusicElement;
+import abc.notation.Tune;
+import abc.notation.Voice;
+import abc.parser.TuneParser;
+import abc.ui.scoretemplates.ScoreAttribute;
+import abc.ui.swing.JScoreComponent;
+import abc.ui.swing.JScoreElement;
+
+/**
+ * Checks the incremental layout of JScoreComponent.setTune() against the
+ * layout of the whole score, while notes are appended bar after bar to the
+ * first voice of a tune, as the live transcription does
+ * (Model.appendToScore()). Tunes of one and two voices, of 100 to 10000 notes,
+ * justified or not, are checked: the staff lines, the place and bounding box
+ * of each of their elements, and the rendition of each music element must be
+ * the same. Then the time of setTune() after each appended bar is compared to
+ * the time of the layout of the whole score by JScoreComponent.refresh().<br />
+ * The staff lines are reached by reflection, as they are private to the
+ * score.<br />
+ * <br />
+ * Usage: <code>java -Djava.awt.headless=true de.hsa.jam.evaluation.IncrementalLayoutBenchmark [appended bars]</code>
+ */
+public class IncrementalLayoutBenchmark {
+	private static final int[] SIZES = { 100, 1000, 10000 };
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(final String[] args) throws Exception {
+		OnEventDispatchThread.run(new OnEventDispatchThread.Benchmark() {
+			public void run() throws Exception {
+				benchmark(args);
+			}
+		});
+	}
+
+	private static void benchmark(String[] args) throws Exception {
+		int appends = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+
+		boolean ok = true;
+		for (int size : SIZES) {
+			for (int voices = 1; voices <= 2; voices++) {
+				for (int justified = 0; justified <= 1; justified++) {
+					Tune tune = new TuneParser().parse(generate(size / voices, size));
+					// the parser only fills the first voice
+					if (voices == 2) {
+						Tune second = new TuneParser().parse(generate(size / voices, size + 1));
+						for (Object element : second.getMusic().getVoice((byte) 1))
+							tune.getMusic().getVoice((byte) 2).addElement((MusicElement) element);
+					}
+					Voice voice = tune.getMusic().getVoice((byte) 1);
+					// the last bars of the first voice are appended one by one
+					List<Object> appended = new ArrayList<Object>(voice.subList(voice.size() / 2, voice.size()));
+					voice.setSize(voice.size() / 2);
+
+					JScoreComponent score = newScore(justified == 1);
+					score.setTune(tune);
+					// laid out again from scratch after each bar
+					JScoreComponent reference = newScore(justified == 1);
+					reference.setTune(tune);
+					int layouts = 0, mismatches = 0;
+					long incremental = 0, full = 0;
+					for (int bar = 0; bar < appends && !appended.isEmpty(); bar++) {
+						while (!appended.isEmpty()) {
+							MusicElement element = (MusicElement) appended.remove(0);
+							voice.addElement(element);
+							if (element instanceof BarLine)
+								break;
+						}
+						long t = System.nanoTime();
+						score.setTune(tune);
+						blackhole += score.getPreferredSize().width;
+						incremental += System.nanoTime() - t;
+
+						t = System.nanoTime();
+						reference.refresh();
+						blackhole += reference.getPreferredSize().width;
+						full += System.nanoTime() - t;
+
+						layouts++;
+						if (!sameLayout(tune, score, reference))
+							mismatches++;
+					}
+					ok &= mismatches == 0;
+					System.out.println("========== " + size + " notes, " + voices + " voice(s)"
+							+ (justified == 1 ? ", justified" : "") + ", " + staffLines(score).size()
+							+ " staff lines ==========");
+					System.out.println(String.format("appended bars: %d, %d mismatches %s", layouts, mismatches,
+							mismatches == 0 ? "" : "MISMATCH"));
+					report("full layout", full, layouts);
+					report("incremental", incremental, layouts);
+				}
+			}
+		}
+		System.out.println(ok ? "all incremental layouts match the full layout" : "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos, int count) {
+		System.out.println(String.format("%-20s %10.3f ms/call (%d in %.1f ms)", what, nanos / 1000000.0 / count, count,
+				nanos / 1000000.0));
+	}
+
+	private static JScoreComponent newScore(boolean justified) {
+		JScoreComponent score = new JScoreComponent();
+		score.getTemplate().setAttribute(ScoreAttribute.JUSTIFY, new Boolean(justified));
+		return score;
+	}
+
+	/**
+	 * @return true if both scores have the same staff lines, with the same
+	 *         elements at the same place, and render the music elements the
+	 *         same way
+	 */
+	private static boolean sameLayout(Tune tune, JScoreComponent score, JScoreComponent reference) throws Exception {
+		if (!score.getPreferredSize().equals(reference.getPreferredSize()))
+			return false;
+		List<Object> lines = staffLines(score), referenceLines = staffLines(reference);
+		if (lines.size() != referenceLines.size())
+			return false;
+		for (int i = 0; i < lines.size(); i++) {
+			Vector<?> elements = staffElements(lines.get(i)), referenceElements = staffElements(referenceLines.get(i));
+			if (elements.size() != referenceElements.size()
+					|| !sameBox((JScoreElement) lines.get(i), (JScoreElement) referenceLines.get(i)))
+				return false;
+			for (int j = 0; j < elements.size(); j++)
+				if (!sameBox((JScoreElement) elements.get(j), (JScoreElement) referenceElements.get(j)))
+					return false;
+		}
+		for (Iterator it = tune.getMusic().getVoices().iterator(); it.hasNext();) {
+			for (Object element : (Voice) it.next()) {
+				JScoreElement rendition = score.getRenditionElementFor((MusicElement) element);
+				JScoreElement referenceRendition = reference.getRenditionElementFor((MusicElement) element);
+				if (rendition == null ? referenceRendition != null : !sameBox(rendition, referenceRendition))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameBox(JScoreElement element, JScoreElement reference) {
+		if (reference == null || element.getClass() != reference.getClass()
+				|| !element.getBase().equals(reference.getBase()))
+			return false;
+		Rectangle2D box = element.getBoundingBox(), referenceBox = reference.getBoundingBox();
+		return box.equals(referenceBox);
+	}
+
+	/** the staff lines of the score, JTune.m_staffLines */
+	private static List<Object> staffLines(JScoreComponent score) throws Exception {
+		Object jTune = field(JScoreComponent.class, "m_jTune").get(score);
+		return new ArrayList<Object>((Vector<?>) field(jTune.getClass(), "m_staffLines").get(jTune));
+	}
+
+	/** the elements of a staff line, JStaffLine.m_staffElements */
+	private static Vector<?> staffElements(Object staffLine) throws Exception {
+		return (Vector<?>) field(staffLine.getClass(), "m_staffElements").get(staffLine);
+	}
+
+	private static Field field(Class<?> c, String name) throws NoSuchFieldException {
+		for (; c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField(name);
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				// in a super class
+			}
+		}
+		throw new NoSuchFieldException(name);
+	}
+
+	/**
+	 * a tune in D with the given number of notes, 8 eighth notes per bar, with
+	 * beamed groups, chords, tuplets, grace notes, ties and slurs
+	 */
+	private static String generate(int notes, long seed) {
+		Random random = new Random(seed);
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:1\nT:Benchmark " + notes + "\nM:4/4\nL:1/8\nK:D\n");
+		int written = 0;
+		int bar = 0;
+		while (written < notes) {
+			int inBar = 0;
+			while (inBar < 8) {
+				String p = pitches[random.nextInt(pitches.length)];
+				switch (random.nextInt(7)) {
+				case 0:
+					abc.append("\"G\"[DFA]");
+					inBar++;
+					written += 3;
+					break;
+				case 1:
+					if (inBar <= 6) {
+						abc.append("(3").append(p).append(p).append(p).append(' ');
+						inBar += 2;
+						written += 3;
+					}
+					break;
+				case 2:
+					abc.append("{g}").append(p).append(' ');
+					inBar++;
+					written += 2;
+					break;
+				case 3:
+					if (inBar <= 6) {
+						abc.append(p).append('-').append(p).append(' ');
+						inBar += 2;
+						written += 2;
+					}
+					break;
+				case 4:
+					if (inBar <= 6) {
+						abc.append('(').append(p).append(pitches[random.nextInt(pitches.length)]).append(") ");
+						inBar += 2;
+						written += 2;
+					}
+					break;
+				default:
+					abc.append(p);
+					inBar++;
+					written++;
+				}
+			}
+			abc.append(++bar % 4 == 0 ? "|\n" : "| ");
+		}
+		return abc.append("|]\n").toString();
+	}
+}
@@ -0,0 +1,233 @@
+package de.hsa.jam.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+import abc.midi.BasicPositionableMidiConverter;
+import abc.midi.MidiConverterInterface;
+import abc.notation.BarLine;
+import abc.notation.MusicElement;
+import abc.notation.Note;
+import abc.notation.TieDefinition;
+import abc.notation.Tune;
+import abc.notation.Voice;
+import abc.parser.TuneParser;
+
+/**
+ * Checks the sequence kept by the midi converter against a conversion from
+ * scratch: a tune with repeats, endings, key changes, chords, tuplets and ties
+ * across bar lines is appended bar by bar to the voice of a tune, the ties
+ * being completed as the note collector does when the next note comes, and
+ * after each bar the updated sequence must have the same events as the
+ * sequence of a new converter.<br />
+ * Then compares the time to get the sequence of a long tune when pressing play
+ * again, after appending a bar, and from scratch.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.MidiSequenceCacheBenchmark [bars] [iterations]</code>
+ */
+public class MidiSequenceCacheBenchmark {
+	private static final String HEADER = "X:1\nT:Appended\nM:4/4\nL:1/8\nK:D\n";
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(String[] args) throws Exception {
+		int bars = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		// correctness: a bar at a time, against a new converter
+		int mismatches = 0;
+		int checked = 0;
+		for (int seed = 1; seed <= 3; seed++) {
+			List<List<MusicElement>> source = bars(generate(seed, 120));
+			Tune tune = new TuneParser().parse(HEADER);
+			Voice voice = tune.getMusic().getVoice(1);
+			MidiConverterInterface converter = new BasicPositionableMidiConverter();
+			Appender appender = new Appender(voice);
+			for (List<MusicElement> bar : source) {
+				appender.append(bar);
+				Sequence cached = converter.toMidiSequence(tune);
+				if (converter.toMidiSequence(tune) != cached)
+					mismatches++;
+				if (!events(cached).equals(events(new BasicPositionableMidiConverter().toMidiSequence(tune))))
+					mismatches++;
+				checked++;
+			}
+		}
+		System.out.println(String.format("sequences compared: %d, %d mismatches %s", checked, mismatches,
+				mismatches == 0 ? "" : "MISMATCH"));
+
+		// performance: the sequence of a long tune, when play is pressed
+		List<List<MusicElement>> source = bars(generate(0, bars));
+		Tune tune = new TuneParser().parse(HEADER);
+		Appender appender = new Appender(tune.getMusic().getVoice(1));
+		MidiConverterInterface converter = new BasicPositionableMidiConverter();
+		int appended = source.size() - iterations * 2 - 10;
+		for (int i = 0; i < appended; i++)
+			appender.append(source.get(i));
+		for (int warmup = 0; warmup < 5; warmup++)
+			blackhole += new BasicPositionableMidiConverter().toMidiSequence(tune).getTickLength();
+		blackhole += converter.toMidiSequence(tune).getTickLength();
+		long t = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			blackhole += new BasicPositionableMidiConverter().toMidiSequence(tune).getTickLength();
+		report("from scratch", (System.nanoTime() - t) / iterations);
+		t = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			blackhole += converter.toMidiSequence(tune).getTickLength();
+		report("unchanged tune", (System.nanoTime() - t) / iterations);
+		long nanos = 0;
+		for (int i = 0; i < iterations * 2; i++) {
+			appender.append(source.get(appended++));
+			t = System.nanoTime();
+			blackhole += converter.toMidiSequence(tune).getTickLength();
+			nanos += System.nanoTime() - t;
+		}
+		report("bar appended", nanos / (iterations * 2));
+		System.out.println(String.format("%d bars, %d events", appended,
+				events(converter.toMidiSequence(tune)).size()));
+		System.out.println(mismatches == 0 ? "the kept sequence matches the conversion from scratch"
+				: "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos) {
+		System.out.println(String.format("%-20s %10.3f ms", what, nanos / 1000000.0));
+	}
+
+	/** the track, the tick and the bytes of each event */
+	private static List<String> events(Sequence sequence) {
+		List<String> events = new ArrayList<String>();
+		Track[] tracks = sequence.getTracks();
+		for (int t = 0; t < tracks.length; t++)
+			for (int i = 0; i < tracks[t].size(); i++) {
+				MidiEvent event = tracks[t].get(i);
+				StringBuilder s = new StringBuilder().append(t).append(' ').append(event.getTick()).append(':');
+				byte[] bytes = event.getMessage().getMessage();
+				for (int j = 0; j < event.getMessage().getLength(); j++)
+					s.append(' ').append(bytes[j]);
+				events.add(s.toString());
+			}
+		return events;
+	}
+
+	/**
+	 * the elements of the music of the tune, after its header, in bars ending
+	 * with their bar line
+	 */
+	private static List<List<MusicElement>> bars(String abc) {
+		Voice voice = new TuneParser().parse(abc).getMusic().getVoice(1);
+		int header = new TuneParser().parse(HEADER).getMusic().getVoice(1).size();
+		List<List<MusicElement>> bars = new ArrayList<List<MusicElement>>();
+		List<MusicElement> bar = new ArrayList<MusicElement>();
+		for (int i = header; i < voice.size(); i++) {
+			MusicElement element = (MusicElement) voice.elementAt(i);
+			bar.add(element);
+			if (element instanceof BarLine) {
+				bars.add(bar);
+				bar = new ArrayList<MusicElement>();
+			}
+		}
+		if (!bar.isEmpty())
+			bars.add(bar);
+		return bars;
+	}
+
+	/**
+	 * appends elements to a voice as the note collector does: a tie gets its
+	 * end when the note that ends it is appended
+	 */
+	private static class Appender {
+		private final Voice voice;
+		private Note tieStart;
+
+		Appender(Voice voice) {
+			this.voice = voice;
+		}
+
+		void append(List<MusicElement> elements) {
+			for (MusicElement element : elements) {
+				if (element instanceof Note) {
+					Note note = (Note) element;
+					boolean begins = note.isBeginningTie();
+					boolean ends = note.isEndingTie();
+					note.setTieDefinition(null);
+					if (ends && tieStart != null) {
+						tieStart.getTieDefinition().setEnd(note.getReference());
+						note.setTieDefinition(tieStart.getTieDefinition());
+						tieStart = null;
+					}
+					if (begins) {
+						TieDefinition tie = new TieDefinition();
+						tie.setStart(note.getReference());
+						note.setTieDefinition(tie);
+						tieStart = note;
+					}
+				}
+				voice.addElement(element);
+			}
+		}
+	}
+
+	/**
+	 * a tune of the given number of bars of eighth notes, in parts of 4 bars
+	 * with repeats and first and second endings, each part in its own key,
+	 * with chords, tuplets and ties, some across bar lines
+	 */
+	private static String generate(int seed, int bars) {
+		Random random = new Random(seed);
+		String[] keys = { "C", "G", "D", "A", "F", "Bb", "Em" };
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder(HEADER);
+		for (int part = 0; part * 4 < bars; part++) {
+			if (part > 0)
+				abc.append("K:").append(keys[random.nextInt(keys.length)]).append('\n');
+			abc.append("|:");
+			for (int bar = 0; bar < 4; bar++) {
+				if (bar == 3)
+					abc.append("|1 ");
+				for (int inBar = 0; inBar < 8;) {
+					String p = pitches[random.nextInt(pitches.length)];
+					switch (random.nextInt(7)) {
+					case 0:
+						abc.append("\"G\"[DFA]");
+						inBar++;
+						break;
+					case 1:
+						if (inBar <= 6) {
+							abc.append("(3").append(p).append(p).append(p).append(' ');
+							inBar += 2;
+						}
+						break;
+					case 2:
+						if (inBar <= 6) {
+							abc.append(p).append('-').append(p).append(' ');
+							inBar += 2;
+						}
+						break;
+					case 3:
+						// tied to the first note of the next bar
+						abc.append(p);
+						if (inBar == 7 && bar < 2) {
+							abc.append("-|").append(p);
+							inBar = 0;
+							bar++;
+						}
+						inBar++;
+						break;
+					default:
+						abc.append(p);
+						inBar++;
+					}
+				}
+				abc.append(bar < 3 ? "| " : ":|2 ");
+			}
+			abc.append("B8 |]\n");
+		}
+		return abc.toString();
+	}
+}
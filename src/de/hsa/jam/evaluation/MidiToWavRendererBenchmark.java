@@ -0,0 +1,198 @@
+package de.hsa.jam.evaluation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+import abc.midi.BasicMidiConverter;
+import abc.parser.TuneParser;
+import be.hogent.tarsos.midi.MidiToWavRenderer;
+
+/**
+ * Checks the batch rendering of MidiToWavRenderer against the rendering of one
+ * sequence at a time: a tune rendered by createWavFiles() with several
+ * synthesizers must give the same bytes as createWavFile(Sequence, File). A
+ * long sequence of tunes separated by silences, cut at these silences and its
+ * parts rendered at the same time, is compared with its rendering in one go,
+ * sample by sample.<br />
+ * Then compares the time to render a set of tunes one at a time and with 1 to n
+ * synthesizers, and the long sequence whole and cut, with the realtime
+ * factor.<br />
+ * <br />
+ * Usage: <code>java --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED de.hsa.jam.evaluation.MidiToWavRendererBenchmark [tunes] [iterations]</code>
+ */
+public class MidiToWavRendererBenchmark {
+	private static final int SILENCE_SECONDS = 8;
+
+	// keeps the JIT from removing the measured calls
+	static double blackhole;
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		File dir = File.createTempFile("render", "");
+		dir.delete();
+		dir.mkdirs();
+		File serial = new File(dir, "serial.wav");
+		File batch = new File(dir, "batch.wav");
+
+		Sequence[] tunes = new Sequence[count];
+		File[] files = new File[count];
+		for (int i = 0; i < count; i++) {
+			tunes[i] = new BasicMidiConverter().toMidiSequence(new TuneParser().parse(generate(i + 1, 8)));
+			files[i] = new File(dir, "tune" + i + ".wav");
+		}
+		Sequence medley = medley(tunes, 4);
+
+		// correctness: a tune, then the medley cut at its silences
+		MidiToWavRenderer renderer = new MidiToWavRenderer();
+		renderer.createWavFile(tunes[0], serial);
+		renderer.createWavFiles(new Sequence[] { tunes[0] }, new File[] { batch }, 2);
+		int mismatches = Arrays.equals(bytes(serial), bytes(batch)) ? 0 : 1;
+		System.out.println(String.format("tune rendered with 2 synthesizers: %s",
+				mismatches == 0 ? "same bytes" : "BYTES DIFFER"));
+		renderer.createWavFile(medley, serial);
+		renderer.setSplitSilence(SILENCE_SECONDS - 1);
+		renderer.createWavFiles(new Sequence[] { medley }, new File[] { batch }, 2);
+		renderer.setSplitSilence(0);
+		int[] difference = compare(bytes(serial), bytes(batch));
+		if (difference[0] < 0 || difference[1] > 1)
+			mismatches++;
+		System.out.println(String.format("medley cut at its silences: %s, %d samples differ, by at most %d",
+				difference[0] < 0 ? "LENGTHS DIFFER" : "same length", Math.max(0, difference[0]), difference[1]));
+
+		// performance
+		for (int n = 0; n < iterations; n++) {
+			long t = System.nanoTime();
+			for (int i = 0; i < count; i++)
+				new MidiToWavRenderer().createWavFile(tunes[i], files[i]);
+			long one = System.nanoTime() - t;
+			report("one at a time", one, one, seconds(files));
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				t = System.nanoTime();
+				blackhole += renderer.createWavFiles(tunes, files, threads);
+				report(threads + " synthesizer(s)", System.nanoTime() - t, one, seconds(files));
+			}
+			t = System.nanoTime();
+			renderer.createWavFile(medley, serial);
+			long whole = System.nanoTime() - t;
+			report("medley whole", whole, whole, seconds(new File[] { serial }));
+			renderer.setSplitSilence(SILENCE_SECONDS - 1);
+			t = System.nanoTime();
+			blackhole += renderer.createWavFiles(new Sequence[] { medley }, new File[] { batch }, maxThreads);
+			report("medley cut, " + maxThreads + " synth.", System.nanoTime() - t, whole, seconds(new File[] { batch }));
+			renderer.setSplitSilence(0);
+		}
+		System.out.println(mismatches == 0 ? "the batch rendering matches the rendering of one sequence"
+				: "MISMATCH, see above");
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	private static void report(String what, long nanos, long reference, double audio) {
+		System.out.println(String.format("%-25s %9.1f ms, speedup %.2f, %6.1f times realtime", what,
+				nanos / 1000000.0, reference / (double) nanos, audio / (nanos / 1000000000.0)));
+	}
+
+	/** the seconds of audio of the files, 96 kHz 24 bit stereo */
+	private static double seconds(File[] files) {
+		double seconds = 0;
+		for (File file : files)
+			seconds += (file.length() - 44) / (96000.0 * 6);
+		return seconds;
+	}
+
+	/**
+	 * the number of 24 bit samples that differ and the largest difference, -1
+	 * samples if the lengths differ
+	 */
+	private static int[] compare(byte[] a, byte[] b) {
+		if (a.length != b.length)
+			return new int[] { -1, 0 };
+		int count = 0;
+		int max = 0;
+		for (int i = 44; i + 3 <= a.length; i += 3) {
+			int x = (a[i] & 0xff) | (a[i + 1] & 0xff) << 8 | a[i + 2] << 16;
+			int y = (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | b[i + 2] << 16;
+			if (x != y) {
+				count++;
+				max = Math.max(max, Math.abs(x - y));
+			}
+		}
+		return new int[] { count, max };
+	}
+
+	/**
+	 * the given number of tunes one after the other, with SILENCE_SECONDS
+	 * between them
+	 */
+	private static Sequence medley(Sequence[] tunes, int count) throws Exception {
+		Sequence medley = new Sequence(Sequence.PPQ, tunes[0].getResolution());
+		Track track = medley.createTrack();
+		long offset = 0;
+		for (int i = 0; i < count; i++) {
+			Sequence tune = tunes[i % tunes.length];
+			for (Track source : tune.getTracks())
+				for (int e = 0; e < source.size(); e++) {
+					MidiEvent event = source.get(e);
+					// the end of track is added by the track itself
+					if (event.getMessage().getStatus() == 0xFF && event.getMessage().getMessage()[1] == 0x2F)
+						continue;
+					track.add(new MidiEvent(event.getMessage(), event.getTick() + offset));
+				}
+			// the tunes are at 120 bpm
+			offset += tune.getTickLength() + SILENCE_SECONDS * 2 * tune.getResolution();
+		}
+		return medley;
+	}
+
+	private static byte[] bytes(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	/** a tune of the given number of bars of eighth notes, with chords and ties */
+	private static String generate(int reference, int bars) {
+		Random random = new Random(reference);
+		String[] keys = { "C", "G", "D", "A", "F", "Em", "Ador" };
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:" + reference + "\nT:Tune " + reference
+				+ "\nM:4/4\nL:1/8\nQ:1/4=120\nK:" + keys[random.nextInt(keys.length)] + "\n");
+		for (int bar = 1; bar <= bars; bar++) {
+			for (int inBar = 0; inBar < 8;) {
+				String p = pitches[random.nextInt(pitches.length)];
+				switch (random.nextInt(6)) {
+				case 0:
+					abc.append("[DFA]");
+					inBar++;
+					break;
+				case 1:
+					if (inBar <= 6) {
+						abc.append(p).append('-').append(p).append(' ');
+						inBar += 2;
+					}
+					break;
+				default:
+					abc.append(p);
+					inBar++;
+				}
+			}
+			abc.append(bar % 4 == 0 ? "|\n" : "|");
+		}
+		return abc.toString();
+	}
+}
@@ -0,0 +1,220 @@
+package de.hsa.jam.evaluation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import scanner.PositionableInCharStream;
+import abc.notation.Music;
+import abc.notation.MusicElement;
+import abc.notation.MusicElementReference;
+import abc.notation.Tune;
+import abc.notation.Voice;
+import abc.parser.PositionableNote;
+import abc.parser.TuneParser;
+
+/**
+ * Checks the index of the elements of a music against the linear scan of its
+ * voices that Music.getElementAtStreamPosition() and
+ * Music.getElementByReference() used before, on generated two voice tunes of
+ * 100 to 10000 notes, then compares their speed.<br />
+ * Every offset of the abc text and the reference of every element are looked
+ * up. The index is also checked after a voice has been modified, and with a
+ * first note spanning the whole text, which must not make every lookup go
+ * back to the beginning.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.MusicIndexBenchmark [iterations]</code>
+ */
+public class MusicIndexBenchmark {
+	private static final int[] SIZES = { 100, 1000, 10000 };
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+		boolean ok = true;
+		for (int size : SIZES) {
+			String abc = generate(size);
+			Tune tune = new TuneParser().parse(abc);
+			Music music = tune.getMusic();
+			List<MusicElementReference> refs = references(music);
+			System.out.println("========== " + size + " notes, " + abc.length() + " characters, " + refs.size()
+					+ " music elements ==========");
+
+			// correctness
+			int mismatches = check(music, abc.length(), refs);
+			// replacing an element must be seen by the index
+			Voice voice = music.getVoice(1);
+			MusicElement first = (MusicElement) voice.elementAt(0);
+			voice.setElementAt(voice.elementAt(1), 0);
+			mismatches += check(music, abc.length(), refs);
+			voice.setElementAt(first, 0);
+			mismatches += check(music, abc.length(), refs);
+			// an element spanning far, as a long range element would
+			Music spanning = ((Tune) tune.clone()).getMusic();
+			for (Object element : spanning.getVoice(1))
+				if (element instanceof PositionableNote) {
+					((PositionableNote) element).setLength(abc.length());
+					break;
+				}
+			mismatches += check(spanning, abc.length(), refs);
+			ok &= mismatches == 0;
+			System.out.println(mismatches == 0 ? "index: same elements as the linear scan" : "index: " + mismatches
+					+ " MISMATCHES");
+
+			// performance
+			int n = iterations * 1000;
+			Random random = new Random(size);
+			int[] offsets = new int[n];
+			MusicElementReference[] lookedUp = new MusicElementReference[n];
+			for (int i = 0; i < n; i++) {
+				offsets[i] = random.nextInt(abc.length());
+				lookedUp[i] = refs.get(random.nextInt(refs.size()));
+			}
+
+			long t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += System.identityHashCode(linearElementAt(music, offsets[i]));
+			report("scan by offset", System.nanoTime() - t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += System.identityHashCode(music.getElementAtStreamPosition(offsets[i]));
+			report("index by offset", System.nanoTime() - t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += System.identityHashCode(spanning.getElementAtStreamPosition(offsets[i]));
+			report("index, far span", System.nanoTime() - t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += System.identityHashCode(linearElementByReference(music, lookedUp[i]));
+			report("scan by reference", System.nanoTime() - t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += System.identityHashCode(music.getElementByReference(lookedUp[i]));
+			report("index by reference", System.nanoTime() - t, n);
+
+			// a new music each time, as after each change in an editor
+			int builds = iterations;
+			t = System.nanoTime();
+			for (int i = 0; i < builds; i++) {
+				Music copy = ((Tune) tune.clone()).getMusic();
+				blackhole += System.identityHashCode(copy.getElementAtStreamPosition(offsets[i]));
+			}
+			long withIndex = System.nanoTime() - t;
+			t = System.nanoTime();
+			for (int i = 0; i < builds; i++) {
+				Music copy = ((Tune) tune.clone()).getMusic();
+				blackhole += System.identityHashCode(copy.getVoices().size());
+			}
+			report("index build", withIndex - (System.nanoTime() - t), builds);
+		}
+		System.out.println(ok ? "all lookups match the linear scan" : "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos, int count) {
+		System.out.println(String.format("%-20s %10.1f ns/call (%d in %.1f ms)", what, nanos / (double) count, count,
+				nanos / 1000000.0));
+	}
+
+	/** @return the number of lookups giving another element than the scan */
+	private static int check(Music music, int length, List<MusicElementReference> refs) {
+		int mismatches = 0;
+		for (int offset = -1; offset <= length + 1; offset++) {
+			if (music.getElementAtStreamPosition(offset) != linearElementAt(music, offset))
+				mismatches++;
+		}
+		for (MusicElementReference ref : refs) {
+			if (music.getElementByReference(ref) != linearElementByReference(music, ref))
+				mismatches++;
+		}
+		return mismatches;
+	}
+
+	/** Music.getElementAtStreamPosition() before the index */
+	private static MusicElement linearElementAt(Music music, int offset) {
+		for (Iterator it = music.getVoices().iterator(); it.hasNext();) {
+			Voice v = (Voice) it.next();
+			for (int i = 0; i < v.size(); i++) {
+				MusicElement current = (MusicElement) v.elementAt(i);
+				if (current instanceof PositionableInCharStream) {
+					PositionableInCharStream pos = (PositionableInCharStream) current;
+					if (pos.getPosition() != null && pos.getPosition().getCharactersOffset() <= offset
+							&& pos.getPosition().getCharactersOffset() + pos.getLength() >= offset)
+						return current;
+				}
+			}
+		}
+		return null;
+	}
+
+	/** Music.getElementByReference() before the index */
+	private static MusicElement linearElementByReference(Music music, MusicElementReference ref) {
+		for (Iterator it = music.getVoices().iterator(); it.hasNext();) {
+			Voice v = (Voice) it.next();
+			if (v.getVoiceNumber() != ref.getVoice())
+				continue;
+			for (Object element : v) {
+				if (((MusicElement) element).getReference().equals(ref))
+					return (MusicElement) element;
+			}
+		}
+		return null;
+	}
+
+	/** the references of the elements, and one of an element not in the music */
+	private static List<MusicElementReference> references(Music music) {
+		List<MusicElementReference> refs = new ArrayList<MusicElementReference>();
+		for (Iterator it = music.getVoices().iterator(); it.hasNext();)
+			for (Object element : (Voice) it.next())
+				refs.add(((MusicElement) element).getReference());
+		refs.add(new MusicElementReference(' ', (byte) 1, Short.MAX_VALUE, (byte) -1));
+		return refs;
+	}
+
+	/**
+	 * a tune in G with two voices sharing the given number of notes, 8 eighth
+	 * notes per bar, with chords, tuplets and grace notes
+	 */
+	private static String generate(int notes) {
+		Random random = new Random(notes);
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:1\nT:Benchmark " + notes + "\nM:4/4\nL:1/8\nV:1\nV:2\nK:G\n");
+		int written = 0;
+		int bar = 0;
+		while (written < notes) {
+			abc.append(bar % 2 == 0 ? "[V:1] " : "[V:2] ");
+			for (int inBar = 0; inBar < 8; inBar++) {
+				String p = pitches[random.nextInt(pitches.length)];
+				switch (random.nextInt(6)) {
+				case 0:
+					abc.append("\"D\"[DFA] ");
+					written += 3;
+					break;
+				case 1:
+					if (inBar <= 5) {
+						abc.append("(3").append(p).append(p).append(p).append(' ');
+						inBar++;
+						written += 3;
+					}
+					break;
+				case 2:
+					abc.append("{g}").append(p).append(' ');
+					written += 2;
+					break;
+				default:
+					abc.append(p);
+					written++;
+				}
+			}
+			abc.append(++bar % 4 == 0 ? "|\n" : "| ");
+		}
+		return abc.append("|]\n").toString();
+	}
+}
@@ -0,0 +1,263 @@
+package de.hsa.jam.evaluation;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import abc.notation.Tune;
+import abc.parser.TuneBook;
+import abc.parser.TuneParser;
+import abc.xml.Abc2xml;
+
+/**
+ * Checks the streaming MusicXML writer Abc2xml.writeAsMusicXML(Tune,
+ * OutputStream) against the DOM built by createMusicXmlDOM() and written by the
+ * transformer, on a generated tunebook with repeats, endings, key and meter
+ * changes, chords, tuplets, ties and rests: the documents must have the same
+ * bytes once the standalone attribute, which a XMLStreamWriter cannot write,
+ * is removed from the XML declaration. The files of the parallel conversion of
+ * the whole tunebook are checked the same way.<br />
+ * Then compares the time and the memory allocated by both writers, for the
+ * tunes of the book and for one long tune, and the time of the conversion of
+ * the book to files with 1 to n threads.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.MusicXmlWriterBenchmark [tunes] [iterations]</code>
+ */
+public class MusicXmlWriterBenchmark {
+	private static final int NOTES_PER_TUNE = 300;
+	private static final int LONG_TUNE_NOTES = 20000;
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(String[] args) throws Exception {
+		int tunes = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		StringBuilder abc = new StringBuilder();
+		for (int i = 1; i <= tunes; i++)
+			abc.append(generate(i, NOTES_PER_TUNE)).append('\n');
+		TuneBook book = new TuneBook(new StringReader(abc.toString()));
+		int[] refNumbers = book.getReferenceNumbers();
+		Tune[] parsed = new Tune[refNumbers.length];
+		for (int i = 0; i < refNumbers.length; i++)
+			parsed[i] = book.getTune(refNumbers[i]);
+		Tune longTune = new TuneParser().parse(generate(0, LONG_TUNE_NOTES));
+		System.out.println(String.format("%d tunes of about %d notes, one of %d notes", refNumbers.length,
+				NOTES_PER_TUNE, LONG_TUNE_NOTES));
+
+		// correctness: each tune, then the files of the parallel conversion
+		int mismatches = 0;
+		byte[][] expected = new byte[parsed.length][];
+		for (int i = 0; i < parsed.length; i++) {
+			expected[i] = normalize(dom(parsed[i]));
+			if (!Arrays.equals(expected[i], normalize(stream(parsed[i]))))
+				mismatches++;
+		}
+		if (!Arrays.equals(normalize(dom(longTune)), normalize(stream(longTune))))
+			mismatches++;
+		File directory = new File(System.getProperty("java.io.tmpdir"), "MusicXmlWriterBenchmark");
+		directory.mkdirs();
+		int threads = Runtime.getRuntime().availableProcessors();
+		File[] files = Abc2xml.writeAsMusicXML(book, directory, threads);
+		for (int i = 0; i < files.length; i++) {
+			if (!Arrays.equals(expected[i], normalize(read(files[i]))))
+				mismatches++;
+			files[i].delete();
+		}
+		System.out.println(String.format("documents: %d, %d mismatches %s", parsed.length * 2 + 1, mismatches,
+				mismatches == 0 ? "" : "MISMATCH"));
+
+		// performance of the writers, on parsed tunes
+		for (int warmup = 0; warmup < 2; warmup++) {
+			for (int i = 0; i < parsed.length; i++) {
+				blackhole += dom(parsed[i], new CountingStream());
+				blackhole += stream(parsed[i], new CountingStream());
+			}
+		}
+		long bytes = allocated();
+		long t = System.nanoTime();
+		for (int n = 0; n < iterations; n++)
+			for (int i = 0; i < parsed.length; i++)
+				blackhole += dom(parsed[i], new CountingStream());
+		report("DOM, book", System.nanoTime() - t, iterations * parsed.length, allocated() - bytes);
+		bytes = allocated();
+		t = System.nanoTime();
+		for (int n = 0; n < iterations; n++)
+			for (int i = 0; i < parsed.length; i++)
+				blackhole += stream(parsed[i], new CountingStream());
+		report("stream, book", System.nanoTime() - t, iterations * parsed.length, allocated() - bytes);
+
+		bytes = allocated();
+		t = System.nanoTime();
+		for (int n = 0; n < iterations; n++)
+			blackhole += dom(longTune, new CountingStream());
+		report("DOM, long tune", System.nanoTime() - t, iterations, allocated() - bytes);
+		bytes = allocated();
+		t = System.nanoTime();
+		for (int n = 0; n < iterations; n++)
+			blackhole += stream(longTune, new CountingStream());
+		report("stream, long tune", System.nanoTime() - t, iterations, allocated() - bytes);
+
+		// the whole book to files: parsing and writing, 1 to n threads
+		for (int n = 1; n <= threads; n *= 2) {
+			t = System.nanoTime();
+			files = Abc2xml.writeAsMusicXML(book, directory, n);
+			long nanos = System.nanoTime() - t;
+			System.out.println(String.format("book to files, %2d thread(s) %10.1f ms (%.0f tunes/s)", n,
+					nanos / 1000000.0, files.length / (nanos / 1e9)));
+			for (int i = 0; i < files.length; i++)
+				files[i].delete();
+		}
+		directory.delete();
+		System.out.println(mismatches == 0 ? "the streaming writer matches the DOM" : "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos, int count, long allocated) {
+		System.out.println(String.format("%-20s %10.3f ms/tune (%d in %.1f ms), %8.1f KB allocated/tune", what,
+				nanos / 1000000.0 / count, count, nanos / 1000000.0, allocated / 1024.0 / count));
+	}
+
+	/** the bytes allocated by the current thread so far */
+	private static long allocated() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread
+				.currentThread().getId());
+	}
+
+	private static byte[] dom(Tune tune) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		dom(tune, bytes);
+		return bytes.toByteArray();
+	}
+
+	/** Abc2xml.writeAsMusicXML(Tune, File) before the streaming writer */
+	private static int dom(Tune tune, OutputStream stream) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+		Abc2xml abc2xml = new Abc2xml();
+		abc2xml.writeAsMusicXML(abc2xml.createMusicXmlDOM(tune), writer);
+		writer.flush();
+		return stream instanceof CountingStream ? ((CountingStream) stream).count : 0;
+	}
+
+	private static byte[] stream(Tune tune) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		stream(tune, bytes);
+		return bytes.toByteArray();
+	}
+
+	private static int stream(Tune tune, OutputStream stream) throws IOException {
+		new Abc2xml().writeAsMusicXML(tune, stream);
+		return stream instanceof CountingStream ? ((CountingStream) stream).count : 0;
+	}
+
+	/** counts the bytes written, so that only the writers allocate memory */
+	private static class CountingStream extends OutputStream {
+		int count;
+
+		public void write(int b) {
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	/** the document without the standalone attribute of its declaration */
+	private static byte[] normalize(byte[] document) throws IOException {
+		return new String(document, "UTF-8").replaceFirst("^(<\\?xml[^>]*?) standalone=\"no\"", "$1").getBytes("UTF-8");
+	}
+
+	private static byte[] read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int n; (n = in.read(buffer)) > 0;)
+				bytes.write(buffer, 0, n);
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * a tune with about the given number of notes, 8 eighth notes per bar, in
+	 * parts of 4 bars with repeats and first and second endings, each part in
+	 * its own key and meter, with beamed groups, chords, tuplets, ties, dotted
+	 * notes and rests
+	 */
+	private static String generate(int reference, int notes) {
+		Random random = new Random(reference);
+		String[] keys = { "C", "G", "D", "A", "F", "Bb", "Eb", "Em", "Ador" };
+		String[] meters = { "4/4", "2/4", "6/8" };
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:" + reference + "\nT:Tune " + reference + "\nM:4/4\nL:1/8\nK:D\n");
+		int written = 0;
+		for (int part = 0; written < notes; part++) {
+			if (part > 0)
+				abc.append("K:").append(keys[random.nextInt(keys.length)]).append("\nM:")
+						.append(meters[random.nextInt(meters.length)]).append('\n');
+			abc.append("|:");
+			for (int bar = 0; bar < 4; bar++) {
+				if (bar == 3)
+					abc.append("|1 ");
+				int inBar = 0;
+				while (inBar < 8) {
+					String p = pitches[random.nextInt(pitches.length)];
+					switch (random.nextInt(8)) {
+					case 0:
+						abc.append("\"G\"[DFA]");
+						inBar++;
+						written += 3;
+						break;
+					case 1:
+						if (inBar <= 6) {
+							abc.append("(3").append(p).append(p).append(p).append(' ');
+							inBar += 2;
+							written += 3;
+						}
+						break;
+					case 2:
+						if (inBar <= 5) {
+							abc.append(p).append("3/2").append(p).append("/ ");
+							inBar += 2;
+							written += 2;
+						}
+						break;
+					case 3:
+						if (inBar <= 6) {
+							abc.append(p).append('-').append(p).append(' ');
+							inBar += 2;
+							written += 2;
+						}
+						break;
+					case 4:
+						if (inBar <= 6) {
+							abc.append("z2 ");
+							inBar += 2;
+						}
+						break;
+					default:
+						abc.append(p);
+						inBar++;
+						written++;
+					}
+				}
+				abc.append(bar < 3 ? "| " : ":|2 ");
+			}
+			abc.append("B8 |]\n");
+			written++;
+		}
+		return abc.toString();
+	}
+}
@@ -0,0 +1,44 @@
+package de.hsa.jam.evaluation;
+
+import java.lang.reflect.InvocationTargetException;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs a benchmark of the score on the event dispatch thread, where jAM lays
+ * out and draws the score (JScoreComponent and the score tile cache are
+ * confined to it), and waits for it to end.
+ */
+class OnEventDispatchThread {
+	/** a benchmark, run on the event dispatch thread */
+	interface Benchmark {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Runs the given benchmark on the event dispatch thread and waits for it
+	 * to end.
+	 * 
+	 * @throws Exception
+	 *             thrown by the benchmark
+	 */
+	static void run(final Benchmark benchmark) throws Exception {
+		final Exception[] thrown = new Exception[1];
+		try {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					try {
+						benchmark.run();
+					} catch (Exception e) {
+						thrown[0] = e;
+					}
+				}
+			});
+		} catch (InvocationTargetException e) {
+			// an error of the benchmark
+			throw new RuntimeException(e.getCause());
+		}
+		if (thrown[0] != null)
+			throw thrown[0];
+	}
+}
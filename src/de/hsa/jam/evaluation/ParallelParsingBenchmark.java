@@ -0,0 +1,242 @@
+package de.hsa.jam.evaluation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import scanner.InvalidCharacterEvent;
+import scanner.TokenEvent;
+import abc.notation.Tune;
+import abc.parser.AbcFileParser;
+import abc.parser.AbcFileParserListenerInterface;
+import abc.parser.AbcVersion;
+import abc.parser.InvalidTokenEvent;
+import abc.parser.TuneBook;
+import abc.xml.Abc2xml;
+
+/**
+ * Checks the parsing of an abc file with several threads,
+ * AbcFileParser.parseFile(Reader, int), against the parsing in one go on a
+ * generated file of some hundred tunes with comments between them and invalid
+ * characters in some of them: the listeners must receive the same events in
+ * the same order, with the same token and character positions, and the tunes
+ * must give the same MusicXML. The tunebook built with several threads must
+ * hold the same tunes.<br />
+ * Then compares the time to parse the file in one go and with 1 to n threads.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.ParallelParsingBenchmark [tunes] [iterations]</code>
+ */
+public class ParallelParsingBenchmark {
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(String[] args) throws Exception {
+		int tunes = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+
+		StringBuilder builder = new StringBuilder("%abc-2.0\n% generated tunebook\n\n");
+		for (int i = 1; i <= tunes; i++) {
+			if (i % 10 == 0)
+				builder.append("% part ").append(i / 10).append("\n\n");
+			builder.append(generate(i)).append('\n');
+		}
+		String abc = builder.toString();
+		System.out.println(String.format("%d tunes, %.1f KB, %d processor(s)", tunes, abc.length() / 1024.0,
+				maxThreads));
+
+		// correctness: the events of the parser, then the tunebook
+		List<String> expected = events(abc, 0);
+		int mismatches = 0;
+		for (int n = 1; n <= Math.max(4, maxThreads); n *= 2)
+			if (!expected.equals(events(abc, n))) {
+				mismatches++;
+				System.out.println(n + " thread(s): " + firstDifference(expected, events(abc, n)));
+			}
+		TuneBook book = new TuneBook(new StringReader(abc));
+		TuneBook parallelBook = new TuneBook(new StringReader(abc), null, AbcVersion.v1_6, Math.max(4, maxThreads));
+		int[] refNumbers = book.getReferenceNumbers();
+		if (!Arrays.equals(refNumbers, parallelBook.getReferenceNumbers()))
+			mismatches++;
+		for (int i = 0; i < refNumbers.length; i++)
+			if (!book.getTuneNotation(refNumbers[i]).equals(parallelBook.getTuneNotation(refNumbers[i]))
+					|| !String.valueOf(book.getTuneHeader(refNumbers[i])).equals(
+							String.valueOf(parallelBook.getTuneHeader(refNumbers[i]))))
+				mismatches++;
+		int invalid = 0;
+		for (String event : expected)
+			if (event.startsWith("invalid"))
+				invalid++;
+		System.out.println(String.format("events: %d (%d invalid tokens or characters), tunes in the book: %d,"
+				+ " %d mismatches %s", expected.size(), invalid, refNumbers.length, mismatches, mismatches == 0 ? ""
+				: "MISMATCH"));
+
+		// performance: the whole file to tunes
+		for (int warmup = 0; warmup < 2; warmup++) {
+			blackhole += parse(abc, 0);
+			blackhole += parse(abc, maxThreads);
+		}
+		long t = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			blackhole += parse(abc, 0);
+		long sequential = (System.nanoTime() - t) / iterations;
+		report("one go", sequential, sequential);
+		for (int n = 1; n <= maxThreads; n *= 2) {
+			t = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				blackhole += parse(abc, n);
+			report(n + " thread(s)", (System.nanoTime() - t) / iterations, sequential);
+		}
+		System.out.println(mismatches == 0 ? "the parallel parsing matches the parsing in one go"
+				: "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos, long sequential) {
+		System.out.println(String.format("%-20s %10.1f ms, speedup %.2f", what, nanos / 1000000.0, sequential
+				/ (double) nanos));
+	}
+
+	/** parses the file in one go if threads is 0, and counts the tunes */
+	private static int parse(String abc, int threads) {
+		final int[] count = new int[1];
+		AbcFileParser parser = new AbcFileParser();
+		parser.addListener(new Listener() {
+			public void tuneEnd(Tune tune) {
+				count[0]++;
+			}
+		});
+		if (threads == 0)
+			parser.parseFile(new StringReader(abc));
+		else
+			parser.parseFile(new StringReader(abc), threads);
+		return count[0];
+	}
+
+	/** the events of the parser, with the positions and the tunes as MusicXML */
+	private static List<String> events(String abc, int threads) {
+		final List<String> events = new ArrayList<String>();
+		AbcFileParser parser = new AbcFileParser();
+		parser.addListener(new Listener() {
+			public void fileBegin() {
+				events.add("fileBegin");
+			}
+
+			public void fileEnd() {
+				events.add("fileEnd");
+			}
+
+			public void tuneBegin() {
+				events.add("tuneBegin");
+			}
+
+			public void tuneEnd(Tune tune) {
+				events.add("tuneEnd " + musicXml(tune));
+			}
+
+			public void validToken(TokenEvent event) {
+				events.add("validToken " + event.getToken().getValue() + event.getToken().getPosition());
+			}
+
+			public void invalidToken(InvalidTokenEvent event) {
+				events.add("invalidToken " + (event.getToken() != null ? event.getToken().getValue() : "")
+						+ event.getExpectedTokenType() + event.getPosition());
+			}
+
+			public void invalidCharacter(InvalidCharacterEvent event) {
+				events.add("invalidCharacter " + event.getCharacter() + event.getPosition());
+			}
+
+			public void lineProcessed(String line) {
+				events.add("line " + line);
+			}
+		});
+		if (threads == 0)
+			parser.parseFile(new StringReader(abc));
+		else
+			parser.parseFile(new StringReader(abc), threads);
+		return events;
+	}
+
+	private static String firstDifference(List<String> expected, List<String> actual) {
+		for (int i = 0; i < Math.min(expected.size(), actual.size()); i++)
+			if (!expected.get(i).equals(actual.get(i)))
+				return "event " + i + ": expected [" + expected.get(i) + "] but was [" + actual.get(i) + "]";
+		return "expected " + expected.size() + " events but was " + actual.size();
+	}
+
+	private static String musicXml(Tune tune) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			new Abc2xml().writeAsMusicXML(tune, bytes);
+			return bytes.toString("UTF-8");
+		} catch (Exception e) {
+			return e.toString();
+		}
+	}
+
+	private static class Listener implements AbcFileParserListenerInterface {
+		public void fileBegin() {
+		}
+
+		public void fileEnd() {
+		}
+
+		public void lineProcessed(String line) {
+		}
+
+		public void tuneBegin() {
+		}
+
+		public void tuneEnd(Tune tune) {
+		}
+
+		public void validToken(TokenEvent event) {
+		}
+
+		public void invalidToken(InvalidTokenEvent event) {
+		}
+
+		public void invalidCharacter(InvalidCharacterEvent event) {
+		}
+	}
+
+	/**
+	 * a tune of 16 bars of eighth notes, chords and ties, with an invalid
+	 * character in one tune out of seven
+	 */
+	private static String generate(int reference) {
+		Random random = new Random(reference);
+		String[] keys = { "C", "G", "D", "A", "F", "Em", "Ador" };
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:" + reference + "\nT:Tune " + reference + "\nC:Composer "
+				+ reference % 97 + "\nM:4/4\nL:1/8\nK:" + keys[random.nextInt(keys.length)] + "\n");
+		for (int bar = 1; bar <= 16; bar++) {
+			for (int inBar = 0; inBar < 8;) {
+				String p = pitches[random.nextInt(pitches.length)];
+				switch (random.nextInt(6)) {
+				case 0:
+					abc.append("\"G\"[DFA]");
+					inBar++;
+					break;
+				case 1:
+					if (inBar <= 6) {
+						abc.append(p).append('-').append(p).append(' ');
+						inBar += 2;
+					}
+					break;
+				default:
+					abc.append(p);
+					inBar++;
+				}
+			}
+			if (reference % 7 == 0 && bar == 5)
+				abc.append('#');
+			abc.append(bar % 4 == 0 ? "|\n" : "|");
+		}
+		return abc.toString();
+	}
+}
@@ -0,0 +1,609 @@
+package de.hsa.jam.evaluation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import abc.notation.MusicElement;
+import de.hsa.jam.jAM;
+import de.hsa.jam.audio.AudioFloatConverter;
+import de.hsa.jam.audio.collector.CollectorModel;
+import de.hsa.jam.audio.collector.NoteCollectorWorker;
+
+/**
+ * Evaluates the system with every combination of pitch detection algorithm, buffer size and buffer overlap
+ * (YIN/MPM x 512/1024/2048 x 0/10/25/50/75%) on a corpus of reference melodies.<br />
+ * <br />
+ * Every reference melody is decoded only once into memory. Its combinations then run in parallel on a
+ * ForkJoinPool: each task pushes the buffers directly into its own NoteCollectorWorker (no dispatcher,
+ * no queue, no collector thread) and scores the transcription with a {@link TranscriptionScore}.<br />
+ * <br />
+ * The corpus is a directory with a wave file and a properties file of the same name for each reference melody,
+ * the keys are the columns of the Referenzmelodie table of the database evaluation ({@link Evaluator}):
+ * <pre>
+ * referenznotenstring = 60,4, 62,4, 64,8, 0,4   (midiKey and length in 16th, 0 for rests)
+ * BPM = 80
+ * Tonart = C
+ * Taktart = 4/4
+ * transponierend = 0
+ * Mic = Shure SM58
+ * instrument = Flute
+ * </pre>
+ * Usage: <code>java de.hsa.jam.evaluation.ParameterSweep [options] [corpusDir]</code>
+ * <pre>
+ * -threads n         parallelism of the pool (default: number of cores)
+ * -pda YIN,MPM       pitch detection algorithms
+ * -chunks 512,1024   buffer sizes in samples
+ * -overlaps 0,50     buffer overlaps in percent
+ * -fft               YIN / MPM via FFT
+ * </pre>
+ * The default corpus is {@link #DEFAULT_CORPUS}.
+ */
+public class ParameterSweep {
+	/**
+	 * where the database evaluation wrote the wave files of the reference melodies
+	 */
+	public static final String DEFAULT_CORPUS = jAM.HOME_PATH + "/Desktop/evalFiles";
+
+	private String[] pdas = { "YIN", "MPM" };
+	private int[] chunks = { 512, 1024, 2048 };
+	private int[] overlaps = { 0, 10, 25, 50, 75 };
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean fft = false;
+
+	public void setPDAs(String[] pdas) {
+		this.pdas = pdas;
+	}
+
+	public void setChunks(int[] chunks) {
+		this.chunks = chunks;
+	}
+
+	/**
+	 * @param overlaps - in percent of the buffer size
+	 */
+	public void setOverlaps(int[] overlaps) {
+		this.overlaps = overlaps;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setFFT(boolean fft) {
+		this.fft = fft;
+	}
+
+	/**
+	 * one reference melody of the corpus: the metadata is read at once, the samples by {@link #decode()}
+	 */
+	public static class ReferenceMelody {
+		private final File file;
+		private final String name, tonart, taktart, mic, instrument;
+		private final int bpm, transponierend;
+		private final Vector<Integer> refMelody = new Vector<Integer>();
+		private final float sampleRate;
+		private final double seconds;
+
+		/**
+		 * @param wav - the wave file, the properties file must have the same name with .properties
+		 */
+		public ReferenceMelody(File wav) throws IOException, UnsupportedAudioFileException {
+			this.file = wav;
+			String base = wav.getName().substring(0, wav.getName().lastIndexOf('.'));
+			this.name = base;
+
+			Properties p = new Properties();
+			InputStream in = new FileInputStream(new File(wav.getParentFile(), base + ".properties"));
+			try {
+				p.load(in);
+			} finally {
+				in.close();
+			}
+
+			String refstring = p.getProperty("referenznotenstring");
+			if (refstring == null)
+				throw new IOException("no referenznotenstring for " + wav);
+			String[] ref = refstring.split(",");
+			for (int i = 0; i < ref.length; i++) {
+				refMelody.add(Integer.parseInt(ref[i++].trim()));
+				refMelody.add(Integer.parseInt(ref[i].trim()));
+			}
+
+			bpm = Integer.parseInt(p.getProperty("BPM", "60").trim());
+			tonart = p.getProperty("Tonart", "C").trim();
+			taktart = p.getProperty("Taktart", "4/4").trim();
+			transponierend = Integer.parseInt(p.getProperty("transponierend", "0").trim());
+			mic = p.getProperty("Mic", "");
+			instrument = p.getProperty("instrument", "");
+
+			AudioFileFormat format = AudioSystem.getAudioFileFormat(wav);
+			sampleRate = format.getFormat().getSampleRate();
+			seconds = format.getFrameLength() / format.getFormat().getFrameRate();
+		}
+
+		/**
+		 * reads and converts the whole file, several channels get mixed down to mono
+		 */
+		public float[] decode() throws IOException, UnsupportedAudioFileException {
+			AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+			try {
+				AudioFormat format = stream.getFormat();
+				AudioFloatConverter converter = AudioFloatConverter.getConverter(format);
+				if (converter == null)
+					throw new UnsupportedAudioFileException("unsupported format " + format + ": " + file);
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[64 * 1024];
+				int read;
+				while ((read = stream.read(buffer)) != -1)
+					bytes.write(buffer, 0, read);
+				byte[] data = bytes.toByteArray();
+
+				int channels = format.getChannels();
+				int frames = data.length / format.getFrameSize();
+				float[] interleaved = new float[frames * channels];
+				converter.toFloatArray(data, interleaved);
+				if (channels == 1)
+					return interleaved;
+
+				float[] samples = new float[frames];
+				for (int i = 0; i < frames; i++) {
+					float sum = 0;
+					for (int c = 0; c < channels; c++)
+						sum += interleaved[i * channels + c];
+					samples[i] = sum / channels;
+				}
+				return samples;
+			} finally {
+				stream.close();
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getInstrument() {
+			return instrument;
+		}
+
+		public String getMic() {
+			return mic;
+		}
+
+		public Vector<Integer> getRefMelody() {
+			return refMelody;
+		}
+
+		public double getSeconds() {
+			return seconds;
+		}
+	}
+
+	/**
+	 * result of one melody with one combination
+	 */
+	public static class Run {
+		private final ReferenceMelody melody;
+		private final String pda;
+		private final int chunk, overlapPercentage;
+		private TranscriptionScore score;
+		private String abcNotes = "";
+		private long millis;
+		private Exception error;
+
+		private Run(ReferenceMelody melody, String pda, int chunk, int overlapPercentage) {
+			this.melody = melody;
+			this.pda = pda;
+			this.chunk = chunk;
+			this.overlapPercentage = overlapPercentage;
+		}
+
+		public ReferenceMelody getMelody() {
+			return melody;
+		}
+
+		public String getPDA() {
+			return pda;
+		}
+
+		public int getChunk() {
+			return chunk;
+		}
+
+		public int getOverlapPercentage() {
+			return overlapPercentage;
+		}
+
+		/**
+		 * @return the score or null if the run failed
+		 */
+		public TranscriptionScore getScore() {
+			return score;
+		}
+
+		public String getAbcNotes() {
+			return abcNotes;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public Exception getError() {
+			return error;
+		}
+
+		/**
+		 * @return Nn in percent, 0 if nothing was detected or the run failed
+		 */
+		public float getNn() {
+			return score == null || Float.isNaN(score.getNn()) ? 0 : score.getNn();
+		}
+
+		/**
+		 * @return F in percent, 0 if nothing was detected or the run failed
+		 */
+		public float getF() {
+			return score == null || Float.isNaN(score.getF()) ? 0 : score.getF();
+		}
+
+		String getParameters() {
+			return pda + "\t\t" + chunk + "\t\t" + overlapPercentage + "%";
+		}
+	}
+
+	/**
+	 * Runs all combinations on all melodies.
+	 *
+	 * @return the runs in the order melody, PDA, chunk, overlap
+	 */
+	public List<Run> sweep(List<ReferenceMelody> melodies) {
+		final List<MelodyTask> tasks = new ArrayList<MelodyTask>();
+		for (ReferenceMelody melody : melodies)
+			tasks.add(new MelodyTask(melody));
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		List<Run> runs = new ArrayList<Run>();
+		for (MelodyTask task : tasks)
+			runs.addAll(task.join());
+		return runs;
+	}
+
+	/**
+	 * decodes one melody and forks its combinations, the samples are shared (read only) by the combinations
+	 */
+	private class MelodyTask extends RecursiveTask<List<Run>> {
+		private static final long serialVersionUID = 1L;
+		private final ReferenceMelody melody;
+
+		MelodyTask(ReferenceMelody melody) {
+			this.melody = melody;
+		}
+
+		protected List<Run> compute() {
+			List<Run> runs = new ArrayList<Run>();
+			float[] samples;
+			try {
+				samples = melody.decode();
+			} catch (Exception e) {
+				for (String pda : pdas)
+					for (int chunk : chunks)
+						for (int overlap : overlaps) {
+							Run run = new Run(melody, pda, chunk, overlap);
+							run.error = e;
+							runs.add(run);
+						}
+				return runs;
+			}
+
+			List<CombinationTask> combinations = new ArrayList<CombinationTask>();
+			for (String pda : pdas)
+				for (int chunk : chunks)
+					for (int overlap : overlaps)
+						combinations.add(new CombinationTask(new Run(melody, pda, chunk, overlap), samples));
+			invokeAll(combinations);
+
+			for (CombinationTask task : combinations)
+				runs.add(task.join());
+			return runs;
+		}
+	}
+
+	private class CombinationTask extends RecursiveTask<Run> {
+		private static final long serialVersionUID = 1L;
+		private final Run run;
+		private final float[] samples;
+
+		CombinationTask(Run run, float[] samples) {
+			this.run = run;
+			this.samples = samples;
+		}
+
+		protected Run compute() {
+			long start = System.currentTimeMillis();
+			try {
+				transcribe(run, samples);
+			} catch (Exception e) {
+				run.error = e;
+			}
+			run.millis = System.currentTimeMillis() - start;
+			return run;
+		}
+	}
+
+	/**
+	 * transcribes the samples with the parameters of the run in the calling thread and scores the result
+	 */
+	private void transcribe(Run run, float[] samples) {
+		ReferenceMelody melody = run.melody;
+		int chunk = run.chunk;
+		int overlap = chunk * run.overlapPercentage / 100;
+
+		NoteCollectorWorker collector = new NoteCollectorWorker(new SweepModel(melody.transponierend), null,
+				melody.sampleRate, chunk, overlap, melody.bpm, run.pda);
+		collector.setFFT(fft);
+		collector.setTonart(Math.max(0, NoteCollectorWorker.getTonartIndex(melody.tonart.replace(" bass", ""))));
+		String[] meter = melody.taktart.split("/");
+		collector.setTaktart(Integer.parseInt(meter[0].trim()), Integer.parseInt(meter[1].trim()));
+
+		// die buffer wie der AudioDispatcher: erster buffer komplett, dann jeweils um (chunk - overlap) weiter
+		float[] buffer = new float[chunk];
+		int step = chunk - overlap;
+		for (int start = 0; start == 0 || start + overlap < samples.length; start += step) {
+			int length = Math.min(chunk, samples.length - start);
+			System.arraycopy(samples, start, buffer, 0, length);
+			Arrays.fill(buffer, length, chunk, 0);
+			collector.process(buffer);
+		}
+
+		run.abcNotes = collector.getAbcNotes();
+		run.score = new TranscriptionScore(melody.refMelody, collector.finish());
+	}
+
+	/**
+	 * the model of one run: evaluation mode, no views, no score
+	 */
+	private static class SweepModel implements CollectorModel {
+		private final int transposeRecIndex;
+
+		SweepModel(int transposeRecIndex) {
+			this.transposeRecIndex = transposeRecIndex;
+		}
+
+		public boolean isEvaluating() {
+			return true;
+		}
+
+		public boolean plottingSelected() {
+			return false;
+		}
+
+		public int getTransposeRecIndex() {
+			return transposeRecIndex;
+		}
+
+		public void appendToScore(String notesDelta, Vector<MusicElement> elements) {
+		}
+
+		public void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+		}
+
+		public void initProcessing(String dummy) {
+		}
+	}
+
+	/**
+	 * @return the reference melodies of the corpus: every wave file with a properties file
+	 */
+	public static List<ReferenceMelody> loadCorpus(File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null)
+			throw new IOException("not a directory: " + dir);
+		Arrays.sort(files);
+
+		List<ReferenceMelody> melodies = new ArrayList<ReferenceMelody>();
+		for (File f : files) {
+			String name = f.getName();
+			if (!name.toLowerCase().endsWith(".wav"))
+				continue;
+			if (!new File(dir, name.substring(0, name.length() - 4) + ".properties").isFile()) {
+				System.err.println("no reference for " + f + ", skipped");
+				continue;
+			}
+			try {
+				melodies.add(new ReferenceMelody(f));
+			} catch (Exception e) {
+				System.err.println("could not read " + f + ": " + e);
+			}
+		}
+		return melodies;
+	}
+
+	private static String format(float f) {
+		return String.format("%.4g", f);
+	}
+
+	/**
+	 * the results per melody, per PDA and instrument and the average per combination
+	 */
+	public static String report(List<Run> runs) {
+		StringBuilder s = new StringBuilder();
+
+		// ----- pro Zeile (melodie)
+		Map<ReferenceMelody, List<Run>> perMelody = new LinkedHashMap<ReferenceMelody, List<Run>>();
+		for (Run run : runs) {
+			if (!perMelody.containsKey(run.melody))
+				perMelody.put(run.melody, new ArrayList<Run>());
+			perMelody.get(run.melody).add(run);
+		}
+
+		Map<String, List<Float>> bestPerPDA = new LinkedHashMap<String, List<Float>>();
+		for (ReferenceMelody melody : perMelody.keySet()) {
+			List<Run> melodyRuns = perMelody.get(melody);
+			s.append("TITEL: ").append(melody.name).append(" Mic: ").append(melody.mic).append(" INSTRUMENT: ")
+					.append(melody.instrument).append("\n");
+			s.append("PDA:\t\tBufferSize:\tBufferOverlap:\tNn:\t\tF:\n");
+
+			Map<String, Run> best = new LinkedHashMap<String, Run>();
+			for (Run run : melodyRuns) {
+				if (run.error != null) {
+					s.append(run.getParameters()).append("\t\tFEHLER: ").append(run.error).append("\n");
+					continue;
+				}
+				s.append(run.getParameters()).append("\t\t").append(format(run.getNn())).append("%\t\t")
+						.append(format(run.getF())).append("%\n");
+				if (!best.containsKey(run.pda) || run.getNn() > best.get(run.pda).getNn())
+					best.put(run.pda, run);
+			}
+			for (Run run : best.values()) {
+				s.append("Beste Noten-Erkennungsrate mit ").append(run.pda).append(": ").append(format(run.getNn()))
+						.append("% mit Parameter: ").append(run.chunk).append(" / ").append(run.overlapPercentage)
+						.append("%\n").append(run.abcNotes).append("\n");
+				if (!bestPerPDA.containsKey(run.pda))
+					bestPerPDA.put(run.pda, new ArrayList<Float>());
+				bestPerPDA.get(run.pda).add(run.getNn());
+			}
+			s.append("\n");
+		}
+
+		// ----- pro PDA und Instrument
+		Map<String, float[]> perPDA = new LinkedHashMap<String, float[]>(); // sum Nn, sum F, count
+		Map<String, float[]> perInstrument = new LinkedHashMap<String, float[]>();
+		Map<String, float[]> perCombination = new LinkedHashMap<String, float[]>();
+		for (Run run : runs) {
+			if (run.error != null)
+				continue;
+			add(perPDA, run.pda, run);
+			add(perInstrument, run.pda + " " + run.melody.instrument, run);
+			add(perCombination, run.getParameters(), run);
+		}
+
+		s.append("----- Durchschnitt pro PDA: -----\n");
+		for (String pda : perPDA.keySet()) {
+			float[] v = perPDA.get(pda);
+			float bestSum = 0;
+			List<Float> best = bestPerPDA.get(pda);
+			for (float f : best)
+				bestSum += f;
+			s.append(pda).append(": Nn: ").append(format(v[0] / v[2])).append("% F: ").append(format(v[1] / v[2]))
+					.append("% Beste pro Melodie: ").append(format(bestSum / best.size())).append("%\n");
+		}
+
+		s.append("\n----- Durchschnitt pro Instrument: -----\n");
+		for (String key : perInstrument.keySet()) {
+			float[] v = perInstrument.get(key);
+			s.append(key).append(": Nn: ").append(format(v[0] / v[2])).append("% F: ").append(format(v[1] / v[2]))
+					.append("%\n");
+		}
+
+		s.append("\n----- Durchschnitt pro Parameter (beste zuerst): -----\n");
+		s.append("PDA:\t\tBufferSize:\tBufferOverlap:\tNn:\t\tF:\n");
+		List<Map.Entry<String, float[]>> combinations = new ArrayList<Map.Entry<String, float[]>>(perCombination.entrySet());
+		Collections.sort(combinations, new Comparator<Map.Entry<String, float[]>>() {
+			public int compare(Map.Entry<String, float[]> a, Map.Entry<String, float[]> b) {
+				return Float.compare(b.getValue()[0] / b.getValue()[2], a.getValue()[0] / a.getValue()[2]);
+			}
+		});
+		for (Map.Entry<String, float[]> e : combinations) {
+			float[] v = e.getValue();
+			s.append(e.getKey()).append("\t\t").append(format(v[0] / v[2])).append("%\t\t").append(format(v[1] / v[2]))
+					.append("%\n");
+		}
+		return s.toString();
+	}
+
+	private static void add(Map<String, float[]> sums, String key, Run run) {
+		float[] v = sums.get(key);
+		if (v == null)
+			sums.put(key, v = new float[3]);
+		v[0] += run.getNn();
+		v[1] += run.getF();
+		v[2]++;
+	}
+
+	private static int[] parseInts(String s) {
+		String[] parts = s.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+
+	public static void main(String[] args) throws Exception {
+		jAM.EVALUATING = true;
+
+		ParameterSweep sweep = new ParameterSweep();
+		File corpus = new File(DEFAULT_CORPUS);
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads"))
+				sweep.setThreads(threads = Integer.parseInt(args[++i]));
+			else if (args[i].equals("-pda"))
+				sweep.setPDAs(args[++i].split(","));
+			else if (args[i].equals("-chunks"))
+				sweep.setChunks(parseInts(args[++i]));
+			else if (args[i].equals("-overlaps"))
+				sweep.setOverlaps(parseInts(args[++i]));
+			else if (args[i].equals("-fft"))
+				sweep.setFFT(true);
+			else if (args[i].startsWith("-")) {
+				System.err.println("usage: ParameterSweep [-threads n] [-pda YIN,MPM] [-chunks 512,1024,2048] "
+						+ "[-overlaps 0,10,25,50,75] [-fft] [corpusDir]");
+				System.exit(1);
+			} else
+				corpus = new File(args[i]);
+		}
+
+		List<ReferenceMelody> melodies = loadCorpus(corpus);
+		if (melodies.isEmpty()) {
+			System.err.println("no reference melodies in " + corpus);
+			System.exit(1);
+		}
+
+		long start = System.currentTimeMillis();
+		List<Run> runs = sweep.sweep(melodies);
+		double wallSeconds = (System.currentTimeMillis() - start) / 1000.0;
+
+		double audioSeconds = 0;
+		for (Run run : runs)
+			audioSeconds += run.melody.seconds;
+
+		System.out.println(report(runs));
+		System.out.println(String.format("%d melodies, %d runs in %.2fs with %d threads: %.2f runs/s, %.1fx realtime",
+				melodies.size(), runs.size(), wallSeconds, threads, runs.size() / wallSeconds, audioSeconds / wallSeconds));
+	}
+}
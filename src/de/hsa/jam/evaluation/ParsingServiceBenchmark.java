@@ -0,0 +1,160 @@
+package de.hsa.jam.evaluation;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import abc.notation.Tune;
+import abc.parser.AsynchronousTuneParser;
+import abc.parser.ParsingService;
+import abc.parser.TuneParser;
+import abc.parser.TuneParserAdapter;
+import abc.xml.Abc2xml;
+
+/**
+ * Checks the ParsingService, that parses the tunes of the editors in the
+ * background: a tune typed note by note must be parsed a few times only, the
+ * last tune delivered must be the one of the whole text, as parsed directly,
+ * and the notations queued by an AsynchronousTuneParser must all be delivered,
+ * in order.<br />
+ * Then compares the time the typing thread spends per key stroke with the
+ * time of the synchronous parsing it replaces, and measures how soon a long
+ * parsing in progress gives way to a new text.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.ParsingServiceBenchmark [notes] [iterations]</code>
+ */
+public class ParsingServiceBenchmark {
+	private static final int TYPING_DELAY = 50;
+	private static final int LONG_TUNE_NOTES = 40000;
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(String[] args) throws Exception {
+		int notes = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		ParsingService service = ParsingService.getInstance();
+
+		// correctness: typing a tune, one key stroke per millisecond
+		String text = generate(1, notes);
+		int header = text.indexOf("K:");
+		header = text.indexOf('\n', header) + 1;
+		final List<Tune> delivered = Collections.synchronizedList(new ArrayList<Tune>());
+		TuneParser parser = new TuneParser();
+		parser.addListener(new TuneParserAdapter() {
+			public void tuneEnd(Tune tune) {
+				delivered.add(tune);
+			}
+		});
+		int strokes = 0;
+		for (int i = header; i <= text.length(); i += 3, strokes++) {
+			service.parse(parser, text.substring(0, i), TYPING_DELAY);
+			Thread.sleep(1);
+		}
+		service.parse(parser, text, TYPING_DELAY);
+		waitFor(service, parser);
+		int mismatches = 0;
+		if (delivered.isEmpty()
+				|| !musicXml(delivered.get(delivered.size() - 1)).equals(musicXml(new TuneParser().parse(text))))
+			mismatches++;
+		System.out.println(String.format("%d key strokes, %d tunes delivered", strokes + 1, delivered.size()));
+
+		// the queue of an asynchronous parser keeps every notation
+		final List<Tune> queued = Collections.synchronizedList(new ArrayList<Tune>());
+		AsynchronousTuneParser asynchronous = new AsynchronousTuneParser();
+		asynchronous.addListener(new TuneParserAdapter() {
+			public void tuneEnd(Tune tune) {
+				queued.add(tune);
+			}
+		});
+		for (int i = 1; i <= 5; i++)
+			if (asynchronous.parse(generate(i, 50)) != null)
+				mismatches++;
+		waitFor(service, asynchronous);
+		if (queued.size() != 5)
+			mismatches++;
+		else
+			for (int i = 0; i < 5; i++)
+				if (queued.get(i).getReferenceNumber() != i + 1)
+					mismatches++;
+		System.out.println(String.format("queued notations delivered: %d of 5, %d mismatches %s", queued.size(),
+				mismatches, mismatches == 0 ? "" : "MISMATCH"));
+
+		// performance: time on the typing thread per key stroke
+		TuneParser direct = new TuneParser();
+		for (int warmup = 0; warmup < 20; warmup++)
+			blackhole += direct.parse(text).getMusic().getVoice(1).size();
+		long t = System.nanoTime();
+		for (int i = 0; i < iterations * 10; i++)
+			blackhole += direct.parse(text).getMusic().getVoice(1).size();
+		report("synchronous parse", (System.nanoTime() - t) / (iterations * 10));
+		t = System.nanoTime();
+		for (int i = 0; i < iterations * 10; i++)
+			service.parse(parser, text, TYPING_DELAY);
+		report("submit to service", (System.nanoTime() - t) / (iterations * 10));
+		waitFor(service, parser);
+
+		// cancellation: a long parsing in progress gives way to a short text
+		String longTune = generate(2, LONG_TUNE_NOTES);
+		for (int n = 0; n < iterations; n++) {
+			t = System.nanoTime();
+			direct.parse(longTune);
+			long full = System.nanoTime() - t;
+			delivered.clear();
+			service.parse(parser, longTune, 0);
+			Thread.sleep(full / 4000000);
+			t = System.nanoTime();
+			service.parse(parser, text, 0);
+			while (delivered.isEmpty())
+				Thread.sleep(1);
+			long latency = System.nanoTime() - t;
+			waitFor(service, parser);
+			if (delivered.size() != 1 || delivered.get(0).getMusic().getVoice(1).size() > notes * 4)
+				mismatches++;
+			System.out.println(String.format("long tune %10.1f ms, new text delivered after %8.1f ms, %d tune(s)"
+					+ " delivered", full / 1000000.0, latency / 1000000.0, delivered.size()));
+		}
+		System.out.println(mismatches == 0 ? "the service delivers the latest text only" : "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos) {
+		System.out.println(String.format("%-20s %10.3f ms", what, nanos / 1000000.0));
+	}
+
+	private static void waitFor(ParsingService service, TuneParser parser) throws InterruptedException {
+		while (service.isPending(parser))
+			Thread.sleep(5);
+	}
+
+	private static String musicXml(Tune tune) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new Abc2xml().writeAsMusicXML(tune, bytes);
+		return bytes.toString("UTF-8");
+	}
+
+	/** a tune of about the given number of eighth notes, with chords and ties */
+	private static String generate(int reference, int notes) {
+		Random random = new Random(reference);
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:" + reference + "\nT:Tune " + reference
+				+ "\nM:4/4\nL:1/8\nK:D\n");
+		for (int i = 1; i <= notes; i++) {
+			String p = pitches[random.nextInt(pitches.length)];
+			switch (random.nextInt(6)) {
+			case 0:
+				abc.append("\"G\"[DFA]");
+				break;
+			case 1:
+				abc.append(p).append('-');
+				break;
+			default:
+				abc.append(p);
+			}
+			if (i % 8 == 0)
+				abc.append(i % 32 == 0 ? "|\n" : "|");
+		}
+		return abc.append("|]\n").toString();
+	}
+}
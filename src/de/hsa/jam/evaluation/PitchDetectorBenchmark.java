@@ -0,0 +1,109 @@
+package de.hsa.jam.evaluation;
+
+import java.util.Random;
+
+import be.hogent.tarsos.sampled.pitch.McLeodPitchMethod;
+import be.hogent.tarsos.sampled.pitch.PurePitchDetector;
+import be.hogent.tarsos.sampled.pitch.Yin;
+
+/**
+ * Compares the time domain pitch detectors with their FFT based variants.<br />
+ * For each buffer size the detected pitches are checked against each other on
+ * synthetic sine and sawtooth buffers, then the time per buffer is measured.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.PitchDetectorBenchmark [iterations]</code>
+ */
+public class PitchDetectorBenchmark {
+	private static final float SAMPLERATE = 44100;
+	private static final int[] CHUNKS = { 512, 1024, 2048, 4096 };
+
+	// E2 (low E guitar) up to A5
+	private static final float[] FREQUENCIES = { 82.41f, 110.0f, 196.0f, 261.63f, 440.0f, 880.0f };
+
+	// maximum deviation of the pitch between time domain and FFT based detection
+	private static final double TOLERANCE_CENTS = 1.0;
+
+	// keeps the JIT from removing the measured calls
+	static float blackhole;
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+		boolean ok = true;
+		for (int i = 0; i < CHUNKS.length; i++) {
+			int chunk = CHUNKS[i];
+			System.out.println("========== CHUNK: " + chunk + " ==========");
+
+			float[][] buffers = testBuffers(chunk);
+
+			ok &= compare("YIN", new Yin(SAMPLERATE, chunk, 0.13, false), new Yin(SAMPLERATE, chunk, 0.13, true), chunk);
+			benchmark("YIN", new Yin(SAMPLERATE, chunk, 0.13, false), buffers, iterations);
+			benchmark("YIN (FFT)", new Yin(SAMPLERATE, chunk, 0.13, true), buffers, iterations);
+
+			ok &= compare("MPM", new McLeodPitchMethod(SAMPLERATE, chunk, 0.93, false), new McLeodPitchMethod(SAMPLERATE, chunk, 0.93, true), chunk);
+			benchmark("MPM", new McLeodPitchMethod(SAMPLERATE, chunk, 0.93, false), buffers, iterations);
+			benchmark("MPM (FFT)", new McLeodPitchMethod(SAMPLERATE, chunk, 0.93, true), buffers, iterations);
+		}
+		System.out.println(ok ? "all pitches within " + TOLERANCE_CENTS + " cents" : "PITCH MISMATCH, see above");
+	}
+
+	/**
+	 * detect the pitch of every test buffer with both detectors and print the deviation in cents
+	 *
+	 * @return true if all pitches are within the tolerance
+	 */
+	private static boolean compare(String name, PurePitchDetector reference, PurePitchDetector candidate, int chunk) {
+		boolean ok = true;
+		float[][] buffers = testBuffers(chunk);
+		for (int i = 0; i < buffers.length; i++) {
+			float expected = reference.getPitch(buffers[i]);
+			float probExpected = reference.getProbability();
+			float actual = candidate.getPitch(buffers[i]);
+			float probActual = candidate.getProbability();
+
+			double cents = 0;
+			if (expected > 0 && actual > 0)
+				cents = Math.abs(1200 * Math.log(actual / expected) / Math.log(2));
+			else if ((expected > 0) != (actual > 0))
+				cents = Double.POSITIVE_INFINITY;
+
+			boolean match = cents <= TOLERANCE_CENTS;
+			ok &= match;
+			System.out.println(String.format("%-10s %-9s %8.2fHz -> %8.2fHz (prob %.3f) vs %8.2fHz (prob %.3f) diff: %.4f cents %s",
+					name, (i % 2 == 0 ? "sine" : "sawtooth"), FREQUENCIES[i / 2],
+					expected, probExpected, actual, probActual, cents, match ? "" : "MISMATCH"));
+		}
+		return ok;
+	}
+
+	private static void benchmark(String name, PurePitchDetector pda, float[][] buffers, int iterations) {
+		// warm up
+		for (int i = 0; i < iterations / 10 + 1; i++)
+			pda.getPitch(buffers[i % buffers.length]);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			blackhole += pda.getPitch(buffers[i % buffers.length]);
+		long nsPerBuffer = (System.nanoTime() - start) / iterations;
+
+		float realtime = buffers[0].length / SAMPLERATE * 1000000000.0f;
+		System.out.println(String.format("%-10s %8d ns/buffer  (%.1fx realtime)", name, nsPerBuffer, realtime / nsPerBuffer));
+	}
+
+	/**
+	 * a sine and a sawtooth (with a little noise) for each test frequency
+	 */
+	static float[][] testBuffers(int chunk) {
+		Random random = new Random(0);
+		float[][] buffers = new float[FREQUENCIES.length * 2][chunk];
+		for (int f = 0; f < FREQUENCIES.length; f++) {
+			float period = SAMPLERATE / FREQUENCIES[f];
+			for (int i = 0; i < chunk; i++) {
+				buffers[2 * f][i] = 0.8f * (float) Math.sin(2 * Math.PI * i / period);
+				float phase = (i % period) / period;
+				buffers[2 * f + 1][i] = 0.5f * (2 * phase - 1) + 0.01f * (float) random.nextGaussian();
+			}
+		}
+		return buffers;
+	}
+}
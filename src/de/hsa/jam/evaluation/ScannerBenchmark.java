@@ -0,0 +1,222 @@
+package de.hsa.jam.evaluation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import scanner.AutomataDefinition;
+import scanner.FinaleStateAutomata;
+import scanner.InvalidCharacterEvent;
+import scanner.NoSuchTokenException;
+import scanner.Scanner;
+import scanner.ScannerListenerInterface;
+import scanner.TokenEvent;
+import abc.parser.AbcFileParser;
+
+/**
+ * Checks the table driven scanning of characters against the scanning of a
+ * stream (the original scanner) on a corpus of abc files, then compares their
+ * speed.<br />
+ * Each file is parsed once, recording which automata the parser used for each
+ * token. The same sequence of automata is then replayed on both scanners and
+ * the tokens, invalid characters and lines they report are compared.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.ScannerBenchmark [-iterations n] file.abc|directory ...</code>
+ */
+public class ScannerBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int iterations = 20;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-iterations"))
+				iterations = Integer.parseInt(args[++i]);
+			else
+				collect(new File(args[i]), files);
+		}
+		if (files.isEmpty()) {
+			System.out.println("Usage: java de.hsa.jam.evaluation.ScannerBenchmark [-iterations n] file.abc|directory ...");
+			return;
+		}
+
+		List<String> texts = new ArrayList<String>();
+		List<List<Call>> recordings = new ArrayList<List<Call>>();
+		boolean ok = true;
+		int tokens = 0;
+		long chars = 0;
+		for (File file : files) {
+			String text = read(file);
+			List<Call> calls = record(text);
+			List<String> expected = replay(text, calls, false);
+			List<String> actual = events(calls);
+			int mismatch = firstMismatch(expected, actual);
+			if (mismatch >= 0) {
+				ok = false;
+				System.out.println(file + ": MISMATCH at event " + mismatch + ": stream "
+						+ (mismatch < expected.size() ? expected.get(mismatch) : "<none>") + " vs table "
+						+ (mismatch < actual.size() ? actual.get(mismatch) : "<none>"));
+			}
+			texts.add(text);
+			recordings.add(calls);
+			tokens += calls.size();
+			chars += text.length();
+		}
+		System.out.println(files.size() + " files, " + chars + " characters, " + tokens + " tokens: "
+				+ (ok ? "same tokens for both scanners" : "MISMATCH, see above"));
+
+		// warm up, then time both scanners on the recorded automata
+		for (int i = 0; i < texts.size(); i++) {
+			replay(texts.get(i), recordings.get(i), false);
+			replay(texts.get(i), recordings.get(i), true);
+		}
+		long stream = time(texts, recordings, false, iterations);
+		long table = time(texts, recordings, true, iterations);
+		System.out.println(String.format("stream scanner: %8.1f ms, %6.1f ns/char", stream / 1000000.0, stream / (double) (chars * iterations)));
+		System.out.println(String.format("table scanner:  %8.1f ms, %6.1f ns/char (%.1fx)", table / 1000000.0, table / (double) (chars * iterations),
+				stream / (double) table));
+	}
+
+	/**
+	 * A call to nextToken(): the automata used and the events reported by the
+	 * scanner
+	 */
+	private static class Call {
+		AutomataDefinition definition;
+		List<String> events = new ArrayList<String>();
+	}
+
+	/**
+	 * records the events of the scanner while parsing, grouped by call to
+	 * nextToken()
+	 */
+	private static class Recorder implements ScannerListenerInterface {
+		private final Scanner scanner;
+		final List<Call> calls = new ArrayList<Call>();
+		private Call current;
+
+		Recorder(Scanner scanner) {
+			this.scanner = scanner;
+		}
+
+		private Call current() {
+			if (current == null) {
+				current = new Call();
+				current.definition = scanner.getFinaleStateAutomata().getDefinition();
+				calls.add(current);
+			}
+			return current;
+		}
+
+		public void tokenGenerated(TokenEvent event) {
+			current().events.add("token " + event.getToken() + " " + event.getToken().getPosition());
+			current = null;
+		}
+
+		public void invalidCharacter(InvalidCharacterEvent evt) {
+			current().events.add("invalid " + (int) evt.getCharacter() + " " + evt.getPosition());
+		}
+
+		public void lineProcessed(String line) {
+			current().events.add("line " + line);
+		}
+	}
+
+	/**
+	 * parses the text with the table driven scanner
+	 */
+	private static List<Call> record(String text) {
+		AbcFileParser parser = new AbcFileParser();
+		Recorder recorder = new Recorder(parser.getScanner());
+		parser.getScanner().addListener(recorder);
+		parser.parseFile(new StringReader(text));
+		return recorder.calls;
+	}
+
+	/**
+	 * scans the text again with the same automata, from a string (table) or
+	 * from a stream
+	 */
+	private static List<String> replay(String text, List<Call> calls, boolean fromChars) {
+		Scanner scanner = fromChars ? new Scanner((CharSequence) text) : new Scanner(new StringReader(text));
+		Recorder recorder = new Recorder(scanner);
+		scanner.addListener(recorder);
+		for (Call call : calls) {
+			scanner.setFinaleStateAutomata(new FinaleStateAutomata(call.definition));
+			try {
+				scanner.nextToken();
+			} catch (NoSuchTokenException e) {
+				// end of the characters, as while parsing
+			}
+		}
+		return events(recorder.calls);
+	}
+
+	private static long time(List<String> texts, List<List<Call>> recordings, boolean fromChars, int iterations) {
+		long start = System.nanoTime();
+		for (int it = 0; it < iterations; it++) {
+			for (int i = 0; i < texts.size(); i++) {
+				List<Call> calls = recordings.get(i);
+				Scanner scanner = fromChars ? new Scanner((CharSequence) texts.get(i)) : new Scanner(new StringReader(texts.get(i)));
+				for (Call call : calls) {
+					scanner.setFinaleStateAutomata(new FinaleStateAutomata(call.definition));
+					try {
+						scanner.nextToken();
+					} catch (NoSuchTokenException e) {
+						// end of the characters
+					}
+				}
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static List<String> events(List<Call> calls) {
+		List<String> events = new ArrayList<String>();
+		for (Call call : calls)
+			events.addAll(call.events);
+		return events;
+	}
+
+	private static int firstMismatch(List<String> expected, List<String> actual) {
+		int n = Math.min(expected.size(), actual.size());
+		for (int i = 0; i < n; i++) {
+			if (!expected.get(i).equals(actual.get(i)))
+				return i;
+		}
+		return expected.size() == actual.size() ? -1 : n;
+	}
+
+	private static void collect(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			Arrays.sort(children);
+			for (File child : children)
+				collect(child, files);
+		} else if (file.getName().toLowerCase().endsWith(".abc")) {
+			files.add(file);
+		}
+	}
+
+	/**
+	 * reads the file with the default charset, as AbcFileParser.parseFile(File)
+	 */
+	private static String read(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+		try {
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = reader.read(buffer)) != -1)
+				text.append(buffer, 0, read);
+			return text.toString();
+		} finally {
+			reader.close();
+		}
+	}
+}
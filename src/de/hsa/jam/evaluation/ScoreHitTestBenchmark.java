@@ -0,0 +1,228 @@
+package de.hsa.jam.evaluation;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.geom.Rectangle2D;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import abc.notation.Tune;
+import abc.parser.TuneParser;
+import abc.ui.swing.JScoreComponent;
+import abc.ui.swing.JScoreElement;
+
+/**
+ * Checks the grid used by JScoreComponent.getScoreElementAt() against the walk
+ * through all the staff lines it replaces, on generated tunes of 100 to 10000
+ * notes, then compares their speed. The rectangle queries used by the rubber
+ * band selection are checked against a test of every bounding box.<br />
+ * The staff lines are reached by reflection, as they are private to the
+ * score.<br />
+ * <br />
+ * Usage: <code>java -Djava.awt.headless=true de.hsa.jam.evaluation.ScoreHitTestBenchmark [iterations]</code>
+ */
+public class ScoreHitTestBenchmark {
+	private static final int[] SIZES = { 100, 1000, 10000 };
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(final String[] args) throws Exception {
+		OnEventDispatchThread.run(new OnEventDispatchThread.Benchmark() {
+			public void run() throws Exception {
+				benchmark(args);
+			}
+		});
+	}
+
+	private static void benchmark(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+		boolean ok = true;
+		for (int size : SIZES) {
+			Tune tune = new TuneParser().parse(generate(size));
+			JScoreComponent score = new JScoreComponent();
+			score.setTune(tune);
+			Dimension dimension = score.getPreferredSize();
+			List<Object> staffLines = staffLines(score);
+			System.out.println("========== " + size + " notes, " + staffLines.size() + " staff lines, "
+					+ dimension.width + "x" + dimension.height + " pixels ==========");
+
+			// correctness: every pixel of the first staff line, random points
+			// and rectangles everywhere
+			Random random = new Random(size);
+			int points = 0, mismatches = 0;
+			for (int y = -5; y < Math.min(dimension.height, 150); y++)
+				for (int x = -5; x < dimension.width + 5; x++, points++) {
+					Point p = new Point(x, y);
+					if (score.getScoreElementAt(p) != linearElementAt(staffLines, p))
+						mismatches++;
+				}
+			for (int i = 0; i < 5000; i++, points++) {
+				Point p = new Point(random.nextInt(dimension.width + 10) - 5, random.nextInt(dimension.height + 10) - 5);
+				if (score.getScoreElementAt(p) != linearElementAt(staffLines, p))
+					mismatches++;
+			}
+			int rectangles = 200, rectangleMismatches = 0;
+			for (int i = 0; i < rectangles; i++) {
+				Rectangle2D area = new Rectangle2D.Double(random.nextInt(dimension.width), random.nextInt(dimension.height),
+						random.nextInt(300), random.nextInt(100));
+				if (!new ArrayList<Object>(score.getScoreElementsIn(area)).equals(linearElementsIn(staffLines, area)))
+					rectangleMismatches++;
+			}
+			ok &= mismatches == 0 && rectangleMismatches == 0;
+			System.out.println(String.format("points: %d, %d mismatches; rectangles: %d, %d mismatches %s", points, mismatches,
+					rectangles, rectangleMismatches, mismatches + rectangleMismatches == 0 ? "" : "MISMATCH"));
+
+			// performance
+			int n = iterations * 1000;
+			Point[] locations = new Point[n];
+			for (int i = 0; i < n; i++)
+				locations[i] = new Point(random.nextInt(dimension.width), random.nextInt(dimension.height));
+
+			// the walk is slow on large scores
+			int walks = Math.min(n, iterations * 100000 / size);
+			long t = System.nanoTime();
+			for (int i = 0; i < walks; i++)
+				blackhole += System.identityHashCode(linearElementAt(staffLines, locations[i]));
+			report("staff lines walk", System.nanoTime() - t, walks);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += System.identityHashCode(score.getScoreElementAt(locations[i]));
+			report("grid", System.nanoTime() - t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += score.getScoreElementsIn(new Rectangle2D.Double(locations[i].x, locations[i].y, 200, 60)).size();
+			report("grid rectangle", System.nanoTime() - t, n);
+		}
+		System.out.println(ok ? "all lookups match the staff lines walk" : "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos, int count) {
+		System.out.println(String.format("%-20s %10.1f ns/call (%d in %.1f ms)", what, nanos / (double) count, count,
+				nanos / 1000000.0));
+	}
+
+	/** the staff lines of the score, JTune.m_staffLines */
+	private static List<Object> staffLines(JScoreComponent score) throws Exception {
+		Object jTune = field(JScoreComponent.class, "m_jTune").get(score);
+		return new ArrayList<Object>((Vector<?>) field(jTune.getClass(), "m_staffLines").get(jTune));
+	}
+
+	/** JTune.getScoreElementAt() before the grid */
+	private static JScoreElement linearElementAt(List<Object> staffLines, Point location) {
+		for (Object staffLine : staffLines) {
+			JScoreElement element = ((JScoreElement) staffLine).getScoreElementAt(location);
+			if (element != null)
+				return element;
+		}
+		return null;
+	}
+
+	/**
+	 * the elements whose bounding box intersects the area, the notes of the
+	 * groups one by one
+	 */
+	private static List<Object> linearElementsIn(List<Object> staffLines, Rectangle2D area) throws Exception {
+		List<Object> elements = new ArrayList<Object>();
+		for (Object staffLine : staffLines) {
+			Vector<?> staffElements = (Vector<?>) field(staffLine.getClass(), "m_staffElements").get(staffLine);
+			for (Object element : staffElements) {
+				Rectangle2D box = ((JScoreElement) element).getBoundingBox();
+				if (box.getMinX() > area.getMaxX() || box.getMaxX() < area.getMinX() || box.getMinY() > area.getMaxY()
+						|| box.getMaxY() < area.getMinY())
+					continue;
+				if (isGroupOfNotes(element.getClass())) {
+					Method notes = method(element.getClass(), "getRenditionElements");
+					for (Object note : (Object[]) notes.invoke(element))
+						if (((JScoreElement) note).getBoundingBox().intersects(area))
+							elements.add(note);
+				} else
+					elements.add(element);
+			}
+		}
+		return elements;
+	}
+
+	private static boolean isGroupOfNotes(Class<?> c) {
+		for (; c != null; c = c.getSuperclass())
+			if (c.getName().equals("abc.ui.swing.JGroupOfNotes"))
+				return true;
+		return false;
+	}
+
+	private static Field field(Class<?> c, String name) throws NoSuchFieldException {
+		for (; c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField(name);
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				// in a super class
+			}
+		}
+		throw new NoSuchFieldException(name);
+	}
+
+	private static Method method(Class<?> c, String name) throws NoSuchMethodException {
+		for (; c != null; c = c.getSuperclass()) {
+			try {
+				Method method = c.getDeclaredMethod(name);
+				method.setAccessible(true);
+				return method;
+			} catch (NoSuchMethodException e) {
+				// in a super class
+			}
+		}
+		throw new NoSuchMethodException(name);
+	}
+
+	/**
+	 * a tune in D with the given number of notes, 8 eighth notes per bar, with
+	 * beamed groups, chords, tuplets, grace notes and annotations
+	 */
+	private static String generate(int notes) {
+		Random random = new Random(notes);
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:1\nT:Benchmark " + notes + "\nM:4/4\nL:1/8\nK:D\n");
+		int written = 0;
+		int bar = 0;
+		while (written < notes) {
+			for (int inBar = 0; inBar < 8; inBar++) {
+				String p = pitches[random.nextInt(pitches.length)];
+				switch (random.nextInt(6)) {
+				case 0:
+					abc.append("\"G\"[DFA]");
+					written += 3;
+					break;
+				case 1:
+					if (inBar <= 5) {
+						abc.append("(3").append(p).append(p).append(p);
+						inBar++;
+						written += 3;
+					}
+					break;
+				case 2:
+					abc.append("{g}").append(p).append(' ');
+					written += 2;
+					break;
+				case 3:
+					abc.append("\"^up\"").append(p).append(' ');
+					written++;
+					break;
+				default:
+					abc.append(p);
+					written++;
+				}
+			}
+			abc.append(++bar % 4 == 0 ? "|\n" : "| ");
+		}
+		return abc.append("|]\n").toString();
+	}
+}
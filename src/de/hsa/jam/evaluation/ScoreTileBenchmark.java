@@ -0,0 +1,222 @@
+package de.hsa.jam.evaluation;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import abc.notation.MusicElement;
+import abc.notation.Note;
+import abc.notation.Tune;
+import abc.notation.Voice;
+import abc.parser.TuneParser;
+import abc.ui.swing.JScoreComponent;
+
+/**
+ * Checks the tiled painting of JScoreComponent against the drawing of the whole
+ * score into one image that paint() used before, on generated tunes of 100 to
+ * 10000 notes: the whole score, viewports and the viewport after each selection
+ * change must have the same pixels. Then compares the time to show a viewport
+ * after selecting a note, as the highlighting of the played notes does, and
+ * the memory of the images.<br />
+ * The rasterizer of Java 9 and later clips the shapes to the clip before
+ * drawing them, which moves the antialiased pixels of a curve crossing a tile
+ * edge by a shade: it is turned off here to compare the pixels exactly.<br />
+ * <br />
+ * Usage: <code>java -Djava.awt.headless=true de.hsa.jam.evaluation.ScoreTileBenchmark [iterations]</code>
+ */
+public class ScoreTileBenchmark {
+	private static final int[] SIZES = { 100, 1000, 10000 };
+
+	/** the visible part of the score in the scroll pane of the main window */
+	private static final int VIEWPORT_WIDTH = 1200, VIEWPORT_HEIGHT = 700;
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(final String[] args) throws Exception {
+		OnEventDispatchThread.run(new OnEventDispatchThread.Benchmark() {
+			public void run() throws Exception {
+				benchmark(args);
+			}
+		});
+	}
+
+	private static void benchmark(String[] args) throws Exception {
+		System.setProperty("sun.java2d.renderer.clip", "false");
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+		boolean ok = true;
+		for (int size : SIZES) {
+			Tune tune = new TuneParser().parse(generate(size));
+			JScoreComponent score = new JScoreComponent();
+			score.setTune(tune);
+			Dimension dimension = score.getPreferredSize();
+			List<MusicElement> notes = notes(tune);
+			System.out.println("========== " + size + " notes, " + dimension.width + "x" + dimension.height
+					+ " pixels ==========");
+
+			// correctness: the whole score, then viewports after selections
+			Random random = new Random(size);
+			int paints = 1, mismatches = 0;
+			if (!samePixels(whole(score, dimension), tiled(score, dimension, null), null))
+				mismatches++;
+			for (int i = 0; i < 10; i++, paints++) {
+				Rectangle viewport = viewport(random, dimension);
+				score.setSelectedItem(notes.get(random.nextInt(notes.size())));
+				if (!samePixels(whole(score, dimension), tiled(score, dimension, viewport), viewport))
+					mismatches++;
+			}
+			score.setSelectedItem((MusicElement) null);
+			ok &= mismatches == 0;
+			System.out.println(String.format("paints: %d, %d mismatches %s", paints, mismatches, mismatches == 0 ? ""
+					: "MISMATCH"));
+
+			// performance: a note highlighted in a viewport, then the next one
+			int n = iterations;
+			Rectangle viewport = viewport(random, dimension);
+			BufferedImage screen = new BufferedImage(VIEWPORT_WIDTH, VIEWPORT_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+			long t = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				score.setSelectedItem(notes.get(random.nextInt(notes.size())));
+				BufferedImage image = whole(score, dimension);
+				Graphics2D g = screen.createGraphics();
+				g.translate(-viewport.x, -viewport.y);
+				g.drawImage(image, 0, 0, null);
+				g.dispose();
+				blackhole += image.getRGB(0, 0);
+			}
+			report("whole score image", System.nanoTime() - t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				score.setSelectedItem(notes.get(random.nextInt(notes.size())));
+				Graphics2D g = screen.createGraphics();
+				g.translate(-viewport.x, -viewport.y);
+				g.setClip(viewport);
+				score.paint(g);
+				g.dispose();
+				blackhole += screen.getRGB(0, 0);
+			}
+			report("tiles", System.nanoTime() - t, n);
+
+			int tiles = (viewport.width / 256 + 2) * (viewport.height / 256 + 2);
+			System.out.println(String.format("memory: whole score image %.1f MB, viewport tiles at most %.1f MB",
+					dimension.width * (double) dimension.height * 4 / 1024 / 1024, tiles * 256 * 256 * 4.0 / 1024 / 1024));
+		}
+		System.out.println(ok ? "all tiled paints match the whole score image" : "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos, int count) {
+		System.out.println(String.format("%-20s %10.3f ms/call (%d in %.1f ms)", what, nanos / 1000000.0 / count, count,
+				nanos / 1000000.0));
+	}
+
+	/** JScoreComponent.paint() before the tiles: the whole score in one image */
+	private static BufferedImage whole(JScoreComponent score, Dimension dimension) {
+		BufferedImage image = new BufferedImage(dimension.width, dimension.height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(score.getBackground());
+		g.fillRect(0, 0, dimension.width, dimension.height);
+		score.drawIn(g);
+		g.dispose();
+		return image;
+	}
+
+	/** the score painted through the tiles, clipped to the viewport if any */
+	private static BufferedImage tiled(JScoreComponent score, Dimension dimension, Rectangle viewport) {
+		BufferedImage image = new BufferedImage(dimension.width, dimension.height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		if (viewport != null)
+			g.setClip(viewport);
+		score.paint(g);
+		g.dispose();
+		return image;
+	}
+
+	private static boolean samePixels(BufferedImage expected, BufferedImage actual, Rectangle area) {
+		if (area == null)
+			area = new Rectangle(0, 0, expected.getWidth(), expected.getHeight());
+		area = area.intersection(new Rectangle(0, 0, expected.getWidth(), expected.getHeight()));
+		for (int y = area.y; y < area.y + area.height; y++)
+			for (int x = area.x; x < area.x + area.width; x++)
+				if (expected.getRGB(x, y) != actual.getRGB(x, y))
+					return false;
+		return true;
+	}
+
+	private static Rectangle viewport(Random random, Dimension dimension) {
+		return new Rectangle(0, random.nextInt(Math.max(1, dimension.height - VIEWPORT_HEIGHT)), VIEWPORT_WIDTH,
+				VIEWPORT_HEIGHT);
+	}
+
+	private static List<MusicElement> notes(Tune tune) {
+		List<MusicElement> notes = new ArrayList<MusicElement>();
+		for (Iterator it = tune.getMusic().getVoices().iterator(); it.hasNext();)
+			for (Object element : (Voice) it.next())
+				if (element instanceof Note && !((Note) element).isRest())
+					notes.add((MusicElement) element);
+		return notes;
+	}
+
+	/**
+	 * a tune in D with the given number of notes, 8 eighth notes per bar, with
+	 * beamed groups, chords, tuplets, grace notes, ties and slurs
+	 */
+	private static String generate(int notes) {
+		Random random = new Random(notes);
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:1\nT:Benchmark " + notes + "\nC:Generated\nM:4/4\nL:1/8\nK:D\n");
+		int written = 0;
+		int bar = 0;
+		while (written < notes) {
+			int inBar = 0;
+			while (inBar < 8) {
+				String p = pitches[random.nextInt(pitches.length)];
+				switch (random.nextInt(7)) {
+				case 0:
+					abc.append("\"G\"[DFA]");
+					inBar++;
+					written += 3;
+					break;
+				case 1:
+					if (inBar <= 6) {
+						abc.append("(3").append(p).append(p).append(p).append(' ');
+						inBar += 2;
+						written += 3;
+					}
+					break;
+				case 2:
+					abc.append("{g}").append(p).append(' ');
+					inBar++;
+					written += 2;
+					break;
+				case 3:
+					if (inBar <= 6) {
+						abc.append(p).append('-').append(p).append(' ');
+						inBar += 2;
+						written += 2;
+					}
+					break;
+				case 4:
+					if (inBar <= 6) {
+						abc.append('(').append(p).append(pitches[random.nextInt(pitches.length)]).append(") ");
+						inBar += 2;
+						written += 2;
+					}
+					break;
+				default:
+					abc.append(p);
+					inBar++;
+					written++;
+				}
+			}
+			abc.append(++bar % 4 == 0 ? "|\n" : "| ");
+		}
+		return abc.append("|]\n").toString();
+	}
+}
@@ -0,0 +1,152 @@
+package de.hsa.jam.evaluation;
+
+import java.util.Vector;
+
+/**
+ * Compares a transcription with its reference melody.<br />
+ * Both melodies are vectors of pairs: midiKey and length (in 16th) for each note, 0 as midiKey for rests.<br />
+ * <br />
+ * recall and precision: see http://en.wikipedia.org/wiki/Precision_and_recall<br />
+ * note error: gem. Ryynaenen
+ */
+public class TranscriptionScore {
+	private final float recall, precision, F, noteError;
+
+	public TranscriptionScore(Vector<Integer> refMelody, Vector<Integer> transcription) {
+		float anzahlNotenInsgesamt = refMelody.size() / 2;
+		float anzahlErkannterNoten = transcription.size() / 2;
+
+		float hitsRefNotes = countHitsRef(refMelody, transcription); //vR wieviele relevante sind erkannt worden?
+		float hitsTranscribedNotes = countHitsErkannt(refMelody, transcription); //vT wieviele erkannte sind relevant? --> a
+
+		//recall and precision
+		float a=hitsTranscribedNotes, //-> gefunden + relevant
+			  b=anzahlErkannterNoten-hitsTranscribedNotes, //-> gefunden, aber NICHT relevant
+			  c=anzahlNotenInsgesamt-hitsRefNotes; //-> NICHT gefunden, aber relevant
+
+		recall =    a/ (a+c);
+		precision = a/ (a+b);
+		//marmonic mean (F-Score)
+		F =  2 * ((recall * precision) / (recall + precision)) * 100; // avg: (recall + precision) / 2 * 100;
+
+		//Notenfehler gem. Ryynaeen:
+		noteError = 0.5f
+						* (((anzahlNotenInsgesamt - hitsRefNotes) / anzahlNotenInsgesamt) + ((anzahlErkannterNoten - hitsTranscribedNotes) / anzahlErkannterNoten))
+						* 100.0f;
+	}
+
+	/**
+	 * @return recall (0..1)
+	 */
+	public float getRecall() {
+		return recall;
+	}
+
+	/**
+	 * @return precision (0..1)
+	 */
+	public float getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @return harmonic mean of recall and precision in percent
+	 */
+	public float getF() {
+		return F;
+	}
+
+	/**
+	 * @return note error in percent
+	 */
+	public float getNoteError() {
+		return noteError;
+	}
+
+	/**
+	 * @return note recognition rate Nn in percent (100 - note error)
+	 */
+	public float getNn() {
+		return 100.0f - noteError;
+	}
+
+	// wieviele ref Noten sind in den erkannten? -> wieviele relevante sind erkannt worden?
+	/**
+	 * count how many relevant notes are detected
+	 **/
+	@SuppressWarnings("unchecked")
+	public static int countHitsRef(Vector<Integer> refMelod, Vector<Integer> evaluationSammle) {
+		int cnt = 0;
+
+		 Vector<Integer>evaluationSammler = (Vector<Integer>)evaluationSammle.clone();
+		 Vector<Integer>refMelody = (Vector<Integer>)refMelod.clone();
+
+		for (int i = 0; i < refMelody.size(); i++) {
+			int referenzTon = refMelody.get(i);
+			int referenzWert = refMelody.get(i+1);
+
+			for (int j = 0; j < evaluationSammler.size(); j++) {
+				int erkannterTon = evaluationSammler.get(j);
+				int erkannterWert = evaluationSammler.get(j+1);
+
+				if (referenzTon == erkannterTon && referenzWert == erkannterWert) {
+					cnt++;
+
+					refMelody.remove(i);
+					refMelody.remove(i);
+					i -= 2;
+
+					evaluationSammler.remove(j);
+					evaluationSammler.remove(j);
+					j-=2;
+
+					break;
+				}
+				j++;
+			}
+			i++;
+		}
+		return cnt;
+	}
+
+	// wieviele erkannte Noten sind in der RefMelo? -> wieviele erkannte sind relevant?
+	/**
+	 * count how many detected notes are relevant
+	 **/
+	@SuppressWarnings("unchecked")
+	public static int countHitsErkannt(Vector<Integer> refMelod, Vector<Integer> evaluationSammle) {
+		int cnt = 0;
+
+		Vector<Integer>refMelody = (Vector<Integer>)refMelod.clone();
+		Vector<Integer>evaluationSammler = (Vector<Integer>)evaluationSammle.clone();
+
+		// hole erkanntenTon und erkanntenWert und check GESAMTE REFERENZMELO ob
+		// dieses vorkommt!
+		for (int i = 0; i < evaluationSammler.size(); i++) {
+			int erkannterTon = evaluationSammler.get(i);
+			int erkannterWert = evaluationSammler.get(i+1);
+
+			for (int j = 0; j < refMelody.size(); j++) {
+				int referenzTon = refMelody.get(j);
+				int referenzWert = refMelody.get(j+1);
+
+				if (erkannterTon == referenzTon && erkannterWert == referenzWert) {
+					cnt++;
+
+					evaluationSammler.remove(i);
+					evaluationSammler.remove(i);
+					i-=2;
+
+					refMelody.remove(j);
+					refMelody.remove(j);
+					j-=2;
+
+					break;
+				}
+				j++;
+			}
+			i++;
+		}
+		return cnt;
+	}
+}
@@ -0,0 +1,167 @@
+package de.hsa.jam.evaluation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+import abc.notation.Tune;
+import abc.parser.AbcVersion;
+import abc.parser.TuneBook;
+import abc.xml.Abc2xml;
+
+/**
+ * Checks the indexed TuneBook, that memory-maps an abc file and parses its
+ * tunes on demand, against the TuneBook that parses the headers of the whole
+ * file when it is opened, on a generated file of some thousand tunes with
+ * comments between them: both must find the same reference numbers, headers
+ * and notations, the same text fields in the tunes headers, and the tunes
+ * parsed from both must give the same MusicXML.<br />
+ * Then compares the time to open the file and list the tunes headers, and the
+ * memory the opened tunebook holds.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.TuneBookIndexBenchmark [tunes] [iterations]</code>
+ */
+public class TuneBookIndexBenchmark {
+	private static final int CACHED_TUNES = 32;
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(String[] args) throws Exception {
+		int tunes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		File file = File.createTempFile("TuneBookIndexBenchmark", ".abc");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file));
+		writer.write("%abc-2.0\n% generated tunebook\n\n");
+		for (int i = 1; i <= tunes; i++) {
+			if (i % 10 == 0)
+				writer.write("% part " + i / 10 + "\n\n");
+			writer.write(generate(i));
+			writer.write('\n');
+		}
+		writer.close();
+		System.out.println(String.format("%d tunes, %.1f MB", tunes, file.length() / 1024.0 / 1024));
+
+		// correctness: tunes found, headers, notations and parsed tunes
+		TuneBook parsed = new TuneBook(file);
+		TuneBook indexed = new TuneBook(file, AbcVersion.v1_6, CACHED_TUNES);
+		int mismatches = 0;
+		int[] refNumbers = parsed.getReferenceNumbers();
+		if (!Arrays.equals(refNumbers, indexed.getReferenceNumbers()))
+			mismatches++;
+		Tune[] parsedHeaders = parsed.getTunesHeaders();
+		Tune[] indexedHeaders = indexed.getTunesHeaders();
+		for (int i = 0; i < refNumbers.length; i++) {
+			if (!same(parsed.getTuneHeader(refNumbers[i]), indexed.getTuneHeader(refNumbers[i]))
+					|| !same(parsed.getTuneNotation(refNumbers[i]), indexed.getTuneNotation(refNumbers[i]))
+					|| !fields(parsedHeaders[i]).equals(fields(indexedHeaders[i])))
+				mismatches++;
+		}
+		Random random = new Random(tunes);
+		int compared = 0;
+		for (int i = 0; i < 100; i++, compared++) {
+			int ref = refNumbers[random.nextInt(refNumbers.length)];
+			if (!Arrays.equals(musicXml(parsed.getTune(ref)), musicXml(indexed.getTune(ref)))
+					|| indexed.getTune(ref) != indexed.getTune(ref))
+				mismatches++;
+		}
+		System.out.println(String.format("tunes: %d, parsed tunes compared: %d, %d mismatches %s",
+				refNumbers.length, compared, mismatches, mismatches == 0 ? "" : "MISMATCH"));
+		parsed = null;
+		indexed = null;
+
+		// performance: open the file and list the tunes headers
+		for (int n = 0; n < iterations; n++) {
+			long t = System.nanoTime();
+			TuneBook book = new TuneBook(file);
+			blackhole += book.getTunesHeaders().length;
+			report("parse headers", System.nanoTime() - t);
+			t = System.nanoTime();
+			book = new TuneBook(file, AbcVersion.v1_6, CACHED_TUNES);
+			long opened = System.nanoTime() - t;
+			blackhole += book.getTunesHeaders().length;
+			report("index (open only)", opened);
+			report("index", System.nanoTime() - t);
+		}
+
+		long before = usedMemory();
+		TuneBook book = new TuneBook(file);
+		book.getTunesHeaders();
+		long memory = usedMemory() - before;
+		blackhole += book.size();
+		book = null;
+		before = usedMemory();
+		book = new TuneBook(file, AbcVersion.v1_6, CACHED_TUNES);
+		long openedMemory = usedMemory() - before;
+		book.getTunesHeaders();
+		for (int i = 0; i < 200; i++)
+			book.getTune(refNumbers[random.nextInt(refNumbers.length)]);
+		long indexedMemory = usedMemory() - before;
+		blackhole += book.size();
+		System.out.println(String.format("memory: parse headers %.1f MB, index %.1f MB opened, %.1f MB with the"
+				+ " headers and %d parsed tunes", memory / 1024.0 / 1024, openedMemory / 1024.0 / 1024,
+				indexedMemory / 1024.0 / 1024, CACHED_TUNES));
+		System.out.println(mismatches == 0 ? "the indexed tunebook matches the parsed one" : "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos) {
+		System.out.println(String.format("%-20s %10.1f ms", what, nanos / 1000000.0));
+	}
+
+	private static long usedMemory() throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	private static boolean same(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/** the reference number and the text fields of a tune header */
+	private static String fields(Tune tune) {
+		return tune.getReferenceNumber() + "|" + Arrays.toString(tune.getTitles()) + "|" + tune.getComposer() + "|"
+				+ tune.getOrigin() + "|" + tune.getRhythm() + "|" + tune.getSource() + "|" + tune.getNotes() + "|"
+				+ tune.getTranscriptionNotes();
+	}
+
+	private static byte[] musicXml(Tune tune) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new Abc2xml().writeAsMusicXML(tune, bytes);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * a tune with its header text fields, some with escaped characters, and 8
+	 * bars of eighth notes
+	 */
+	private static String generate(int reference) {
+		Random random = new Random(reference);
+		String[] keys = { "C", "G", "D", "A", "F", "Em", "Ador" };
+		String[] rhythms = { "reel", "jig", "hornpipe", "polka" };
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:" + reference + "\nT:Tune " + reference + "\n");
+		if (reference % 3 == 0)
+			abc.append("T:Caf\\'e ").append(reference).append('\n');
+		abc.append("C:Composer ").append(reference % 97).append("\nO:Ireland\nR:")
+				.append(rhythms[reference % rhythms.length]).append("\n");
+		if (reference % 5 == 0)
+			abc.append("N:see also ").append(reference - 1).append('\n');
+		abc.append("S:generated\nZ:benchmark\nM:4/4\nL:1/8\nK:").append(keys[random.nextInt(keys.length)])
+				.append('\n');
+		for (int bar = 1; bar <= 8; bar++) {
+			for (int i = 0; i < 8; i++)
+				abc.append(pitches[random.nextInt(pitches.length)]);
+			abc.append(bar % 4 == 0 ? "|\n" : "|");
+		}
+		return abc.toString();
+	}
+}
@@ -0,0 +1,266 @@
+package de.hsa.jam.evaluation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Vector;
+
+import abc.notation.MusicElement;
+import abc.notation.Tune;
+import abc.notation.Voice;
+import abc.parser.TuneParser;
+import abc.ui.scoretemplates.ScoreAttribute;
+import abc.ui.swing.JScoreComponent;
+
+/**
+ * Measures the structural copy of a tune against the serialization based copy
+ * that Tune.clone() used before, on generated tunes of 100 to 10000 notes with
+ * ties, slurs, tuplets, chords, grace notes and key changes.<br />
+ * Before timing, each copy is checked: walking the fields serialization would
+ * write, the copy must have the same values and share objects the same way as
+ * the original, and must not share any music element with it. Then the copy, the transposition and the layout
+ * of the whole score (JTune.compute(), through JScoreComponent.refresh()) are timed,
+ * with and without transposition.<br />
+ * <br />
+ * Usage: <code>java -Djava.awt.headless=true de.hsa.jam.evaluation.TuneCloneBenchmark [iterations]</code>
+ */
+public class TuneCloneBenchmark {
+	private static final int[] SIZES = { 100, 1000, 10000 };
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(final String[] args) throws Exception {
+		OnEventDispatchThread.run(new OnEventDispatchThread.Benchmark() {
+			public void run() throws Exception {
+				benchmark(args);
+			}
+		});
+	}
+
+	private static void benchmark(String[] args) throws IOException, ClassNotFoundException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+		boolean ok = true;
+		for (int size : SIZES) {
+			Tune tune = new TuneParser().parse(generate(size));
+			System.out.println("========== " + size + " notes, " + countElements(tune) + " music elements ==========");
+
+			// correctness
+			Tune copy = (Tune) tune.clone();
+			boolean same = sameGraph(tune, copy, new IdentityHashMap<Object, Object>(), new IdentityHashMap<Object, Object>());
+			boolean shared = sharesElements(tune, copy);
+			Tune untransposed = Tune.transpose(tune, 0);
+			boolean transposeShares = untransposed == tune || sharesElements(tune, untransposed);
+			ok &= same && !shared && !transposeShares;
+			System.out.println(String.format("copy: %s, %s, transpose(0) %s", same ? "same content" : "CONTENT MISMATCH",
+					shared ? "SHARES ELEMENTS" : "no shared element", transposeShares ? "SHARES THE TUNE" : "copies the tune"));
+
+			// performance
+			int n = Math.max(1, iterations * 1000 / size);
+			long t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += deserialize(serialize(tune)).hashCode();
+			report("serialization copy", System.nanoTime() - t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += tune.clone().hashCode();
+			report("structural copy", System.nanoTime() - t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += Tune.transpose(tune, 2).hashCode();
+			report("transpose(2)", System.nanoTime() - t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				blackhole += Tune.transpose(tune, 0).hashCode();
+			report("transpose(0)", System.nanoTime() - t, n);
+
+			JScoreComponent score = new JScoreComponent();
+			int layouts = Math.max(1, n / 10);
+			// setTune() with the same tune keeps the layout, refresh() lays it out again
+			score.setTune(tune);
+			t = System.nanoTime();
+			for (int i = 0; i < layouts; i++)
+				score.refresh();
+			report("layout", System.nanoTime() - t, layouts);
+
+			score.getTemplate().setAttribute(ScoreAttribute.TRANSPOSITION, new Integer(2));
+			score.refresh();
+			t = System.nanoTime();
+			for (int i = 0; i < layouts; i++)
+				score.refresh();
+			report("layout transposed", System.nanoTime() - t, layouts);
+		}
+		System.out.println(ok ? "all copies match the original" : "MISMATCH, see above");
+	}
+
+	private static void report(String what, long nanos, int count) {
+		System.out.println(String.format("%-20s %10.3f ms/call (%d in %.1f ms)", what, nanos / 1000000.0 / count, count,
+				nanos / 1000000.0));
+	}
+
+	/**
+	 * a tune in D with the given number of notes, 8 eighth notes per bar, a
+	 * key change every 16 bars
+	 */
+	private static String generate(int notes) {
+		Random random = new Random(notes);
+		String[] pitches = { "D", "E", "F", "G", "A", "B", "c", "d", "e", "^f", "=c", "_B" };
+		StringBuilder abc = new StringBuilder("X:1\nT:Benchmark " + notes + "\nM:4/4\nL:1/8\nK:D\n");
+		int written = 0;
+		int bar = 0;
+		while (written < notes) {
+			if (bar > 0 && bar % 16 == 0)
+				abc.append(bar % 32 == 0 ? "[K:D] " : "[K:G] ");
+			int inBar = 0;
+			while (inBar < 8) {
+				String p = pitches[random.nextInt(pitches.length)];
+				switch (random.nextInt(8)) {
+				case 0: // tie
+					abc.append(p).append('-').append(p).append(' ');
+					inBar += 2;
+					written += 2;
+					break;
+				case 1: // slur
+					abc.append('(').append(p).append(pitches[random.nextInt(pitches.length)]).append(") ");
+					inBar += 2;
+					written += 2;
+					break;
+				case 2: // chord, triplet and grace notes count as one eighth or two
+					abc.append("\"G\"[DFA]").append(' ');
+					inBar++;
+					written += 3;
+					break;
+				case 3:
+					if (inBar <= 6) {
+						abc.append("(3").append(p).append(p).append(p).append(' ');
+						inBar += 2;
+						written += 3;
+					}
+					break;
+				case 4:
+					abc.append("{g}").append(p).append(' ');
+					inBar++;
+					written += 2;
+					break;
+				case 5:
+					abc.append('~').append(p).append(' ');
+					inBar++;
+					written++;
+					break;
+				default:
+					abc.append(p);
+					inBar++;
+					written++;
+				}
+			}
+			abc.append(++bar % 4 == 0 ? "|\n" : "| ");
+		}
+		return abc.append("|]\n").toString();
+	}
+
+	private static int countElements(Tune tune) {
+		int count = 0;
+		for (Iterator it = tune.getMusic().getVoices().iterator(); it.hasNext();)
+			count += ((Voice) it.next()).size();
+		return count;
+	}
+
+	/**
+	 * @return true if an element of a voice of the copy is an element of the
+	 *         original
+	 */
+	private static boolean sharesElements(Tune tune, Tune copy) {
+		Set<MusicElement> elements = Collections.newSetFromMap(new IdentityHashMap<MusicElement, Boolean>());
+		for (Iterator it = tune.getMusic().getVoices().iterator(); it.hasNext();)
+			for (Object element : (Voice) it.next())
+				elements.add((MusicElement) element);
+		for (Iterator it = copy.getMusic().getVoices().iterator(); it.hasNext();)
+			for (Object element : (Voice) it.next())
+				if (elements.contains(element))
+					return true;
+		return false;
+	}
+
+	/**
+	 * compares the objects as serialization sees them: non static, non
+	 * transient fields, collections by content. Objects reached twice in the
+	 * original must be reached twice in the copy, and only there.
+	 */
+	private static boolean sameGraph(Object original, Object copy, Map<Object, Object> copies, Map<Object, Object> originals) {
+		if (original == null || copy == null)
+			return original == copy;
+		if (original.getClass() != copy.getClass())
+			return false;
+		if (original instanceof String || original instanceof Number || original instanceof Character || original instanceof Boolean)
+			return original.equals(copy);
+		if (copies.containsKey(original) || originals.containsKey(copy))
+			return copies.get(original) == copy && originals.get(copy) == original;
+		copies.put(original, copy);
+		originals.put(copy, original);
+		try {
+			if (original.getClass().isArray()) {
+				int length = Array.getLength(original);
+				if (length != Array.getLength(copy))
+					return false;
+				for (int i = 0; i < length; i++)
+					if (!sameGraph(Array.get(original, i), Array.get(copy, i), copies, originals))
+						return false;
+				return true;
+			}
+			if (original instanceof Map)
+				return sameGraph(((Map) original).keySet().toArray(), ((Map) copy).keySet().toArray(), copies, originals)
+						&& sameGraph(((Map) original).values().toArray(), ((Map) copy).values().toArray(), copies, originals);
+			if (original instanceof Collection
+					&& !sameGraph(((Collection) original).toArray(), ((Collection) copy).toArray(), copies, originals))
+				return false;
+			// fields of the classes of the tune, a voice is also a vector
+			for (Class c = original.getClass(); c != null && c != Vector.class && !c.getName().startsWith("java."); c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()))
+						continue;
+					field.setAccessible(true);
+					Object value = field.get(original);
+					Object copied = field.get(copy);
+					if (field.getType().isPrimitive() ? !value.equals(copied) : !sameGraph(value, copied, copies, originals))
+						return false;
+				}
+			}
+			return true;
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] serialize(Tune tune) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(tune);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Tune deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return (Tune) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package de.hsa.jam.evaluation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import be.hogent.tarsos.sampled.AudioProcessor;
+import de.hsa.jam.audio.WaveFileWriter;
+
+/**
+ * Checks the streaming WaveFileWriter against AudioSystem.write(), which the writer used before: random
+ * audio is handed over as the AudioDispatcher does, in overlapping buffers, in 16 bit little and big
+ * endian, 8 bit signed and 24 bit stereo, and the written file must have the same bytes as the wave of
+ * AudioSystem. While recording, the session file must already be a readable wave holding the beginning of
+ * the audio, and a copy saved meanwhile must hold all the audio handed over so far.<br />
+ * Then compares, for a long recording in the format of the microphone, the time the dispatcher thread
+ * spends per buffer, the time to end the recording and the heap the recording holds, with the previous
+ * writer that kept the session in a ByteArrayOutputStream.<br />
+ * <br />
+ * Usage: <code>java de.hsa.jam.evaluation.WaveFileWriterBenchmark [minutes] [iterations]</code>
+ */
+public class WaveFileWriterBenchmark {
+	private static final int CHUNK = 1024;
+	private static final int OVERLAP = 512;
+
+	// keeps the JIT from removing the measured calls
+	static int blackhole;
+
+	public static void main(String[] args) throws Exception {
+		double minutes = args.length > 0 ? Double.parseDouble(args[0]) : 5;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		File dir = File.createTempFile("wave", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		File session = new File(dir, "session.wav");
+		File saved = new File(dir, "saved.wav");
+		File expected = new File(dir, "expected.wav");
+
+		// correctness: the file against AudioSystem.write()
+		AudioFormat[] formats = { new AudioFormat(44100, 16, 1, true, false), new AudioFormat(22050, 16, 2, true, true),
+				new AudioFormat(8000, 8, 1, true, false), new AudioFormat(48000, 24, 2, true, true) };
+		int mismatches = 0;
+		for (AudioFormat format : formats) {
+			byte[] audio = audio(format, 3.5, format.hashCode());
+			WaveFileWriter writer = new WaveFileWriter(format, CHUNK, OVERLAP, session.getPath());
+			int handed = dispatch(audio, format, writer, audio.length / 2);
+			// while recording: the beginning of the audio is already on disk
+			long deadline = System.currentTimeMillis() + 5000;
+			while (dataSize(session) == 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			byte[] reference = wave(audio, format, expected);
+			int readable = readable(session, format, reference);
+			if (readable <= 0)
+				mismatches++;
+			writer.saveToDisk(saved.getPath());
+			if (!Arrays.equals(wave(Arrays.copyOf(audio, handed), format, expected), bytes(saved)))
+				mismatches++;
+			dispatch(audio, format, writer, handed, audio.length);
+			writer.processingFinished();
+			writer.saveToDisk(saved.getPath());
+			if (!Arrays.equals(reference, bytes(session)) || !Arrays.equals(reference, bytes(saved)))
+				mismatches++;
+			System.out.println(String.format("%-45s %8d bytes, %7d readable while recording", format,
+					reference.length, readable));
+		}
+		// a writer without audio saves the last session
+		WaveFileWriter idle = new WaveFileWriter(formats[3], CHUNK, OVERLAP, session.getPath());
+		idle.processingFinished();
+		idle.saveToDisk(saved.getPath());
+		if (!Arrays.equals(bytes(session), bytes(saved)))
+			mismatches++;
+		System.out.println(String.format("%d formats compared, %d mismatches %s", formats.length, mismatches,
+				mismatches == 0 ? "" : "MISMATCH"));
+
+		// performance: a long recording from the microphone
+		AudioFormat format = formats[0];
+		byte[] second = audio(format, 1, 0);
+		int seconds = (int) Math.round(minutes * 60);
+		for (int n = 0; n <= iterations; n++) {
+			boolean report = n > 0; // the first run is the warmup
+			long heapBefore = usedHeap();
+			PreviousWriter previous = new PreviousWriter(format, session.getPath());
+			long dispatching = record(second, seconds, format, previous);
+			long heap = usedHeap() - heapBefore;
+			long t = System.nanoTime();
+			previous.processingFinished();
+			long finishing = System.nanoTime() - t;
+			previous = null;
+			if (report)
+				report("previous writer", dispatching, finishing, heap);
+
+			heapBefore = usedHeap();
+			WaveFileWriter writer = new WaveFileWriter(format, CHUNK, OVERLAP, session.getPath());
+			dispatching = record(second, seconds, format, writer);
+			heap = usedHeap() - heapBefore;
+			t = System.nanoTime();
+			writer.processingFinished();
+			writer.saveToDisk(session.getPath()); // waits for the I/O thread
+			finishing = System.nanoTime() - t;
+			if (report)
+				report("streaming writer", dispatching, finishing, heap);
+		}
+		System.out.println(String.format("%d s recorded, %d MB on disk", seconds, session.length() >> 20));
+		System.out.println(mismatches == 0 ? "the streamed wave matches AudioSystem.write()" : "MISMATCH, see above");
+		session.delete();
+		saved.delete();
+		expected.delete();
+	}
+
+	private static void report(String what, long dispatching, long finishing, long heap) {
+		System.out.println(String.format("%-20s %8.2f us per buffer, end of recording %8.1f ms, heap %6.1f MB",
+				what, dispatching / 1000.0, finishing / 1000000.0, heap / 1048576.0));
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * hands over the buffers of a recording of the given length, the second of audio being repeated, and
+	 * returns the time spent per buffer
+	 */
+	private static long record(byte[] second, int seconds, AudioFormat format, AudioProcessor processor) {
+		byte[] buffer = new byte[CHUNK * format.getFrameSize()];
+		int byteOverlap = OVERLAP * format.getFrameSize();
+		int step = buffer.length - byteOverlap;
+		float[] floats = new float[CHUNK];
+		int buffers = (int) (((long) second.length * seconds - buffer.length) / step) + 1;
+		System.arraycopy(second, 0, buffer, 0, buffer.length);
+		long t = System.nanoTime();
+		processor.processFull(floats, buffer);
+		long nanos = System.nanoTime() - t;
+		int from = buffer.length;
+		for (int i = 1; i < buffers; i++) {
+			System.arraycopy(buffer, step, buffer, 0, byteOverlap);
+			int n = Math.min(step, second.length - from);
+			System.arraycopy(second, from, buffer, byteOverlap, n);
+			System.arraycopy(second, 0, buffer, byteOverlap + n, step - n);
+			from = (from + step) % second.length;
+			t = System.nanoTime();
+			processor.processOverlapping(floats, buffer);
+			nanos += System.nanoTime() - t;
+			blackhole += buffer[0];
+		}
+		return nanos / buffers;
+	}
+
+	/** hands the whole buffers up to the limit over, as the dispatcher does, and returns the bytes handed */
+	private static int dispatch(byte[] audio, AudioFormat format, WaveFileWriter writer, int limit) {
+		return dispatch(audio, format, writer, 0, limit);
+	}
+
+	private static int dispatch(byte[] audio, AudioFormat format, WaveFileWriter writer, int from, int limit) {
+		byte[] buffer = new byte[CHUNK * format.getFrameSize()];
+		int byteOverlap = OVERLAP * format.getFrameSize();
+		int step = buffer.length - byteOverlap;
+		float[] floats = new float[CHUNK];
+		int position = from;
+		if (from == 0) {
+			System.arraycopy(audio, 0, buffer, 0, buffer.length);
+			writer.processFull(floats, buffer);
+			position = buffer.length;
+		}
+		for (; position + step <= limit; position += step) {
+			System.arraycopy(audio, position - byteOverlap, buffer, 0, byteOverlap);
+			System.arraycopy(audio, position, buffer, byteOverlap, step);
+			writer.processOverlapping(floats, buffer);
+		}
+		return position;
+	}
+
+	/** random audio, a whole number of dispatcher steps long */
+	private static byte[] audio(AudioFormat format, double seconds, int seed) {
+		int step = (CHUNK - OVERLAP) * format.getFrameSize();
+		int length = (int) (seconds * format.getFrameRate()) * format.getFrameSize();
+		byte[] audio = new byte[length / step * step + CHUNK * format.getFrameSize()];
+		new Random(seed).nextBytes(audio);
+		return audio;
+	}
+
+	/** the wave AudioSystem writes */
+	private static byte[] wave(byte[] audio, AudioFormat format, File file) throws IOException {
+		AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(audio), format, audio.length
+				/ format.getFrameSize());
+		AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
+		return bytes(file);
+	}
+
+	/**
+	 * reads the session file while it is written, the audio read must begin the recording, returns the
+	 * number of bytes read
+	 */
+	private static int readable(File session, AudioFormat format, byte[] expected) throws Exception {
+		AudioInputStream stream = AudioSystem.getAudioInputStream(new ByteArrayInputStream(bytes(session)));
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		AudioFormat wave = stream.getFormat();
+		byte[] buffer = new byte[4096];
+		for (int n; (n = stream.read(buffer)) != -1;)
+			read.write(buffer, 0, n);
+		byte[] data = read.toByteArray();
+		if (wave.getChannels() != format.getChannels() || wave.getSampleRate() != format.getSampleRate()
+				|| data.length == 0 || data.length + 44 > expected.length)
+			return -1;
+		for (int i = 0; i < data.length; i++)
+			if (data[i] != expected[44 + i])
+				return -1;
+		return data.length;
+	}
+
+	/** the data size in the header of a wave file */
+	private static long dataSize(File file) throws IOException {
+		if (file.length() < 44)
+			return 0;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			in.seek(40);
+			return Integer.reverseBytes(in.readInt()) & 0xFFFFFFFFL;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] bytes(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	/** the writer before, the session in memory and written at the end */
+	private static class PreviousWriter implements AudioProcessor {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private final AudioFormat format;
+		private final String filename;
+		private final int byteOverlap, byteStepSize;
+
+		PreviousWriter(AudioFormat format, String filename) {
+			this.format = format;
+			this.filename = filename;
+			this.byteOverlap = OVERLAP * format.getFrameSize();
+			this.byteStepSize = CHUNK * format.getFrameSize() - byteOverlap;
+		}
+
+		public void processFull(float[] audioFloatBuffer, byte[] audioByteBuffer) {
+			out.write(audioByteBuffer, 0, audioByteBuffer.length);
+		}
+
+		public void processOverlapping(float[] audioFloatBuffer, byte[] audioByteBuffer) {
+			out.write(audioByteBuffer, byteOverlap, byteStepSize);
+		}
+
+		public void processingFinished() {
+			byte[] audioBytes = out.toByteArray();
+			AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(audioBytes), format,
+					audioBytes.length / format.getFrameSize());
+			try {
+				AudioSystem.write(stream, AudioFileFormat.Type.WAVE, new File(filename));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
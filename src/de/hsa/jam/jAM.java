@@ -6,6 +6,7 @@ import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
 import de.hsa.jam.audio.Model;
+import de.hsa.jam.evaluation.ParameterSweep;
 import de.hsa.jam.ui.ChromaticTunerFrame;
 import de.hsa.jam.ui.MainWindow;
 import de.hsa.jam.ui.MetronomeFrame;
@@ -74,7 +75,8 @@ public class jAM {
 	public static boolean SYSOUT=false;
 
 	/**
-	 * @param args If none provided: start application, else if args[0]=="eval": start evaluation (needs mysql database)
+	 * @param args If none provided: start application, else if args[0]=="eval": start the parameter sweep on a corpus of
+	 *            reference melodies (see {@link ParameterSweep}), args[0]=="evaldb": start evaluation (needs mysql database)
 	 * */
 	public static void main(String[] args) {
 		START_TIME = System.currentTimeMillis();
@@ -103,7 +105,17 @@ public class jAM {
 		}
 
 		// else: evaluate (no ui needed)
-		else if (args.length == 1 && args[0].equals("eval")) {
+		else if (args[0].equals("eval")) {
+			String[] sweepArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, sweepArgs, 0, sweepArgs.length);
+			try {
+				ParameterSweep.main(sweepArgs);
+			} catch (Exception e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+		else if (args.length == 1 && args[0].equals("evaldb")) {
 			EVALUATING = true;
 			model = new Model();
 			ControllerEngine controller = new ControllerEngine();
@@ -39,11 +39,11 @@ import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 
 import abc.notation.MusicElement;
 import abc.notation.Tune;
-import abc.parser.TuneParser;
 import abc.ui.swing.TuneEditorPane;
 import be.hogent.tarsos.sampled.SampledAudioUtilities;
 import de.hsa.jam.ControllerEngine;
@@ -551,18 +551,28 @@ public class MainWindow extends AbstractView {
 				prgbar.setValue((int) newFloatValue);
 		} else if (evt.getPropertyName().equals(
 				ControllerEngine.UPDATE_SCORE_PROPERTY)) {
+			// der Tune selbst kommt schon geparst mit SHOW_TUNE_PROPERTY
 			String tuneAsString = (String) (evt.getNewValue());
-			Tune tune = new TuneParser().parse(tuneAsString);
-			scorePanel.setTune(tune);
 			if (!abc_area.getText().equals(tuneAsString))
 				abc_area.setText(tuneAsString);
+		} else if (evt.getPropertyName().equals(
+				ControllerEngine.APPEND_TO_SCORE_PROPERTY)) {
+			abc_area.appendText((String) (evt.getNewValue()));
 		}
 		// TODO transpose eig sollte aus dem tranpnierten Tune der String
 		// generiert werden und dann wieder
 		// UPDATE_SCORE_PROPERTY, also folgendes kann dann wieder weg !
 		else if (evt.getPropertyName().equals(ControllerEngine.SHOW_TUNE_PROPERTY)) {
-			Tune tune = (Tune) (evt.getNewValue());
-			scorePanel.setTune(tune);
+			final Tune tune = (Tune) (evt.getNewValue());
+			// the score is laid out and drawn on the EDT only
+			if (SwingUtilities.isEventDispatchThread())
+				scorePanel.setTune(tune);
+			else
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						scorePanel.setTune(tune);
+					}
+				});
 		}
 
 		else if (evt.getPropertyName().equals(ControllerEngine.TITLE_PROPERTY)) {
@@ -635,7 +645,7 @@ public class MainWindow extends AbstractView {
 
 class PreferenceWindow extends JFrame {
 	// sind fuer mainWin sichtbar:
-	JCheckBox playback, plotting, metroCheckbox, lowPass, bassClefCheckbox;
+	JCheckBox playback, plotting, metroCheckbox, lowPass, fft, bassClefCheckbox;
 	JComboBox sampleRateSelectBox, chunckSelectBox, overlapSelectBox,
 			pdaSelectBox, transposeCombobox, bpmSelectBox, instrument,
 			tonartSelectbox, taktartSelectbox;
@@ -790,6 +800,16 @@ class PreferenceWindow extends JFrame {
 		});
 		recOptions.add(lowPass);
 
+		// ----- checkbox fft
+		fft = new JCheckBox("fft");
+		fft.setToolTipText("calculate YIN/MPM via FFT (faster for big buffers)");
+		fft.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				controller.setFFTSelected(fft.isSelected());
+			}
+		});
+		recOptions.add(fft);
+
 		// -----sampleRate, buffersize und overlap
 		// String[] list = new String[]{"8000", "11025", "16000", "22050",
 		// "44100"};
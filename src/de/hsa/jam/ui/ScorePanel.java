@@ -1,5 +1,9 @@
 package de.hsa.jam.ui;
 
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.Vector;
@@ -24,9 +28,36 @@ import abc.ui.swing.ScoreTemplate;
 public class ScorePanel extends JScoreComponent {
 	private Logger LOG = Logger.getLogger(ScorePanel.class.getName());
 
+	/** where the rubber band selection started, null if none */
+	private Point rubberBandStart = null;
+	/** the rubber band while dragging, null if none */
+	private Rectangle rubberBand = null;
+
 	public ScorePanel() {
 		//bringt nichts... TODO drag n drop ?
-		this.addMouseListener( new MouseAdapter() {
+		MouseAdapter mouseAdapter = new MouseAdapter() {
+			public void mousePressed(MouseEvent e) {
+				rubberBandStart = e.getPoint();
+			}
+
+			public void mouseDragged(MouseEvent e) {
+				if (rubberBandStart == null)
+					return;
+				rubberBand = new Rectangle(rubberBandStart);
+				rubberBand.add(e.getPoint());
+				repaint();
+			}
+
+			public void mouseReleased(MouseEvent e) {
+				// select all elements inside the rubber band
+				if (rubberBand != null) {
+					setSelectedItems(getScoreElementsIn(rubberBand));
+					rubberBand = null;
+					repaint();
+				}
+				rubberBandStart = null;
+			}
+
 			public void mouseClicked(MouseEvent e) {
 
 				JScoreElement sel = ScorePanel.this.getScoreElementAt(e.getPoint());
@@ -62,7 +93,9 @@ public class ScorePanel extends JScoreComponent {
 //		    		}
 //				}
 			}
-		});
+		};
+		this.addMouseListener(mouseAdapter);
+		this.addMouseMotionListener(mouseAdapter);
 		
 		// mein frequenzbereich:
 		// E,,F,,G,,A,,|B,,C,D,E,|F,G,A,B,|CDEF|GABc|defg|abc'd'|e'f'g'a'|b'c''d''e''
@@ -120,6 +153,14 @@ public class ScorePanel extends JScoreComponent {
 		// parseAndSetTune(tuneAsString, true);
 	}
 
+	public void paint(Graphics g) {
+		super.paint(g);
+		if (rubberBand != null) {
+			g.setColor(Color.BLUE);
+			g.drawRect(rubberBand.x, rubberBand.y, rubberBand.width, rubberBand.height);
+		}
+	}
+
 	public void updateScore(Tune tune) {
 		setTune(tune);
 	}
@@ -25,6 +25,8 @@ package scanner;
 public class AutomataDefinition {
 	/** The starting state. */
 	private State m_startingState = null;
+	/** The compiled transition table, created when first needed. */
+	private TransitionTable m_transitionTable = null;
 
 	/** Constructs a new definition. */
 	public AutomataDefinition() {
@@ -50,6 +52,19 @@ public class AutomataDefinition {
 		return m_startingState;
 	}
 
+	/**
+	 * Returns the transition table of this definition. The table is compiled
+	 * from the states and transitions the first time it is requested, the
+	 * definition should not be changed afterwards.
+	 * 
+	 * @return The transition table of this definition.
+	 */
+	public synchronized TransitionTable getTransitionTable() {
+		if (m_transitionTable == null)
+			m_transitionTable = new TransitionTable(m_startingState);
+		return m_transitionTable;
+	}
+
 	/**
 	 * Realize an union between this definition and the given one.
 	 * 
@@ -70,8 +85,9 @@ public class AutomataDefinition {
 	 * @param definition
 	 *            The definition of an automata.
 	 */
-	public void copyFrom(AutomataDefinition definition) {
+	public synchronized void copyFrom(AutomataDefinition definition) {
 		m_startingState = definition.getStartingState();
+		m_transitionTable = null;
 	}
 
 	/**
@@ -27,6 +27,8 @@ public class FinaleStateAutomata {
 	private StringBuffer receivedCharacters = null;
 	/** The definition of this automata. */
 	private AutomataDefinition m_definition = null;
+	/** The transition table of the definition. */
+	private TransitionTable m_transitionTable = null;
 
 	/** Constructs a new automata. */
 	public FinaleStateAutomata() {
@@ -62,9 +64,22 @@ public class FinaleStateAutomata {
 	 */
 	public void setDefinition(AutomataDefinition definition) {
 		m_definition = definition;
+		m_transitionTable = null;
 		initialize();
 	}
 
+	/**
+	 * Returns the transition table of the definition of this automata.
+	 * 
+	 * @return The transition table of the definition of this automata.
+	 * @see AutomataDefinition#getTransitionTable()
+	 */
+	public TransitionTable getTransitionTable() {
+		if (m_transitionTable == null)
+			m_transitionTable = m_definition.getTransitionTable();
+		return m_transitionTable;
+	}
+
 	/**
 	 * Sends a character to this automata.
 	 * 
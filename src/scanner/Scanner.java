@@ -17,15 +17,25 @@ package scanner;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
 import java.util.Vector;
 
 /**
  * A scanner is able to separate tokens from an input stream, following states
  * defined in a finale state automata.
+ * <p>
+ * Characters given as a <TT>CharSequence</TT> (a <TT>String</TT>, a
+ * <TT>StringBuffer</TT>, a <TT>CharBuffer</TT>...) are scanned directly with
+ * the {@link TransitionTable} of the automata. Characters from a
+ * <TT>Reader</TT> are read one by one, walking the states of the automata, so
+ * that the reader is never read beyond the last token.
+ * </p>
  */
 public class Scanner {
 	protected Reader m_charStream = null;
+	/** The characters to be scanned if not scanning a stream. */
+	protected CharSequence m_chars = null;
+	/** The index of the next character of {@link #m_chars} to be scanned. */
+	protected int m_charIndex = 0;
 	protected FinaleStateAutomata FSA = null;
 	protected Vector m_listeners = null;
 	protected CharStreamPosition m_previousPosition = null;
@@ -33,6 +43,11 @@ public class Scanner {
 	protected StringBuffer m_currentLine = null;
 	// private boolean m_lastTokenWasContainingEndOfLine = false;
 	protected char[] m_currentChar = null;
+	/**
+	 * <TT>true</TT> once the current scan has been cancelled, possibly from
+	 * another thread.
+	 */
+	protected volatile boolean m_isCancelled = false;
 
 	/**
 	 * Creates a new scanner to scan the specified string.
@@ -41,7 +56,18 @@ public class Scanner {
 	 *            A string to be scanned.
 	 */
 	public Scanner(String charStreamValue) {
-		this(new StringReader(charStreamValue));
+		this((CharSequence) charStreamValue);
+	}
+
+	/**
+	 * Creates a new scanner to scan the specified characters.
+	 * 
+	 * @param chars
+	 *            The characters to be scanned.
+	 */
+	public Scanner(CharSequence chars) {
+		this();
+		init(chars);
 	}
 
 	/**
@@ -69,7 +95,36 @@ public class Scanner {
 	 *            A string to be scanned.
 	 */
 	public void init(String charStreamValue) {
-		init(new StringReader(charStreamValue));
+		init((CharSequence) charStreamValue);
+	}
+
+	/**
+	 * Inits this scanner to be able to perform a scan on the given characters.
+	 * 
+	 * @param chars
+	 *            The characters to be scanned.
+	 */
+	public void init(CharSequence chars) {
+		init((Reader) null);
+		m_chars = chars;
+		m_charIndex = 0;
+	}
+
+	/**
+	 * Inits this scanner to be able to perform a scan on characters that are a
+	 * part of a longer stream and begin a line of it: the positions of the
+	 * tokens found are given in the whole stream.
+	 * 
+	 * @param chars
+	 *            The characters to be scanned.
+	 * @param line
+	 *            The line of the stream the first character is on.
+	 * @param charactersOffset
+	 *            The offset of the first character in the stream.
+	 */
+	public void init(CharSequence chars, int line, int charactersOffset) {
+		init(chars);
+		m_position = new CharStreamPosition(0, line, charactersOffset - 1);
 	}
 
 	/**
@@ -80,7 +135,9 @@ public class Scanner {
 	 */
 	public void init(Reader readerStream) {
 		m_charStream = readerStream;
+		m_chars = null;
 		FSA = null;
+		m_isCancelled = false;
 		m_currentLine = new StringBuffer();
 		m_previousPosition = new CharStreamPosition();
 		// the position is before the first character
@@ -108,14 +165,39 @@ public class Scanner {
 		m_listeners.removeElement(listener);
 	}
 
+	/**
+	 * Cancels the current scan: from now on, and until this scanner is inited
+	 * again, no more token is returned as if the end of the characters had
+	 * been reached. This can be called from any thread.
+	 */
+	public void cancel() {
+		m_isCancelled = true;
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the current scan has been cancelled.
+	 * 
+	 * @return <TT>true</TT> if the current scan has been cancelled,
+	 *         <TT>false</TT> otherwise.
+	 * @see #cancel()
+	 */
+	public boolean isCancelled() {
+		return m_isCancelled;
+	}
+
 	/**
 	 * Returns the next token encountered.
 	 * 
 	 * @return The next token encountered.
 	 * @exception Thrown
-	 *                if there's no next valid token.
+	 *                if there's no next valid token or if the scan has been
+	 *                cancelled.
 	 */
 	public Token nextToken() throws NoSuchTokenException {
+		if (m_isCancelled)
+			throw new NoSuchTokenException();
+		if (m_chars != null)
+			return nextTokenFromChars();
 		String token = null;
 		boolean endOfStreamReached = false;
 		// char[] currentChar = new char[1];
@@ -198,6 +280,91 @@ public class Scanner {
 		return tok;
 	}
 
+	/**
+	 * Returns the next token found in {@link #m_chars}, using the transition
+	 * table of the current automata. Produces the same tokens and notifications
+	 * as scanning the same characters from a stream.
+	 * 
+	 * @return The next token encountered.
+	 * @exception Thrown
+	 *                if there's no next valid token.
+	 */
+	protected Token nextTokenFromChars() throws NoSuchTokenException {
+		TransitionTable table = FSA.getTransitionTable();
+		CharSequence chars = m_chars;
+		int length = chars.length();
+		int state = TransitionTable.STARTING_STATE;
+		// characters of the token are contiguous, from tokenStart to the
+		// current index
+		int tokenStart = m_charIndex;
+		String token = null;
+		boolean endOfStreamReached = false;
+		while (token == null && !endOfStreamReached) {
+			if (m_charIndex >= length)
+				endOfStreamReached = true;
+			else {
+				char currentChar = chars.charAt(m_charIndex);
+				m_previousPosition.setPosition(m_position);
+				m_position.setColumn(m_position.getColumn() + 1);
+				m_position.setCharactersOffset(m_position.getCharactersOffset() + 1);
+				int nextState = table.next(state, currentChar);
+				if (nextState != TransitionTable.NO_TRANSITION) {
+					state = nextState;
+					m_charIndex++;
+					m_currentLine.append(currentChar);
+					if (currentChar == '\n') {
+						notifyListenersForLineScanned(new String(m_currentLine));
+						m_currentLine = new StringBuffer();
+					}
+				} else {
+					if (table.isTokenState(state)) {
+						// ==================a valid token has been found.
+						// the last character will be scanned again.
+						m_position.setPosition(m_previousPosition);
+						token = chars.subSequence(tokenStart, m_charIndex)
+								.toString();
+					} else {
+						// =================an invalid character has been
+						// found.
+						m_charIndex++;
+						m_currentLine.append(currentChar);
+						notifyListenersForInvalidCharacter(currentChar,
+								(CharStreamPosition) m_position.clone());
+						state = TransitionTable.STARTING_STATE;
+						tokenStart = m_charIndex;
+						if (currentChar == '\n') {
+							notifyListenersForLineScanned(new String(
+									m_currentLine));
+							m_currentLine = new StringBuffer();
+							m_position.setColumn(0);
+							m_position.setLine(m_position.getLine() + 1);
+						}
+					}
+				}
+			}
+		}
+		if (endOfStreamReached) {
+			if (table.isTokenState(state))
+				token = chars.subSequence(tokenStart, m_charIndex).toString();
+			else {
+				FSA.initialize();
+				throw new NoSuchTokenException();
+			}
+		}
+		TokenType currentState = table.getType(state);
+		FSA.initialize();
+		Token tok = new Token(token, currentState, new CharStreamPosition(
+				m_position.getColumn() - (token.length() - 1),
+				m_position.getLine(), m_position.getCharactersOffset()
+						- (token.length() - 1)));
+		notifyListenersForToken(tok);
+		if (token.indexOf('\n') != -1) {
+			m_position.setColumn(0);
+			m_position.setLine(m_position.getLine() + 1);
+		}
+		return tok;
+	}
+
 	/**
 	 * Returns <TT>true</TT> if there's any character left.
 	 * 
@@ -205,6 +372,8 @@ public class Scanner {
 	 *         otherwise.
 	 */
 	public boolean hasNext() {
+		if (m_chars != null)
+			return m_charIndex < m_chars.length();
 		int hasNext = -1;
 		try {
 			m_charStream.mark(0);
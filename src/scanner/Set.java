@@ -15,12 +15,31 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package scanner;
 
+import java.util.BitSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-/** This class defines sets used to group token types while parsing. */
+/**
+ * This class defines sets used to group token types while parsing. Each token
+ * type gets an index, so that a set is also a bitset of those indexes : the
+ * bitset is used to check if a type is contained in a set, to compare sets and
+ * as key for caches of sets.
+ */
 public class Set implements Cloneable {
+	/** The index of each token type in the bitsets, shared by all sets. */
+	private static final ConcurrentHashMap s_indexes = new ConcurrentHashMap();
+	/** The next index to be given to a token type. */
+	private static final AtomicInteger s_nextIndex = new AtomicInteger();
+	/** Unions created by {@link #getUnion(Set)}, shared by all threads. */
+	private static final ConcurrentHashMap s_unions = new ConcurrentHashMap();
+
 	/** A vector containing token types as <TT>Integer</TT>. */
 	private Vector m_types = null;
+	/** The indexes of the token types contained in this set. */
+	private BitSet m_bits = null;
+	/** <TT>true</TT> if this set cannot be changed. */
+	private boolean m_readOnly = false;
 
 	/**
 	 * Creates a new set.
@@ -30,12 +49,15 @@ public class Set implements Cloneable {
 	 */
 	public Set(TokenType[] tokenTypes) {
 		this();
-		for (int i = 0; i < tokenTypes.length; i++)
+		for (int i = 0; i < tokenTypes.length; i++) {
 			m_types.addElement(tokenTypes[i]);
+			m_bits.set(indexOf(tokenTypes[i]));
+		}
 	}
 
 	private Set(int initialCapacity) {
 		m_types = new Vector(initialCapacity);
+		m_bits = new BitSet();
 	}
 
 	/**
@@ -43,6 +65,7 @@ public class Set implements Cloneable {
 	 */
 	public Set() {
 		m_types = new Vector();
+		m_bits = new BitSet();
 	}
 
 	/**
@@ -64,10 +87,63 @@ public class Set implements Cloneable {
 	public Set(TokenType tokenType) {
 		this();
 		m_types.addElement(tokenType);
+		m_bits.set(indexOf(tokenType));
 	}
 
 	private Set(Vector types) {
 		m_types = types;
+		m_bits = new BitSet();
+		for (int i = 0; i < types.size(); i++)
+			m_bits.set(indexOf((TokenType) types.elementAt(i)));
+	}
+
+	/**
+	 * Returns the index of the given token type in the bitsets of all sets.
+	 * Indexes are given to token types when they are first used.
+	 * 
+	 * @param tokenType
+	 *            A token type.
+	 * @return The index of the token type.
+	 */
+	private static int indexOf(TokenType tokenType) {
+		Integer index = (Integer) s_indexes.get(tokenType);
+		if (index == null) {
+			Integer newIndex = new Integer(s_nextIndex.getAndIncrement());
+			index = (Integer) s_indexes.putIfAbsent(tokenType, newIndex);
+			if (index == null)
+				index = newIndex;
+		}
+		return index.intValue();
+	}
+
+	/**
+	 * Returns the bitset of the given token types.
+	 * 
+	 * @param tokenTypes
+	 *            Token types.
+	 * @return A new bitset with the indexes of the given token types set.
+	 */
+	public static BitSet toBitSet(TokenType[] tokenTypes) {
+		BitSet bits = new BitSet();
+		for (int i = 0; i < tokenTypes.length; i++)
+			bits.set(indexOf(tokenTypes[i]));
+		return bits;
+	}
+
+	/**
+	 * Returns the bitset of the token types contained in this set.
+	 * 
+	 * @return A copy of the bitset of this set.
+	 */
+	public BitSet toBitSet() {
+		return (BitSet) m_bits.clone();
+	}
+
+	/** Throws an exception if this set cannot be changed. */
+	private void checkWritable() {
+		if (m_readOnly)
+			throw new UnsupportedOperationException("This set " + this
+					+ " is shared and cannot be changed");
 	}
 
 	/**
@@ -100,10 +176,13 @@ public class Set implements Cloneable {
 	 *            The token type added in the set.
 	 */
 	public void add(TokenType tokenType) {
-		if (m_types.contains(tokenType))
+		checkWritable();
+		int index = indexOf(tokenType);
+		if (m_bits.get(index))
 			throw new IllegalStateException("This token " + tokenType
 					+ " is already contained in " + this);
 		m_types.addElement(tokenType);
+		m_bits.set(index);
 	}
 
 	/**
@@ -115,7 +194,11 @@ public class Set implements Cloneable {
 	 *         <TT>false</TT> otherwise.
 	 */
 	public boolean remove(TokenType tokenType) {
-		return m_types.removeElement(tokenType);
+		checkWritable();
+		boolean removed = m_types.removeElement(tokenType);
+		if (removed)
+			m_bits.clear(indexOf(tokenType));
+		return removed;
 	}
 
 	/**
@@ -127,19 +210,15 @@ public class Set implements Cloneable {
 	 *         <TT>false</TT> otherwise.
 	 */
 	public boolean contains(TokenType tokenType) {
-		for (int i = 0; i < m_types.size(); i++) {
-			if (m_types.elementAt(i).equals(tokenType))
-				return true;
-		}
-		return false;
+		return m_bits.get(indexOf(tokenType));
 	}
 
 	public boolean contains(Set aSet) {
-		boolean contains = true;
-		for (int i = 0; i < aSet.m_types.size() && contains; i++)
-			if (!contains((TokenType) aSet.m_types.elementAt(i)))
-				contains = false;
-		return contains;
+		BitSet bits = aSet.m_bits;
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+			if (!m_bits.get(i))
+				return false;
+		return true;
 	}
 
 	/**
@@ -151,7 +230,7 @@ public class Set implements Cloneable {
 	public void remove(Set aSet) {
 		Vector tokensFromSet = aSet.m_types;
 		for (int i = 0; i < tokensFromSet.size(); i++) {
-			if (m_types.contains(tokensFromSet.elementAt(i)))
+			if (contains((TokenType) tokensFromSet.elementAt(i)))
 				remove((TokenType) tokensFromSet.elementAt(i));
 		}
 	}
@@ -178,18 +257,48 @@ public class Set implements Cloneable {
 		TokenType tk = null;
 		for (int i = 0; i < tokensFromSet.size(); i++) {
 			tk = (TokenType) tokensFromSet.elementAt(i);
-			if (!set2return.m_types.contains(tk))
+			if (!set2return.contains(tk))
 				set2return.add(tk);
 		}
 		tokensFromSet = m_types;
 		for (int i = 0; i < tokensFromSet.size(); i++) {
 			tk = (TokenType) tokensFromSet.elementAt(i);
-			if (!set2return.m_types.contains(tk))
+			if (!set2return.contains(tk))
 				set2return.add(tk);
 		}
 		return set2return;
 	}
 
+	/**
+	 * Returns a set containing tokens types from this set AND tokens types
+	 * from the given set, as {@link #createUnion(Set)}. The union is created
+	 * once for each pair of set contents and then shared (also between
+	 * threads), so the returned set cannot be changed : use
+	 * {@link #createUnion(Set)} or <TT>clone()</TT> to get a set that can be
+	 * changed.
+	 * 
+	 * @param aSet
+	 *            The set to be unioned with this one.
+	 * @return A read only set containing tokens types from this set AND tokens
+	 *         types from the given set.
+	 */
+	public Set getUnion(Set aSet) {
+		UnionKey key = new UnionKey(m_bits, aSet.m_bits);
+		Set union = (Set) s_unions.get(key);
+		if (union == null) {
+			union = createUnion(aSet);
+			union.m_readOnly = true;
+			// the key keeps its own copy of the bitsets of these sets that
+			// may change
+			key = new UnionKey((BitSet) m_bits.clone(), (BitSet) aSet.m_bits
+					.clone());
+			Set existing = (Set) s_unions.putIfAbsent(key, union);
+			if (existing != null)
+				union = existing;
+		}
+		return union;
+	}
+
 	/**
 	 * Creates a new set containing tokens types from this set AND the specified
 	 * token type.
@@ -218,7 +327,7 @@ public class Set implements Cloneable {
 	public Set union(Set aSet) {
 		Vector tokensFromSet = aSet.m_types;
 		for (int i = 0; i < tokensFromSet.size(); i++) {
-			if (!m_types.contains(tokensFromSet.elementAt(i)))
+			if (!contains((TokenType) tokensFromSet.elementAt(i)))
 				add((TokenType) tokensFromSet.elementAt(i));
 		}
 		return this;
@@ -249,11 +358,10 @@ public class Set implements Cloneable {
 	 */
 	public Set intersect(Set aSet) {
 		Set set2return = (Set) clone();
-		Vector tokensFromSet = aSet.m_types;
 		// Vector thisTokens = this.toVector();
 
 		for (int i = 0; i < m_types.size(); i++) {
-			if (!tokensFromSet.contains(m_types.elementAt(i)))
+			if (!aSet.contains((TokenType) m_types.elementAt(i)))
 				set2return.remove((TokenType) m_types.elementAt(i));
 		}
 		return set2return;
@@ -264,21 +372,16 @@ public class Set implements Cloneable {
 	}
 
 	public boolean equals(Object o) {
-		if (o instanceof Set) {
-			Set aSet = (Set) o;
-			int myTypesSize = this.m_types.size();
-			if (myTypesSize == aSet.m_types.size()) {
-				boolean areEqual = true;
-				for (int i = 0; i < myTypesSize && areEqual; i++)
-					if (!contains((TokenType) aSet.m_types.elementAt(i)))
-						areEqual = false;
-				return areEqual;
-			} else
-				return false;
-		} else
+		if (o instanceof Set)
+			return m_bits.equals(((Set) o).m_bits);
+		else
 			return super.equals(o);
 	}
 
+	public int hashCode() {
+		return m_bits.hashCode();
+	}
+
 	/**
 	 * Returns a string representation of this set.
 	 * 
@@ -294,4 +397,28 @@ public class Set implements Cloneable {
 		return m_types.toString();
 	}
 
+	/** The key of a union of two sets : the bitsets of both sets. */
+	private static class UnionKey {
+		private BitSet m_first = null;
+		private BitSet m_second = null;
+
+		UnionKey(BitSet first, BitSet second) {
+			m_first = first;
+			m_second = second;
+		}
+
+		public boolean equals(Object o) {
+			if (o instanceof UnionKey) {
+				UnionKey key = (UnionKey) o;
+				return m_first.equals(key.m_first)
+						&& m_second.equals(key.m_second);
+			} else
+				return false;
+		}
+
+		public int hashCode() {
+			return 31 * m_first.hashCode() + m_second.hashCode();
+		}
+	}
+
 }
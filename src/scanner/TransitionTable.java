@@ -0,0 +1,239 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package scanner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+/**
+ * A finale state automata compiled into a dense transition table. States are
+ * numbered from 0 (the starting state) and characters are grouped in classes
+ * of characters that behave the same in every state, so that the next state is
+ * found with two array lookups instead of walking the transitions of a
+ * <TT>State</TT>.
+ *
+ * @see AutomataDefinition#getTransitionTable()
+ */
+public class TransitionTable {
+	/** Returned by {@link #next(int, char)} if no transition can be activated. */
+	public static final int NO_TRANSITION = -1;
+	/** The index of the starting state. */
+	public static final int STARTING_STATE = 0;
+
+	/** Characters below this value are mapped to their class by a lookup. */
+	private static final int DIRECT_CHARS = 256;
+
+	/** The next state for each state and class : state * classes + class. */
+	private int[] m_next = null;
+	/** The number of character classes, class 0 never activates a transition. */
+	private int m_classesNb = 0;
+	/** The class of the characters below {@link #DIRECT_CHARS}. */
+	private int[] m_directClasses = null;
+	/** The other characters activating a transition, sorted. */
+	private char[] m_otherChars = null;
+	/** The class of each character of {@link #m_otherChars}. */
+	private int[] m_otherClasses = null;
+	/** <TT>true</TT> for token states. */
+	private boolean[] m_tokenStates = null;
+	/** The type of each state. */
+	private TokenType[] m_types = null;
+
+	/**
+	 * Compiles the automata starting from the given state. For each state and
+	 * character, the first transition of the state that accepts the character
+	 * is used, as in {@link State#getTransitionFor(char)}.
+	 *
+	 * @param startingState
+	 *            The starting state of the automata.
+	 */
+	public TransitionTable(State startingState) {
+		// ===== number all states reachable from the starting state
+		IdentityHashMap ids = new IdentityHashMap();
+		Vector states = new Vector();
+		ids.put(startingState, new Integer(0));
+		states.addElement(startingState);
+		for (int i = 0; i < states.size(); i++) {
+			Transition[] transitions = ((State) states.elementAt(i))
+					.getTransitions();
+			for (int j = 0; j < transitions.length; j++) {
+				State target = transitions[j].getTargetState();
+				if (!ids.containsKey(target)) {
+					ids.put(target, new Integer(states.size()));
+					states.addElement(target);
+				}
+			}
+		}
+		int statesNb = states.size();
+		m_tokenStates = new boolean[statesNb];
+		m_types = new TokenType[statesNb];
+
+		// ===== the target state of each character, one column per character
+		HashMap columns = new HashMap();
+		Vector chars = new Vector();
+		for (int i = 0; i < statesNb; i++) {
+			State state = (State) states.elementAt(i);
+			m_tokenStates[i] = state.isTokenState();
+			m_types[i] = state.getType();
+			Transition[] transitions = state.getTransitions();
+			for (int j = 0; j < transitions.length; j++) {
+				int target = ((Integer) ids.get(transitions[j].getTargetState()))
+						.intValue();
+				char[] transitionChars = transitions[j].getChars();
+				for (int k = 0; k < transitionChars.length; k++) {
+					Character c = new Character(transitionChars[k]);
+					int[] column = (int[]) columns.get(c);
+					if (column == null) {
+						column = new int[statesNb];
+						Arrays.fill(column, NO_TRANSITION);
+						columns.put(c, column);
+						chars.addElement(c);
+					}
+					// the first matching transition wins
+					if (column[i] == NO_TRANSITION)
+						column[i] = target;
+				}
+			}
+		}
+
+		// ===== characters with the same column share a class
+		HashMap classes = new HashMap();
+		Vector classColumns = new Vector();
+		// class 0 : no transition at all
+		int[] noTransition = new int[statesNb];
+		Arrays.fill(noTransition, NO_TRANSITION);
+		classColumns.addElement(noTransition);
+		int[] charClasses = new int[chars.size()];
+		for (int i = 0; i < chars.size(); i++) {
+			int[] column = (int[]) columns.get(chars.elementAt(i));
+			String key = Arrays.toString(column);
+			Integer charClass = (Integer) classes.get(key);
+			if (charClass == null) {
+				charClass = new Integer(classColumns.size());
+				classes.put(key, charClass);
+				classColumns.addElement(column);
+			}
+			charClasses[i] = charClass.intValue();
+		}
+		m_classesNb = classColumns.size();
+		m_next = new int[statesNb * m_classesNb];
+		for (int c = 0; c < m_classesNb; c++) {
+			int[] column = (int[]) classColumns.elementAt(c);
+			for (int s = 0; s < statesNb; s++)
+				m_next[s * m_classesNb + c] = column[s];
+		}
+
+		// ===== character to class lookup
+		m_directClasses = new int[DIRECT_CHARS];
+		int otherNb = 0;
+		for (int i = 0; i < chars.size(); i++) {
+			char c = ((Character) chars.elementAt(i)).charValue();
+			if (c < DIRECT_CHARS)
+				m_directClasses[c] = charClasses[i];
+			else
+				otherNb++;
+		}
+		m_otherChars = new char[otherNb];
+		int index = 0;
+		for (int i = 0; i < chars.size(); i++) {
+			char c = ((Character) chars.elementAt(i)).charValue();
+			if (c >= DIRECT_CHARS)
+				m_otherChars[index++] = c;
+		}
+		Arrays.sort(m_otherChars);
+		m_otherClasses = new int[otherNb];
+		for (int i = 0; i < chars.size(); i++) {
+			char c = ((Character) chars.elementAt(i)).charValue();
+			if (c >= DIRECT_CHARS)
+				m_otherClasses[Arrays.binarySearch(m_otherChars, c)] = charClasses[i];
+		}
+	}
+
+	/**
+	 * Returns the state reached from the given state with the specified
+	 * character.
+	 *
+	 * @param state
+	 *            The index of a state.
+	 * @param character
+	 *            A character.
+	 * @return The index of the state reached, {@link #NO_TRANSITION} if no
+	 *         transition can be activated with this character from this state.
+	 */
+	public int next(int state, char character) {
+		int charClass;
+		if (character < DIRECT_CHARS)
+			charClass = m_directClasses[character];
+		else {
+			int index = Arrays.binarySearch(m_otherChars, character);
+			charClass = index < 0 ? 0 : m_otherClasses[index];
+		}
+		return m_next[state * m_classesNb + charClass];
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the given state is a token state.
+	 *
+	 * @param state
+	 *            The index of a state.
+	 * @return <TT>true</TT> if the state is a token state, <TT>false</TT>
+	 *         otherwise.
+	 */
+	public boolean isTokenState(int state) {
+		return m_tokenStates[state];
+	}
+
+	/**
+	 * Returns the type of the given state.
+	 *
+	 * @param state
+	 *            The index of a state.
+	 * @return The type of the state.
+	 */
+	public TokenType getType(int state) {
+		return m_types[state];
+	}
+
+	/**
+	 * Returns the number of states of this table.
+	 *
+	 * @return The number of states of this table.
+	 */
+	public int countStates() {
+		return m_types.length;
+	}
+
+	/**
+	 * Returns the number of character classes of this table.
+	 *
+	 * @return The number of character classes, including the class of
+	 *         characters that never activate a transition.
+	 */
+	public int countCharacterClasses() {
+		return m_classesNb;
+	}
+
+	/**
+	 * Returns a string representation of this object.
+	 *
+	 * @return A string representation of this object.
+	 */
+	public String toString() {
+		return "TransitionTable : [" + countStates() + " states, "
+				+ countCharacterClasses() + " character classes]";
+	}
+}